@@ -0,0 +1,637 @@
+import java.awt.geom.Rectangle2D;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/** A dynamic bounding volume tree, which stores every Entity in one leaf,
+ * no matter how big it is.
+ * <p>
+ * Every node has an axis-aligned box that encloses everything below it. The box of
+ * a leaf is the bounds of its Entity fattened by {@code MARGIN} on every side, so
+ * an Entity only has to be taken out and put back in after it has moved out of its
+ * fat box. A new leaf is put next to the node that makes the boxes above it grow the
+ * least, going by the perimeters of the boxes, and the tree is kept balanced by
+ * rotating nodes whose children differ in height by more than one on the way back up.
+ * <p>
+ * Unlike a QuadTree, big Entities such as Walls or the Walpurgisnacht are not copied
+ * into many branches, and Entities outside of the bounds are stored like any other.
+ * The bounds are only kept for the Spacetime to know how big it is.
+ *
+ * @see SpatialIndex
+ * @see QuadTree
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class AABBTree implements SpatialIndex, Externalizable
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The distance by which the box of a leaf sticks out from the bounds of its
+	 * Entity on every side.
+	 */
+	public static final double MARGIN = 8;
+
+	/** A node of the tree, which is either a leaf holding one Entity, or a
+	 * branch with exactly two children.
+	 */
+	private static final class Node
+	{
+		double minX, minY, maxX, maxY;
+		Node parent;
+		Node left;
+		Node right;
+
+		/** 0 for a leaf, and one more than the higher child for a branch.
+		 */
+		int height;
+
+		/** The Entity of a leaf; null for a branch.
+		 */
+		Entity entity;
+
+		boolean isLeaf ()
+		{
+			return left == null;
+		}
+
+		/** Sets the box of this node to enclose the boxes of the specified nodes.
+		 *
+		 * @param a		the first node
+		 * @param b		the second node
+		 */
+		void enclose (Node a, Node b)
+		{
+			minX = Math.min(a.minX, b.minX);
+			minY = Math.min(a.minY, b.minY);
+			maxX = Math.max(a.maxX, b.maxX);
+			maxY = Math.max(a.maxY, b.maxY);
+		}
+
+		/** Returns the perimeter of the box of this node.
+		 *
+		 * @return the perimeter
+		 */
+		double perimeter ()
+		{
+			return 2 * (maxX - minX + maxY - minY);
+		}
+
+		/** Returns the perimeter of the box that would enclose the boxes of this
+		 * node and the specified node.
+		 *
+		 * @param other		the other node
+		 * @return the perimeter
+		 */
+		double perimeter (Node other)
+		{
+			return 2 * (Math.max(maxX, other.maxX) - Math.min(minX, other.minX)
+					+ Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+		}
+
+		/** Determines if the box of this node touches the specified Box, edges included.
+		 *
+		 * @param box		the Box
+		 * @return true if they touch; false otherwise
+		 */
+		boolean touches (Box box)
+		{
+			return minX <= box.maxX && maxX >= box.minX && minY <= box.maxY && maxY >= box.minY;
+		}
+	}
+
+	/** The area covered by the Spacetime layer that this tree indexes.
+	 */
+	private Box bounds;
+
+	/** The top node of the tree, or null if it is empty.
+	 */
+	private Node root;
+
+	/** The leaf of every Entity in the tree.
+	 */
+	private HashMap<Entity, Node> leaves = new HashMap<Entity, Node>();
+
+	/** The number of Entities in each category.
+	 */
+	private int[] totals = new int[Entity.CATEGORIES];
+
+	/** Creates an empty AABBTree with no bounds, to be read from a stream.
+	 */
+	public AABBTree()
+	{
+	}
+
+	/** Creates a new, empty AABBTree for a layer with the specified bounds.
+	 *
+	 * @param minX		the smallest x-coordinate of the layer
+	 * @param minY		the smallest y-coordinate of the layer
+	 * @param maxX 		the largest x-coordinate of the layer
+	 * @param maxY		the largest y-coordinate of the layer
+	 */
+	public AABBTree(double minX, double minY, double maxX, double maxY)
+	{
+		bounds = new Box(minX, minY, maxX, maxY);
+	}
+
+	/** Adds the specified Entity to this AABBTree in a new leaf.
+	 *
+	 * @param e		the Entity to be added
+	 */
+	public void add(Entity e)
+	{
+		Node leaf = new Node();
+		leaf.entity = e;
+		fatten(leaf, e);
+		leaves.put(e, leaf);
+		insert(leaf);
+
+		e.categories = e.getCategories();
+		tally(e.categories, 1);
+	}
+
+	/** Adds all of the specified Entities to this AABBTree, one at a time.
+	 *
+	 * @param entities		the Entities to be added
+	 */
+	public void addAll(Collection<? extends Entity> entities)
+	{
+		for (Entity e : entities)
+			if (e != null)
+				add(e);
+	}
+
+	/** Removes the specified Entity and its leaf from this AABBTree.
+	 *
+	 * @param e		the Entity to be removed
+	 * @return true if the Entity was in this AABBTree; false otherwise
+	 */
+	public boolean remove(Entity e)
+	{
+		Node leaf = leaves.remove(e);
+		if (leaf != null)
+		{
+			delete(leaf);
+			tally(e.categories, -1);
+		}
+		return leaf != null;
+	}
+
+	/** Puts the specified Entity back into the tree with a new fat box, if it
+	 * has moved out of the one it has.
+	 *
+	 * @param e		the Entity to revalidate
+	 */
+	public void revalidate(Entity e)
+	{
+		Node leaf = leaves.get(e);
+		if (leaf != null)
+		{
+			Rectangle2D entityBounds = e.getShape().getBounds2D();
+			if (entityBounds.getMinX() < leaf.minX || entityBounds.getMinY() < leaf.minY
+					|| entityBounds.getMaxX() > leaf.maxX || entityBounds.getMaxY() > leaf.maxY)
+			{
+				delete(leaf);
+				fatten(leaf, e);
+				insert(leaf);
+			}
+		}
+	}
+
+	/** Returns all of the Entities in this AABBTree, from left to right.
+	 *
+	 * @return a list of all of the Entities
+	 */
+	public ArrayList<Entity> get()
+	{
+		ArrayList<Entity> all = new ArrayList<Entity>(leaves.size());
+		if (root != null)
+			collect(root, null, all);
+		return all;
+	}
+
+	/** Returns the Entities whose fat boxes contain the specified point.
+	 *
+	 * @param x		the x-coordinate of the point
+	 * @param y		the y-coordinate of the point
+	 * @return a list of the Entities that may contain the point
+	 */
+	public ArrayList<Entity> get(double x, double y)
+	{
+		return get(new Box(x, y, x, y));
+	}
+
+	/** Returns the Entities whose fat boxes touch the bounds of the specified
+	 * Entity, including itself.
+	 *
+	 * @param e		the specified Entity
+	 * @return a list of the Entities that may intersect the Entity
+	 */
+	public ArrayList<Entity> get(Entity e)
+	{
+		return get(new Box(e.getShape().getBounds()));
+	}
+
+	/** Returns the Entities whose fat boxes touch the specified Rectangle.
+	 *
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities that may intersect the Rectangle
+	 */
+	public ArrayList<Entity> get(Rectangle2D bounds)
+	{
+		return get(new Box(bounds));
+	}
+
+	/** Returns the number of Entities in the specified category in this AABBTree.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 */
+	public int count(int category)
+	{
+		return totals[category];
+	}
+
+	/** Returns the number of Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return the number of Entities in the category in the Rectangle
+	 */
+	public int count(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		int total = 0;
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				total++;
+		return total;
+	}
+
+	/** Returns the Entities in the specified category whose bounds intersect the
+	 * specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities in the category in the Rectangle
+	 */
+	public ArrayList<Entity> get(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		ArrayList<Entity> found = new ArrayList<Entity>();
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				found.add(e);
+		return found;
+	}
+
+	/** Determines if there are any Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return true if there is an Entity in the category in the Rectangle; false otherwise
+	 */
+	public boolean hasAny(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				return true;
+		return false;
+	}
+
+	/** Counts the specified Entity again after its categories have changed.
+	 *
+	 * @param e		the Entity whose categories have changed
+	 */
+	public void recount(Entity e)
+	{
+		int categories = e.getCategories();
+		if (categories != e.categories && leaves.containsKey(e))
+		{
+			tally(e.categories, -1);
+			e.categories = categories;
+			tally(categories, 1);
+		}
+	}
+
+	/** Returns a Rectangle2D.Double representing the bounds of the layer
+	 * that this AABBTree indexes.
+	 *
+	 * @return the bounds of the layer
+	 */
+	public Rectangle2D getBounds()
+	{
+		return bounds.toRectangle();
+	}
+
+	/** Returns the number of Entities in this AABBTree.
+	 *
+	 * @return the number of Entities
+	 */
+	public int getSize()
+	{
+		return leaves.size();
+	}
+
+	/** Returns the height of this AABBTree, which is 0 if it holds one Entity.
+	 *
+	 * @return the height of the tree, or -1 if it is empty
+	 */
+	public int getHeight()
+	{
+		return root == null ? -1 : root.height;
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+	{
+		// Read and set the bounds
+
+		double minX = in.readDouble();
+		double minY = in.readDouble();
+		double maxX = in.readDouble();
+		double maxY = in.readDouble();
+
+		bounds = new Box(minX, minY, maxX, maxY);
+		root = null;
+		leaves = new HashMap<Entity, Node>();
+		totals = new int[Entity.CATEGORIES];
+
+		// Read in the Entities and build the tree again
+
+		int size = in.readInt();
+		Entity[] all = new Entity[size];
+
+		for (int i = 0; i < all.length; i++)
+			all[i] = (Entity)in.readObject();
+
+		addAll(Arrays.asList(all));
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException
+	{
+		// Write the bounds
+
+		out.writeDouble(bounds.minX);
+		out.writeDouble(bounds.minY);
+		out.writeDouble(bounds.maxX);
+		out.writeDouble(bounds.maxY);
+
+		// Write all of the Entities
+
+		ArrayList<Entity> all = get();
+		out.writeInt(all.size());
+
+		for (Entity e : all)
+			out.writeObject(e);
+	}
+
+	/** Returns the Entities whose fat boxes touch the specified Box.
+	 *
+	 * @param box		the area being queried
+	 * @return a list of the Entities that may intersect the Box
+	 */
+	private ArrayList<Entity> get(Box box)
+	{
+		ArrayList<Entity> list = new ArrayList<Entity>();
+		if (root != null)
+			collect(root, box, list);
+		return list;
+	}
+
+	/** Adds the Entities below the specified node whose fat boxes touch the
+	 * specified Box to the specified list.
+	 *
+	 * @param node		the node
+	 * @param box		the area being queried, or null for everything
+	 * @param list		the list to which the Entities are added
+	 */
+	private void collect(Node node, Box box, List<Entity> list)
+	{
+		if (box == null || node.touches(box))
+		{
+			if (node.isLeaf())
+				list.add(node.entity);
+			else
+			{
+				collect(node.left, box, list);
+				collect(node.right, box, list);
+			}
+		}
+	}
+
+	/** Sets the box of the specified leaf to the bounds of the specified Entity,
+	 * fattened by MARGIN on every side.
+	 *
+	 * @param leaf		the leaf
+	 * @param e			the Entity of the leaf
+	 */
+	private static void fatten(Node leaf, Entity e)
+	{
+		Rectangle2D entityBounds = e.getShape().getBounds2D();
+		leaf.minX = entityBounds.getMinX() - MARGIN;
+		leaf.minY = entityBounds.getMinY() - MARGIN;
+		leaf.maxX = entityBounds.getMaxX() + MARGIN;
+		leaf.maxY = entityBounds.getMaxY() + MARGIN;
+	}
+
+	/** Inserts the specified leaf into the tree. Starting from the top, it goes
+	 * down into whichever child would cost the least to put it in, and stops where
+	 * making a new branch for it is cheaper than going further. The cost of a place
+	 * is the perimeter of the new branch, plus how much the boxes above it grow.
+	 *
+	 * @param leaf		the leaf, which is not in the tree
+	 */
+	private void insert(Node leaf)
+	{
+		if (root == null)
+		{
+			root = leaf;
+			leaf.parent = null;
+			return;
+		}
+
+		// Find the best sibling for the leaf
+
+		Node sibling = root;
+		while (!sibling.isLeaf())
+		{
+			double combined = sibling.perimeter(leaf);
+			double cost = 2 * combined; // a new branch here, above the sibling
+			double inherited = 2 * (combined - sibling.perimeter()); // the growth of this branch
+
+			double leftCost = getCost(sibling.left, leaf) + inherited;
+			double rightCost = getCost(sibling.right, leaf) + inherited;
+
+			if (cost < leftCost && cost < rightCost)
+				break;
+			sibling = leftCost < rightCost ? sibling.left : sibling.right;
+		}
+
+		// Make a new branch holding the sibling and the leaf
+
+		Node oldParent = sibling.parent;
+		Node branch = new Node();
+		branch.parent = oldParent;
+		branch.enclose(sibling, leaf);
+		branch.height = sibling.height + 1;
+		branch.left = sibling;
+		branch.right = leaf;
+		sibling.parent = branch;
+		leaf.parent = branch;
+
+		if (oldParent == null)
+			root = branch;
+		else if (oldParent.left == sibling)
+			oldParent.left = branch;
+		else
+			oldParent.right = branch;
+
+		refit(branch.parent);
+	}
+
+	/** Returns the cost of going down into the specified child with the specified leaf,
+	 * not counting how much the boxes above it grow.
+	 *
+	 * @param child		the child
+	 * @param leaf		the leaf being inserted
+	 * @return the cost
+	 */
+	private static double getCost(Node child, Node leaf)
+	{
+		if (child.isLeaf())
+			return child.perimeter(leaf);
+		return child.perimeter(leaf) - child.perimeter();
+	}
+
+	/** Takes the specified leaf out of the tree. Its sibling takes the place
+	 * of their parent.
+	 *
+	 * @param leaf		the leaf, which is in the tree
+	 */
+	private void delete(Node leaf)
+	{
+		if (leaf == root)
+		{
+			root = null;
+			return;
+		}
+
+		Node parent = leaf.parent;
+		Node grandparent = parent.parent;
+		Node sibling = parent.left == leaf ? parent.right : parent.left;
+
+		sibling.parent = grandparent;
+		if (grandparent == null)
+			root = sibling;
+		else
+		{
+			if (grandparent.left == parent)
+				grandparent.left = sibling;
+			else
+				grandparent.right = sibling;
+			refit(grandparent);
+		}
+		leaf.parent = null;
+	}
+
+	/** Walks up the tree from the specified node, balancing each node and
+	 * fitting its box and height to its children again.
+	 *
+	 * @param node		the lowest node that has changed, or null
+	 */
+	private void refit(Node node)
+	{
+		while (node != null)
+		{
+			node = balance(node);
+			node.height = 1 + Math.max(node.left.height, node.right.height);
+			node.enclose(node.left, node.right);
+			node = node.parent;
+		}
+	}
+
+	/** Rotates the higher child of the specified node up into its place, if
+	 * its children differ in height by more than one.
+	 *
+	 * @param a		the node, which is a branch
+	 * @return the node now in the place of the specified node
+	 */
+	private Node balance(Node a)
+	{
+		int difference = a.right.height - a.left.height;
+		if (difference > 1)
+			return rotate(a, a.right, a.left, false);
+		if (difference < -1)
+			return rotate(a, a.left, a.right, true);
+		return a;
+	}
+
+	/** Rotates the specified child of the specified node up into the node's place.
+	 * The node takes the place of the lower grandchild under the child, and takes
+	 * that grandchild in the place of the child.
+	 *
+	 * @param a				the node
+	 * @param up			the higher child of the node, which is a branch
+	 * @param stay			the other child of the node
+	 * @param upIsLeft		true if the child going up is the left child of the node
+	 * @return the child, which is now in the place of the node
+	 */
+	private Node rotate(Node a, Node up, Node stay, boolean upIsLeft)
+	{
+		Node f = up.left;
+		Node g = up.right;
+
+		// The child takes the place of the node
+
+		up.parent = a.parent;
+		if (up.parent == null)
+			root = up;
+		else if (up.parent.left == a)
+			up.parent.left = up;
+		else
+			up.parent.right = up;
+		a.parent = up;
+		up.left = a;
+
+		// The higher grandchild stays under the child, and the lower one moves to the node
+
+		Node high = f.height > g.height ? f : g;
+		Node low = high == f ? g : f;
+		up.right = high;
+		if (upIsLeft)
+			a.left = low;
+		else
+			a.right = low;
+		low.parent = a;
+
+		a.enclose(stay, low);
+		a.height = 1 + Math.max(stay.height, low.height);
+		up.enclose(a, high);
+		up.height = 1 + Math.max(a.height, high.height);
+		return up;
+	}
+
+	/** Adds the specified amount to the totals of every category in the specified
+	 * bit mask.
+	 *
+	 * @param categories	the categories, as a bit mask
+	 * @param amount		the amount to add
+	 */
+	private void tally(int categories, int amount)
+	{
+		for (int rest = categories; rest != 0; rest &= rest - 1)
+			totals[Integer.numberOfTrailingZeros(rest)] += amount;
+	}
+}
@@ -25,7 +25,13 @@ public class Ant extends Entity
 	@Override
 	public void draw(Graphics2D g) 
 	{		
-		g.setColor(Color.red);	
+		g.setColor(getColor());	
 		super.draw(g);	
+	}
+
+	@Override
+	public Color getColor ()
+	{
+		return Color.red;
 	}	
 }
@@ -0,0 +1,204 @@
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Collection;
+import java.util.HashMap;
+
+/** A low resolution raster of how crowded the ENTITIES layer of a Spacetime
+ * is, for drawing a map of the whole of it.
+ * <p>
+ * The layer is divided into square cells, and every cell keeps a count of the
+ * Entities whose locations are in it. The counts are kept up to date as the
+ * Entities are added, moved and removed, and the cell of every Entity is
+ * remembered, so an Entity that moves within its cell costs nothing more than
+ * a look-up, and the layer never has to be searched again.
+ *
+ * @see Spacetime#getDensityMap()
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class DensityMap
+{
+	/** The default number of cells along the longer side of the layer.
+	 */
+	public static final int DEFAULT_RESOLUTION = 200;
+
+	/** The bounds of the area covered by this DensityMap.
+	 */
+	private final Rectangle2D bounds;
+
+	/** The width and height of each cell.
+	 */
+	private final double cellSize;
+
+	/** The number of columns and rows of cells.
+	 */
+	private final int columns;
+	private final int rows;
+
+	/** The number of Entities in each cell, row by row.
+	 */
+	private final int[] counts;
+
+	/** The cell that each Entity is counted in.
+	 */
+	private final HashMap<Entity, Integer> cells = new HashMap<Entity, Integer>();
+
+	/** The image that the counts are drawn into, one pixel per cell.
+	 */
+	private BufferedImage image;
+
+	/** Creates a DensityMap of the specified area, with the specified number of
+	 * cells along its longer side, that counts the specified Entities.
+	 *
+	 * @param bounds		the bounds of the area
+	 * @param resolution	the number of cells along the longer side of the area
+	 * @param entities		the Entities that are already in the area
+	 */
+	public DensityMap (Rectangle2D bounds, int resolution, Collection<? extends Entity> entities)
+	{
+		this.bounds = (Rectangle2D) bounds.clone();
+		cellSize = Math.max(bounds.getWidth(), bounds.getHeight()) / Math.max(resolution, 1);
+		columns = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+		rows = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
+		counts = new int[columns * rows];
+
+		for (Entity e : entities)
+			add(e);
+	}
+
+	/** Starts counting the specified Entity.
+	 *
+	 * @param e		the Entity
+	 */
+	public void add (Entity e)
+	{
+		int cell = getCell(e);
+		Integer old = cells.put(e, cell);
+		if (old != null)
+			counts[old]--;
+		counts[cell]++;
+	}
+
+	/** Stops counting the specified Entity.
+	 *
+	 * @param e		the Entity
+	 */
+	public void remove (Entity e)
+	{
+		Integer old = cells.remove(e);
+		if (old != null)
+			counts[old]--;
+	}
+
+	/** Moves the specified Entity to the cell of its current location, if it has
+	 * left the one that it was counted in.
+	 *
+	 * @param e		the Entity that has moved
+	 */
+	public void moved (Entity e)
+	{
+		Integer old = cells.get(e);
+		if (old == null)
+			return;
+
+		int cell = getCell(e);
+		if (cell != old)
+		{
+			cells.put(e, cell);
+			counts[old]--;
+			counts[cell]++;
+		}
+	}
+
+	/** Returns the number of Entities in the specified cell.
+	 *
+	 * @param column	the column of the cell
+	 * @param row		the row of the cell
+	 * @return the number of Entities in the cell
+	 */
+	public int getCount (int column, int row)
+	{
+		return counts[row * columns + column];
+	}
+
+	/** Returns the number of columns of cells.
+	 *
+	 * @return the number of columns
+	 */
+	public int getColumns ()
+	{
+		return columns;
+	}
+
+	/** Returns the number of rows of cells.
+	 *
+	 * @return the number of rows
+	 */
+	public int getRows ()
+	{
+		return rows;
+	}
+
+	/** Returns the width and height of each cell.
+	 *
+	 * @return the size of a cell
+	 */
+	public double getCellSize ()
+	{
+		return cellSize;
+	}
+
+	/** Returns the bounds of the area covered by this DensityMap.
+	 *
+	 * @return the bounds of the area
+	 */
+	public Rectangle2D getBounds ()
+	{
+		return (Rectangle2D) bounds.clone();
+	}
+
+	/** Draws the counts into an image with one pixel per cell, which is brighter
+	 * the more Entities there are in the cell. The brightness goes with the
+	 * logarithm of the count, so that sparse areas still show up next to crowds.
+	 * The image is reused by the next call.
+	 *
+	 * @return the image of the counts
+	 */
+	public BufferedImage getImage ()
+	{
+		if (image == null)
+			image = new BufferedImage (columns, rows, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		int max = 1;
+		for (int count : counts)
+			max = Math.max(max, count);
+		double scale = 191 / Math.log(1 + max);
+
+		for (int i = 0; i < counts.length; i++)
+		{
+			int count = counts[i];
+			int level = count <= 0 ? 0 : 64 + (int) (scale * Math.log(1 + count));
+			pixels[i] = level << 16 | level << 8 | level;
+		}
+		return image;
+	}
+
+	/** Returns the cell that the location of the specified Entity is in.
+	 * Locations outside of the area are counted in the nearest cell.
+	 *
+	 * @param e		the Entity
+	 * @return the index of the cell
+	 */
+	private int getCell (Entity e)
+	{
+		int column = (int) Math.floor((e.x - bounds.getMinX()) / cellSize);
+		int row = (int) Math.floor((e.y - bounds.getMinY()) / cellSize);
+		column = Math.max(0, Math.min(column, columns - 1));
+		row = Math.max(0, Math.min(row, rows - 1));
+		return row * columns + column;
+	}
+}
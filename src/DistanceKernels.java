@@ -0,0 +1,229 @@
+import java.util.Arrays;
+import java.util.List;
+
+/** Brute-force distance queries over the coordinates of a small set of Entities,
+ * for when searching an index would cost more than checking every one of them.
+ * <p>
+ * The coordinates are copied out of the Entities into primitive arrays first, so
+ * that the kernels run over plain doubles instead of following a reference to every
+ * Entity. The kernels compare squared distances, and compute all of them in a loop
+ * with no branches before looking for the answer, which is the kind of loop that
+ * the JIT compiler turns into SIMD instructions.
+ * <p>
+ * Every thread has its own buffer, so that Entities advancing in different tiles
+ * can use the kernels at the same time.
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public final class DistanceKernels
+{
+	/** The coordinates of a set of Entities, as parallel arrays.
+	 */
+	public static final class Coordinates
+	{
+		/** The x-coordinates of the Entities.
+		 */
+		public double[] xs = new double[16];
+
+		/** The y-coordinates of the Entities.
+		 */
+		public double[] ys = new double[16];
+
+		/** Whether each Entity may be picked by {@code nearest(Coordinates, double, double, boolean)}.
+		 * Every Entity may be picked after loading.
+		 */
+		public boolean[] eligible = new boolean[16];
+
+		/** The indices of the Entities found by the last
+		 * {@code withinRadius(Coordinates, double, double, double)}, in order.
+		 */
+		public int[] found = new int[16];
+
+		/** The squared distances computed by the last query.
+		 */
+		private double[] distances = new double[16];
+
+		private int size = 0;
+
+		/** Copies the locations of the specified Entities into this buffer.
+		 *
+		 * @param entities		the Entities
+		 * @return this buffer
+		 */
+		public Coordinates load (List<? extends Entity> entities)
+		{
+			resize(entities.size());
+			for (int i = 0; i < size; i++)
+			{
+				Entity e = entities.get(i);
+				xs[i] = e.x;
+				ys[i] = e.y;
+			}
+			return this;
+		}
+
+		/** Copies the centres of the specified Entities into this buffer.
+		 *
+		 * @param entities		the Entities
+		 * @return this buffer
+		 * @see Entity#getCenter()
+		 */
+		public Coordinates loadCentres (List<? extends Entity> entities)
+		{
+			resize(entities.size());
+			for (int i = 0; i < size; i++)
+			{
+				Entity e = entities.get(i);
+				xs[i] = e.x + e.anchorX;
+				ys[i] = e.y + e.anchorY;
+			}
+			return this;
+		}
+
+		/** Returns the number of Entities in this buffer.
+		 *
+		 * @return the number of Entities
+		 */
+		public int size ()
+		{
+			return size;
+		}
+
+		/** Makes room for the specified number of Entities, all of which are eligible.
+		 *
+		 * @param n		the number of Entities
+		 */
+		private void resize (int n)
+		{
+			if (n > xs.length)
+			{
+				int capacity = Math.max(n, 2 * xs.length);
+				xs = new double[capacity];
+				ys = new double[capacity];
+				eligible = new boolean[capacity];
+				found = new int[capacity];
+				distances = new double[capacity];
+			}
+			size = n;
+			Arrays.fill(eligible, 0, n, true);
+		}
+
+		/** Computes the squared distance from the specified point to every Entity.
+		 *
+		 * @param x		the x-coordinate of the point
+		 * @param y		the y-coordinate of the point
+		 * @return the squared distances
+		 */
+		private double[] measure (double x, double y)
+		{
+			double[] xs = this.xs, ys = this.ys, distances = this.distances;
+			for (int i = 0; i < size; i++)
+			{
+				double dx = xs[i] - x;
+				double dy = ys[i] - y;
+				distances[i] = dx * dx + dy * dy;
+			}
+			return distances;
+		}
+	}
+
+	/** The buffer of every thread.
+	 */
+	private static final ThreadLocal<Coordinates> BUFFERS = new ThreadLocal<Coordinates>()
+	{
+		@Override
+		protected Coordinates initialValue ()
+		{
+			return new Coordinates();
+		}
+	};
+
+	private DistanceKernels ()
+	{
+	}
+
+	/** Returns the buffer of the current thread. Its contents are only valid
+	 * until the thread loads it again.
+	 *
+	 * @return the buffer of the current thread
+	 */
+	public static Coordinates buffer ()
+	{
+		return BUFFERS.get();
+	}
+
+	/** Returns the index of the Entity closest to the specified point.
+	 * Ties go to the Entity that comes first.
+	 *
+	 * @param c		the coordinates of the Entities
+	 * @param x		the x-coordinate of the point
+	 * @param y		the y-coordinate of the point
+	 * @return the index of the closest Entity, or -1 if there are none
+	 */
+	public static int nearest (Coordinates c, double x, double y)
+	{
+		double[] distances = c.measure(x, y);
+		int closest = -1;
+		double shortest = Double.POSITIVE_INFINITY;
+
+		for (int i = 0; i < c.size; i++)
+			if (distances[i] < shortest || closest < 0)
+			{
+				closest = i;
+				shortest = distances[i];
+			}
+		return closest;
+	}
+
+	/** Returns the index of the eligible Entity closest to the specified point.
+	 * Ties go to the Entity that comes first.
+	 *
+	 * @param c				the coordinates of the Entities
+	 * @param x				the x-coordinate of the point
+	 * @param y				the y-coordinate of the point
+	 * @param firstByDefault	true if the first Entity is picked when no eligible
+	 * 						Entity is closer, whether it is eligible or not
+	 * @return the index of the closest eligible Entity, or -1 if there are none
+	 */
+	public static int nearest (Coordinates c, double x, double y, boolean firstByDefault)
+	{
+		double[] distances = c.measure(x, y);
+		boolean[] eligible = c.eligible;
+		int closest = -1;
+		double shortest = Double.POSITIVE_INFINITY;
+
+		for (int i = 0; i < c.size; i++)
+			if ((eligible[i] || firstByDefault && i == 0) && (distances[i] < shortest || closest < 0))
+			{
+				closest = i;
+				shortest = distances[i];
+			}
+		return closest;
+	}
+
+	/** Finds the Entities within the specified radius of the specified point.
+	 * Their indices are put at the start of {@code c.found}, in order.
+	 *
+	 * @param c			the coordinates of the Entities
+	 * @param x			the x-coordinate of the point
+	 * @param y			the y-coordinate of the point
+	 * @param radius	the radius
+	 * @return the number of Entities found
+	 */
+	public static int withinRadius (Coordinates c, double x, double y, double radius)
+	{
+		double[] distances = c.measure(x, y);
+		int[] found = c.found;
+		double radiusSquared = radius * radius;
+		int count = 0;
+
+		for (int i = 0; i < c.size; i++)
+		{
+			found[count] = i;
+			count += distances[i] <= radiusSquared ? 1 : 0;
+		}
+		return count;
+	}
+}
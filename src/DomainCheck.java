@@ -0,0 +1,109 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/** A program that checks that a world split between DomainWorkers ends up with
+ * the same population as the same world advanced in a single process.
+ * <p>
+ * A world is generated and saved, and advanced in this process with
+ * {@code CHECKERBOARD_TICK}. A copy of the saved world is then split between 2
+ * workers, and another between 3, and advanced for as many ticks. The number of
+ * living Entities, Humans, male and female Humans, Puellas and Witches of every
+ * split world must be the same as those of the single one, and so must every
+ * Entity, with its id, location and categories.
+ * <p>
+ * Prints every step, and exits with a status of 1 if any check fails.
+ *
+ * @see DomainCoordinator
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class DomainCheck
+{
+	/** Whether every check so far has passed.
+	 */
+	private static boolean passed = true;
+
+	/** Prints the outcome of a check.
+	 *
+	 * @param description		what was checked
+	 * @param ok				true if the check passed
+	 */
+	private static void check (String description, boolean ok)
+	{
+		System.out.println((ok ? "ok:     " : "FAILED: ") + description);
+		passed &= ok;
+	}
+
+	/** Restores a world from its saved form.
+	 *
+	 * @param saved		the saved world
+	 * @return a new copy of the world
+	 * @throws Exception if the world cannot be restored
+	 */
+	private static Spacetime restore (byte[] saved) throws Exception
+	{
+		return (Spacetime) new ObjectInputStream(new ByteArrayInputStream(saved)).readObject();
+	}
+
+	/** Runs the checks. The optional arguments are the number of Humans, the number
+	 * of ticks and the seed, which are 2000, 100 and 42 by default.
+	 *
+	 * @param args		the number of Humans, the number of ticks and the seed
+	 * @throws Exception if a world cannot be saved, or the workers cannot be run
+	 */
+	public static void main (String[] args) throws Exception
+	{
+		int humans = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		WorldGenerator wg = new WorldGenerator (seed);
+		wg.setHumanPopulation(humans);
+		Spacetime world = wg.generate();
+		world.setTickStrategy(Spacetime.CHECKERBOARD_TICK);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream save = new ObjectOutputStream(bytes);
+		save.writeObject(world);
+		save.close();
+		byte[] saved = bytes.toByteArray();
+
+		// The whole world in this process
+
+		Spacetime single = restore(saved);
+		for (int i = 0; i < ticks; i++)
+			single.advance();
+		Statistics data = new Statistics (single);
+		data.update();
+		int[] expected = {data.livingNum, data.humanNum, data.maleNum, data.femNum, data.puellaNum, data.witchNum};
+		long checksum = 0;
+		for (Entity e : single.getLayer(Spacetime.ENTITIES))
+			checksum += DomainCoordinator.getFingerprint(e);
+		System.out.println("single process: " + Arrays.toString(expected) + " (living, humans, male, female, puellas, witches)");
+
+		// The same world split between workers
+
+		for (int workers = 2; workers <= 3; workers++)
+		{
+			DomainCoordinator coordinator = new DomainCoordinator (restore(saved), workers);
+			coordinator.start();
+			for (int i = 0; i < ticks; i++)
+				coordinator.advance();
+			int[] totals = coordinator.getTotals();
+			long sum = coordinator.getChecksum();
+			coordinator.shutdown();
+			check (workers + " workers end up with " + Arrays.toString(totals) + " after " + ticks + " ticks",
+					Arrays.equals(expected, totals));
+			check (workers + " workers end up with every Entity in the same place", sum == checksum);
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,596 @@
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** A class that splits a Spacetime into vertical strips, and simulates each strip
+ * in a separate DomainWorker process, so that a world can be bigger than what one
+ * JVM can hold.
+ * <p>
+ * The strips are made of whole columns of the tiles of a checkerboard tick, and
+ * the world is advanced with {@code CHECKERBOARD_TICK}. Each worker is only sent
+ * the Entities of its own strip, along with read-only copies, or ghosts, of the
+ * Entities of other strips that are within one tile of it. The workers are started
+ * on the same machine, connect back to this coordinator over the loopback interface,
+ * and connect to their neighbours directly. After each colour of the checkerboard,
+ * every worker passes on to its neighbours the Entities that have crossed into
+ * their strips, fresh ghosts, and what its tiles have done to the neighbours'
+ * ghosts, which is applied to the Entities themselves by their owners. Since the
+ * tiles of one colour are a whole tile apart, the tiles on either side of a border
+ * never touch the same Entities at the same time, and the workers end up with the
+ * same Entities as a single process.
+ * <p>
+ * The coordinator only passes small messages around: every worker sends it a
+ * message, and every worker gets all of the messages back, in order. The workers
+ * use this to hand out ids, to count Entities and to search for targets over the
+ * whole world, and to look up Entities that have moved away.
+ * <p>
+ * The totals are the same as those of the world advanced in a single process with
+ * {@code CHECKERBOARD_TICK}, except in a few cases: an Entity spawned so close to
+ * a crowd that it is pushed more than a tile away from where it was spawned, an
+ * Entity that reaches more than half of a tile, which must not be near a border,
+ * and two tiles on either side of a column that both touch the same Entity in it.
+ * Worlds with WitchBarriers cannot be split.
+ *
+ * @see DomainWorker
+ * @see Spacetime#addGhost(Entity)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class DomainCoordinator
+{
+	/** The world to split, in the state in which the workers start.
+	 */
+	private Spacetime world;
+
+	/** The number of workers, and the first tile column of the strip of each worker.
+	 * The outer strips reach out to infinity.
+	 */
+	private int count;
+	private int[] columns;
+
+	/** The worker processes and the links that they are connected to.
+	 */
+	private List<Process> processes = new ArrayList<Process>();
+	private Link[] links;
+
+	/** The totals of all of the workers at the end of the last tick, in the order
+	 * of {@code Report.counts}.
+	 */
+	private int[] totals = new int[6];
+	private long checksum;
+
+	/** The incubator that was respawned at the end of the last tick, with the random
+	 * number generator that respawned it, to be passed on at the start of the next.
+	 */
+	private Object incubator;
+	private Random random;
+
+	/** The message that a worker receives when it first connects.
+	 */
+	static class Assignment implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** The strip of the world owned by the worker, with nothing else in it.
+		 */
+		Spacetime part;
+
+		/** The ghosts of the Entities of other strips that are near the strip.
+		 */
+		List<Entity> ghosts;
+
+		/** The position of the worker, and the first tile column of the strip of each worker.
+		 */
+		int index, count;
+		int[] columns;
+
+		/** The port that the left neighbour is listening on, or -1 if there is none.
+		 */
+		int leftPort;
+	}
+
+	/** The message that a worker receives at the start of every tick.
+	 */
+	static class Start implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** If the worker should stop instead of advancing.
+		 */
+		boolean stop;
+
+		/** The incubator that was respawned at the end of the last tick and has landed
+		 * outside of the strip of its worker, and the random number generator that
+		 * respawned it, which every worker carries on with.
+		 */
+		Object incubator;
+		Random random;
+	}
+
+	/** The message that a worker sends back at the end of every tick. Any other
+	 * message that a worker sends is gathered.
+	 */
+	static class Report implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** The number of living Entities, Humans, male Humans, female Humans, Puellas
+		 * and Witches owned by the worker.
+		 */
+		int[] counts;
+
+		/** The sum of the fingerprints of the Entities owned by the worker.
+		 */
+		long checksum;
+
+		/** The incubator that the worker has respawned, if it has landed outside of
+		 * its strip, and the random number generator that respawned it.
+		 */
+		Object incubator;
+		Random random;
+	}
+
+	/** A connection over which whole objects are sent. Every object is saved as
+	 * soon as it is sent, and written out on a thread of its own, so that two
+	 * processes can send to each other at the same time without waiting for each
+	 * other to read.
+	 */
+	static class Link
+	{
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final ExecutorService writer;
+
+		/** The error that the writer ran into, if any.
+		 */
+		private volatile IOException failure;
+
+		/** Creates a new Link over the specified socket.
+		 *
+		 * @param socket		the socket
+		 * @throws IOException if the socket cannot be read or written
+		 */
+		Link (Socket socket) throws IOException
+		{
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				public Thread newThread (Runnable r)
+				{
+					Thread thread = new Thread(r, "Link writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		/** Sends an object. It is saved right away, so it may be changed as soon as
+		 * this returns.
+		 *
+		 * @param message		the object
+		 * @throws IOException if the object cannot be saved, or an earlier one could not be written
+		 */
+		void send (Object message) throws IOException
+		{
+			if (failure != null)
+				throw failure;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream save = new ObjectOutputStream(bytes);
+			save.writeObject(message);
+			save.close();
+			final byte[] data = bytes.toByteArray();
+
+			writer.execute(new Runnable()
+			{
+				public void run ()
+				{
+					try
+					{
+						out.writeInt(data.length);
+						out.write(data);
+						out.flush();
+					}
+					catch (IOException e)
+					{
+						failure = e;
+					}
+				}
+			});
+		}
+
+		/** Waits for the next object.
+		 *
+		 * @return the object
+		 * @throws IOException if the connection has been closed or the object cannot be read
+		 */
+		Object receive () throws IOException
+		{
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			try
+			{
+				return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IOException(e);
+			}
+		}
+
+		/** Writes out everything that has been sent, and closes the connection.
+		 *
+		 * @throws IOException if the connection cannot be closed
+		 */
+		void close () throws IOException
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			socket.close();
+		}
+	}
+
+	/** Creates a new DomainCoordinator that splits the specified world between
+	 * the specified number of workers. The world is set to be advanced with
+	 * {@code CHECKERBOARD_TICK}.
+	 *
+	 * @param world		the world to split
+	 * @param count		the number of workers
+	 * @throws IllegalArgumentException if the world has fewer than three tile columns for
+	 * 		every worker, has WitchBarriers, or has Entities waiting to be spawned or removed
+	 */
+	public DomainCoordinator (Spacetime world, int count)
+	{
+		if (!world.getBarriers().isEmpty())
+			throw new IllegalArgumentException ("A world with WitchBarriers cannot be split");
+		if (!world.isSettled())
+			throw new IllegalArgumentException ("A world cannot be split while Entities are waiting to be spawned or removed");
+
+		int width = (int) Math.ceil(world.getBounds().getMaxX() / world.getTileSize());
+		if (count < 1 || width / count < 3) // the ghosts of one strip must not reach the next one
+			throw new IllegalArgumentException ("A world " + width + " tiles wide cannot be split into " + count + " strips");
+
+		this.world = world;
+		this.count = count;
+		world.setTickStrategy(Spacetime.CHECKERBOARD_TICK);
+
+		// Split into strips of whole tile columns of the same width
+
+		columns = new int[count + 1];
+		for (int i = 0; i <= count; i++)
+			columns[i] = i * (width / count);
+		columns[0] = Integer.MIN_VALUE;
+		columns[count] = Integer.MAX_VALUE;
+	}
+
+	/** Starts the worker processes, sends each of them its strip and the ghosts
+	 * around it, and lets them connect to their neighbours.
+	 *
+	 * @throws IOException if a strip cannot be sent, or a worker cannot be started
+	 */
+	public void start () throws IOException
+	{
+		List<Assignment> assignments = split();
+		world = null; // the workers have their own parts from now on
+
+		ServerSocket server = new ServerSocket(0, count, InetAddress.getLoopbackAddress());
+		int[] ports = new int[count];
+		links = new Link[count];
+		try
+		{
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < count; i++)
+			{
+				ProcessBuilder builder = new ProcessBuilder(java, "-Djava.awt.headless=true",
+						"-cp", System.getProperty("java.class.path"),
+						"DomainWorker", Integer.toString(server.getLocalPort()), Integer.toString(i));
+				builder.inheritIO();
+				processes.add(builder.start());
+			}
+
+			// Every worker says which one it is, and where its right neighbour can reach it
+
+			for (int i = 0; i < count; i++)
+			{
+				Link link = new Link(server.accept());
+				int[] hello = (int[]) link.receive();
+				links[hello[0]] = link;
+				ports[hello[0]] = hello[1];
+			}
+		}
+		finally
+		{
+			server.close();
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			Assignment assignment = assignments.get(i);
+			assignment.leftPort = i > 0 ? ports[i - 1] : -1;
+			send(i, assignment);
+			assignments.set(i, null);
+		}
+	}
+
+	/** Splits the world into the parts sent to the workers. Every Entity goes to
+	 * the worker whose strip its location is in, and the Entities of the ENTITIES
+	 * layer are also copied as ghosts to every other worker whose strip they are
+	 * within one tile of.
+	 *
+	 * @return the assignment of every worker
+	 */
+	private List<Assignment> split ()
+	{
+		double tileSize = world.getTileSize();
+		List<Assignment> assignments = new ArrayList<Assignment>();
+		for (int i = 0; i < count; i++)
+		{
+			Assignment assignment = new Assignment();
+			assignment.part = world.copyEmpty();
+			assignment.ghosts = new ArrayList<Entity>();
+			assignment.index = i;
+			assignment.count = count;
+			assignment.columns = columns;
+			assignments.add(assignment);
+		}
+
+		for (int layer = 0; layer < 3; layer++)
+		{
+			List<List<Entity>> parts = new ArrayList<List<Entity>>();
+			for (int i = 0; i < count; i++)
+				parts.add(new ArrayList<Entity>());
+
+			for (Entity e : world.getLayer(layer))
+			{
+				int owner = getOwner(columns, world.getTileColumn(e.x));
+				parts.get(owner).add(e);
+				if (layer != Spacetime.ENTITIES)
+					continue;
+
+				Rectangle2D bounds = e.getShape().getBounds2D();
+				for (int i = 0; i < count; i++)
+				{
+					double[] region = getRegion(columns, i, tileSize);
+					if (i != owner && bounds.getMaxX() > region[0] && bounds.getMinX() < region[1])
+						assignments.get(i).ghosts.add(e);
+				}
+			}
+
+			for (int i = 0; i < count; i++)
+				assignments.get(i).part.addEntities(parts.get(i), layer);
+		}
+
+		Incubator incubator = world.incubator;
+		if (incubator != null)
+			assignments.get(getOwner(columns, world.getTileColumn(incubator.x))).part.incubator = incubator;
+		return assignments;
+	}
+
+	/** Advances every strip by one tick. The workers advance at the same time, and
+	 * the coordinator gathers their messages until they have all reported back.
+	 *
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public void advance () throws IOException
+	{
+		Start start = new Start();
+		start.incubator = incubator;
+		start.random = random;
+		for (int i = 0; i < count; i++)
+			send(i, start);
+		incubator = null;
+		random = null;
+
+		while (true)
+		{
+			Object[] messages = new Object[count];
+			for (int i = 0; i < count; i++)
+				messages[i] = links[i].receive();
+
+			if (messages[0] instanceof Report)
+			{
+				totals = new int[totals.length];
+				checksum = 0;
+				for (int i = 0; i < count; i++)
+				{
+					if (!(messages[i] instanceof Report))
+						throw new IOException("Worker " + i + " is out of step with the others");
+					Report report = (Report) messages[i];
+					for (int j = 0; j < totals.length; j++)
+						totals[j] += report.counts[j];
+					checksum += report.checksum;
+					if (report.random != null)
+					{
+						incubator = report.incubator;
+						random = report.random;
+					}
+				}
+				return;
+			}
+
+			ArrayList<Object> gathered = new ArrayList<Object>(Arrays.asList(messages));
+			for (int i = 0; i < count; i++)
+				send(i, gathered);
+		}
+	}
+
+	/** Returns the totals of all of the workers at the end of the last tick: the number of
+	 * living Entities, Humans, male Humans, female Humans, Puellas and Witches.
+	 *
+	 * @return the totals of the whole world
+	 */
+	public int[] getTotals ()
+	{
+		return totals.clone();
+	}
+
+	/** Returns the sum of the fingerprints of all of the Entities in the ENTITIES
+	 * layers of the workers at the end of the last tick, which is the same as that of
+	 * a single process only if every Entity has ended up in the same place.
+	 *
+	 * @see #getFingerprint(Entity)
+	 *
+	 * @return the checksum of the whole world
+	 */
+	public long getChecksum ()
+	{
+		return checksum;
+	}
+
+	/** Returns a number that identifies an Entity along with where it is and which
+	 * categories it is in.
+	 *
+	 * @param e		the Entity
+	 * @return the fingerprint of the Entity
+	 */
+	static long getFingerprint (Entity e)
+	{
+		long h = e.id;
+		h = h * 31 + Double.doubleToLongBits(e.x);
+		h = h * 31 + Double.doubleToLongBits(e.y);
+		h = h * 31 + e.getCategories();
+		h ^= h >>> 33; // spread the bits, so that the sum does not cancel out
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** Stops every worker and waits for the processes to end.
+	 *
+	 * @throws IOException if a worker cannot be reached
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void shutdown () throws IOException, InterruptedException
+	{
+		Start stop = new Start();
+		stop.stop = true;
+		for (int i = 0; i < count; i++)
+		{
+			send(i, stop);
+			links[i].close();
+		}
+		for (Process process : processes)
+			process.waitFor();
+	}
+
+	/** Determines which strip the specified tile column is in.
+	 *
+	 * @param columns		the first tile column of every strip
+	 * @param column		the tile column
+	 * @return the index of the strip
+	 */
+	static int getOwner (int[] columns, int column)
+	{
+		int i = 0;
+		while (i < columns.length - 2 && column >= columns[i + 1])
+			i++;
+		return i;
+	}
+
+	/** Returns the range of x-coordinates that the Entities of a strip can reach
+	 * in one tick: the strip itself, widened by one tile on either side.
+	 *
+	 * @param columns		the first tile column of every strip
+	 * @param strip			the index of the strip
+	 * @param tileSize		the width of a tile
+	 * @return the lowest and highest x-coordinates of the range
+	 */
+	static double[] getRegion (int[] columns, int strip, double tileSize)
+	{
+		double min = columns[strip] == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : (columns[strip] - 1) * tileSize;
+		double max = columns[strip + 1] == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : (columns[strip + 1] + 1) * tileSize;
+		return new double[] {min, max};
+	}
+
+	/** Sends a message to a worker.
+	 *
+	 * @param worker		the index of the worker
+	 * @param message		the message
+	 * @throws IOException if the worker cannot be reached
+	 */
+	private void send (int worker, Object message) throws IOException
+	{
+		links[worker].send(message);
+	}
+
+	/** Runs the same world both in one process and split between worker processes,
+	 * and prints the totals of both.
+	 *
+	 * @param args		the number of workers, humans, ticks and the seed, optionally
+	 * @throws Exception if the workers cannot be run
+	 */
+	public static void main (String[] args) throws Exception
+	{
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int humans = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		WorldGenerator wg = new WorldGenerator(seed);
+		wg.setHumanPopulation(humans);
+		Spacetime world = wg.generate();
+		world.setTickStrategy(Spacetime.CHECKERBOARD_TICK);
+
+		// The single process starts from a saved copy, so that both start out the same
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream save = new ObjectOutputStream(bytes);
+		save.writeObject(world);
+		save.close();
+		Spacetime copy = (Spacetime) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		for (int i = 0; i < ticks; i++)
+			copy.advance();
+		Statistics data = new Statistics(copy);
+		data.update();
+		long sum = 0;
+		for (Entity e : copy.getLayer(Spacetime.ENTITIES))
+			sum += getFingerprint(e);
+		System.out.println("single process: living=" + data.livingNum + " humans=" + data.humanNum + " male=" + data.maleNum
+				+ " female=" + data.femNum + " puellas=" + data.puellaNum + " witches=" + data.witchNum
+				+ " checksum=" + Long.toHexString(sum));
+
+		DomainCoordinator coordinator = new DomainCoordinator(world, workers);
+		coordinator.start();
+		for (int i = 0; i < ticks; i++)
+			coordinator.advance();
+		int[] t = coordinator.getTotals();
+		coordinator.shutdown();
+		System.out.println(workers + " workers:      living=" + t[0] + " humans=" + t[1] + " male=" + t[2]
+				+ " female=" + t[3] + " puellas=" + t[4] + " witches=" + t[5]
+				+ " checksum=" + Long.toHexString(coordinator.getChecksum()));
+	}
+}
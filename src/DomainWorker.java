@@ -0,0 +1,1101 @@
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** A class that simulates one vertical strip of a world that has been split up
+ * by a DomainCoordinator. It is normally run in its own process, started by the
+ * coordinator, with {@code java DomainWorker <port> <index>}.
+ * <p>
+ * The worker is sent the Entities of its own strip, and ghosts of the Entities
+ * of its neighbours that are within one tile of it. It advances its strip with a
+ * checkerboard tick, a step at a time, and in between, it trades with each of its
+ * neighbours:
+ * <ul>
+ * <li> what its tiles have done to the neighbour's ghosts: the ghosts that they
+ * 		have collided into, which the neighbour copies back onto its own Entities,
+ * 		and the ones that they have removed or queued for removal
+ * <li> the Entities that have crossed into the neighbour's strip
+ * <li> fresh copies of its Entities that are within one tile of the neighbour's strip
+ * </ul>
+ * The tiles of one colour are a whole tile apart, and no Entity reaches more than
+ * half of a tile, so the tiles on either side of a border never touch the same
+ * Entity at the same time, and every Entity is only ever changed by one worker
+ * between two trades.
+ * <p>
+ * The rest goes through the coordinator, which passes every worker's message on
+ * to all of the workers: the ids of the Entities added by each colour, so that they
+ * are numbered in the same order as in a single process, the counts of the whole
+ * world, the searches for targets, which are answered by every worker over its own
+ * Entities, and the Entities that are still targeted after they have moved away.
+ * New Entities are placed one colour at a time, after those of the neighbours that
+ * come before them, so that they end up in the same places as in a single process.
+ *
+ * @see DomainCoordinator
+ * @see Spacetime#addGhost(Entity)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class DomainWorker implements Spacetime.Domain
+{
+	/** The sides on which the neighbours of a worker are.
+	 */
+	private static final int LEFT = 0;
+	private static final int RIGHT = 1;
+
+	/** The part of the world owned by this worker.
+	 */
+	private Spacetime grid;
+
+	/** The position of this worker, the number of workers, and the first tile column
+	 * of the strip of each worker.
+	 */
+	private int index, count;
+	private int[] columns;
+
+	/** The connection to the coordinator, and to the neighbour on each side, or null
+	 * where there is none.
+	 */
+	private DomainCoordinator.Link coordinator;
+	private DomainCoordinator.Link[] neighbours = new DomainCoordinator.Link[2];
+
+	/** The ghosts of the Entities owned by the neighbour on each side, by id. Ghosts
+	 * that are in neither are fixed: they belong to a worker further away, and are
+	 * never refreshed, so only Entities that never change can be fixed ghosts.
+	 */
+	private List<HashMap<Long, Entity>> ghosts = new ArrayList<HashMap<Long, Entity>>();
+
+	/** The copies of the Entities that belong to other workers that may still be
+	 * referred to, by id: the ghosts, and the Entities that have moved away or
+	 * been found as targets. The copies that are not ghosts keep this grid as their
+	 * own, as long as the Entities are alive, and are brought up to date every tick.
+	 */
+	private HashMap<Long, WeakReference<Entity>> foreign = new HashMap<Long, WeakReference<Entity>>();
+
+	/** The Entities that have arrived referring to Entities that this worker has no
+	 * copy of, along with the ids of the Entities that they refer to.
+	 */
+	private HashMap<Entity, long[]> unresolved = new HashMap<Entity, long[]>();
+
+	/** The number of Entities in each category in the whole world, as of the start
+	 * of the current tick.
+	 */
+	private int[] counts = new int[Entity.CATEGORIES];
+
+	/** The number of Entities in the spawn queue that were spawned by the tiles of
+	 * each colour, in order. The rest were spawned by the tiles of the last colour.
+	 */
+	private int[] spawnGroups = new int[4];
+
+	/** The searches for targets made by the Entities of this worker while they
+	 * plan, and what was found for each of them over the whole world. While the
+	 * searches are being recorded, nothing is found.
+	 */
+	private boolean recording;
+	private List<Query> queries = new ArrayList<Query>();
+	private List<Entity> answers = new ArrayList<Entity>();
+	private int nextAnswer;
+
+	/** The variables and the references to other Entities of every class of Entity,
+	 * in a fixed order.
+	 */
+	private static final HashMap<Class<?>, List<Field>> VARIABLES = new HashMap<Class<?>, List<Field>>();
+	private static final HashMap<Class<?>, List<Field>> REFERENCES = new HashMap<Class<?>, List<Field>>();
+
+	/** Orders Entities by their ids.
+	 */
+	private static final Comparator<Entity> BY_ID = new Comparator<Entity>()
+	{
+		public int compare (Entity a, Entity b)
+		{
+			return Long.compare(a.id, b.id);
+		}
+	};
+
+	/** An Entity that is sent to another worker, along with the ids of the Entities
+	 * that it refers to, which are not sent along with it.
+	 */
+	static class State implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		Entity copy;
+		long[] references;
+	}
+
+	/** A search for a target, as in {@code Spacetime.findNearest(Entity, Class, int)}.
+	 */
+	static class Query implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		double x, y;
+		Class<?> type;
+		int category;
+
+		/** The Entity that is searching, in the worker that owns it.
+		 */
+		transient Entity seeker;
+	}
+
+	/** What a worker sends to a neighbour after each step of a tick.
+	 */
+	static class Exchange implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** The ghosts of the neighbour's Entities that have been collided into.
+		 */
+		List<Entity> writes = new ArrayList<Entity>();
+
+		/** The ids of the neighbour's Entities that have been removed, and of those
+		 * that have been queued for removal.
+		 */
+		List<Long> kills = new ArrayList<Long>();
+		List<Long> removals = new ArrayList<Long>();
+
+		/** The Entities that have moved into the neighbour's strip.
+		 */
+		List<State> migrants = new ArrayList<State>();
+
+		/** All of the Entities of the sender that are near the neighbour's strip.
+		 */
+		List<Entity> halo = new ArrayList<Entity>();
+	}
+
+	/** Creates a new DomainWorker, which connects to the coordinator listening on the
+	 * specified port, receives its strip, and connects to its neighbours.
+	 *
+	 * @param port		the port that the coordinator is listening on
+	 * @param index		the position of the strip of this worker, from the left
+	 * @throws IOException if the coordinator or a neighbour cannot be reached
+	 */
+	public DomainWorker (int port, int index) throws IOException
+	{
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		coordinator = new DomainCoordinator.Link(new Socket(loopback, port));
+		ServerSocket server = new ServerSocket(0, 1, loopback);
+		try
+		{
+			coordinator.send(new int[] {index, server.getLocalPort()});
+			DomainCoordinator.Assignment assignment = (DomainCoordinator.Assignment) coordinator.receive();
+
+			grid = assignment.part;
+			this.index = index;
+			count = assignment.count;
+			columns = assignment.columns;
+
+			// Connect to the left first, so that every worker is waiting on the one to its left
+
+			if (assignment.leftPort >= 0)
+				neighbours[LEFT] = new DomainCoordinator.Link(new Socket(loopback, assignment.leftPort));
+			if (index < count - 1)
+				neighbours[RIGHT] = new DomainCoordinator.Link(server.accept());
+
+			grid.setDomain(this);
+			ghosts.add(new HashMap<Long, Entity>());
+			ghosts.add(new HashMap<Long, Entity>());
+			for (Entity e : assignment.ghosts)
+			{
+				grid.addGhost(e);
+				foreign.put(e.id, new WeakReference<Entity>(e));
+				int owner = getOwner(e.x);
+				if (owner == index - 1)
+					ghosts.get(LEFT).put(e.id, e);
+				else if (owner == index + 1)
+					ghosts.get(RIGHT).put(e.id, e);
+			}
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+
+	/** Advances the strip every time that the coordinator says to, until it says to stop.
+	 *
+	 * @throws IOException if the coordinator or a neighbour cannot be reached
+	 */
+	public void run () throws IOException
+	{
+		while (true)
+		{
+			DomainCoordinator.Start start = (DomainCoordinator.Start) coordinator.receive();
+			if (start.stop)
+				break;
+			advance(start);
+		}
+
+		coordinator.close();
+		for (DomainCoordinator.Link link : neighbours)
+			if (link != null)
+				link.close();
+	}
+
+	/** Advances the strip by one tick, taking the steps of {@code Spacetime.advance()}
+	 * one at a time, and reports back to the coordinator.
+	 *
+	 * @param start		the message that started the tick
+	 * @throws IOException if the coordinator or a neighbour cannot be reached
+	 */
+	private void advance (DomainCoordinator.Start start) throws IOException
+	{
+		if (start.random != null) // the incubator was respawned with it
+			grid.setRandom(start.random);
+		if (start.incubator != null)
+		{
+			State incubator = (State) start.incubator;
+			if (getOwner(incubator.copy.x) == index)
+				grid.ensureNoCollision(arrive(incubator));
+		}
+
+		grid.applyRemovals();
+		exchange();
+		placeSpawns();
+		exchange();
+		grid.prepareTick();
+
+		refreshForeign();
+		plan();
+		grid.startTiles();
+		for (int colour = 0; colour < 4; colour++)
+		{
+			grid.advanceColour(colour);
+
+			// Number the new Entities as if the tiles to the left had been flushed first
+
+			List<?> added = gather(grid.countAdditions(colour));
+			long base = grid.getLastId();
+			long last = base;
+			for (int i = 0; i < count; i++)
+			{
+				if (i == index)
+					base = last;
+				last += (Integer) added.get(i);
+			}
+
+			int spawned = grid.countSpawns();
+			grid.setLastId(base);
+			grid.flushColour(colour);
+			grid.setLastId(last);
+			spawnGroups[colour] = grid.countSpawns() - spawned;
+
+			exchange();
+		}
+
+		int spawned = grid.countSpawns();
+		grid.finishTiles();
+		spawnGroups[3] += grid.countSpawns() - spawned;
+		grid.finishTick();
+
+		report();
+	}
+
+	/** Respawns the incubator if it has been removed, and sends the totals of this
+	 * strip to the coordinator. An incubator that lands in another strip is passed on
+	 * to its new owner through the coordinator, along with the random number generator
+	 * that respawned it, which every worker carries on with.
+	 *
+	 * @throws IOException if the coordinator cannot be reached
+	 */
+	private void report () throws IOException
+	{
+		DomainCoordinator.Report report = new DomainCoordinator.Report();
+		Incubator incubator = grid.incubator;
+		if (incubator != null && incubator.grid == null)
+		{
+			grid.respawnIncubator();
+			report.random = grid.getRandom();
+			if (getOwner(incubator.x) != index)
+			{
+				report.incubator = export(incubator);
+				depart(incubator, -1);
+			}
+		}
+
+		int humans = grid.countOwned(Entity.HUMAN);
+		int females = grid.countOwned(Entity.FEMALE);
+		int puellas = grid.countOwned(Entity.PUELLA);
+		int witches = grid.countOwned(Entity.WITCH);
+		report.counts = new int[] {humans + puellas + witches, humans, humans - females, females, puellas, witches};
+		for (Entity e : getOwned())
+			report.checksum += DomainCoordinator.getFingerprint(e);
+		coordinator.send(report);
+	}
+
+	/** Places the Entities that were spawned during the last tick. They are placed
+	 * a colour at a time, in the order of the tiles that spawned them: the Entities
+	 * of each colour are placed after the ones that the neighbour to the left has
+	 * placed for the same colour, and the ones that the neighbour to the right has
+	 * placed for the colour before. The ids are then handed out in the same order
+	 * as {@code Spacetime.addPlaced(List, List)} would in a single process.
+	 *
+	 * @throws IOException if the coordinator or a neighbour cannot be reached
+	 */
+	private void placeSpawns () throws IOException
+	{
+		List<Entity> spawns = new ArrayList<Entity>();
+		List<Double> markers = new ArrayList<Double>();
+		grid.takeSpawns(spawns, markers);
+
+		List<List<Entity>> placed = new ArrayList<List<Entity>>();
+		List<List<Entity>> unplaced = new ArrayList<List<Entity>>();
+		List<Entity> reserved = new ArrayList<Entity>();
+		int start = 0;
+		for (int colour = 0; colour < 4; colour++)
+		{
+			if (neighbours[LEFT] != null)
+				reserve(neighbours[LEFT].receive(), reserved);
+			if (neighbours[RIGHT] != null && colour > 0)
+				reserve(neighbours[RIGHT].receive(), reserved);
+
+			int end = colour == 3 ? spawns.size() : Math.min(spawns.size(), start + spawnGroups[colour]);
+			placed.add(new ArrayList<Entity>());
+			unplaced.add(new ArrayList<Entity>());
+			grid.placeAll(spawns.subList(start, end), placed.get(colour), unplaced.get(colour));
+			start = end;
+
+			for (int side = LEFT; side <= RIGHT; side++)
+				if (neighbours[side] != null)
+					neighbours[side].send(getNear(placed.get(colour), side));
+		}
+		if (neighbours[RIGHT] != null) // placed after everything here
+			neighbours[RIGHT].receive();
+
+		// The placed Entities of every worker are numbered before the ones that did not fit
+
+		int[] sizes = new int[8];
+		for (int colour = 0; colour < 4; colour++)
+		{
+			sizes[colour] = placed.get(colour).size();
+			sizes[4 + colour] = unplaced.get(colour).size();
+		}
+		List<?> all = gather(sizes);
+		long[] bases = new long[8];
+		long last = grid.getLastId();
+		for (int group = 0; group < 8; group++)
+			for (int i = 0; i < count; i++)
+			{
+				if (i == index)
+					bases[group] = last;
+				last += ((int[]) all.get(i))[group];
+			}
+
+		List<Entity> none = Collections.emptyList();
+		for (int colour = 0; colour < 4; colour++)
+		{
+			grid.setLastId(bases[colour]);
+			grid.addPlaced(placed.get(colour), none);
+		}
+		for (int colour = 0; colour < 4; colour++)
+		{
+			grid.setLastId(bases[4 + colour]);
+			grid.addPlaced(none, unplaced.get(colour));
+		}
+		grid.setLastId(last);
+
+		for (Entity e : reserved)
+			grid.release(e);
+		for (int i = 0; i < spawns.size(); i++)
+			if (markers.get(i) > 0)
+				grid.markAddition(spawns.get(i), markers.get(i));
+	}
+
+	/** Reserves the space taken by the Entities that a neighbour has placed.
+	 *
+	 * @param message		the Entities that the neighbour has placed
+	 * @param reserved		the list to which the Entities are added
+	 */
+	private void reserve (Object message, List<Entity> reserved)
+	{
+		for (Object o : (List<?>) message)
+		{
+			grid.reserve((Entity) o);
+			reserved.add((Entity) o);
+		}
+	}
+
+	/** Trades with both neighbours: sends each of them what has been done to its
+	 * ghosts, the Entities that have moved into its strip, and fresh copies of the
+	 * Entities near its strip, and then applies what they have sent.
+	 *
+	 * @throws IOException if a neighbour cannot be reached
+	 */
+	private void exchange () throws IOException
+	{
+		Exchange[] outgoing = {new Exchange(), new Exchange()};
+		List<Set<Long>> sent = new ArrayList<Set<Long>>();
+		sent.add(new HashSet<Long>());
+		sent.add(new HashSet<Long>());
+
+		for (Entity e : grid.takeTouchedGhosts())
+		{
+			int side = getSide(e);
+			if (side >= 0 && e.grid == grid)
+			{
+				outgoing[side].writes.add(e);
+				sent.get(side).add(e.id);
+			}
+		}
+		for (Entity e : grid.takeKilledGhosts())
+		{
+			int side = getSide(e);
+			if (side >= 0)
+			{
+				outgoing[side].kills.add(e.id);
+				ghosts.get(side).remove(e.id);
+				sent.get(side).add(e.id);
+			}
+		}
+		for (Entity e : grid.takeGhostRemovals())
+		{
+			int side = getSide(e);
+			if (side >= 0)
+				outgoing[side].removals.add(e.id);
+		}
+
+		// Entities that have left the strip are left behind as ghosts until the new owner sends them back
+
+		List<Entity> owned = getOwned();
+		for (Entity e : owned)
+		{
+			int owner = getOwner(e.x);
+			if (owner != index)
+			{
+				int side = owner < index ? LEFT : RIGHT;
+				outgoing[side].migrants.add(export(e));
+				depart(e, side);
+				sent.get(side).add(e.id);
+			}
+		}
+
+		for (int side = LEFT; side <= RIGHT; side++)
+			if (neighbours[side] != null)
+			{
+				outgoing[side].halo = getNear(getOwned(), side);
+				neighbours[side].send(outgoing[side]);
+			}
+
+		for (int side = LEFT; side <= RIGHT; side++)
+			if (neighbours[side] != null)
+				apply((Exchange) neighbours[side].receive(), side, sent.get(side));
+	}
+
+	/** Applies what a neighbour has sent.
+	 *
+	 * @param incoming		what the neighbour has sent
+	 * @param side			the side that the neighbour is on
+	 * @param sent			the ids of the Entities that this worker has just changed
+	 * 						and sent to the neighbour, which the neighbour's copies are older than
+	 */
+	private void apply (Exchange incoming, int side, Set<Long> sent)
+	{
+		for (Entity copy : incoming.writes)
+		{
+			Entity e = grid.getEntity(copy.id);
+			if (e != null)
+			{
+				copyState(copy, e);
+				grid.moved(e);
+				grid.recategorize(e);
+				grid.wake(e);
+			}
+		}
+		for (long id : incoming.kills)
+		{
+			Entity e = grid.getEntity(id);
+			if (e != null)
+				grid.removeEntity(e);
+		}
+		for (long id : incoming.removals)
+		{
+			Entity e = grid.getEntity(id);
+			if (e != null)
+				grid.requestRemoval(e);
+		}
+		for (State state : incoming.migrants)
+			arrive(state);
+
+		// Refresh the ghosts, and let go of the ones that are no longer near
+
+		HashMap<Long, Entity> near = ghosts.get(side);
+		HashSet<Long> present = new HashSet<Long>();
+		for (Entity copy : incoming.halo)
+		{
+			present.add(copy.id);
+			if (sent.contains(copy.id))
+				continue;
+
+			Entity ghost = near.get(copy.id);
+			if (ghost != null)
+			{
+				copyState(copy, ghost);
+				grid.moved(ghost);
+				grid.recategorize(ghost);
+				continue;
+			}
+
+			ghost = getForeign(copy.id);
+			if (ghost != null && ghost.grid == null) // removed here, which its owner does not know yet
+				continue;
+			if (ghost != null)
+				copyState(copy, ghost);
+			else
+			{
+				ghost = copy;
+				foreign.put(ghost.id, new WeakReference<Entity>(ghost));
+			}
+			grid.addGhost(ghost);
+			near.put(ghost.id, ghost);
+		}
+
+		for (Iterator<Entity> it = near.values().iterator(); it.hasNext(); )
+		{
+			Entity ghost = it.next();
+			if (!present.contains(ghost.id) && !sent.contains(ghost.id))
+			{
+				grid.removeEntity(ghost);
+				ghost.grid = grid; // still alive, as far as anything here knows
+				it.remove();
+			}
+		}
+	}
+
+	/** Adds an Entity that has moved into this strip, in place of any copy of it
+	 * that this worker has, so that whatever refers to the copy refers to the Entity.
+	 *
+	 * @param state		the Entity and what it refers to
+	 * @return the Entity as it is in this grid
+	 */
+	private Entity arrive (State state)
+	{
+		Entity e = getForeign(state.copy.id);
+		if (e != null)
+		{
+			if (grid.isGhost(e))
+				grid.removeEntity(e);
+			copyState(state.copy, e);
+		}
+		else
+			e = state.copy;
+
+		for (HashMap<Long, Entity> near : ghosts)
+			near.remove(e.id);
+		foreign.remove(e.id);
+		resolve(e, state.references);
+
+		grid.addEntity(e);
+		if (e instanceof Incubator)
+			grid.incubator = (Incubator) e;
+		return e;
+	}
+
+	/** Removes an Entity that has moved out of this strip, keeping it as a copy,
+	 * as a ghost on the specified side if it is given.
+	 *
+	 * @param e			the Entity
+	 * @param side		the side on which to keep it as a ghost, or -1 to keep it out of the grid
+	 */
+	private void depart (Entity e, int side)
+	{
+		grid.removeEntity(e);
+		unresolved.remove(e);
+		if (grid.incubator == e)
+			grid.incubator = null;
+
+		foreign.put(e.id, new WeakReference<Entity>(e));
+		if (side >= 0)
+		{
+			grid.addGhost(e);
+			ghosts.get(side).put(e.id, e);
+		}
+		else
+			e.grid = grid;
+	}
+
+	/** Brings up to date the copies of the Entities of other workers that are still
+	 * referred to, finds the Entities that arrivals refer to, and counts the Entities
+	 * of the whole world.
+	 *
+	 * @throws IOException if the coordinator cannot be reached
+	 */
+	private void refreshForeign () throws IOException
+	{
+		int[] owned = new int[Entity.CATEGORIES];
+		for (int category = 0; category < owned.length; category++)
+			owned[category] = grid.countOwned(category);
+
+		ArrayList<Long> wanted = new ArrayList<Long>();
+		for (Iterator<WeakReference<Entity>> it = foreign.values().iterator(); it.hasNext(); )
+		{
+			Entity e = it.next().get();
+			if (e == null)
+				it.remove();
+			else if (e.grid == grid && !grid.isGhost(e))
+				wanted.add(e.id);
+		}
+		for (long[] references : unresolved.values())
+			for (long id : references)
+				if (id != 0 && find(id) == null)
+					wanted.add(id);
+
+		List<?> all = gather(new Object[] {owned, wanted});
+		counts = new int[Entity.CATEGORIES];
+		TreeSet<Long> requested = new TreeSet<Long>();
+		for (Object o : all)
+		{
+			Object[] census = (Object[]) o;
+			int[] theirs = (int[]) census[0];
+			for (int category = 0; category < counts.length; category++)
+				counts[category] += theirs[category];
+			for (Object id : (List<?>) census[1])
+				requested.add((Long) id);
+		}
+
+		ArrayList<State> found = new ArrayList<State>();
+		for (long id : requested)
+		{
+			Entity e = grid.getEntity(id);
+			if (e != null)
+				found.add(export(e));
+		}
+
+		HashMap<Long, Entity> states = new HashMap<Long, Entity>();
+		for (Object o : gather(found))
+			for (Object state : (List<?>) o)
+				states.put(((State) state).copy.id, ((State) state).copy);
+
+		for (long id : wanted)
+		{
+			Entity e = getForeign(id);
+			if (e == null || e.grid != grid || grid.isGhost(e))
+				continue;
+			Entity copy = states.get(id);
+			if (copy != null)
+				copyState(copy, e);
+			else
+				e.grid = null; // gone from the whole world
+		}
+
+		for (Map.Entry<Entity, long[]> entry : unresolved.entrySet())
+		{
+			long[] references = entry.getValue();
+			List<Field> fields = getFields(entry.getKey().getClass(), REFERENCES);
+			for (int i = 0; i < references.length; i++)
+			{
+				Entity target = references[i] == 0 ? null : find(references[i]);
+				if (target == null && states.containsKey(references[i]))
+					target = adopt(states.get(references[i]));
+				set(fields.get(i), entry.getKey(), target);
+			}
+		}
+		unresolved.clear();
+	}
+
+	/** Lets every awake Entity plan, the way {@code Spacetime.planAll()} does, with
+	 * the searches for targets done over the whole world. The Entities plan once
+	 * while their searches are recorded, the searches are answered by every worker,
+	 * and then the Entities that searched plan again with the answers.
+	 *
+	 * @throws IOException if the coordinator cannot be reached
+	 */
+	private void plan () throws IOException
+	{
+		queries = new ArrayList<Query>();
+		recording = true;
+		try
+		{
+			grid.planAll();
+		}
+		finally
+		{
+			recording = false;
+		}
+
+		// Every worker answers every search with its nearest Entity in the category, and its first of the type
+
+		List<?> all = gather(new ArrayList<Query>(queries));
+		List<Entity> owned = getOwned();
+		ArrayList<Entity> candidates = new ArrayList<Entity>();
+		int offset = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (i == index)
+				offset = candidates.size() / 2;
+			for (Object o : (List<?>) all.get(i))
+			{
+				Query query = (Query) o;
+				Entity nearest = null;
+				Entity first = null;
+				double shortest = 0;
+				for (Entity e : owned)
+				{
+					if (!query.type.isInstance(e))
+						continue;
+					if (first == null || e.id < first.id)
+						first = e;
+					if ((e.getCategories() & 1 << query.category) != 0)
+					{
+						double distance = getDistance(query, e);
+						if (nearest == null || distance < shortest || distance == shortest && e.id < nearest.id)
+						{
+							nearest = e;
+							shortest = distance;
+						}
+					}
+				}
+				candidates.add(nearest);
+				candidates.add(first);
+			}
+		}
+
+		List<?> found = gather(candidates);
+		answers = new ArrayList<Entity>();
+		for (int q = 0; q < queries.size(); q++)
+		{
+			int at = 2 * (offset + q);
+			Entity first = null;
+			for (Object o : found)
+			{
+				Entity e = (Entity) ((List<?>) o).get(at + 1);
+				if (e != null && (first == null || e.id < first.id))
+					first = e;
+			}
+
+			// The first of the type is the fallback, as in Spacetime.findNearest
+
+			Entity best = first;
+			double shortest = first == null ? 0 : getDistance(queries.get(q), first);
+			for (Object o : found)
+			{
+				Entity e = (Entity) ((List<?>) o).get(at);
+				if (e == null)
+					continue;
+				double distance = getDistance(queries.get(q), e);
+				if (distance < shortest || distance == shortest && e.id < best.id)
+				{
+					best = e;
+					shortest = distance;
+				}
+			}
+			answers.add(best == null ? null : adopt(best));
+		}
+
+		nextAnswer = 0;
+		Entity last = null;
+		for (Query query : new ArrayList<Query>(queries))
+			if (query.seeker != last)
+			{
+				last = query.seeker;
+				last.plan();
+			}
+		if (nextAnswer != answers.size())
+			throw new IllegalStateException ("Only " + nextAnswer + " of " + answers.size() + " searches were asked for again");
+	}
+
+	@Override
+	public int count (int category)
+	{
+		return counts[category];
+	}
+
+	@Override
+	public Entity findNearest (Entity seeker, Class<?> type, int category)
+	{
+		if (recording)
+		{
+			Query query = new Query();
+			query.x = seeker.x;
+			query.y = seeker.y;
+			query.type = type;
+			query.category = category;
+			query.seeker = seeker;
+			queries.add(query);
+			return null;
+		}
+
+		if (nextAnswer >= answers.size() || queries.get(nextAnswer).seeker != seeker
+				|| queries.get(nextAnswer).type != type || queries.get(nextAnswer).category != category)
+			throw new IllegalStateException ("A search for a target was not made while planning");
+		return answers.get(nextAnswer++);
+	}
+
+	/** Sends a message to the coordinator, and waits for the messages of every worker.
+	 *
+	 * @param message		the message of this worker
+	 * @return the messages of every worker, in order
+	 * @throws IOException if the coordinator cannot be reached
+	 */
+	private List<?> gather (Object message) throws IOException
+	{
+		coordinator.send(message);
+		return (List<?>) coordinator.receive();
+	}
+
+	/** Returns the Entities owned by this worker, by id.
+	 *
+	 * @return the Entities in the ENTITIES layer that are not ghosts
+	 */
+	private List<Entity> getOwned ()
+	{
+		List<Entity> owned = new ArrayList<Entity>();
+		for (Entity e : grid.getLayer(Spacetime.ENTITIES))
+			if (!grid.isGhost(e))
+				owned.add(e);
+		Collections.sort(owned, BY_ID);
+		return owned;
+	}
+
+	/** Returns the specified Entities that are near the strip of the neighbour on
+	 * the specified side, within the reach of its tiles.
+	 *
+	 * @param entities		the Entities
+	 * @param side			the side of the neighbour
+	 * @return the Entities near the neighbour's strip
+	 */
+	private ArrayList<Entity> getNear (List<Entity> entities, int side)
+	{
+		double[] region = DomainCoordinator.getRegion(columns, side == LEFT ? index - 1 : index + 1, grid.getTileSize());
+		ArrayList<Entity> near = new ArrayList<Entity>();
+		for (Entity e : entities)
+		{
+			Rectangle2D bounds = e.getShape().getBounds2D();
+			if (bounds.getMaxX() > region[0] && bounds.getMinX() < region[1])
+				near.add(e);
+		}
+		return near;
+	}
+
+	/** Determines which worker owns the Entities at the specified x-coordinate.
+	 *
+	 * @param x		the x-coordinate
+	 * @return the index of the worker
+	 */
+	private int getOwner (double x)
+	{
+		return DomainCoordinator.getOwner(columns, grid.getTileColumn(x));
+	}
+
+	/** Determines which neighbour the specified ghost belongs to.
+	 *
+	 * @param e		the ghost
+	 * @return LEFT or RIGHT, or -1 if it is a fixed ghost
+	 */
+	private int getSide (Entity e)
+	{
+		for (int side = LEFT; side <= RIGHT; side++)
+			if (ghosts.get(side).get(e.id) == e)
+				return side;
+		return -1;
+	}
+
+	/** Returns the squared distance from where a search was made to an Entity.
+	 *
+	 * @param query		the search
+	 * @param e			the Entity
+	 * @return the squared distance
+	 */
+	private static double getDistance (Query query, Entity e)
+	{
+		double dx = e.x - query.x;
+		double dy = e.y - query.y;
+		return dx * dx + dy * dy;
+	}
+
+	/** Returns the copy of an Entity of another worker kept by this one.
+	 *
+	 * @param id		the id of the Entity
+	 * @return the copy, or null if there is none
+	 */
+	private Entity getForeign (long id)
+	{
+		WeakReference<Entity> reference = foreign.get(id);
+		return reference == null ? null : reference.get();
+	}
+
+	/** Returns the Entity or copy of an Entity with the specified id in this worker.
+	 *
+	 * @param id		the id
+	 * @return the Entity, or null if this worker has no copy of it
+	 */
+	private Entity find (long id)
+	{
+		Entity e = grid.getEntity(id);
+		return e != null ? e : getForeign(id);
+	}
+
+	/** Returns this worker's own copy of an Entity received from another worker,
+	 * keeping the received one as the copy if there is none yet.
+	 *
+	 * @param received		the Entity received
+	 * @return the Entity or copy in this worker
+	 */
+	private Entity adopt (Entity received)
+	{
+		Entity e = find(received.id);
+		if (e != null && e.grid == grid)
+			return e;
+
+		received.grid = grid;
+		foreign.put(received.id, new WeakReference<Entity>(received));
+		return received;
+	}
+
+	/** Packs an Entity up to be sent to another worker.
+	 *
+	 * @param e		the Entity
+	 * @return the Entity and the ids of the Entities that it refers to
+	 */
+	private State export (Entity e)
+	{
+		State state = new State();
+		state.copy = e;
+		state.references = unresolved.get(e);
+		if (state.references == null)
+		{
+			List<Field> fields = getFields(e.getClass(), REFERENCES);
+			state.references = new long[fields.size()];
+			for (int i = 0; i < fields.size(); i++)
+			{
+				Entity target = (Entity) get(fields.get(i), e);
+				state.references[i] = target == null ? 0 : target.id;
+			}
+		}
+		return state;
+	}
+
+	/** Points the references of an arriving Entity at the Entities in this worker,
+	 * leaving the ones that this worker has no copy of to {@code refreshForeign()}.
+	 *
+	 * @param e				the Entity
+	 * @param references	the ids of the Entities that it refers to
+	 */
+	private void resolve (Entity e, long[] references)
+	{
+		List<Field> fields = getFields(e.getClass(), REFERENCES);
+		for (int i = 0; i < references.length; i++)
+		{
+			Entity target = references[i] == 0 ? null : find(references[i]);
+			if (references[i] != 0 && target == null)
+				unresolved.put(e, references);
+			set(fields.get(i), e, target);
+		}
+	}
+
+	/** Copies the variables of one Entity onto another of the same class, leaving
+	 * out its place in the index and its references to other Entities.
+	 *
+	 * @param from		the Entity to copy
+	 * @param to		the Entity to copy onto
+	 */
+	private static void copyState (Entity from, Entity to)
+	{
+		for (Field field : getFields(to.getClass(), VARIABLES))
+			set(field, to, get(field, from));
+	}
+
+	/** Returns the variables or the references to other Entities of the specified
+	 * class of Entity, in a fixed order, so that they line up from one worker to the next.
+	 *
+	 * @param type		the class
+	 * @param cache		VARIABLES or REFERENCES
+	 * @return the fields
+	 */
+	private static synchronized List<Field> getFields (Class<?> type, HashMap<Class<?>, List<Field>> cache)
+	{
+		List<Field> fields = cache.get(type);
+		if (fields != null)
+			return fields;
+
+		fields = new ArrayList<Field>();
+		for (Class<?> c = type; c != Object.class; c = c.getSuperclass())
+			for (Field field : c.getDeclaredFields())
+			{
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers))
+					continue;
+
+				boolean reference = Entity.class.isAssignableFrom(field.getType());
+				boolean variable = !reference && !Modifier.isTransient(modifiers) && field.getType() != QuadTreePath.class;
+				if (cache == REFERENCES ? reference : variable)
+				{
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+
+		Collections.sort(fields, new Comparator<Field>()
+		{
+			public int compare (Field a, Field b)
+			{
+				int order = a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+				return order != 0 ? order : a.getName().compareTo(b.getName());
+			}
+		});
+		cache.put(type, fields);
+		return fields;
+	}
+
+	/** Reads a field of an Entity.
+	 *
+	 * @param field		the field
+	 * @param e			the Entity
+	 * @return the value of the field
+	 */
+	private static Object get (Field field, Entity e)
+	{
+		try
+		{
+			return field.get(e);
+		}
+		catch (IllegalAccessException ex)
+		{
+			throw new IllegalStateException (ex);
+		}
+	}
+
+	/** Sets a field of an Entity.
+	 *
+	 * @param field		the field
+	 * @param e			the Entity
+	 * @param value		the new value of the field
+	 */
+	private static void set (Field field, Entity e, Object value)
+	{
+		try
+		{
+			field.set(e, value);
+		}
+		catch (IllegalAccessException ex)
+		{
+			throw new IllegalStateException (ex);
+		}
+	}
+
+	/** Runs a worker.
+	 *
+	 * @param args		the port that the coordinator is listening on, and the index of the worker
+	 * @throws IOException if the coordinator or a neighbour cannot be reached
+	 */
+	public static void main (String[] args) throws IOException
+	{
+		new DomainWorker (Integer.parseInt(args[0]), Integer.parseInt(args[1])).run();
+	}
+}
@@ -65,6 +65,16 @@ public class EnergyBeam extends Entity // Ringo Mogire Beam!
 		generateRandomColors();
 	}	
 	
+	/** Energy beams decay as they travel, so they never fall asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
 	@Override
 	public void advance()
 	{
@@ -117,6 +127,12 @@ public class EnergyBeam extends Entity // Ringo Mogire Beam!
 		g.setColor(Color.white);	
 		g.fill(new Ellipse2D.Double(x - size/2, y - size/2, size, size));	
 	}	
+
+	@Override
+	public Color getColor ()
+	{
+		return colors.get(colorIndex);
+	}
 	
 	/** Generates a list of random colours by systematically randomizing 
 	 * R, G, and B values.
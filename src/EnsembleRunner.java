@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** A class that runs the same scenarios many times over, with different seeds,
+ * to get the distributions of their outcomes instead of a single run.
+ * <p>
+ * Every scenario is run once for every seed, each run in its own Spacetime
+ * without a Viewport. The runs are independent, so they are spread over a fixed
+ * number of threads, which is the number of processors by default. Each run
+ * stops after a set number of ticks, or as soon as nothing is left alive.
+ * The outcomes of all of the runs can be printed as a single table with
+ * {@code toTable(List)}.
+ *
+ * @see Statistics
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class EnsembleRunner
+{
+	/** Creates the WorldGenerator for one run of a scenario.
+	 */
+	public interface Scenario
+	{
+		/** Creates a WorldGenerator with the settings of this scenario.
+		 *
+		 * @param seed		the seed that the WorldGenerator must use
+		 * @return a new WorldGenerator for one run
+		 */
+		public WorldGenerator create (long seed);
+	}
+
+	/** The outcome of one run of a scenario.
+	 */
+	public static class Result
+	{
+		/** The name of the scenario and the seed of the run.
+		 */
+		public final String scenario;
+		public final long seed;
+
+		/** The number of ticks that were run.
+		 */
+		public int ticks;
+
+		/** The tick at which nothing was left alive, or -1 if something survived.
+		 */
+		public long extinctionTime = -1;
+
+		/** The largest number of witches alive at the end of any tick.
+		 */
+		public int peakWitches;
+
+		/** The population at the end of the run.
+		 */
+		public int finalPopulation, finalHumans, finalPuellas, finalWitches;
+
+		/** Creates the result of a run that has not started yet.
+		 *
+		 * @param scenario		the name of the scenario
+		 * @param seed			the seed of the run
+		 */
+		public Result (String scenario, long seed)
+		{
+			this.scenario = scenario;
+			this.seed = seed;
+		}
+	}
+
+	/** The scenarios to run, in the order in which they were added.
+	 */
+	private Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+
+	/** The seeds to run every scenario with.
+	 */
+	private List<Long> seeds = new ArrayList<Long>();
+
+	/** The largest number of ticks in each run.
+	 */
+	private int ticks;
+
+	/** The number of runs that are done at the same time.
+	 */
+	private int threads;
+
+	/** Creates a new EnsembleRunner that runs every scenario for up to the
+	 * specified number of ticks, on as many threads as there are processors.
+	 *
+	 * @param ticks		the largest number of ticks in each run
+	 */
+	public EnsembleRunner (int ticks)
+	{
+		this (ticks, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Creates a new EnsembleRunner that runs every scenario for up to the
+	 * specified number of ticks, on the specified number of threads.
+	 *
+	 * @param ticks			the largest number of ticks in each run
+	 * @param threads		the number of runs to do at the same time
+	 */
+	public EnsembleRunner (int ticks, int threads)
+	{
+		this.ticks = ticks;
+		this.threads = Math.max(1, threads);
+	}
+
+	/** Adds a scenario to be run once for every seed.
+	 *
+	 * @param name			the name of the scenario in the results
+	 * @param scenario		creates the WorldGenerator for each run
+	 */
+	public void addScenario (String name, Scenario scenario)
+	{
+		scenarios.put(name, scenario);
+	}
+
+	/** Adds seeds to run every scenario with.
+	 *
+	 * @param newSeeds		the seeds to add
+	 */
+	public void addSeeds (long... newSeeds)
+	{
+		for (long seed : newSeeds)
+			seeds.add(seed);
+	}
+
+	/** Runs every scenario with every seed, and waits for all of the runs to finish.
+	 *
+	 * @return the results of the runs, in the order of the scenarios and then the seeds
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public List<Result> run () throws InterruptedException
+	{
+		List<Callable<Result>> runs = new ArrayList<Callable<Result>>();
+		for (Map.Entry<String, Scenario> entry : scenarios.entrySet())
+		{
+			for (long seed : seeds)
+			{
+				final String name = entry.getKey();
+				final Scenario scenario = entry.getValue();
+				final long s = seed;
+				runs.add(new Callable<Result>()
+				{
+					public Result call()
+					{
+						return runOnce(name, scenario, s);
+					}
+				});
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "EnsembleRunner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try
+		{
+			List<Result> results = new ArrayList<Result>(runs.size());
+			for (Future<Result> future : pool.invokeAll(runs))
+				results.add(future.get());
+			return results;
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/** Runs a scenario once with the specified seed.
+	 *
+	 * @param name			the name of the scenario
+	 * @param scenario		creates the WorldGenerator for the run
+	 * @param seed			the seed of the run
+	 * @return the result of the run
+	 */
+	private Result runOnce (String name, Scenario scenario, long seed)
+	{
+		Result result = new Result(name, seed);
+		Spacetime grid = scenario.create(seed).generate();
+		Multiverse multiverse = new Multiverse(grid, 1); // the runs are already spread over the threads
+		Statistics data = new Statistics(grid);
+
+		while (result.ticks < ticks)
+		{
+			multiverse.advance();
+			result.ticks++;
+
+			data.update();
+			result.peakWitches = Math.max(result.peakWitches, data.witchNum);
+			if (data.livingNum == 0)
+			{
+				result.extinctionTime = grid.getTime();
+				break;
+			}
+		}
+
+		result.finalPopulation = data.livingNum;
+		result.finalHumans = data.humanNum;
+		result.finalPuellas = data.puellaNum;
+		result.finalWitches = data.witchNum;
+		return result;
+	}
+
+	/** Creates a tab-separated table of the specified results, with one run per line.
+	 *
+	 * @param results		the results of the runs
+	 * @return the table of results, including a header line
+	 */
+	public static String toTable (List<Result> results)
+	{
+		StringBuilder table = new StringBuilder();
+		table.append("scenario\tseed\tticks\textinction\tpeakWitches\tpopulation\thumans\tpuellas\twitches\n");
+		for (Result r : results)
+		{
+			table.append(r.scenario).append('\t')
+				.append(r.seed).append('\t')
+				.append(r.ticks).append('\t')
+				.append(r.extinctionTime).append('\t')
+				.append(r.peakWitches).append('\t')
+				.append(r.finalPopulation).append('\t')
+				.append(r.finalHumans).append('\t')
+				.append(r.finalPuellas).append('\t')
+				.append(r.finalWitches).append('\n');
+		}
+		return table.toString();
+	}
+
+	/** Runs a sweep over the human population and the Walpurgisnacht,
+	 * and prints the results.
+	 *
+	 * @param args		the number of ticks and the number of seeds per scenario, optionally
+	 * @throws InterruptedException if the sweep is interrupted
+	 */
+	public static void main (String[] args) throws InterruptedException
+	{
+		int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		EnsembleRunner ensemble = new EnsembleRunner(ticks);
+		for (final int humans : new int[] {200, 1000})
+		{
+			for (final boolean walpurgisnacht : new boolean[] {false, true})
+			{
+				ensemble.addScenario("humans=" + humans + ",walpurgisnacht=" + walpurgisnacht, new Scenario()
+				{
+					public WorldGenerator create(long seed)
+					{
+						WorldGenerator wg = new WorldGenerator(seed);
+						wg.setHumanPopulation(humans);
+						wg.setHasWalpurgisnacht(walpurgisnacht);
+						return wg;
+					}
+				});
+			}
+		}
+		for (int i = 0; i < runs; i++)
+			ensemble.addSeeds(i + 1);
+
+		System.out.print(toTable(ensemble.run()));
+	}
+}
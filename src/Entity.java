@@ -1,3 +1,4 @@
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
@@ -6,6 +7,8 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /** The abstract class representing a movable object. It has a defined
  * shape, and an x and y coordinate. It has a velocity vector and an 
@@ -36,19 +39,56 @@ public abstract class Entity implements Serializable
 	 */
 	public static final double precision = 0.00001;
 
+	/** The categories in which the QuadBranches of a Spacetime count the Entities
+	 * that they hold. Each is the number of a bit in {@code getCategories()}. 
+	 * Every Entity is in the ENTITY category.
+	 * 
+	 * @see Spacetime#count(int, Rectangle2D)
+	 */
+	public static final int ENTITY = 0;
+	public static final int HUMAN = 1;
+	public static final int FEMALE = 2;
+	public static final int CANDIDATE = 3; // a female Human that has not refused a contract
+	public static final int UNKISSED = 4;
+	public static final int PUELLA = 5;
+	public static final int WITCH = 6;
+	public static final int GRIEF_SEED = 7;
+	public static final int WALL = 8;
+
+	/** The number of categories.
+	 */
+	public static final int CATEGORIES = 9;
+
 	/** The Shape object representing the appearance and collision box of this Entity.
 	 */
 	protected Shape shape;
 
-	/** The Spacetime object to which this Entity belongs.
+	/** The Spacetime object to which this Entity belongs. It is not saved along 
+	 * with this Entity; a Spacetime sets it again for all of its Entities when it 
+	 * is deserialized, so that one Entity can be sent on its own.
 	 */
-	protected Spacetime grid;
+	protected transient Spacetime grid;
 
 	/** An index used by the QuadTree in the Spacetime grid to quickly
 	 * locate the quadrant in which this Entity is currently located. 
 	 */
 	protected QuadTreePath path; //TODO: contain QuadBranch pointer?
 
+	/** The categories that this Entity was counted in by the index holding it,
+	 * which may be out of date if it has changed since.
+	 */
+	protected transient int categories;
+
+	/** The locational code under which the MortonIndex holding this Entity 
+	 * has stored it, which tells the index where to find it again.
+	 */
+	protected transient long code;
+
+	/** A number identifying this Entity, given to it by the first Spacetime
+	 * that it is added to. 0 means that it has not been given one yet.
+	 */
+	protected long id;
+
 	/** The Entity's x-coordinate, representing the centre of its shape. 
 	 */
 	protected double x;
@@ -135,6 +175,7 @@ public abstract class Entity implements Serializable
 	{
 		Vector2D vector = Vector2D.getVectorFromDirection(amount, theta + relativeTheta);		
 		velocity.add(vector);
+		wake();
 	}
 
 	/** Adds the given vector to the current velocity vector.	 
@@ -144,6 +185,7 @@ public abstract class Entity implements Serializable
 	public void accelerate (Vector2D vector)
 	{
 		velocity.add(vector);
+		wake();
 	}
 
 	/** Changes the rotation rate by the specified amount.
@@ -155,6 +197,7 @@ public abstract class Entity implements Serializable
 	public void accelerateSpin (double deltaAngularVelocity)
 	{
 		angularVelocity += deltaAngularVelocity;
+		wake();
 	}
 
 	/** Advances the simulation by one tick. Override this method for
@@ -173,6 +216,22 @@ public abstract class Entity implements Serializable
 		}		
 	}	
 
+	/** Invoked on every awake Entity at the start of each tick, one Entity at a 
+	 * time, before any Entity is advanced, when the Spacetime advances its tiles
+	 * in parallel. Entities that look at the whole Spacetime to decide what to do,
+	 * rather than only at what they are touching, should do so here instead of in
+	 * advance(), since other parts of the Spacetime may be advancing at the same 
+	 * time as this Entity. When the Spacetime advances its Entities one at a time,
+	 * it does not call this, and such Entities call it from advance() themselves,
+	 * so that they see the Entities that were advanced before them. By default,
+	 * this does nothing.
+	 * 
+	 * @see Spacetime#CHECKERBOARD_TICK
+	 */
+	public void plan ()
+	{
+	}
+
 	/** Reduces the velocity and angular velocity as specified
 	 * by the friction variable. Multiples the magnitude of each
 	 * variable by <code>(1 - friction)</code>, and rounds them to
@@ -212,6 +271,17 @@ public abstract class Entity implements Serializable
 		g.fill(getShape());
 	}
 
+	/** Returns the colour of this Entity, which is what it is drawn as when it
+	 * is too small on the screen to be drawn with its shape. This method should
+	 * be overridden along with {@code draw(Graphics2D)}.
+	 * 
+	 * @return the colour of this Entity
+	 */
+	public Color getColor ()
+	{
+		return Color.black;
+	}
+
 	/** Returns the Point2D.Double object representing the coordinates 
 	 * of the rotational center of this Entity at its current location. 
 	 * 
@@ -260,6 +330,29 @@ public abstract class Entity implements Serializable
 		return at.createTransformedShape(shape);		
 	}	
 
+	/** Returns the number identifying this Entity, which is given to it by the 
+	 * first Spacetime that it is added to.
+	 * 
+	 * @return the id of this Entity, or 0 if it has never been added to a Spacetime
+	 */
+	public long getId ()
+	{
+		return id;
+	}
+
+	/** Returns the random number generator that this Entity should use for its
+	 * behaviour, which is the one belonging to its Spacetime. Entities that are 
+	 * not in a Spacetime use a generator that is not shared with other threads.
+	 * 
+	 * @return a random number generator
+	 */
+	protected Random getRandom ()
+	{
+		if (grid != null)
+			return grid.getRandom();
+		return ThreadLocalRandom.current();
+	}
+
 	/** Returns the Vector2D object representing this Entity's current velocity.
 	 * 
 	 * @return the velocity vector of this Entity
@@ -279,6 +372,44 @@ public abstract class Entity implements Serializable
 		return velocity.x == 0 && velocity.y == 0 && angularVelocity == 0;
 	}
 
+	/** Determines if this Entity can be put to sleep by the Spacetime it is in.
+	 * Sleeping Entities are not advanced until they are accelerated, collided
+	 * into, or woken up by a scheduled wake-up. Override this method to return false 
+	 * for Entities whose advance() method does more than move them.
+	 * <p>
+	 * By default, an Entity can sleep whenever it is static.
+	 * 
+	 * @see Spacetime#wake(Entity)
+	 * 
+	 * @return true if this Entity has nothing to do while it is static; false otherwise
+	 */
+	public boolean canSleep ()
+	{
+		return isStatic();
+	}
+
+	/** Returns the categories that this Entity is currently in, with bit n set for 
+	 * category n. Override this method to add the categories of a subclass. Whenever 
+	 * the result changes for an Entity that is in a Spacetime, the Spacetime must be 
+	 * told with {@code recategorize(Entity)}.
+	 * 
+	 * @see #CATEGORIES
+	 * 
+	 * @return the categories of this Entity, as a bit mask
+	 */
+	public int getCategories ()
+	{
+		return 1 << ENTITY;
+	}
+
+	/** Wakes up this Entity if it is sleeping in a Spacetime. 
+	 */
+	protected void wake ()
+	{
+		if (grid != null)
+			grid.wake(this);
+	}
+
 	/** Invoked by the {@code resolveCollision} method of an Entity that has
 	 * collided into this Entity as a result of translation or rotation. This method 
 	 * can be overridden to perform custom operations upon collision, such as damage dealing.
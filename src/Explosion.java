@@ -63,9 +63,17 @@ public class Explosion extends Entity
 	@Override
 	public void draw (Graphics2D g)
 	{		
-		int transparency = (int) (255 * (double)timeLeft / fadeInterval);
-		g.setColor (new Color (color.getRed(), color.getGreen(), color.getBlue(), transparency));
+		g.setColor (getColor());
 		g.fill (getShape());
 		g.setColor (Color.black);
 	}
+
+	/** Returns the colour of this Explosion, which fades away as it runs out of time.
+	 */
+	@Override
+	public Color getColor ()
+	{
+		int transparency = (int) (255 * (double)timeLeft / fadeInterval);
+		return new Color (color.getRed(), color.getGreen(), color.getBlue(), transparency);
+	}
 }
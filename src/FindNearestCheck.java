@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/** A program that checks that {@code Spacetime.findNearest} finds the same
+ * targets as a search through every Entity of the type.
+ * <p>
+ * A world is generated and advanced for a few ticks, and some of its Humans are
+ * kissed or refuse contracts, so that the categories that Witches and the
+ * incubator search for are spread thinly over the world. From random points, and from every Witch and Puella,
+ * the nearest unkissed Human, contract candidate, Witch and GriefSeed are then
+ * searched for with each kind of index, and every answer must be the one picked
+ * by going through all of the Entities of the type in order of their ids.
+ * <p>
+ * Prints the outcome, and exits with a status of 1 if the check fails.
+ *
+ * @see Spacetime#findNearest(Entity, Class, int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class FindNearestCheck
+{
+	/** The types and categories searched for, in pairs.
+	 */
+	private static final Class<?>[] TYPES = {Human.class, Human.class, Witch.class, GriefSeed.class};
+	private static final int[] CATEGORIES = {Entity.UNKISSED, Entity.CANDIDATE, Entity.WITCH, Entity.GRIEF_SEED};
+
+	/** Finds the target of a search by going through every Entity of the type,
+	 * as {@code findNearest} did before it searched the index.
+	 *
+	 * @param grid			the Spacetime
+	 * @param seeker		the Entity that is searching
+	 * @param type			the type of Entity to search for
+	 * @param category		the category that the Entity should be in
+	 * @return the Entity found, or null if there are none of the type
+	 */
+	private static Entity search (Spacetime grid, Entity seeker, Class<?> type, int category)
+	{
+		List<Entity> candidates = grid.getEntities(type);
+		if (candidates.isEmpty())
+			return null;
+		Collections.sort(candidates, new Comparator<Entity>()
+		{
+			public int compare (Entity a, Entity b)
+			{
+				return Long.compare(a.id, b.id);
+			}
+		});
+
+		DistanceKernels.Coordinates c = DistanceKernels.buffer().load(candidates);
+		for (int i = 0; i < candidates.size(); i++)
+			c.eligible[i] = (candidates.get(i).getCategories() & 1 << category) != 0;
+		return candidates.get(DistanceKernels.nearest(c, seeker.x, seeker.y, true));
+	}
+
+	/** Runs the check. The optional arguments are the number of Humans, the number
+	 * of random points and the seed, which are 3000, 300 and 7 by default.
+	 *
+	 * @param args		the number of Humans, the number of points and the seed
+	 */
+	public static void main (String[] args)
+	{
+		int humans = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int points = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 7;
+
+		WorldGenerator wg = new WorldGenerator (seed);
+		wg.setHumanPopulation(humans);
+		Spacetime grid = wg.generate();
+		for (int i = 0; i < 20; i++)
+			grid.advance();
+
+		// Leave only a few Humans in the categories searched for
+
+		Random random = new Random (seed);
+		for (Entity e : grid.getEntities(Human.class))
+		{
+			if (random.nextInt(10) != 0)
+				((Human) e).WitchKiss();
+			if (random.nextInt(10) != 0)
+				((Human) e).refuseContract();
+		}
+
+		List<Entity> seekers = new ArrayList<Entity>();
+		seekers.addAll(grid.getEntities(Witch.class));
+		seekers.addAll(grid.getEntities(Puella.class));
+		for (int i = 0; i < points; i++)
+			seekers.add(new GriefSeed (random.nextDouble() * 4000 - 200, random.nextDouble() * 4000 - 200));
+
+		int searches = 0;
+		int wrong = 0;
+		for (int type = Spacetime.QUADTREE_INDEX; type <= Spacetime.AABB_INDEX; type++)
+		{
+			grid.setIndexType(Spacetime.ENTITIES, type);
+			for (Entity seeker : seekers)
+			{
+				for (int i = 0; i < TYPES.length; i++)
+				{
+					searches++;
+					if (grid.findNearest(seeker, TYPES[i], CATEGORIES[i]) != search(grid, seeker, TYPES[i], CATEGORIES[i]))
+						wrong++;
+				}
+			}
+		}
+
+		boolean passed = wrong == 0;
+		System.out.println("searches=" + searches + " wrong=" + wrong);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
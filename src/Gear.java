@@ -53,7 +53,13 @@ public class Gear extends Entity
 	@Override
 	public void draw (Graphics2D g)
 	{
-		g.setColor (Color.black);
+		g.setColor(getColor());
 		super.draw (g);		
 	}
+
+	@Override
+	public Color getColor ()
+	{
+		return Color.black;
+	}
 }
@@ -14,6 +14,10 @@ public class GrassTile extends TerrainTile
 {
 	private static final long serialVersionUID = 1L;
 
+	/** The colour of grass.
+	 */
+	private static final Color COLOR = new Color (150, 255, 0);
+
 	/** Creates a new GrassTile.
 	 * 
 	 * @param x			the x coordinate of the GrassTile
@@ -33,10 +37,16 @@ public class GrassTile extends TerrainTile
 	public void draw(Graphics2D g) 
 	{
 		Shape grass = getShape ();
-		g.setColor(new Color (150, 255, 0));
+		g.setColor(getColor());
 		g.fill (grass);
 		g.setColor (new Color (100, 192, 0));
 		g.draw (grass);
 		g.drawString((int)x + "," + (int)y, (int) x + 2, (int) y + 20);
 	}	
+
+	@Override
+	public Color getColor ()
+	{
+		return COLOR;
+	}
 }
@@ -18,7 +18,7 @@ public class GriefSeed extends Entity {
 	public static final Shape shape = new Ellipse2D.Double(0, 0, 3, 3);
 	
 	private ArrayList<Color> colors;
-	private int colorIndex = 0;	
+	private int colorIndex = 0;	// the color shown at tick 0; the colors cycle once per tick from there
 	
 	/** Sets a new Grief Seed at the specified coordinates.
 	 * 
@@ -31,20 +31,33 @@ public class GriefSeed extends Entity {
 		initRandomColors();
 	}
 	
-	public void advance()
+	@Override
+	public int getCategories ()
 	{
-		super.advance();
-		
-		colorIndex++;
-		if (colorIndex >= colors.size())
-			colorIndex = 0;
+		return super.getCategories() | 1 << GRIEF_SEED;
 	}
-	
+
+	/** Draws this Grief Seed. The color is derived from the current 
+	 * time of its Spacetime, so the colors keep cycling while the Grief Seed
+	 * is sleeping.
+	 */
 	public void draw (Graphics2D g)
 	{
-		g.setColor(colors.get(colorIndex));
+		g.setColor(getColor());
 		g.fill(getShape());
 	}
+
+	/** Returns the colour that this Grief Seed is showing at the current time
+	 * of its Spacetime.
+	 */
+	@Override
+	public Color getColor ()
+	{
+		int index = colorIndex;
+		if (grid != null)
+			index = (int)((colorIndex + grid.getTime()) % colors.size());
+		return colors.get(index);
+	}
 	
 	/** Initializes the array of randomized colors that are
 	 * used in sequence as time passes to draw this Grief Seed. 
@@ -3,6 +3,8 @@ import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /** A class used to represent a human entity.
  * 
@@ -25,6 +27,11 @@ public class Human extends Entity
 
 	boolean gender, contractor;
 
+	/** The colours of male and female Humans.
+	 */
+	static final Color MALE_COLOR = new Color(128, 64, 0);
+	static final Color FEMALE_COLOR = Color.RED;
+
 	/**
 	 * The human is a small 4x4 pixel square.
 	 */
@@ -41,6 +48,18 @@ public class Human extends Entity
 	 * @param y			the y-coordinate of the human
 	 */
 	public Human(double x, double y)
+	{
+		this (x, y, ThreadLocalRandom.current());
+	}
+
+	/** Constructs a new Human at a specified point, using the specified
+	 * random number generator to determine its gender.
+	 * 
+	 * @param x			the x-coordinate of the human
+	 * @param y			the y-coordinate of the human
+	 * @param random	the random number generator
+	 */
+	public Human(double x, double y, Random random)
 	{
 		super(x, y, shape); // accesses Entity constructor 
 		age = 0;
@@ -48,7 +67,7 @@ public class Human extends Entity
 		kissed = false;
 
 		// determine gender
-		if(Math.random() < 0.225)
+		if(random.nextDouble() < 0.225)
 			gender = false;
 		else
 			gender = true;
@@ -93,6 +112,29 @@ public class Human extends Entity
 			reproduce = 2;
 	}
 
+	@Override
+	public int getCategories ()
+	{
+		int categories = super.getCategories() | 1 << HUMAN;
+		if (!gender)
+			categories |= 1 << FEMALE;
+		if (!gender && !contractor)
+			categories |= 1 << CANDIDATE;
+		if (!kissed)
+			categories |= 1 << UNKISSED;
+		return categories;
+	}
+
+	/** Humans age and wander about every tick, so they never fall asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
 	@Override
 	public void advance ()
 	{
@@ -113,7 +155,7 @@ public class Human extends Entity
 
 		for (Entity e : colliding)
 		{
-			if (e instanceof Human)
+			if (e instanceof Human && grid != null) // a Portal may have just sent this Human away
 			{
 				if(((Human) e).gender != gender && gender == false && reproduce >= 0)
 				{
@@ -122,11 +164,9 @@ public class Human extends Entity
 					birthx = random((int)x - 20, (int)x + 20);
 					birthy = random((int)y - 20, (int)y + 20);
 
-					Human kid = new Human(birthx, birthy); 
+					Human kid = new Human(birthx, birthy, getRandom()); 
 
-					grid.addEntity (kid);
-					grid.ensureNoCollision(kid);
-					grid.markAddition(kid, 5);
+					grid.requestSpawn (kid, 5); // placed with the other births at the start of the next tick
 
 					reproduce--;
 				}
@@ -159,7 +199,7 @@ public class Human extends Entity
 	public int random (int min, int max)
 	{
 		double step1 = (Math.max(min, max) - Math.min(min, max));
-		double step2 = (Math.random() * step1);
+		double step2 = (getRandom().nextDouble() * step1);
 		double step3 = Math.min(min, max) + step2;
 		
 		return (int) Math.round(step3); // the random number
@@ -171,6 +211,8 @@ public class Human extends Entity
 	{
 		kissed = true;
 		timeLeft *= 0.1;
+		if (grid != null)
+			grid.recategorize(this);
 	}
 
 	/** Transforms the human into a Puella (magical girl).
@@ -187,6 +229,8 @@ public class Human extends Entity
 	public void refuseContract()
 	{
 		contractor = true;
+		if (grid != null)
+			grid.recategorize(this);
 	}
 
 	/** Displays the human by drawing it onto a Graphics
@@ -194,12 +238,15 @@ public class Human extends Entity
 	 */
 	public void draw (Graphics2D g)
 	{
-		if(gender)
-			g.setColor(new Color(128, 64, 0)); // male
-		
-		else if (!gender)
-			g.setColor(Color.RED); // female
-		
+		g.setColor(getColor());
 		g.fill(getShape());
 	}
+
+	@Override
+	public Color getColor ()
+	{
+		if(gender)
+			return MALE_COLOR;
+		return FEMALE_COLOR;
+	}
 }
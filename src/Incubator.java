@@ -16,10 +16,6 @@ public class Incubator extends Entity
 {
 	private static final long serialVersionUID = 1L;
 	
-	/** The statistics object used to gather information for the incubator.
-	 */
-	private Statistics data;	
-	
 	/** The radius of the incubator's respawn area.
 	 */
 	public int respawnX = 1200;
@@ -28,6 +24,16 @@ public class Incubator extends Entity
 	/** The number of grief seeds the incubator has consumed.
 	 */
 	public int griefSeeds;
+
+	/** The female Human or grief seed that the incubator is currently heading 
+	 * for. It is only chosen again every few ticks, or when it is no longer in 
+	 * the incubator's Spacetime.
+	 */
+	private transient Entity target;
+
+	/** Where the target was at the start of the current tick.
+	 */
+	private double targetX, targetY;
 	
 	/** Constructs a new incubator at a location on a Spacetime object.
 	 * @param grid		the spacetime the incubator is located in
@@ -38,29 +44,66 @@ public class Incubator extends Entity
 	{
 		super(x, y, new Ellipse2D.Double (x, y, 5, 5));		
 		grid.incubator = this;
-		data = new Statistics(grid);
 		
 		griefSeeds = 0;
 	}
 	
+	/** The Incubator watches over the population every tick, so it never falls asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
+	@Override
+	public void plan ()
+	{
+		if(grid.incubator != null)
+		{
+			if (target == null || target.grid != grid || grid.isRetargetDue(this))
+				target = findTarget();
+			if (target != null)
+			{
+				targetX = target.x;
+				targetY = target.y;
+			}
+		}
+	}
+
 	@Override
 	public void advance ()
 	{
 		super.advance();
 		
 		if(grid != null && grid.incubator != null)
-			move(grid.getEntities(Human.class), grid.getEntities(GriefSeed.class));
+		{
+			if (grid.getTickStrategy() != Spacetime.CHECKERBOARD_TICK)
+				plan();
+			if (target != null)
+				moveTowards(targetX, targetY);
+			else
+				moveTowards(null);
+		}
 	}
 
 	@Override
 	public void draw(Graphics2D g) 
 	{	
 		Shape shape = getShape();
-		g.setColor(Color.white);
+		g.setColor(getColor());
 		g.fill(shape);
 		g.setColor(Color.black);
 		g.draw(shape);
 	}	
+
+	@Override
+	public Color getColor ()
+	{
+		return Color.white;
+	}
 	
 	@Override
 	public void resolveCollision (List<Entity> colliding, double dx, double dy, double dTheta)
@@ -71,7 +114,7 @@ public class Incubator extends Entity
 		{
 			if (e instanceof Human)
 			{
-				if(Math.random() < 0.2 && !((Human) e).gender && !((Human) e).contractor)
+				if(getRandom().nextDouble() < 0.2 && !((Human) e).gender && !((Human) e).contractor)
 				{
 					grid.requestRemoval(e);
 					
@@ -99,8 +142,8 @@ public class Incubator extends Entity
 	 */
 	public void respawn (Spacetime requester)
 	{
-		x += respawnX * Math.random() - (respawnX / 2);
-		y += respawnY * Math.random() - (respawnY / 2);
+		x += respawnX * requester.getRandom().nextDouble() - (respawnX / 2);
+		y += respawnY * requester.getRandom().nextDouble() - (respawnY / 2);
 		requester.addEntity (this);
 		requester.ensureNoCollision(this);
 		requester.markAddition(this, 18);		
@@ -114,103 +157,85 @@ public class Incubator extends Entity
 	 */
 	public int[] move (ArrayList<Entity> potential, ArrayList<Entity> seeds)
 	{
-		int[] direct = new int[2];
-		
-		data.update();
-		if (data.puellaNum >= data.witchNum && seeds.size() != 0 || data.humanNum < data.witchNum)
+		target = selectTarget(potential, seeds);
+		return moveTowards(target);
+	}
+
+	/** Chooses what the incubator should head for, based on the current 
+	 * population. It goes for grief seeds when there are enough magical girls 
+	 * or too few humans, and for the closest female human otherwise.
+	 * @param potential			the nearby female humans
+	 * @param seeds				the nearby grief seeds
+	 * @return		the chosen human or grief seed, or null if there is none
+	 */
+	public Entity selectTarget (List<Entity> potential, List<Entity> seeds)
+	{
+		int witchNum = grid.count(WITCH); // read off of the counts kept by the grid
+		if (grid.count(PUELLA) >= witchNum && seeds.size() != 0 || grid.count(HUMAN) < witchNum)
 			potential = seeds;
 
-		if(potential.size() != 0 && (grid.getEntities(Witch.class).size() != 0 || potential.equals(seeds)))
+		if(potential.size() == 0 || (witchNum == 0 && !potential.equals(seeds)))
+			return null;
+
+		DistanceKernels.Coordinates c = DistanceKernels.buffer().load(potential);
+		for(int i = 0; i < potential.size(); i++)
 		{
-			double[] distance = new double[potential.size()];
-			int closest = 0;
-			double a, b;
+			Entity temp = potential.get(i);
+			if (temp instanceof Human)
+				c.eligible[i] = ((Human) temp).gender == false && ((Human) temp).contractor == false;
+			else
+				c.eligible[i] = temp instanceof GriefSeed;
+		}
 
-			for(int i = 0; i < potential.size(); i ++)
-			{
-				distance[i] = Math.sqrt((x - potential.get(i).x) * (x - potential.get(i).x) + (y - potential.get(i).y) * (y - potential.get(i).y));
-			}
+		// The first one is the fallback, even if it is not a target
+		return potential.get(DistanceKernels.nearest(c, x, y, true));
+	}
 
-			for(int i = 1; i < distance.length; i++)
-			{
-				Entity temp = potential.get(i);
-				if(distance[i] < distance[closest])
-				{
-					if (temp instanceof Human)
-					{
-						Human human = (Human) temp;
-
-						if (human.gender == false && human.contractor == false)
-						{
-							closest = i;
-						}
-					}
-					else if (temp instanceof GriefSeed)
-					{
-						closest = i;
-					}
-				}
-			}
+	/** Chooses what the incubator should head for in the same way as
+	 * {@code selectTarget}, out of everything in the grid, but without
+	 * gathering the humans and grief seeds into lists first.
+	 * @return		the chosen human or grief seed, or null if there is none
+	 */
+	private Entity findTarget ()
+	{
+		int witchNum = grid.count(WITCH);
+		if (grid.count(PUELLA) >= witchNum && grid.count(GRIEF_SEED) != 0 || grid.count(HUMAN) < witchNum)
+			return grid.findNearest(this, GriefSeed.class, GRIEF_SEED);
+		if (witchNum == 0)
+			return null;
+		return grid.findNearest(this, Human.class, CANDIDATE);
+	}
 
-			a = potential.get(closest).x;
-			b = potential.get(closest).y;
+	/** Moves the incubator one step towards its target, in one of 8 directions,
+	 * or one step in a random direction if it has no target.
+	 * @param goal			the human or grief seed to head for, or null
+	 * @return		the point in array form of the movement
+	 */
+	public int[] moveTowards (Entity goal)
+	{
+		if(goal != null)
+			return moveTowards(goal.x, goal.y);
 
-			if(x - a > 0 && y - b > 0)
-			{
-				direct[0] = -1;
-				direct[1] = -1;
-			}
-			else if(x - a == 0 && y - b > 0)
-			{
-				direct[0] = 0;
-				direct[1] = -1;
-			}
-			else if(x - a < 0 && y - b > 0)
-			{
-				direct[0] = 1;
-				direct[1] = -1;
-			}
-			else if(x - a > 0 && y - b == 0)
-			{
-				direct[0] = -1;
-				direct[1] = 0;
-			}
-			else if(x - a == 0 && y - b == 0)
-			{
-				direct[0] = 0;
-				direct[1] = 0;
-			}
-			else if(x - a < 0 && y - b == 0)
-			{
-				direct[0] = 1;
-				direct[1] = 0;
-			}
-			else if(x - a > 0 && y - b < 0)
-			{
-				direct[0] = -1;
-				direct[1] = 1;
-			}
-			else if(x - a == 0 && y - b < 0)
-			{
-				direct[0] = 0;
-				direct[1] = 1;
-			}
-			else if(x - a < 0 && y - b < 0)
-			{
-				direct[0] = 1;
-				direct[1] = 1;
-			}
+		int[] direct = new int[2];
+		direct[0] = random(-1, 1);
+		direct[1] = random(-1, 1);
 
-			translate(direct[0], direct[1]);
-		}
-		else
-		{			
-			direct[0] = random(-1, 1);
-			direct[1] = random(-1, 1);
+		translate(direct[0], direct[1]);
+		return direct;
+	}
 
-			translate(direct[0], direct[1]);			
-		}
-		
+	/** Moves one step towards the specified point, in one of 8 directions.
+	 * @param goalX		the x-coordinate to head for
+	 * @param goalY		the y-coordinate to head for
+	 * @return		the point in array form of the movement
+	 */
+	public int[] moveTowards (double goalX, double goalY)
+	{
+		int[] direct = new int[2];
+		direct[0] = (int) Math.signum(goalX - x);
+		direct[1] = (int) Math.signum(goalY - y);
+
+		translate(direct[0], direct[1]);
 		return direct;
 	}
 	
@@ -222,7 +247,7 @@ public class Incubator extends Entity
 	public int random (int min, int max)
 	{
 		double step1 = (Math.max(min, max) - Math.min(min, max));
-		double step2 = (Math.random() * step1);
+		double step2 = (getRandom().nextDouble() * step1);
 		double step3 = Math.min(min, max) + step2;
 
 		//System.out.println ("Steps: " + step1 + " " + step2 + " " + step3);
@@ -0,0 +1,612 @@
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** An immutable picture of where the Entities of one layer of a Spacetime were
+ * at the end of a tick. Any number of threads can query a snapshot while the
+ * Spacetime goes on to the next tick, and they all see the same tick.
+ * <p>
+ * The plane is divided into square cells, and every Entity is kept in each of the
+ * cells that its bounds touch, along with the shape and bounds that it had when
+ * the snapshot was taken. The cells are the leaves of a trie with 16 children per
+ * node. A new snapshot shares everything with the one before it, except for the
+ * cells that Entities have moved into or out of, and the nodes on the way down
+ * to those cells, so the memory taken by each snapshot is proportional to the
+ * number of Entities that have changed since the last one.
+ * <p>
+ * Only the locations of the Entities are frozen; the Entities themselves are
+ * the live ones, so drawing an Entity from a snapshot draws it as it is now.
+ *
+ * @see Spacetime#getSnapshot(int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class IndexSnapshot
+{
+	/** The default width and height of each cell.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 64;
+
+	/** The largest number of cells that one Entity will be kept in. Bigger
+	 * Entities are kept in a separate list, which is checked by every query.
+	 */
+	public static final int MAX_CELLS_PER_ENTITY = 64;
+
+	/** The furthest that an Entity can move between two snapshots and still be
+	 * drawn part of the way between them. Entities that move further, such as
+	 * the ones that go through a Portal, are drawn where they ended up.
+	 */
+	public static final double MAX_INTERPOLATED_DISTANCE = 64;
+
+	/** The number of bits of a cell index used at each level of the trie.
+	 */
+	private static final int BITS = 4;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	/** An Entity, and its shape and bounds when the snapshot was taken.
+	 */
+	public static final class Entry
+	{
+		public final Entity entity;
+		public final Shape shape;
+		public final Rectangle2D bounds;
+
+		/** The corners of the bounds, kept in the entry itself so that going
+		 * over a lot of entries does not have to look each of them up.
+		 */
+		public final double minX, minY, maxX, maxY;
+
+		/** The location and angle of the Entity when the snapshot was taken.
+		 */
+		public final double x, y, theta;
+
+		Entry (Entity e)
+		{
+			entity = e;
+			x = e.x;
+			y = e.y;
+			theta = e.theta;
+			shape = e.getShape();
+			bounds = shape.getBounds2D();
+			minX = bounds.getMinX();
+			minY = bounds.getMinY();
+			maxX = bounds.getMaxX();
+			maxY = bounds.getMaxY();
+		}
+
+		/** Draws the Entity part of the way between where it was in the specified
+		 * earlier entry and where it is in this one, by moving and turning the 
+		 * Graphics2D about its centre before it draws itself.
+		 *
+		 * @param g			the Graphics2D object, transformed to the coordinates of the Entities
+		 * @param before	the entry of the Entity in an earlier snapshot, or null to draw it as it is
+		 * @param blend		how far along to draw it, from 0 at the earlier entry to 1 at this one
+		 * @see #MAX_INTERPOLATED_DISTANCE
+		 */
+		public void draw (Graphics2D g, Entry before, double blend)
+		{
+			double back = 1 - blend;
+			double dx = before == null ? 0 : before.x - x;
+			double dy = before == null ? 0 : before.y - y;
+			double dTheta = before == null ? 0 : Math.IEEEremainder(before.theta - theta, 2 * Math.PI);
+
+			if (back <= 0 || dx == 0 && dy == 0 && dTheta == 0
+					|| dx * dx + dy * dy > MAX_INTERPOLATED_DISTANCE * MAX_INTERPOLATED_DISTANCE)
+			{
+				entity.draw(g);
+				return;
+			}
+
+			Entity e = entity;
+			AffineTransform drawn = g.getTransform();
+			g.translate(x + dx * back - e.x, y + dy * back - e.y);
+			g.rotate(theta + dTheta * back - e.theta, e.x + e.anchorX, e.y + e.anchorY);
+			e.draw(g);
+			g.setTransform(drawn);
+		}
+	}
+
+	/** Orders entries the way that they are drawn: by the ids of their Entities,
+	 * which is the order in which they were added, and then by their bounds, from
+	 * the top down and from left to right, since only the Entities of the ENTITIES
+	 * layer are given ids. The order does not depend on which part of the plane was
+	 * searched, so Entities that overlap look the same whichever part is drawn.
+	 */
+	public static final Comparator<Entry> DRAWING_ORDER = new Comparator<Entry>()
+	{
+		public int compare (Entry a, Entry b)
+		{
+			int order = Long.compare(a.entity.id, b.entity.id);
+			if (order == 0)
+				order = Double.compare(a.minY, b.minY);
+			if (order == 0)
+				order = Double.compare(a.minX, b.minX);
+			if (order == 0)
+				order = Double.compare(a.maxY, b.maxY);
+			if (order == 0)
+				order = Double.compare(a.maxX, b.maxX);
+			return order;
+		}
+	};
+
+	/** The tick of the Spacetime when this snapshot was taken.
+	 */
+	private final long time;
+
+	/** The number of Entities in this snapshot.
+	 */
+	private final int size;
+
+	/** The layout of the cells, which all snapshots of one layer share.
+	 */
+	private final Grid grid;
+
+	/** The root node of the trie. The nodes at the lowest level hold Entry
+	 * arrays, one per cell, which are null for empty cells.
+	 */
+	private final Object[] root;
+
+	/** The Entities that are too big to be kept cell by cell.
+	 */
+	private final Entry[] large;
+
+	/** Creates a snapshot from its parts.
+	 */
+	private IndexSnapshot (long time, int size, Grid grid, Object[] root, Entry[] large)
+	{
+		this.time = time;
+		this.size = size;
+		this.grid = grid;
+		this.root = root;
+		this.large = large;
+	}
+
+	/** Returns the tick of the Spacetime when this snapshot was taken.
+	 *
+	 * @return the time of this snapshot
+	 */
+	public long getTime ()
+	{
+		return time;
+	}
+
+	/** Returns the number of Entities in this snapshot.
+	 *
+	 * @return the number of Entities
+	 */
+	public int getSize ()
+	{
+		return size;
+	}
+
+	/** Returns the entries of all of the Entities whose bounds intersected the
+	 * specified rectangle when this snapshot was taken.
+	 *
+	 * @param area		the rectangle to search
+	 * @return the matching entries, each Entity once
+	 */
+	public List<Entry> getEntries (Rectangle2D area)
+	{
+		LinkedHashMap<Entity, Entry> found = new LinkedHashMap<Entity, Entry>();
+		int[] range = grid.getCells(area);
+
+		for (int row = range[1]; row <= range[3]; row++)
+		{
+			for (int column = range[0]; column <= range[2]; column++)
+			{
+				Entry[] cell = getCell(row * grid.columns + column);
+				if (cell != null)
+					for (Entry entry : cell)
+						if (entry.bounds.intersects(area))
+							found.put(entry.entity, entry);
+			}
+		}
+
+		for (Entry entry : large)
+			if (entry.bounds.intersects(area))
+				found.put(entry.entity, entry);
+
+		return new ArrayList<Entry>(found.values());
+	}
+
+	/** Receives the entries found by {@code visit(Rectangle2D, Visitor)}.
+	 */
+	public interface Visitor
+	{
+		/** Called with every entry found.
+		 *
+		 * @param entry		the entry
+		 */
+		public void visit (Entry entry);
+	}
+
+	/** Passes the entries of all of the Entities whose bounds intersected the
+	 * specified rectangle when this snapshot was taken to the specified Visitor,
+	 * each once, in no particular order. Unlike {@code getEntries(Rectangle2D)},
+	 * nothing is collected, which makes this the way to go over a large area.
+	 *
+	 * @param area		the rectangle to search
+	 * @param visitor	the Visitor to pass the entries to
+	 */
+	public void visit (Rectangle2D area, Visitor visitor)
+	{
+		int[] range = grid.getCells(area);
+		double minX = area.getMinX(), minY = area.getMinY(), maxX = area.getMaxX(), maxY = area.getMaxY();
+
+		for (int row = range[1]; row <= range[3]; row++)
+		{
+			for (int column = range[0]; column <= range[2]; column++)
+			{
+				Entry[] cell = getCell(row * grid.columns + column);
+				if (cell == null)
+					continue;
+
+				// An Entity kept in several cells is only visited in the first one searched,
+				// which is the one that its top left corner is in, if that one is searched
+
+				for (Entry entry : cell)
+					if (entry.maxX >= minX && entry.minX <= maxX && entry.maxY >= minY && entry.minY <= maxY
+							&& (column == range[0] || grid.column(entry.minX) == column)
+							&& (row == range[1] || grid.row(entry.minY) == row))
+						visitor.visit(entry);
+			}
+		}
+
+		for (Entry entry : large)
+			if (entry.bounds.intersects(area))
+				visitor.visit(entry);
+	}
+
+	/** Returns the entries of all of the Entities whose bounds came within the
+	 * specified margin of the specified rectangle when this snapshot was taken, 
+	 * by their Entities.
+	 *
+	 * @param area		the rectangle to search
+	 * @param margin	how far outside of the rectangle to search
+	 * @return the entry of every matching Entity
+	 */
+	public Map<Entity, Entry> getEntryMap (Rectangle2D area, double margin)
+	{
+		final IdentityHashMap<Entity, Entry> found = new IdentityHashMap<Entity, Entry>();
+		Rectangle2D.Double around = new Rectangle2D.Double (area.getX() - margin, area.getY() - margin, 
+				area.getWidth() + 2 * margin, area.getHeight() + 2 * margin);
+		visit(around, new Visitor()
+		{
+			@Override
+			public void visit (Entry entry)
+			{
+				found.put(entry.entity, entry);
+			}
+		});
+		return found;
+	}
+
+	/** Returns all of the Entities whose bounds intersected the specified
+	 * rectangle when this snapshot was taken.
+	 *
+	 * @param area		the rectangle to search
+	 * @return the matching Entities
+	 */
+	public ArrayList<Entity> getEntities (Rectangle2D area)
+	{
+		ArrayList<Entity> entities = new ArrayList<Entity>();
+		for (Entry entry : getEntries(area))
+			entities.add(entry.entity);
+		return entities;
+	}
+
+	/** Returns all of the Entities whose shapes intersected the specified
+	 * selection Shape when this snapshot was taken.
+	 *
+	 * @param selection		the Shape specifying the selection area
+	 * @return the selected Entities
+	 */
+	public ArrayList<Entity> getEntities (Shape selection)
+	{
+		ArrayList<Entity> entities = new ArrayList<Entity>();
+		for (Entry entry : getEntries(selection.getBounds2D()))
+		{
+			Area area = new Area (entry.shape);
+			area.intersect(new Area (selection));
+			if (!area.isEmpty())
+				entities.add(entry.entity);
+		}
+		return entities;
+	}
+
+	/** Returns the first Entity whose shape contained the specified point
+	 * when this snapshot was taken.
+	 *
+	 * @param x		the x coordinate to check
+	 * @param y		the y coordinate to check
+	 * @return the Entity at the location if there was one; null otherwise
+	 */
+	public Entity getEntity (double x, double y)
+	{
+		Point2D.Double point = new Point2D.Double (x, y);
+		for (Entry entry : getEntries(new Rectangle2D.Double (x, y, 0, 0)))
+			if (entry.shape.contains(point))
+				return entry.entity;
+		return null;
+	}
+
+	/** Returns the Entry array of the specified cell.
+	 *
+	 * @param index		the index of the cell
+	 * @return the entries in the cell, or null if it is empty
+	 */
+	private Entry[] getCell (int index)
+	{
+		Object[] node = root;
+		for (int shift = (grid.depth - 1) * BITS; shift > 0; shift -= BITS)
+		{
+			node = (Object[]) node[(index >>> shift) & MASK];
+			if (node == null)
+				return null;
+		}
+		return (Entry[]) node[index & MASK];
+	}
+
+	/** The layout of the cells of a layer: how many there are, and how deep
+	 * the trie has to be to hold them.
+	 */
+	private static final class Grid
+	{
+		final double minX, minY, cellSize;
+		final int columns, rows, depth;
+
+		Grid (Rectangle2D bounds, double cellSize)
+		{
+			this.minX = bounds.getMinX();
+			this.minY = bounds.getMinY();
+			this.cellSize = cellSize;
+			columns = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+			rows = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
+
+			int levels = 1;
+			while ((long) 1 << (levels * BITS) < (long) columns * rows)
+				levels++;
+			depth = levels;
+		}
+
+		/** Returns the range of cells that the specified rectangle touches, as
+		 * {minColumn, minRow, maxColumn, maxRow}. Anything outside of the grid
+		 * is counted as being in the cells along its edge.
+		 */
+		int[] getCells (Rectangle2D area)
+		{
+			return new int[] {
+					column(area.getMinX()), row(area.getMinY()),
+					column(area.getMaxX()), row(area.getMaxY())};
+		}
+
+		int column (double x)
+		{
+			return (int) Math.max(0, Math.min(columns - 1, Math.floor((x - minX) / cellSize)));
+		}
+
+		int row (double y)
+		{
+			return (int) Math.max(0, Math.min(rows - 1, Math.floor((y - minY) / cellSize)));
+		}
+	}
+
+	/** Keeps track of the Entities of a layer that have changed since the last
+	 * snapshot, and takes the next snapshot from the last one. A Publisher is only
+	 * used by the thread that changes the layer; the snapshots that it publishes
+	 * can be read by any thread.
+	 */
+	public static class Publisher
+	{
+		/** The last snapshot that was published.
+		 */
+		private IndexSnapshot last;
+
+		/** The entry of every Entity in the last snapshot.
+		 */
+		private HashMap<Entity, Entry> entries = new HashMap<Entity, Entry>();
+
+		/** The Entities that have changed since the last snapshot: true if they
+		 * have been added or moved, false if they have been removed.
+		 */
+		private LinkedHashMap<Entity, Boolean> changes = new LinkedHashMap<Entity, Boolean>();
+
+		/** Creates a Publisher for a layer with the specified bounds, whose first
+		 * snapshot is empty.
+		 *
+		 * @param bounds		the bounds of the layer
+		 * @param cellSize		the width and height of each cell
+		 */
+		public Publisher (Rectangle2D bounds, double cellSize)
+		{
+			Grid grid = new Grid (bounds, cellSize);
+			last = new IndexSnapshot (0, 0, grid, new Object[WIDTH], new Entry[0]);
+		}
+
+		/** Records that the specified Entity has been added to the layer, or
+		 * has moved, since the last snapshot.
+		 *
+		 * @param e		the Entity that has changed
+		 */
+		public void changed (Entity e)
+		{
+			changes.put(e, Boolean.TRUE);
+		}
+
+		/** Records that the specified Entity has been removed from the layer
+		 * since the last snapshot.
+		 *
+		 * @param e		the Entity that has been removed
+		 */
+		public void removed (Entity e)
+		{
+			changes.put(e, Boolean.FALSE);
+		}
+
+		/** Returns the last snapshot that was published.
+		 *
+		 * @return the last snapshot
+		 */
+		public IndexSnapshot getLast ()
+		{
+			return last;
+		}
+
+		/** Takes a new snapshot with all of the changes since the last one. If
+		 * nothing has changed, the last snapshot is only given the new time.
+		 *
+		 * @param time		the tick of the Spacetime
+		 * @return the new snapshot
+		 */
+		public IndexSnapshot publish (long time)
+		{
+			if (changes.isEmpty())
+			{
+				if (last.time != time)
+					last = new IndexSnapshot (time, last.size, last.grid, last.root, last.large);
+				return last;
+			}
+
+			Grid grid = last.grid;
+			TreeMap<Integer, List<Entry>> removals = new TreeMap<Integer, List<Entry>>();
+			TreeMap<Integer, List<Entry>> additions = new TreeMap<Integer, List<Entry>>();
+			List<Entry> large = new ArrayList<Entry>(Arrays.asList(last.large));
+			boolean largeChanged = false;
+
+			for (Map.Entry<Entity, Boolean> change : changes.entrySet())
+			{
+				Entity e = change.getKey();
+				Entry old = change.getValue() ? entries.get(e) : entries.remove(e);
+				Entry entry = null;
+				if (change.getValue())
+				{
+					entry = new Entry (e);
+					entries.put(e, entry);
+				}
+
+				if (old != null)
+					largeChanged |= file(grid, old, removals, large, false);
+				if (entry != null)
+					largeChanged |= file(grid, entry, additions, large, true);
+			}
+			changes.clear();
+
+			// Copy the cells that have changed, and the nodes down to them
+
+			LinkedHashSet<Integer> touched = new LinkedHashSet<Integer>(removals.keySet());
+			touched.addAll(additions.keySet());
+			Object[] root = last.root.clone();
+			IdentityHashMap<Object[], Boolean> copied = new IdentityHashMap<Object[], Boolean>();
+			copied.put(root, Boolean.TRUE);
+
+			for (int index : touched)
+			{
+				Entry[] cell = last.getCell(index);
+				List<Entry> gone = removals.get(index);
+				List<Entry> added = additions.get(index);
+				setCell(root, grid, index, rebuild(cell, gone, added), copied);
+			}
+
+			Entry[] largeArray = largeChanged ? large.toArray(new Entry[large.size()]) : last.large;
+			last = new IndexSnapshot (time, entries.size(), grid, root, largeArray);
+			return last;
+		}
+
+		/** Files an entry under every cell that its bounds touch, or in the list
+		 * of big Entities.
+		 *
+		 * @return true if the list of big Entities was changed
+		 */
+		private static boolean file (Grid grid, Entry entry, Map<Integer, List<Entry>> cells, List<Entry> large, boolean add)
+		{
+			int[] range = grid.getCells(entry.bounds);
+			long count = (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+
+			if (count > MAX_CELLS_PER_ENTITY)
+			{
+				if (add)
+					large.add(entry);
+				else
+					large.remove(entry);
+				return true;
+			}
+
+			for (int row = range[1]; row <= range[3]; row++)
+			{
+				for (int column = range[0]; column <= range[2]; column++)
+				{
+					int index = row * grid.columns + column;
+					List<Entry> list = cells.get(index);
+					if (list == null)
+					{
+						list = new ArrayList<Entry>();
+						cells.put(index, list);
+					}
+					list.add(entry);
+				}
+			}
+			return false;
+		}
+
+		/** Returns a new Entry array for a cell, without the removed entries
+		 * and with the added ones at the end.
+		 */
+		private static Entry[] rebuild (Entry[] cell, List<Entry> gone, List<Entry> added)
+		{
+			List<Entry> result = new ArrayList<Entry>();
+			if (cell != null)
+			{
+				IdentityHashMap<Entry, Boolean> removed = new IdentityHashMap<Entry, Boolean>();
+				if (gone != null)
+					for (Entry entry : gone)
+						removed.put(entry, Boolean.TRUE);
+				for (Entry entry : cell)
+					if (!removed.containsKey(entry))
+						result.add(entry);
+			}
+			if (added != null)
+				result.addAll(added);
+
+			if (result.isEmpty())
+				return null;
+			return result.toArray(new Entry[result.size()]);
+		}
+
+		/** Sets a cell in the trie under the specified root, copying every node on
+		 * the way down that has not already been copied for this snapshot.
+		 */
+		private static void setCell (Object[] root, Grid grid, int index, Entry[] cell, IdentityHashMap<Object[], Boolean> copied)
+		{
+			Object[] node = root;
+			for (int shift = (grid.depth - 1) * BITS; shift > 0; shift -= BITS)
+			{
+				int slot = (index >>> shift) & MASK;
+				Object[] child = (Object[]) node[slot];
+				if (child == null)
+					child = new Object[WIDTH];
+				else if (!copied.containsKey(child))
+					child = child.clone();
+				copied.put(child, Boolean.TRUE);
+				node[slot] = child;
+				node = child;
+			}
+			node[index & MASK] = cell;
+		}
+	}
+}
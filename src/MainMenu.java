@@ -17,9 +17,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
@@ -33,10 +37,13 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -227,11 +234,7 @@ public class MainMenu extends JFrame implements ActionListener
 			WGsettings.setVisible (true);
 			configSave(WGsettings); 
 			if (WGsettings.shouldStartNewSim)
-			{
-				SimulationScreen newSim = new SimulationScreen ("Puella Magi Simulator", 700, 394, worldGenerator);
-				newSim.setVisible (true);
-				this.dispose(); // close main menu
-			}
+				startGeneration(); // the simulation screen opens once the world is ready
 		}
 		else if (source.equals(loadFile))
 		{
@@ -326,6 +329,106 @@ public class MainMenu extends JFrame implements ActionListener
 		startOptions(); // reload screen
 	}
 
+	/** Generates a new world on a background thread, so that the main menu does
+	 * not freeze while a large world is being generated. A dialog shows how many 
+	 * of the Entities have been placed, and can cancel the generation. Once the
+	 * world is ready, it is opened in a new SimulationScreen and the main menu
+	 * is closed.
+	 */
+	private void startGeneration ()
+	{
+		final JDialog progressDialog = new JDialog (this, "Generating World");
+		final JProgressBar progressBar = new JProgressBar (0, 100);
+		final JButton cancelButton = new JButton ("Cancel");
+		progressBar.setStringPainted (true);
+		progressBar.setFont (font);
+		cancelButton.setFont (font);
+
+		final SwingWorker<Spacetime, Void> generation = new SwingWorker<Spacetime, Void>()
+		{
+			@Override
+			protected Spacetime doInBackground ()
+			{
+				worldGenerator.setProgressListener (new WorldGenerator.ProgressListener()
+				{
+					public boolean progress (int done, int total)
+					{
+						setProgress ((int)(100L * done / total));
+						return !isCancelled();
+					}
+				});
+				try
+				{
+					return worldGenerator.generate();
+				}
+				finally // a cancelled generation only stops after the chunk it is placing
+				{
+					worldGenerator.setProgressListener (null);
+					SwingUtilities.invokeLater (new Runnable()
+					{
+						public void run ()
+						{
+							newSim.setEnabled (true);
+						}
+					});
+				}
+			}
+
+			@Override
+			protected void done ()
+			{
+				progressDialog.dispose();
+				try
+				{
+					SimulationScreen simulation = new SimulationScreen ("Puella Magi Simulator", 700, 394, get());
+					simulation.setVisible (true);
+					MainMenu.this.dispose(); // close main menu
+				}
+				catch (CancellationException e) // the user cancelled; stay on the main menu
+				{
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				catch (ExecutionException e)
+				{
+					e.getCause().printStackTrace(); // help diagnose problems
+					JOptionPane.showMessageDialog(MainMenu.this, "The world could not be generated:\n" + e.getCause(), "Error", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		};
+
+		generation.addPropertyChangeListener (new PropertyChangeListener()
+		{
+			public void propertyChange (PropertyChangeEvent e)
+			{
+				if ("progress".equals (e.getPropertyName()))
+					progressBar.setValue ((Integer) e.getNewValue());
+			}
+		});
+		cancelButton.addActionListener (new ActionListener()
+		{
+			public void actionPerformed (ActionEvent e)
+			{
+				generation.cancel (false);
+			}
+		});
+
+		// Set up dialog
+		progressDialog.getContentPane().setLayout (new BorderLayout());
+		progressDialog.getContentPane().add (progressBar, BorderLayout.CENTER);
+		progressDialog.getContentPane().add (cancelButton, BorderLayout.SOUTH);
+		progressDialog.setSize (300, 90);
+		progressDialog.setResizable (false);
+		progressDialog.setLocationRelativeTo (this);
+		progressDialog.setDefaultCloseOperation (JDialog.DO_NOTHING_ON_CLOSE);
+
+		newSim.setEnabled (false); // only one world at a time
+		progressDialog.setVisible (true);
+		generation.execute();
+	}
+
 	/** Saves the configurations set in the specified WorldGeneratorOptions
 	 * object to PuellaMagi.cfg.
 	 * 
@@ -0,0 +1,958 @@
+import java.awt.geom.Rectangle2D;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/** A linear quadtree, which stores Entities in sorted arrays instead of in a
+ * tree of QuadBranches.
+ * <p>
+ * Every Entity is given the locational code of the quadrant that holds the centre 
+ * of its bounds, at the deepest level whose quadrants are at least as big as the 
+ * Entity, down to {@code MAX_DEPTH} levels. The Entity may stick out of the quadrant 
+ * by up to half of the quadrant's size on each side, so it never has to be moved up 
+ * to a bigger quadrant, or copied into several, just because it is on an edge. The 
+ * code is the Morton (Z-order) code of the quadrant's corner at the deepest level, 
+ * followed by the level of the quadrant in the lowest bits. Sorted by code, the 
+ * Entities of a quadrant and of everything inside of it end up in one unbroken run, 
+ * with the Entities of the quadrant itself at the front, so a query breaks its area 
+ * down into quadrants and finds each of them with a binary search.
+ * <p>
+ * Removing an Entity is a binary search, which leaves a hole in the arrays, and
+ * adding one puts it in a small buffer of additions, which queries check one
+ * Entity at a time. The holes are closed up and the buffer is sorted and merged
+ * into the arrays by {@code merge()} at the end of every tick, or
+ * as soon as the buffer is full. An Entity that moves to another quadrant is
+ * shifted along the arrays to its new place instead, since it is usually only
+ * going to the quadrant next door, and so only past a few Entities; if it is going
+ * further than that, it is removed and added again. An Entity whose centre moves
+ * within its quadrant costs nothing. So removals and moves take a binary search
+ * and at most {@code BUFFER_SIZE} shifts, and additions take a binary search, plus
+ * a share of a merge, which is a pass over the arrays once every {@code BUFFER_SIZE}
+ * of them. Adding a lot of Entities at once rebuilds the arrays with a radix sort.
+ * Entities that are not entirely within the bounds of the index are kept as
+ * outliers, in the same way as in a QuadTree.
+ *
+ * @see SpatialIndex
+ * @see QuadTree
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class MortonIndex implements SpatialIndex, Externalizable
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The number of times that the bounds of the index are divided into
+	 * quadrants, at most.
+	 */
+	public static final int MAX_DEPTH = 24;
+
+	/** The number of low bits of a locational code that hold the level of the quadrant.
+	 */
+	private static final int LEVEL_BITS = 5;
+
+	/** The locational code of an outlier.
+	 */
+	private static final long OUTLIER = -1;
+
+	/** Quadrants with this many Entities or fewer are checked Entity by Entity
+	 * by a query, instead of being broken down further.
+	 */
+	private static final int SCAN_THRESHOLD = 16;
+
+	/** The number of bits sorted by each pass of the radix sort.
+	 */
+	private static final int RADIX_BITS = 8;
+
+	/** The number of Entities that can be waiting in the buffer of additions
+	 * before it is merged into the arrays.
+	 */
+	private static final int BUFFER_SIZE = 64;
+
+	/** The area divided into quadrants.
+	 */
+	private Box bounds;
+
+	/** The locational codes of the Entities that are not outliers, in ascending order.
+	 */
+	private long[] codes = new long[16];
+
+	/** The Entities that are not outliers, in the same order as their codes, with
+	 * null in the places of the Entities that have been removed since the last merge.
+	 */
+	private Entity[] entities = new Entity[16];
+
+	/** The number of places used in the arrays, and how many of them are holes.
+	 */
+	private int count = 0;
+	private int holes = 0;
+
+	/** The Entities that have been added since the last merge, along with their 
+	 * codes, in the order in which they were added.
+	 */
+	private long[] addedCodes = new long[BUFFER_SIZE];
+	private Entity[] added = new Entity[BUFFER_SIZE];
+	private int addedCount = 0;
+
+	/** The index of all outlier Entities that are not within the bounds.
+	 */
+	private OutlierIndex outliers;
+
+	/** The number of Entities in each category, including the outliers.
+	 */
+	private int[] totals = new int[Entity.CATEGORIES];
+
+	/** Creates an empty MortonIndex with no bounds, to be read from a stream.
+	 */
+	public MortonIndex()
+	{
+		outliers = new OutlierIndex(1);
+	}
+
+	/** Creates a new, empty MortonIndex over the specified bounds.
+	 *
+	 * @param minX		the smallest x-coordinate of the index
+	 * @param minY		the smallest y-coordinate of the index
+	 * @param maxX 		the largest x-coordinate of the index
+	 * @param maxY		the largest y-coordinate of the index
+	 */
+	public MortonIndex(double minX, double minY, double maxX, double maxY)
+	{
+		reset(minX, minY, maxX, maxY);
+	}
+
+	/** Adds the specified Entity to this MortonIndex.
+	 *
+	 * @param e		the Entity to be added
+	 */
+	public void add(Entity e)
+	{
+		Box entityBounds = new Box(e.getShape().getBounds());
+		long code = getCode(entityBounds);
+
+		if (code == OUTLIER)
+			outliers.add(e, entityBounds);
+		else
+			buffer(e, code);
+		e.code = code;
+		e.categories = e.getCategories();
+		tally(e.categories, 1);
+	}
+
+	/** Adds all of the specified Entities to this MortonIndex at once, by
+	 * rebuilding the arrays with the Entities already in it.
+	 *
+	 * @param entities		the Entities to be added
+	 */
+	public void addAll(Collection<? extends Entity> entities)
+	{
+		List<Entity> all = new ArrayList<Entity>(getSize() + entities.size());
+		all.addAll(get());
+		for (Entity e : entities)
+			if (e != null)
+				all.add(e);
+		load(all);
+	}
+
+	/** Recalculates the codes of all of the Entities and sorts them again in one
+	 * pass. After most of the Entities have moved, this is cheaper than revalidating
+	 * them one at a time.
+	 */
+	public void rebuild()
+	{
+		load(get());
+	}
+
+	/** Removes the specified Entity from this MortonIndex.
+	 *
+	 * @param e		the Entity to be removed
+	 * @return true if the Entity was in this MortonIndex; false otherwise
+	 */
+	public boolean remove(Entity e)
+	{
+		boolean removed;
+		if (e.code == OUTLIER)
+			removed = outliers.remove(e);
+		else
+		{
+			int index = indexOf(e);
+			if (index >= 0)
+				delete(index);
+			else
+				index = unbuffer(e);
+			removed = index >= 0;
+		}
+
+		if (removed)
+			tally(e.categories, -1);
+		return removed;
+	}
+
+	/** Rechecks the specified Entity's code after it has moved, and moves it
+	 * within the arrays if the code has changed.
+	 *
+	 * @param e		the Entity to revalidate
+	 */
+	public void revalidate(Entity e)
+	{
+		Box entityBounds = new Box(e.getShape().getBounds());
+		long code = getCode(entityBounds);
+
+		if (e.code == OUTLIER)
+		{
+			if (code == OUTLIER) // still an outlier, but it may have moved to different cells of the outlier index
+				outliers.update(e, entityBounds);
+			else if (outliers.remove(e))
+			{
+				buffer(e, code);
+				e.code = code;
+			}
+		}
+		else if (code != e.code)
+		{
+			int index = indexOf(e);
+			if (index >= 0)
+			{
+				if (code == OUTLIER)
+				{
+					delete(index);
+					outliers.add(e, entityBounds);
+				}
+				else
+					move(index, code);
+				e.code = code;
+			}
+			else if (unbuffer(e) >= 0) // it has not been merged yet
+			{
+				if (code == OUTLIER)
+					outliers.add(e, entityBounds);
+				else
+					buffer(e, code);
+				e.code = code;
+			}
+		}
+	}
+
+	/** Closes up the holes left in the arrays by the Entities that have been removed
+	 * since the last merge, and merges in the Entities that have been added since,
+	 * after sorting them. The Spacetime does this at the end of every tick.
+	 */
+	public void merge()
+	{
+		if (addedCount == 0 && holes == 0)
+			return;
+
+		// Close up the holes
+
+		int size = count;
+		if (holes > 0)
+		{
+			size = 0;
+			for (int i = 0; i < count; i++)
+			{
+				if (entities[i] != null)
+				{
+					codes[size] = codes[i];
+					entities[size++] = entities[i];
+				}
+			}
+			Arrays.fill(entities, size, count, null);
+		}
+
+		// Merge in the additions from the back, so that nothing is overwritten before it is moved
+
+		radixSort(addedCodes, added, addedCount);
+		if (size + addedCount > codes.length)
+		{
+			codes = Arrays.copyOf(codes, Math.max(codes.length * 2, size + addedCount));
+			entities = Arrays.copyOf(entities, codes.length);
+		}
+
+		int i = size - 1;
+		int j = addedCount - 1;
+		for (int k = size + addedCount - 1; j >= 0; k--)
+		{
+			if (i >= 0 && codes[i] > addedCodes[j]) // the Entities already there go first among equal codes
+			{
+				codes[k] = codes[i];
+				entities[k] = entities[i--];
+			}
+			else
+			{
+				codes[k] = addedCodes[j];
+				entities[k] = added[j--];
+			}
+		}
+
+		count = size + addedCount;
+		holes = 0;
+		Arrays.fill(added, 0, addedCount, null);
+		addedCount = 0;
+	}
+
+	/** Returns all of the Entities in this MortonIndex, in the order of their codes,
+	 * followed by the ones added since the last merge, and then the outliers.
+	 *
+	 * @return a list of all of the Entities
+	 */
+	public ArrayList<Entity> get()
+	{
+		ArrayList<Entity> all = new ArrayList<Entity>(getSize());
+		for (int i = 0; i < count; i++)
+			if (entities[i] != null)
+				all.add(entities[i]);
+		all.addAll(Arrays.asList(added).subList(0, addedCount));
+		all.addAll(outliers.get());
+		return all;
+	}
+
+	/** Returns the Entities whose quadrants, with the half that they may stick
+	 * out by, contain the specified point.
+	 *
+	 * @param x		the x-coordinate of the point
+	 * @param y		the y-coordinate of the point
+	 * @return a list of the Entities that may contain the point
+	 */
+	public ArrayList<Entity> get(double x, double y)
+	{
+		return get(new Box(x, y, x, y));
+	}
+
+	/** Returns the Entities whose quadrants, with the half that they may stick
+	 * out by, touch the bounds of the specified Entity, including itself.
+	 *
+	 * @param e		the specified Entity
+	 * @return a list of the Entities that may intersect the Entity
+	 */
+	public ArrayList<Entity> get(Entity e)
+	{
+		return get(new Box(e.getShape().getBounds()));
+	}
+
+	/** Returns the Entities whose quadrants, with the half that they may stick
+	 * out by, touch the specified Rectangle.
+	 *
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities that may intersect the Rectangle
+	 */
+	public ArrayList<Entity> get(Rectangle2D bounds)
+	{
+		return get(new Box(bounds));
+	}
+
+	/** Returns the number of Entities in the specified category in this MortonIndex.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 */
+	public int count(int category)
+	{
+		return totals[category];
+	}
+
+	/** Returns the number of Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return the number of Entities in the category in the Rectangle
+	 */
+	public int count(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		int total = 0;
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				total++;
+		return total;
+	}
+
+	/** Returns the Entities in the specified category whose bounds intersect the
+	 * specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities in the category in the Rectangle
+	 */
+	public ArrayList<Entity> get(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		ArrayList<Entity> found = new ArrayList<Entity>();
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				found.add(e);
+		return found;
+	}
+
+	/** Determines if there are any Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return true if there is an Entity in the category in the Rectangle; false otherwise
+	 */
+	public boolean hasAny(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		for (Entity e : get(box))
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				return true;
+		return false;
+	}
+
+	/** Counts the specified Entity again after its categories have changed.
+	 *
+	 * @param e		the Entity whose categories have changed
+	 */
+	public void recount(Entity e)
+	{
+		int categories = e.getCategories();
+		if (categories != e.categories)
+		{
+			tally(e.categories, -1);
+			e.categories = categories;
+			tally(categories, 1);
+		}
+	}
+
+	/** Returns a Rectangle2D.Double representing the bounds of this MortonIndex.
+	 *
+	 * @return the bounds of this MortonIndex
+	 */
+	public Rectangle2D getBounds()
+	{
+		return bounds.toRectangle();
+	}
+
+	/** Returns the number of Entities in this MortonIndex, including the outliers.
+	 *
+	 * @return the number of Entities
+	 */
+	public int getSize()
+	{
+		return count - holes + addedCount + outliers.size();
+	}
+
+	/** Clears this MortonIndex and sets new bounds.
+	 *
+	 * @param minX		the smallest x-coordinate of the index
+	 * @param minY		the smallest y-coordinate of the index
+	 * @param maxX 		the largest x-coordinate of the index
+	 * @param maxY		the largest y-coordinate of the index
+	 */
+	public void reset(double minX, double minY, double maxX, double maxY)
+	{
+		bounds = new Box(minX, minY, maxX, maxY);
+		double extent = Math.max(maxX - minX, maxY - minY);
+		outliers = new OutlierIndex(Math.max(1, extent / QuadTree.OUTLIER_CELLS));
+		codes = new long[16];
+		entities = new Entity[16];
+		count = 0;
+		holes = 0;
+		Arrays.fill(added, 0, addedCount, null);
+		addedCount = 0;
+		Arrays.fill(totals, 0);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+	{
+		// Read and set the bounds
+
+		double minX = in.readDouble();
+		double minY = in.readDouble();
+		double maxX = in.readDouble();
+		double maxY = in.readDouble();
+
+		reset(minX, minY, maxX, maxY);
+
+		// Read in the Entities and sort them again
+
+		int size = in.readInt();
+		Entity[] all = new Entity[size];
+
+		for (int i = 0; i < all.length; i++)
+			all[i] = (Entity)in.readObject();
+
+		addAll(Arrays.asList(all));
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException
+	{
+		// Write the bounds
+
+		out.writeDouble(bounds.minX);
+		out.writeDouble(bounds.minY);
+		out.writeDouble(bounds.maxX);
+		out.writeDouble(bounds.maxY);
+
+		// Write all of the Entities, already in order
+
+		ArrayList<Entity> all = get();
+		out.writeInt(all.size());
+
+		for (Entity e : all)
+			out.writeObject(e);
+	}
+
+	/** Returns the Entities whose quadrants, with the half that they may stick
+	 * out by, touch the specified Box, followed by the outliers whose bounds 
+	 * intersect it.
+	 *
+	 * @param box		the area being queried
+	 * @return a list of the Entities that may intersect the Box
+	 */
+	private ArrayList<Entity> get(Box box)
+	{
+		ArrayList<Entity> list = new ArrayList<Entity>();
+		collect(0, 0, 0, count, box, list);
+		for (int i = 0; i < addedCount; i++)
+			if (touches(getLevel(addedCodes[i]), getPrefix(addedCodes[i]), box))
+				list.add(added[i]);
+		outliers.get(box, list);
+		return list;
+	}
+
+	/** Adds the Entities in the specified quadrant and in everything inside of it
+	 * whose quadrants touch the specified Box to the specified list.
+	 *
+	 * @param level		the level of the quadrant
+	 * @param prefix	the Morton code of the quadrant at its own level
+	 * @param from		the index of the first Entity in the quadrant
+	 * @param to		the index after the last Entity in the quadrant
+	 * @param box		the area being queried
+	 * @param list		the list to which the Entities are added
+	 */
+	private void collect(int level, long prefix, int from, int to, Box box, List<Entity> list)
+	{
+		if (from >= to || !touches(level, prefix, box))
+			return;
+
+		if (covers(box, level, prefix)) // everything in here is in the area
+		{
+			for (int i = from; i < to; i++)
+				if (entities[i] != null)
+					list.add(entities[i]);
+		}
+		else if (to - from <= SCAN_THRESHOLD) // cheaper to check them one at a time
+		{
+			for (int i = from; i < to; i++)
+				if (entities[i] != null && touches(getLevel(codes[i]), getPrefix(codes[i]), box))
+					list.add(entities[i]);
+		}
+		else
+		{
+			// The Entities of the quadrant itself come first
+
+			long own = getCode(level, prefix);
+			int i = from;
+			for (; i < to && codes[i] == own; i++)
+				if (entities[i] != null)
+					list.add(entities[i]);
+
+			// Then come the four children, one after the other
+
+			if (level < MAX_DEPTH)
+			{
+				for (int quadrant = 0; quadrant < 4; quadrant++)
+				{
+					long child = prefix << 2 | quadrant;
+					int end = quadrant == 3 ? to : search(getCode(level + 1, child + 1) & ~((1L << LEVEL_BITS) - 1), i, to);
+					collect(level + 1, child, i, end, box, list);
+					i = end;
+				}
+			}
+		}
+	}
+
+	/** Determines if the specified quadrant, with the half that its Entities may 
+	 * stick out by on each side, touches the specified Box, edges included. 
+	 * Everything inside of the quadrant is within that area too.
+	 *
+	 * @param level		the level of the quadrant
+	 * @param prefix	the Morton code of the quadrant at its own level
+	 * @param box		the Box
+	 * @return true if they touch; false otherwise
+	 */
+	private boolean touches(int level, long prefix, Box box)
+	{
+		double width = (bounds.maxX - bounds.minX) / (1 << level);
+		double height = (bounds.maxY - bounds.minY) / (1 << level);
+		double minX = bounds.minX + compact(prefix) * width;
+		double minY = bounds.minY + compact(prefix >>> 1) * height;
+		return minX - width / 2 <= box.maxX && minX + width * 1.5 >= box.minX 
+				&& minY - height / 2 <= box.maxY && minY + height * 1.5 >= box.minY;
+	}
+
+	/** Determines if the specified Box entirely covers the specified quadrant,
+	 * with the half that its Entities may stick out by on each side.
+	 *
+	 * @param box		the Box
+	 * @param level		the level of the quadrant
+	 * @param prefix	the Morton code of the quadrant at its own level
+	 * @return true if the quadrant is inside of the Box; false otherwise
+	 */
+	private boolean covers(Box box, int level, long prefix)
+	{
+		double width = (bounds.maxX - bounds.minX) / (1 << level);
+		double height = (bounds.maxY - bounds.minY) / (1 << level);
+		double minX = bounds.minX + compact(prefix) * width;
+		double minY = bounds.minY + compact(prefix >>> 1) * height;
+		return box.minX <= minX - width / 2 && minX + width * 1.5 <= box.maxX 
+				&& box.minY <= minY - height / 2 && minY + height * 1.5 <= box.maxY;
+	}
+
+	/** Calculates the locational code of the quadrant that holds the centre of
+	 * the specified bounds, at the deepest level whose quadrants are at least as 
+	 * wide and as high as the bounds.
+	 *
+	 * @param entityBounds		the bounds of an Entity
+	 * @return the locational code, or OUTLIER if the bounds are not within this index
+	 */
+	private long getCode(Box entityBounds)
+	{
+		if (!bounds.contains(entityBounds))
+			return OUTLIER;
+
+		int level = Math.min(getLevel(bounds.maxX - bounds.minX, entityBounds.maxX - entityBounds.minX), 
+				getLevel(bounds.maxY - bounds.minY, entityBounds.maxY - entityBounds.minY));
+		int shift = MAX_DEPTH - level;
+		int column = getCell(entityBounds.centreX, bounds.minX, bounds.maxX) >>> shift;
+		int row = getCell(entityBounds.centreY, bounds.minY, bounds.maxY) >>> shift;
+		return getCode(level, spreadBits(column) | spreadBits(row) << 1);
+	}
+
+	/** Returns the deepest level at which a quadrant is at least as long as 
+	 * the specified size, along one axis.
+	 *
+	 * @param extent	the length of the bounds of this index along the axis
+	 * @param size		the length of an Entity along the axis
+	 * @return the level, from 0 to MAX_DEPTH
+	 */
+	private static int getLevel(double extent, double size)
+	{
+		double ratio = extent / size;
+		if (!(ratio < 1 << MAX_DEPTH)) // also when the size is 0
+			return MAX_DEPTH;
+		return Math.max(0, 31 - Integer.numberOfLeadingZeros((int)ratio));
+	}
+
+	/** Calculates the locational code of the specified quadrant.
+	 *
+	 * @param level		the level of the quadrant
+	 * @param prefix	the Morton code of the quadrant at its own level
+	 * @return the locational code
+	 */
+	private static long getCode(int level, long prefix)
+	{
+		return prefix << 2 * (MAX_DEPTH - level) << LEVEL_BITS | level;
+	}
+
+	/** Returns the level of the quadrant of the specified locational code.
+	 *
+	 * @param code		the locational code
+	 * @return the level of the quadrant
+	 */
+	private static int getLevel(long code)
+	{
+		return (int)(code & ((1 << LEVEL_BITS) - 1));
+	}
+
+	/** Returns the Morton code at its own level of the quadrant of the specified
+	 * locational code.
+	 *
+	 * @param code		the locational code
+	 * @return the Morton code of the quadrant
+	 */
+	private static long getPrefix(long code)
+	{
+		return code >>> LEVEL_BITS >>> 2 * (MAX_DEPTH - getLevel(code));
+	}
+
+	/** Returns the column or row at the deepest level that the specified coordinate
+	 * falls in.
+	 *
+	 * @param value		the coordinate
+	 * @param min		the smallest coordinate of the bounds
+	 * @param max		the largest coordinate of the bounds
+	 * @return the column or row
+	 */
+	private static int getCell(double value, double min, double max)
+	{
+		final int cells = 1 << MAX_DEPTH;
+		double extent = Math.max(max - min, Double.MIN_VALUE);
+		return (int)Math.min(cells - 1, Math.max(0, (value - min) / extent * cells));
+	}
+
+	/** Spreads out the lower 32 bits of the specified number so that
+	 * there is a zero bit between each of them.
+	 *
+	 * @param n		the number to spread out
+	 * @return the spread out number
+	 */
+	private static long spreadBits(long n)
+	{
+		n &= 0xFFFFFFFFL;
+		n = (n | (n << 16)) & 0x0000FFFF0000FFFFL;
+		n = (n | (n << 8)) & 0x00FF00FF00FF00FFL;
+		n = (n | (n << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		n = (n | (n << 2)) & 0x3333333333333333L;
+		n = (n | (n << 1)) & 0x5555555555555555L;
+		return n;
+	}
+
+	/** Gathers every other bit of the specified number, starting with the
+	 * lowest one, which undoes {@code spreadBits}.
+	 *
+	 * @param n		the spread out number
+	 * @return the gathered number
+	 */
+	private static long compact(long n)
+	{
+		n &= 0x5555555555555555L;
+		n = (n | (n >>> 1)) & 0x3333333333333333L;
+		n = (n | (n >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		n = (n | (n >>> 4)) & 0x00FF00FF00FF00FFL;
+		n = (n | (n >>> 8)) & 0x0000FFFF0000FFFFL;
+		n = (n | (n >>> 16)) & 0xFFFFFFFFL;
+		return n;
+	}
+
+	/** Returns the index of the first code in the specified range of the
+	 * arrays that is not less than the specified code.
+	 *
+	 * @param code		the code to search for
+	 * @param from		the first index of the range
+	 * @param to		the index after the last one in the range
+	 * @return the index, which is {@code to} if every code in the range is less
+	 */
+	private int search(long code, int from, int to)
+	{
+		int low = from;
+		int high = to;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (codes[middle] < code)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/** Returns the index of the specified Entity in the arrays.
+	 *
+	 * @param e		the Entity
+	 * @return the index of the Entity, or -1 if it is not in the arrays
+	 */
+	private int indexOf(Entity e)
+	{
+		for (int i = search(e.code, 0, count); i < count && codes[i] == e.code; i++)
+			if (entities[i] == e)
+				return i;
+		return -1;
+	}
+
+	/** Puts the specified Entity into the buffer of additions, and merges the
+	 * buffer into the arrays if it is full. Once merged, the Entity comes after 
+	 * any Entities with the same code.
+	 *
+	 * @param e			the Entity
+	 * @param code		the locational code of the Entity
+	 */
+	private void buffer(Entity e, long code)
+	{
+		if (addedCount == BUFFER_SIZE)
+			merge();
+		addedCodes[addedCount] = code;
+		added[addedCount++] = e;
+	}
+
+	/** Takes the specified Entity out of the buffer of additions, keeping the
+	 * others in the order in which they were added.
+	 *
+	 * @param e		the Entity
+	 * @return the index that the Entity had in the buffer, or -1 if it was not in it
+	 */
+	private int unbuffer(Entity e)
+	{
+		for (int i = 0; i < addedCount; i++)
+		{
+			if (added[i] == e)
+			{
+				System.arraycopy(addedCodes, i + 1, addedCodes, i, addedCount - i - 1);
+				System.arraycopy(added, i + 1, added, i, addedCount - i - 1);
+				added[--addedCount] = null;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Deletes the Entity at the specified index from the arrays, by leaving a hole
+	 * in its place until the next merge. The arrays are merged right away once more 
+	 * than half of them is holes.
+	 *
+	 * @param index		the index of the Entity
+	 */
+	private void delete(int index)
+	{
+		entities[index] = null;
+		holes++;
+		if (holes > count / 2)
+			merge();
+	}
+
+	/** Gives the Entity at the specified index a new code, and shifts only the
+	 * Entities between its old place and its new one. If that is more than
+	 * {@code BUFFER_SIZE} places away, the Entity is removed and added again instead,
+	 * so that a move never shifts more than that many Entities.
+	 *
+	 * @param index		the index of the Entity
+	 * @param code		the new code of the Entity
+	 */
+	private void move(int index, long code)
+	{
+		Entity e = entities[index];
+		int target = code > codes[index] ? search(code + 1, index + 1, count) - 1 : search(code + 1, 0, index);
+
+		if (Math.abs(target - index) > BUFFER_SIZE)
+		{
+			delete(index);
+			buffer(e, code);
+			return;
+		}
+
+		if (target > index)
+		{
+			System.arraycopy(codes, index + 1, codes, index, target - index);
+			System.arraycopy(entities, index + 1, entities, index, target - index);
+		}
+		else
+		{
+			System.arraycopy(codes, target, codes, target + 1, index - target);
+			System.arraycopy(entities, target, entities, target + 1, index - target);
+		}
+
+		codes[target] = code;
+		entities[target] = e;
+	}
+
+	/** Replaces the contents of this MortonIndex with the specified Entities,
+	 * keeping the bounds.
+	 *
+	 * @param all		the Entities
+	 */
+	private void load(List<Entity> all)
+	{
+		reset(bounds.minX, bounds.minY, bounds.maxX, bounds.maxY);
+
+		long[] newCodes = new long[Math.max(16, all.size())];
+		Entity[] newEntities = new Entity[newCodes.length];
+		int inliers = 0;
+
+		for (Entity e : all)
+		{
+			Box entityBounds = new Box(e.getShape().getBounds());
+			long code = getCode(entityBounds);
+			if (code == OUTLIER)
+				outliers.add(e, entityBounds);
+			else
+			{
+				newCodes[inliers] = code;
+				newEntities[inliers] = e;
+				inliers++;
+			}
+			e.code = code;
+			e.categories = e.getCategories();
+			tally(e.categories, 1);
+		}
+
+		radixSort(newCodes, newEntities, inliers);
+		codes = newCodes;
+		entities = newEntities;
+		count = inliers;
+	}
+
+	/** Sorts the first {@code n} codes in ascending order, along with the Entities
+	 * in the same places, with a least significant digit radix sort. The sort is
+	 * stable, so Entities with the same code stay in the same order.
+	 *
+	 * @param keys		the codes
+	 * @param items		the Entities
+	 * @param n			the number of codes to sort
+	 */
+	private static void radixSort(long[] keys, Entity[] items, int n)
+	{
+		final int bits = 2 * MAX_DEPTH + LEVEL_BITS;
+		final int buckets = 1 << RADIX_BITS;
+		long[] keyBuffer = new long[n];
+		Entity[] itemBuffer = new Entity[n];
+		long[] fromKeys = keys;
+		Entity[] fromItems = items;
+		long[] toKeys = keyBuffer;
+		Entity[] toItems = itemBuffer;
+
+		for (int shift = 0; shift < bits; shift += RADIX_BITS)
+		{
+			int[] starts = new int[buckets + 1];
+			for (int i = 0; i < n; i++)
+				starts[(int)(fromKeys[i] >>> shift) & (buckets - 1)]++;
+
+			// A digit that is the same in every code does not change the order
+
+			boolean same = false;
+			for (int bucket = 0; bucket < buckets && !same; bucket++)
+				same = starts[bucket] == n;
+
+			if (!same)
+			{
+				for (int bucket = 0, total = 0; bucket <= buckets; bucket++)
+				{
+					int size = starts[bucket];
+					starts[bucket] = total;
+					total += size;
+				}
+				for (int i = 0; i < n; i++)
+				{
+					int index = starts[(int)(fromKeys[i] >>> shift) & (buckets - 1)]++;
+					toKeys[index] = fromKeys[i];
+					toItems[index] = fromItems[i];
+				}
+
+				long[] tempKeys = fromKeys;
+				fromKeys = toKeys;
+				toKeys = tempKeys;
+				Entity[] tempItems = fromItems;
+				fromItems = toItems;
+				toItems = tempItems;
+			}
+		}
+
+		if (fromKeys != keys)
+		{
+			System.arraycopy(fromKeys, 0, keys, 0, n);
+			System.arraycopy(fromItems, 0, items, 0, n);
+		}
+	}
+
+	/** Adds the specified amount to the totals of every category in the specified
+	 * bit mask.
+	 *
+	 * @param categories	the categories, as a bit mask
+	 * @param amount		the amount to add
+	 */
+	private void tally(int categories, int amount)
+	{
+		for (int rest = categories; rest != 0; rest &= rest - 1)
+			totals[Integer.numberOfTrailingZeros(rest)] += amount;
+	}
+}
@@ -0,0 +1,132 @@
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/** A program that checks that a MortonIndex keeps track of Entities that are
+ * added, removed and moved around between its merges.
+ * <p>
+ * Humans are added to a MortonIndex, taken out of it and moved around at random,
+ * a few of them just outside of it, and the index is only merged every few steps,
+ * so that queries see Entities that are still waiting in the buffer of additions,
+ * holes left by removed ones, and Entities that have moved while waiting. After
+ * every step, the index must hold exactly the Entities that were put into it, and
+ * every query must find every one of them whose bounds intersect its area.
+ * <p>
+ * Prints the outcome, and exits with a status of 1 if the check fails.
+ *
+ * @see MortonIndex#merge()
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class MortonIndexCheck
+{
+	/** The width and height of the MortonIndex.
+	 */
+	private static final double SIZE = 2048;
+
+	/** Returns a random location around the MortonIndex, a little of which is outside of it.
+	 *
+	 * @param random		the random number generator
+	 * @return a coordinate
+	 */
+	private static double anywhere (Random random)
+	{
+		return random.nextDouble() * (SIZE + 100) - 50;
+	}
+
+	/** Runs the check. The optional arguments are the number of Entities, the
+	 * number of steps and the seed, which are 3000, 200 and 1 by default.
+	 *
+	 * @param args		the number of Entities, the number of steps and the seed
+	 */
+	public static void main (String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+		Random random = new Random (seed);
+		MortonIndex index = new MortonIndex (0, 0, SIZE, SIZE);
+		List<Entity> inside = new ArrayList<Entity>(count);
+		List<Entity> outside = new ArrayList<Entity>(count);
+		for (int i = 0; i < count; i++)
+		{
+			Entity e = new Human (anywhere(random), anywhere(random), random);
+			if (i % 2 == 0)
+			{
+				index.add(e);
+				inside.add(e);
+			}
+			else
+				outside.add(e);
+		}
+
+		int lost = 0;
+		int missed = 0;
+		for (int step = 0; step < steps; step++)
+		{
+			for (int i = 0; i < count / 10; i++)
+			{
+				int action = random.nextInt(4);
+				if (action == 0 && !outside.isEmpty())
+				{
+					Entity e = outside.remove(random.nextInt(outside.size()));
+					e.setLocation(anywhere(random), anywhere(random));
+					index.add(e);
+					inside.add(e);
+				}
+				else if (action == 1 && !inside.isEmpty())
+				{
+					Entity e = inside.remove(random.nextInt(inside.size()));
+					if (!index.remove(e))
+						lost++;
+					outside.add(e);
+				}
+				else if (!inside.isEmpty())
+				{
+					Entity e = inside.get(random.nextInt(inside.size()));
+					if (random.nextInt(10) == 0)
+						e.setLocation(anywhere(random), anywhere(random));
+					else
+						e.setLocation(e.x + random.nextInt(41) - 20, e.y + random.nextInt(41) - 20);
+					index.revalidate(e);
+				}
+			}
+			if (step % 3 == 0)
+				index.merge();
+
+			// The index must hold every Entity once, and find every one that is in the area of a query
+
+			IdentityHashMap<Entity, Integer> copies = new IdentityHashMap<Entity, Integer>();
+			for (Entity e : index.get())
+				copies.put(e, copies.containsKey(e) ? copies.get(e) + 1 : 1);
+			for (Entity e : inside)
+				if (copies.get(e) == null || copies.get(e) != 1)
+					lost++;
+			if (copies.size() != inside.size() || index.getSize() != inside.size())
+				lost++;
+
+			for (int i = 0; i < 20; i++)
+			{
+				Rectangle2D area = new Rectangle2D.Double(anywhere(random), anywhere(random), random.nextInt(200), random.nextInt(200));
+				IdentityHashMap<Entity, Boolean> found = new IdentityHashMap<Entity, Boolean>();
+				for (Entity e : index.get(area))
+					found.put(e, true);
+				for (Entity e : inside)
+					if (e.getShape().getBounds2D().intersects(area) && !found.containsKey(e))
+						missed++;
+			}
+		}
+
+		boolean passed = lost == 0 && missed == 0;
+		System.out.println("entities=" + count + " steps=" + steps + " size=" + index.getSize()
+				+ " lost=" + lost + " missed=" + missed);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
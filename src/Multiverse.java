@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** A scheduler that advances a Spacetime together with the labyrinths of all of
+ * the WitchBarriers that lead out of it, and out of those labyrinths in turn.
+ * <p>
+ * The Spacetimes are only connected to each other through Portals, so every tick
+ * they are advanced concurrently, one task per Spacetime. Entities that go through
+ * a Portal into another Spacetime are posted to that Spacetime instead of being
+ * added right away, and all of the posted Entities arrive once every Spacetime has
+ * finished advancing. Labyrinths that have been left alone for long enough are
+ * thrown away at the same point.
+ *
+ * @see WitchBarrier
+ * @see Spacetime#postArrival(Entity)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class Multiverse
+{
+	/** The outside world, from which all of the other Spacetimes are reached.
+	 */
+	private final Spacetime root;
+
+	/** The largest number of Spacetimes that are advanced at the same time.
+	 */
+	private final int threads;
+
+	/** The threads that advance the Spacetimes, created the first time
+	 * that there is more than one Spacetime to advance.
+	 */
+	private ExecutorService pool;
+
+	/** Creates a new Multiverse around the specified outside world, which advances
+	 * as many Spacetimes at the same time as there are processors.
+	 *
+	 * @param root		the outside world
+	 */
+	public Multiverse (Spacetime root)
+	{
+		this (root, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Creates a new Multiverse around the specified outside world, which advances
+	 * up to the specified number of Spacetimes at the same time.
+	 *
+	 * @param root			the outside world
+	 * @param threads		the largest number of Spacetimes to advance at the same time
+	 */
+	public Multiverse (Spacetime root, int threads)
+	{
+		this.root = root;
+		this.threads = Math.max(1, threads);
+	}
+
+	/** Advances every Spacetime in this Multiverse by one tick. The Spacetimes are
+	 * advanced concurrently, then the Entities that were sent between Spacetimes
+	 * during the tick arrive at their destinations.
+	 */
+	public void advance ()
+	{
+		List<Spacetime> worlds = getWorlds();
+
+		if (worlds.size() == 1 || threads == 1)
+		{
+			for (Spacetime world : worlds)
+				world.advance();
+		}
+		else
+		{
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(worlds.size());
+			for (Spacetime world : worlds)
+			{
+				final Spacetime w = world;
+				tasks.add(new Callable<Object>()
+				{
+					public Object call()
+					{
+						w.advance();
+						return null;
+					}
+				});
+			}
+
+			try
+			{
+				for (Future<Object> result : getPool().invokeAll(tasks))
+					result.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+
+		// Every Spacetime has finished the tick, so Entities can now cross over
+
+		for (Spacetime world : worlds)
+			world.applyArrivals();
+
+		// Throw away the labyrinths that nobody has visited in a while
+
+		for (Spacetime world : worlds)
+			for (WitchBarrier barrier : world.getBarriers())
+				barrier.evictIfIdle();
+	}
+
+	/** Returns the outside world of this Multiverse.
+	 *
+	 * @return the outside world
+	 */
+	public Spacetime getRoot ()
+	{
+		return root;
+	}
+
+	/** Returns a list of every Spacetime in this Multiverse: the outside world,
+	 * followed by the labyrinths that can be reached from it through WitchBarriers.
+	 * Labyrinths that have not been generated are skipped.
+	 *
+	 * @return a list of every Spacetime in this Multiverse
+	 */
+	public List<Spacetime> getWorlds ()
+	{
+		LinkedHashSet<Spacetime> worlds = new LinkedHashSet<Spacetime>();
+		List<Spacetime> toVisit = new ArrayList<Spacetime>();
+		toVisit.add(root);
+
+		while (!toVisit.isEmpty())
+		{
+			Spacetime world = toVisit.remove(toVisit.size() - 1);
+			if (worlds.add(world))
+			{
+				for (WitchBarrier barrier : world.getBarriers())
+				{
+					Spacetime labyrinth = barrier.getLabyrinth();
+					if (labyrinth != null)
+						toVisit.add(labyrinth);
+				}
+			}
+		}
+
+		return new ArrayList<Spacetime>(worlds);
+	}
+
+	/** Stops the threads of this Multiverse. The Multiverse can still be advanced
+	 * afterwards, in which case new threads are created.
+	 */
+	public void shutdown ()
+	{
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/** Returns the threads that advance the Spacetimes, creating them if necessary.
+	 * The threads are daemon threads, so they never keep the program running.
+	 *
+	 * @return the thread pool of this Multiverse
+	 */
+	private ExecutorService getPool ()
+	{
+		if (pool == null)
+		{
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "Multiverse");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+}
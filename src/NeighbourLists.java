@@ -0,0 +1,355 @@
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Verlet neighbour lists for the ENTITIES layer of a Spacetime, which let an
+ * Entity that barely moves from one tick to the next reuse the Entities it found
+ * around itself earlier, instead of searching the index of the layer every time
+ * it moves.
+ * <p>
+ * Every Entity has a box around its bounds, which sticks out by half of the skin
+ * of its type on every side, and a list of the Entities whose boxes overlap its
+ * own. As long as two Entities stay in their boxes, they can only collide if they
+ * are in each other's lists. Once an Entity has moved out of its box, which takes
+ * a cumulative displacement of more than half of its skin, its box is put around
+ * it again, its list is gathered again from the index, and it is added to the
+ * lists of its new neighbours, so that the lists of the Entities that stayed put
+ * are still complete. Entries of Entities that have since moved away are only
+ * dropped when a list is gathered again or grows too long.
+ * <p>
+ * A larger skin means fewer rebuilds, but longer lists to check on every move.
+ * The hits, misses and rebuilds are counted for every type of Entity, so that the
+ * skin of each type can be tuned.
+ *
+ * @see Spacetime#setBroadPhase(int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class NeighbourLists
+{
+	/** The skin of the types of Entities whose skin has not been set. Humans move
+	 * about 1.4 px a tick, so this lasts them about three ticks.
+	 */
+	public static final double DEFAULT_SKIN = 8;
+
+	/** The number of entries that a list may gain since it was last gathered
+	 * before the entries of Entities that have moved away are dropped.
+	 */
+	private static final int SLACK = 8;
+
+	/** The skin and the counters of one type of Entity.
+	 */
+	private static final class Kind
+	{
+		double skin = DEFAULT_SKIN;
+		AtomicLong hits = new AtomicLong();
+		AtomicLong misses = new AtomicLong();
+		AtomicLong rebuilds = new AtomicLong();
+	}
+
+	/** The box and the neighbour list of one Entity.
+	 */
+	private static final class Neighbourhood
+	{
+		Entity entity;
+		Kind kind;
+		double minX, minY, maxX, maxY;
+		ArrayList<Neighbourhood> neighbours = new ArrayList<Neighbourhood>();
+
+		/** The number of neighbours when the list was last gathered.
+		 */
+		int gathered;
+
+		/** True once the Entity has been removed.
+		 */
+		boolean removed;
+	}
+
+	/** The index that the lists are gathered from.
+	 */
+	private SpatialIndex index;
+
+	/** The Neighbourhood of every Entity.
+	 */
+	private HashMap<Entity, Neighbourhood> neighbourhoods = new HashMap<Entity, Neighbourhood>();
+
+	/** The skin and the counters of every type of Entity seen so far.
+	 */
+	private HashMap<Class<?>, Kind> kinds = new HashMap<Class<?>, Kind>();
+
+	/** The largest skin of any type, which bounds how far the box of an Entity
+	 * can stick out from its bounds.
+	 */
+	private double maxSkin = DEFAULT_SKIN;
+
+	/** Creates new neighbour lists for all of the Entities in the specified index.
+	 *
+	 * @param index		the index of the layer
+	 */
+	public NeighbourLists (SpatialIndex index)
+	{
+		this.index = index;
+		for (Entity e : index.get())
+			add(e);
+	}
+
+	/** Sets the index that the lists are gathered from, after the layer has
+	 * been moved to a different kind of index. It must hold the same Entities.
+	 *
+	 * @param index		the new index of the layer
+	 */
+	public void setIndex (SpatialIndex index)
+	{
+		this.index = index;
+	}
+
+	/** Sets the skin of the specified type of Entity. The Entities of the type
+	 * take it on the next time their lists are gathered.
+	 *
+	 * @param type		the class of the Entities
+	 * @param skin		the distance by which their boxes are wider than their bounds
+	 * @throws IllegalArgumentException if the skin is negative
+	 */
+	public void setSkin (Class<?> type, double skin)
+	{
+		if (skin < 0)
+			throw new IllegalArgumentException ("Negative skin: " + skin);
+		kind(type).skin = skin;
+		maxSkin = Math.max(maxSkin, skin);
+	}
+
+	/** Returns the skin of the specified type of Entity.
+	 *
+	 * @param type		the class of the Entities
+	 * @return the skin of the type
+	 */
+	public double getSkin (Class<?> type)
+	{
+		Kind kind = kinds.get(type);
+		return kind == null ? DEFAULT_SKIN : kind.skin;
+	}
+
+	/** Adds the specified Entity, and gathers its list.
+	 *
+	 * @param e		the Entity that was added to the layer
+	 */
+	public void add (Entity e)
+	{
+		Neighbourhood nb = neighbourhoods.get(e);
+		if (nb == null)
+		{
+			nb = new Neighbourhood();
+			nb.entity = e;
+			nb.kind = kind(e.getClass());
+			neighbourhoods.put(e, nb);
+		}
+		nb.removed = false;
+		gather(nb);
+	}
+
+	/** Removes the specified Entity. It is dropped from the lists of its
+	 * neighbours as they are gathered again.
+	 *
+	 * @param e		the Entity that was removed from the layer
+	 */
+	public void remove (Entity e)
+	{
+		Neighbourhood nb = neighbourhoods.remove(e);
+		if (nb != null)
+		{
+			nb.removed = true;
+			nb.neighbours.clear();
+		}
+	}
+
+	/** Gathers the list of the specified Entity again if it has moved out of its box.
+	 *
+	 * @param e		the Entity that has moved
+	 */
+	public void moved (Entity e)
+	{
+		Neighbourhood nb = neighbourhoods.get(e);
+		if (nb != null && !isInside(nb, e.getShape().getBounds2D()))
+		{
+			nb.kind.rebuilds.incrementAndGet();
+			gather(nb);
+		}
+	}
+
+	/** Returns the Entities that the specified Entity may be colliding with, if
+	 * it is still in its box.
+	 *
+	 * @param e			the Entity
+	 * @param bounds	the current bounds of the Entity
+	 * @return the Entities in the list of the Entity, or null if it has moved
+	 * 		out of its box and the index of the layer has to be searched instead
+	 */
+	public ArrayList<Entity> get (Entity e, Rectangle2D bounds)
+	{
+		Neighbourhood nb = neighbourhoods.get(e);
+		if (nb == null)
+			return null;
+		if (!isInside(nb, bounds))
+		{
+			nb.kind.misses.incrementAndGet();
+			return null;
+		}
+
+		nb.kind.hits.incrementAndGet();
+		ArrayList<Entity> neighbours = new ArrayList<Entity>(nb.neighbours.size());
+		for (Neighbourhood other : nb.neighbours)
+			if (!other.removed)
+				neighbours.add(other.entity);
+		return neighbours;
+	}
+
+	/** Returns the number of times that an Entity of the specified type could
+	 * use its list, since the counters were last reset.
+	 *
+	 * @param type		the class of the Entities
+	 * @return the number of hits
+	 */
+	public long getHits (Class<?> type)
+	{
+		Kind kind = kinds.get(type);
+		return kind == null ? 0 : kind.hits.get();
+	}
+
+	/** Returns the number of times that an Entity of the specified type had
+	 * moved out of its box when it was checked for collisions, since the
+	 * counters were last reset.
+	 *
+	 * @param type		the class of the Entities
+	 * @return the number of misses
+	 */
+	public long getMisses (Class<?> type)
+	{
+		Kind kind = kinds.get(type);
+		return kind == null ? 0 : kind.misses.get();
+	}
+
+	/** Returns the number of times that the list of an Entity of the specified
+	 * type was gathered again after it moved out of its box, since the counters
+	 * were last reset.
+	 *
+	 * @param type		the class of the Entities
+	 * @return the number of rebuilds
+	 */
+	public long getRebuilds (Class<?> type)
+	{
+		Kind kind = kinds.get(type);
+		return kind == null ? 0 : kind.rebuilds.get();
+	}
+
+	/** Sets the counters of every type back to 0.
+	 */
+	public void resetCounters ()
+	{
+		for (Kind kind : kinds.values())
+		{
+			kind.hits.set(0);
+			kind.misses.set(0);
+			kind.rebuilds.set(0);
+		}
+	}
+
+	/** Returns the skin and the counters of the specified type, creating them
+	 * if this is the first Entity of the type.
+	 *
+	 * @param type		the class of the Entities
+	 * @return the Kind of the type
+	 */
+	private Kind kind (Class<?> type)
+	{
+		Kind kind = kinds.get(type);
+		if (kind == null)
+		{
+			kind = new Kind();
+			kinds.put(type, kind);
+		}
+		return kind;
+	}
+
+	/** Puts the box of the specified Neighbourhood around its Entity again, and
+	 * gathers its list from the index. It is also added to the lists of its new
+	 * neighbours.
+	 *
+	 * @param nb	the Neighbourhood
+	 */
+	private void gather (Neighbourhood nb)
+	{
+		Rectangle2D bounds = nb.entity.getShape().getBounds2D();
+		double half = nb.kind.skin / 2;
+		nb.minX = bounds.getMinX() - half;
+		nb.minY = bounds.getMinY() - half;
+		nb.maxX = bounds.getMaxX() + half;
+		nb.maxY = bounds.getMaxY() + half;
+
+		// The box of another Entity sticks out from its bounds by at most maxSkin
+
+		Rectangle2D area = new Rectangle2D.Double (nb.minX - maxSkin, nb.minY - maxSkin,
+				nb.maxX - nb.minX + 2 * maxSkin, nb.maxY - nb.minY + 2 * maxSkin);
+
+		nb.neighbours.clear();
+		for (Entity e : index.get(area))
+		{
+			Neighbourhood other = neighbourhoods.get(e);
+			if (other == null || other == nb || !isOverlapping(nb, other))
+				continue;
+
+			nb.neighbours.add(other);
+			if (!other.neighbours.contains(nb))
+			{
+				other.neighbours.add(nb);
+				if (other.neighbours.size() > 2 * other.gathered + SLACK)
+					prune(other);
+			}
+		}
+		nb.gathered = nb.neighbours.size();
+	}
+
+	/** Drops the entries of Entities that have been removed or whose boxes no
+	 * longer overlap from the list of the specified Neighbourhood.
+	 *
+	 * @param nb	the Neighbourhood
+	 */
+	private void prune (Neighbourhood nb)
+	{
+		int kept = 0;
+		for (int i = 0; i < nb.neighbours.size(); i++)
+		{
+			Neighbourhood other = nb.neighbours.get(i);
+			if (!other.removed && isOverlapping(nb, other))
+				nb.neighbours.set(kept++, other);
+		}
+		nb.neighbours.subList(kept, nb.neighbours.size()).clear();
+		nb.gathered = kept;
+	}
+
+	/** Determines if the boxes of the two specified Neighbourhoods overlap.
+	 *
+	 * @param a		one Neighbourhood
+	 * @param b		the other Neighbourhood
+	 * @return true if the boxes overlap; false otherwise
+	 */
+	private static boolean isOverlapping (Neighbourhood a, Neighbourhood b)
+	{
+		return a.minX <= b.maxX && b.minX <= a.maxX && a.minY <= b.maxY && b.minY <= a.maxY;
+	}
+
+	/** Determines if the specified bounds are inside of the box of the specified
+	 * Neighbourhood.
+	 *
+	 * @param nb		the Neighbourhood
+	 * @param bounds	the bounds of its Entity
+	 * @return true if the bounds are inside of the box; false otherwise
+	 */
+	private static boolean isInside (Neighbourhood nb, Rectangle2D bounds)
+	{
+		return bounds.getMinX() >= nb.minX && bounds.getMinY() >= nb.minY
+				&& bounds.getMaxX() <= nb.maxX && bounds.getMaxY() <= nb.maxY;
+	}
+}
@@ -0,0 +1,615 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** A coarse raster of the space that is taken up in one layer of a Spacetime,
+ * used to quickly find free space for new Entities.
+ * <p>
+ * The area of the layer is divided into square cells. Every cell keeps a count of
+ * the Entities whose bounding rectangles touch it, so a block of cells with a count
+ * of zero is guaranteed to be free of Entities. This is conservative: some free space
+ * next to Entities is reported as taken, but a free block never overlaps anything.
+ * <p>
+ * The cells that each Entity was stamped onto are remembered, so the Entity can be
+ * un-stamped later without having to know where it used to be.
+ * <p>
+ * The cells are also grouped into square blocks, and the blocks into square regions. 
+ * Each block keeps track of how many of its cells are taken, and each region of how 
+ * many of its blocks are completely taken, so that searches for free space can skip 
+ * over crowded areas a whole block or region at a time. A block or region that turns
+ * out to have no room for an Entity of some size is remembered as such until a cell 
+ * that it could use is freed, so that it is skipped by the next search for the same size.
+ *
+ * @see Spacetime#ensureNoCollision(Entity)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class OccupancyGrid
+{
+	/** The smallest allowed width and height of a cell.
+	 */
+	public static final double MIN_CELL_SIZE = 4;
+
+	/** The largest number of cells that a OccupancyGrid will allocate.
+	 * Larger areas use bigger cells instead.
+	 */
+	public static final int MAX_CELLS = 1 << 22;
+
+	/** The width and height of each block, in cells.
+	 */
+	public static final int BLOCK_SIZE = 8;
+
+	/** The number of searches that {@code findFreeAll} leaves to a single thread.
+	 */
+	private static final int SEARCHES_PER_TASK = 256;
+
+	/** The bounds of the area covered by this OccupancyGrid.
+	 */
+	private final Box bounds;
+
+	/** The width and height of each cell.
+	 */
+	private final double cellSize;
+
+	/** The number of columns and rows of cells.
+	 */
+	private final int columns;
+	private final int rows;
+
+	/** The number of Entities touching each cell, row by row.
+	 */
+	private final short[] counts;
+
+	/** The number of columns of blocks, and the number of taken cells in each block, row by row.
+	 */
+	private final int blockColumns;
+	private final short[] takenCells;
+
+	/** The number of columns of regions, and the number of completely taken blocks in each
+	 * region, row by row. Each region is a square of {@code BLOCK_SIZE} by {@code BLOCK_SIZE} blocks.
+	 */
+	private final int regionColumns;
+	private final short[] fullBlocks;
+
+	/** For every block and every region, the last size of Entity that it was found
+	 * to have no room for, packed as {@code spanX << 16 | spanY}, or 0 if none.
+	 * Taking cells never makes room, so the mark stays until a cell that the block's
+	 * positions could cover is freed. Only Entities that fit in a block are marked,
+	 * so that a position never reaches past the next block. They are marked by 
+	 * searches running in parallel, hence the atomic arrays.
+	 */
+	private final AtomicIntegerArray crowdedBlocks;
+	private final AtomicIntegerArray crowdedRegions;
+
+	/** The cells that each Entity is currently stamped onto, stored
+	 * as {firstColumn, firstRow, lastColumn, lastRow}.
+	 */
+	private final HashMap<Entity, int[]> stamps;
+
+	/** Creates a new, empty OccupancyGrid covering the specified area.
+	 *
+	 * @param bounds		the area to be covered
+	 */
+	public OccupancyGrid(Box bounds)
+	{
+		this.bounds = bounds;
+
+		double width = bounds.maxX - bounds.minX;
+		double height = bounds.maxY - bounds.minY;
+		cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt(width * height / MAX_CELLS));
+		columns = Math.max(1, (int)Math.ceil(width / cellSize));
+		rows = Math.max(1, (int)Math.ceil(height / cellSize));
+
+		counts = new short[columns * rows];
+
+		blockColumns = (columns + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		takenCells = new short[blockColumns * ((rows + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+
+		int regionSize = BLOCK_SIZE * BLOCK_SIZE;
+		regionColumns = (columns + regionSize - 1) / regionSize;
+		fullBlocks = new short[regionColumns * ((rows + regionSize - 1) / regionSize)];
+		crowdedBlocks = new AtomicIntegerArray(takenCells.length);
+		crowdedRegions = new AtomicIntegerArray(fullBlocks.length);
+		stamps = new HashMap<Entity, int[]>();
+	}
+
+	/** Stamps the specified Entity onto the cells that its bounds touch.
+	 * Does nothing if the Entity is already stamped.
+	 *
+	 * @param e		the Entity to be stamped
+	 */
+	public void mark(Entity e)
+	{
+		if (!stamps.containsKey(e))
+		{
+			int[] cells = getCells(new Box(e.getShape().getBounds()));
+			stamps.put(e, cells);
+			stamp(cells, 1);
+		}
+	}
+
+	/** Removes the stamp of the specified Entity. Does nothing if the
+	 * Entity is not stamped.
+	 *
+	 * @param e		the Entity to be removed
+	 */
+	public void unmark(Entity e)
+	{
+		int[] cells = stamps.remove(e);
+		if (cells != null)
+			stamp(cells, -1);
+	}
+
+	/** Moves the stamp of the specified Entity to where the Entity currently
+	 * is. Does nothing if the Entity is not stamped.
+	 *
+	 * @param e		the Entity that has moved
+	 */
+	public void update(Entity e)
+	{
+		int[] cells = stamps.get(e);
+		if (cells != null)
+		{
+			int[] newCells = getCells(new Box(e.getShape().getBounds()));
+			if (newCells[0] != cells[0] || newCells[1] != cells[1] || newCells[2] != cells[2] || newCells[3] != cells[3])
+			{
+				stamp(cells, -1);
+				stamp(newCells, 1);
+				stamps.put(e, newCells);
+			}
+		}
+	}
+
+	/** Determines if the specified Entity is stamped onto this OccupancyGrid.
+	 *
+	 * @param e		the Entity to check
+	 * @return true if the Entity is stamped; false otherwise
+	 */
+	public boolean isMarked(Entity e)
+	{
+		return stamps.containsKey(e);
+	}
+
+	/** Finds the free position that is closest to where the specified Entity
+	 * currently is. If none of the cells that the Entity touches are taken, that
+	 * is where it currently is, and it does not have to move at all. Otherwise, 
+	 * the search goes outwards ring by ring from the cell at the corner of the
+	 * Entity's bounds, and only positions lined up on multiples of the Entity's
+	 * size in cells are considered. The Entity itself is ignored during the search.
+	 * Returns the distance by which the Entity must be moved to get to that
+	 * position, or null if there is no free position within the specified
+	 * number of rings.
+	 *
+	 * @param e				the Entity that needs a free position
+	 * @param maxRadius		the number of rings of cells to search
+	 * @return an array containing the x-distance and y-distance to the free
+	 * 		position, followed by the column and row of its first cell; null if 
+	 * 		none was found
+	 */
+	public double[] findFree(Entity e, int maxRadius)
+	{
+		Box entityBounds = new Box(e.getShape().getBounds());
+		double width = entityBounds.maxX - entityBounds.minX;
+		double height = entityBounds.maxY - entityBounds.minY;
+
+		// The number of cells needed to hold the Entity, with a little room on every side
+
+		int spanX = (int)Math.floor(width / cellSize) + 1;
+		int spanY = (int)Math.floor(height / cellSize) + 1;
+		if (spanX > columns || spanY > rows)
+			return null;
+
+		// The Entity should not get in its own way
+
+		int[] ownCells = stamps.get(e);
+		if (ownCells != null)
+			stamp(ownCells, -1);
+
+		// The Entity can stay where it is if nothing else touches its cells
+
+		if (isFree(entityBounds))
+		{
+			int[] cells = getCells(entityBounds);
+			if (ownCells != null)
+				stamp(ownCells, 1);
+			return new double[] {0, 0, cells[0], cells[1]};
+		}
+
+		int startColumn = clamp((int)Math.floor((entityBounds.minX - bounds.minX) / cellSize), 0, columns - spanX);
+		int startRow = clamp((int)Math.floor((entityBounds.minY - bounds.minY) / cellSize), 0, rows - spanY);
+		int regionSize = BLOCK_SIZE * BLOCK_SIZE; // in cells
+		int startRegionColumn = startColumn / regionSize;
+		int startRegionRow = startRow / regionSize;
+		int limit = Math.min(maxRadius, Math.max(columns, rows)) / regionSize + 1;
+
+		// best = {distance, column, row} of the best position found so far
+
+		double[] best = {Double.MAX_VALUE, -1, -1};
+		int mark = getMark(spanX, spanY);
+
+		// Search the regions ring by ring, until the rings are further away than the best position so far
+
+		for (int radius = 0; radius <= limit; radius++)
+		{
+			double ringDistance = Math.max(0, (radius - 1) * regionSize);
+			if (ringDistance * ringDistance > best[0])
+				break;
+
+			for (int regionRow = startRegionRow - radius; regionRow <= startRegionRow + radius; regionRow++)
+			{
+				boolean edgeRow = regionRow == startRegionRow - radius || regionRow == startRegionRow + radius;
+				int step = edgeRow ? 1 : 2 * radius; // only visit the regions along the ring
+
+				for (int regionColumn = startRegionColumn - radius; regionColumn <= startRegionColumn + radius; regionColumn += Math.max(1, step))
+				{
+					int region = regionRow * regionColumns + regionColumn;
+					if (hasFreeBlocks(regionColumn, regionRow) && (mark == 0 || crowdedRegions.get(region) != mark))
+					{
+						boolean full = true;
+						for (int blockRow = regionRow * BLOCK_SIZE; blockRow < (regionRow + 1) * BLOCK_SIZE; blockRow++)
+							for (int blockColumn = regionColumn * BLOCK_SIZE; blockColumn < (regionColumn + 1) * BLOCK_SIZE; blockColumn++)
+								full &= searchBlock(blockColumn, blockRow, startColumn, startRow, spanX, spanY, best, mark);
+						if (full && mark != 0)
+							crowdedRegions.set(region, mark);
+					}
+				}
+			}
+		}
+
+		int bestColumn = (int)best[1];
+		int bestRow = (int)best[2];
+
+		if (ownCells != null)
+			stamp(ownCells, 1);
+
+		double[] offset = null;
+		if (bestColumn != -1)
+		{
+			// Centre the Entity in the free block of cells
+
+			double newMinX = bounds.minX + bestColumn * cellSize + (spanX * cellSize - width) / 2;
+			double newMinY = bounds.minY + bestRow * cellSize + (spanY * cellSize - height) / 2;
+			offset = new double[] {newMinX - entityBounds.minX, newMinY - entityBounds.minY, bestColumn, bestRow};
+		}
+		return offset;
+	}
+
+	/** Does {@code findFree} for every one of the specified Entities at the same 
+	 * time, in parallel, as if each of them were the only one looking for space.
+	 * None of the Entities may be stamped, and this OccupancyGrid must not be 
+	 * changed until all of the searches are done.
+	 * <p>
+	 * Stamping an Entity can only take space away, so if the position found for
+	 * an Entity is still free after the Entities before it have been stamped, it
+	 * is exactly where {@code findFree} would have put it at that point. This can
+	 * be checked with {@code isFree(Entity, double[])}.
+	 *
+	 * @param entities		the Entities that need free positions
+	 * @param maxRadius		the number of rings of cells to search
+	 * @return the result of {@code findFree} for each Entity, in the same order
+	 */
+	public double[][] findFreeAll(List<? extends Entity> entities, int maxRadius)
+	{
+		double[][] offsets = new double[entities.size()][];
+		ForkJoinPool.commonPool().invoke(new SearchTask(entities, maxRadius, offsets, 0, offsets.length));
+		return offsets;
+	}
+
+	/** Determines if the block of cells found for the specified Entity by
+	 * {@code findFree} is still free, or the cells that it touches if it did 
+	 * not have to move.
+	 *
+	 * @param e				the Entity, where it was when it was searched for
+	 * @param offset		the result of {@code findFree} for the Entity
+	 * @return true if no Entity touches the block; false otherwise
+	 */
+	public boolean isFree(Entity e, double[] offset)
+	{
+		Box entityBounds = new Box(e.getShape().getBounds());
+		if (offset[0] == 0 && offset[1] == 0)
+			return isFree(entityBounds);
+
+		int spanX = (int)Math.floor((entityBounds.maxX - entityBounds.minX) / cellSize) + 1;
+		int spanY = (int)Math.floor((entityBounds.maxY - entityBounds.minY) / cellSize) + 1;
+		return isFree((int)offset[2], (int)offset[3], spanX, spanY);
+	}
+
+	/** Returns the width and height of each cell of this OccupancyGrid.
+	 *
+	 * @return the size of each cell
+	 */
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+
+	/** Determines if the specified Box is inside this OccupancyGrid, and every
+	 * cell that it touches is free.
+	 *
+	 * @param box		the specified Box
+	 * @return true if no Entity touches the cells of the Box; false otherwise
+	 */
+	private boolean isFree(Box box)
+	{
+		boolean free = false;
+		if (box.minX >= bounds.minX && box.minY >= bounds.minY && box.maxX < bounds.maxX && box.maxY < bounds.maxY)
+		{
+			int[] cells = getCells(box);
+			free = isFree(cells[0], cells[1], cells[2] - cells[0] + 1, cells[3] - cells[1] + 1);
+		}
+		return free;
+	}
+
+	/** Determines if every cell in the specified block is free. Blocks that
+	 * extend beyond this OccupancyGrid are never free.
+	 *
+	 * @param column		the first column of the block
+	 * @param row			the first row of the block
+	 * @param spanX			the number of columns in the block
+	 * @param spanY			the number of rows in the block
+	 * @return true if no Entity touches the block; false otherwise
+	 */
+	private boolean isFree(int column, int row, int spanX, int spanY)
+	{
+		boolean free = column >= 0 && row >= 0 && column + spanX <= columns && row + spanY <= rows;
+
+		for (int r = row; r < row + spanY && free; r++)
+			for (int c = column; c < column + spanX && free; c++)
+				free = counts[r * columns + c] == 0;
+
+		return free;
+	}
+
+	/** Looks for a free position whose corner is in the specified block, that is closer
+	 * to the starting cell than the best position found so far. The positions are lined 
+	 * up on multiples of the Entity's size, so that Entities of the same size pack 
+	 * together without leaving gaps, and blocks fill up completely. A block that is
+	 * found to have no free position at all is marked as crowded for the size of the
+	 * Entity, and skipped by later searches for that size until a cell is freed.
+	 * 
+	 * @param blockColumn		the column of the block
+	 * @param blockRow			the row of the block
+	 * @param startColumn		the column of the starting cell
+	 * @param startRow			the row of the starting cell
+	 * @param spanX				the number of columns needed by the Entity
+	 * @param spanY				the number of rows needed by the Entity
+	 * @param best				the {distance, column, row} of the best position so far, which is updated
+	 * @param mark				the mark of a block that is full for the size of the Entity, or 0 for none
+	 * @return true if the block has no room for the Entity at all; false if it has, 
+	 * 		or if it was not searched all the way through
+	 */
+	private boolean searchBlock(int blockColumn, int blockRow, int startColumn, int startRow, int spanX, int spanY, double[] best, int mark)
+	{
+		if (!hasFreeCells(blockColumn, blockRow))
+			return true;
+		int block = blockRow * blockColumns + blockColumn;
+		if (mark != 0 && crowdedBlocks.get(block) == mark)
+			return true;
+
+		// Skip the block if even its closest cell is no better than what we have
+
+		double nearestX = clamp(startColumn, blockColumn * BLOCK_SIZE, (blockColumn + 1) * BLOCK_SIZE - 1) - startColumn;
+		double nearestY = clamp(startRow, blockRow * BLOCK_SIZE, (blockRow + 1) * BLOCK_SIZE - 1) - startRow;
+
+		boolean full = nearestX * nearestX + nearestY * nearestY < best[0]; // until a free position is found, or one is passed over
+		if (full)
+		{
+			for (int row = alignUp(blockRow * BLOCK_SIZE, spanY); row < (blockRow + 1) * BLOCK_SIZE; row += spanY)
+			{
+				for (int column = alignUp(blockColumn * BLOCK_SIZE, spanX); column < (blockColumn + 1) * BLOCK_SIZE; column += spanX)
+				{
+					double distX = column - startColumn;
+					double distY = row - startRow;
+					double distance = distX * distX + distY * distY;
+					if (distance >= best[0])
+						full = false;
+					else if (isFree(column, row, spanX, spanY))
+					{
+						best[0] = distance;
+						best[1] = column;
+						best[2] = row;
+						full = false;
+					}
+				}
+			}
+
+			if (full && mark != 0)
+				crowdedBlocks.set(block, mark);
+		}
+		return full;
+	}
+
+	/** Returns the mark of a block or region that has no room for an Entity of the
+	 * specified size.
+	 * 
+	 * @param spanX		the number of columns needed by the Entity
+	 * @param spanY		the number of rows needed by the Entity
+	 * @return the mark of a full block or region, or 0 if the Entity is too big to be marked
+	 */
+	private static int getMark(int spanX, int spanY)
+	{
+		if (spanX > BLOCK_SIZE || spanY > BLOCK_SIZE)
+			return 0;
+		return spanX << 16 | spanY;
+	}
+
+	/** Clears the marks of the blocks whose positions could cover the specified
+	 * cell, which has just been freed: its own block, and the blocks before it, 
+	 * and the regions that they are in.
+	 * 
+	 * @param column	the column of the cell
+	 * @param row		the row of the cell
+	 */
+	private void uncrowd(int column, int row)
+	{
+		int lastColumn = column / BLOCK_SIZE;
+		int lastRow = row / BLOCK_SIZE;
+		for (int blockRow = Math.max(0, lastRow - 1); blockRow <= lastRow; blockRow++)
+		{
+			for (int blockColumn = Math.max(0, lastColumn - 1); blockColumn <= lastColumn; blockColumn++)
+			{
+				int block = blockRow * blockColumns + blockColumn;
+				if (crowdedBlocks.get(block) != 0)
+					crowdedBlocks.set(block, 0);
+				int region = (blockRow / BLOCK_SIZE) * regionColumns + blockColumn / BLOCK_SIZE;
+				if (crowdedRegions.get(region) != 0)
+					crowdedRegions.set(region, 0);
+			}
+		}
+	}
+
+	/** Determines if the specified region of blocks exists and has at least one
+	 * block that is not completely taken.
+	 * 
+	 * @param regionColumn		the column of the region
+	 * @param regionRow			the row of the region
+	 * @return true if the region has a block with a free cell; false otherwise
+	 */
+	private boolean hasFreeBlocks(int regionColumn, int regionRow)
+	{
+		boolean free = false;
+		if (regionColumn >= 0 && regionRow >= 0 && regionColumn < regionColumns && regionRow * BLOCK_SIZE * BLOCK_SIZE < rows)
+			free = fullBlocks[regionRow * regionColumns + regionColumn] < BLOCK_SIZE * BLOCK_SIZE;
+		return free;
+	}
+
+	/** Determines if the specified block exists and has at least one free cell.
+	 * 
+	 * @param blockColumn		the column of the block
+	 * @param blockRow			the row of the block
+	 * @return true if the block has a free cell; false otherwise
+	 */
+	private boolean hasFreeCells(int blockColumn, int blockRow)
+	{
+		boolean free = false;
+		if (blockColumn >= 0 && blockRow >= 0 && blockColumn < blockColumns && blockRow * BLOCK_SIZE < rows)
+			free = takenCells[blockRow * blockColumns + blockColumn] < BLOCK_SIZE * BLOCK_SIZE;
+		return free;
+	}
+
+	/** Determines the block of cells touched by the specified Box, clipped
+	 * to the bounds of this OccupancyGrid.
+	 *
+	 * @param box		the specified Box
+	 * @return an array containing {firstColumn, firstRow, lastColumn, lastRow}
+	 */
+	private int[] getCells(Box box)
+	{
+		int[] cells = new int[4];
+		cells[0] = clamp((int)Math.floor((box.minX - bounds.minX) / cellSize), 0, columns - 1);
+		cells[1] = clamp((int)Math.floor((box.minY - bounds.minY) / cellSize), 0, rows - 1);
+		cells[2] = clamp((int)Math.floor((box.maxX - bounds.minX) / cellSize), 0, columns - 1);
+		cells[3] = clamp((int)Math.floor((box.maxY - bounds.minY) / cellSize), 0, rows - 1);
+		return cells;
+	}
+
+	/** Adds the specified amount to the count of every cell in the
+	 * specified block.
+	 *
+	 * @param cells		the block of cells, as {firstColumn, firstRow, lastColumn, lastRow}
+	 * @param amount	the amount to add
+	 */
+	private void stamp(int[] cells, int amount)
+	{
+		for (int r = cells[1]; r <= cells[3]; r++)
+		{
+			for (int c = cells[0]; c <= cells[2]; c++)
+			{
+				int index = r * columns + c;
+				boolean wasTaken = counts[index] != 0;
+				counts[index] += amount;
+
+				if (wasTaken != (counts[index] != 0)) // the cell was just taken or freed
+				{
+					if (wasTaken)
+						uncrowd(c, r);
+
+					int block = (r / BLOCK_SIZE) * blockColumns + c / BLOCK_SIZE;
+					boolean wasFull = takenCells[block] == BLOCK_SIZE * BLOCK_SIZE;
+					takenCells[block] += wasTaken ? -1 : 1;
+
+					if (wasFull != (takenCells[block] == BLOCK_SIZE * BLOCK_SIZE)) // the block was just filled or opened up
+					{
+						int region = (r / (BLOCK_SIZE * BLOCK_SIZE)) * regionColumns + c / (BLOCK_SIZE * BLOCK_SIZE);
+						fullBlocks[region] += wasFull ? -1 : 1;
+					}
+				}
+			}
+		}
+	}
+
+	/** Rounds the specified value up to the nearest multiple of the specified step.
+	 * 
+	 * @param value		the value to be rounded
+	 * @param step		the step to round to
+	 * @return the smallest multiple of step that is not smaller than value
+	 */
+	private static int alignUp(int value, int step)
+	{
+		return (value + step - 1) / step * step;
+	}
+
+	/** Restricts the specified value to the specified range.
+	 *
+	 * @param value		the value to be restricted
+	 * @param min		the smallest allowed value
+	 * @param max		the largest allowed value
+	 * @return the restricted value
+	 */
+	private static int clamp(int value, int min, int max)
+	{
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/** A task that does the searches of {@code findFreeAll} for a range of
+	 * Entities, splitting the range in half until it is small enough.
+	 */
+	private class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends Entity> entities;
+		private final int maxRadius;
+		private final double[][] offsets;
+		private final int start;
+		private final int end;
+
+		/** Creates a new task that searches for the Entities from start inclusive
+		 * to end exclusive.
+		 *
+		 * @param entities		all of the Entities
+		 * @param maxRadius		the number of rings of cells to search
+		 * @param offsets		the array in which to store the results
+		 * @param start			the index of the first Entity
+		 * @param end			the index after the last Entity
+		 */
+		private SearchTask(List<? extends Entity> entities, int maxRadius, double[][] offsets, int start, int end)
+		{
+			this.entities = entities;
+			this.maxRadius = maxRadius;
+			this.offsets = offsets;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start <= SEARCHES_PER_TASK)
+			{
+				for (int i = start; i < end; i++)
+					offsets[i] = findFree(entities.get(i), maxRadius);
+			}
+			else
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll(new SearchTask(entities, maxRadius, offsets, start, middle),
+						new SearchTask(entities, maxRadius, offsets, middle, end));
+			}
+		}
+	}
+}
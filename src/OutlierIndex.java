@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/** A coarse spatial hash of the outlier Entities of a QuadTree, which are the
+ * Entities that are not entirely within the bounds of its root QuadBranch.
+ * <p>
+ * The plane is divided into square cells, and every outlier is stored in each of
+ * the cells that its bounds touch, so queries only have to look at the outliers
+ * that are near the area being queried. Outliers that are so big that they would
+ * touch more than {@code MAX_CELLS_PER_ENTITY} cells are kept in a separate list
+ * instead, and are checked by every query.
+ *
+ * @see QuadTree
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class OutlierIndex
+{
+	/** The largest number of cells that one outlier will be stored in.
+	 */
+	public static final int MAX_CELLS_PER_ENTITY = 64;
+
+	/** The width and height of each cell.
+	 */
+	private final double cellSize;
+
+	/** The bounds of every outlier at the time it was indexed, in the
+	 * order in which the outliers were added.
+	 */
+	private final LinkedHashMap<Entity, Box> bounds;
+
+	/** The outliers in each cell that has any, keyed by the cell's column and row.
+	 */
+	private final HashMap<Long, List<Entity>> cells;
+
+	/** The outliers that are too big to be stored cell by cell.
+	 */
+	private final List<Entity> large;
+
+	/** Creates a new, empty OutlierIndex with cells of the specified size.
+	 *
+	 * @param cellSize		the width and height of each cell
+	 */
+	public OutlierIndex(double cellSize)
+	{
+		this.cellSize = cellSize;
+		bounds = new LinkedHashMap<Entity, Box>();
+		cells = new HashMap<Long, List<Entity>>();
+		large = new ArrayList<Entity>();
+	}
+
+	/** Adds the specified outlier to this OutlierIndex.
+	 *
+	 * @param e					the outlier to be added
+	 * @param entityBounds		the Box representing the bounds of the outlier's shape
+	 */
+	public void add(Entity e, Box entityBounds)
+	{
+		bounds.put(e, entityBounds);
+
+		int[] range = getCells(entityBounds);
+		long count = (long)(range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+
+		if (count > MAX_CELLS_PER_ENTITY)
+			large.add(e);
+		else
+		{
+			for (int row = range[1]; row <= range[3]; row++)
+			{
+				for (int column = range[0]; column <= range[2]; column++)
+				{
+					Long key = getKey(column, row);
+					List<Entity> cell = cells.get(key);
+					if (cell == null)
+					{
+						cell = new ArrayList<Entity>(2);
+						cells.put(key, cell);
+					}
+					cell.add(e);
+				}
+			}
+		}
+	}
+
+	/** Removes the specified outlier from this OutlierIndex.
+	 *
+	 * @param e		the outlier to be removed
+	 * @return true if the outlier was in this OutlierIndex; false otherwise
+	 */
+	public boolean remove(Entity e)
+	{
+		Box entityBounds = bounds.remove(e);
+		if (entityBounds != null)
+		{
+			if (!large.remove(e))
+			{
+				int[] range = getCells(entityBounds);
+				for (int row = range[1]; row <= range[3]; row++)
+				{
+					for (int column = range[0]; column <= range[2]; column++)
+					{
+						Long key = getKey(column, row);
+						List<Entity> cell = cells.get(key);
+						cell.remove(e);
+						if (cell.isEmpty())
+							cells.remove(key);
+					}
+				}
+			}
+		}
+		return entityBounds != null;
+	}
+
+	/** Moves the specified outlier to its new bounds in this OutlierIndex.
+	 *
+	 * @param e					the outlier that has moved
+	 * @param entityBounds		the Box representing the new bounds of the outlier's shape
+	 */
+	public void update(Entity e, Box entityBounds)
+	{
+		if (remove(e))
+			add(e, entityBounds);
+	}
+
+	/** Removes all of the outliers from this OutlierIndex.
+	 */
+	public void clear()
+	{
+		bounds.clear();
+		cells.clear();
+		large.clear();
+	}
+
+	/** Determines if the specified Entity is an outlier in this OutlierIndex.
+	 *
+	 * @param e		the Entity to search for
+	 * @return true if the Entity is in this OutlierIndex; false otherwise
+	 */
+	public boolean contains(Entity e)
+	{
+		return bounds.containsKey(e);
+	}
+
+	/** Determines if this OutlierIndex has no outliers.
+	 *
+	 * @return true if there are no outliers; false otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return bounds.isEmpty();
+	}
+
+	/** Returns a list of all of the outliers, in the order in which they were added.
+	 *
+	 * @return a list of all of the outliers
+	 */
+	public List<Entity> get()
+	{
+		return new ArrayList<Entity>(bounds.keySet());
+	}
+
+	/** Adds all of the outliers whose bounds intersect the specified Box
+	 * to the specified collection. Each outlier is only added once.
+	 *
+	 * @param box		the area being queried
+	 * @param list		the collection to which the outliers are added
+	 */
+	public void get(Box box, Collection<Entity> list)
+	{
+		if (!bounds.isEmpty())
+		{
+			int[] range = getCells(box);
+			long count = (long)(range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+
+			if (count > cells.size()) // faster to just check every outlier
+			{
+				for (Entity e : bounds.keySet())
+					if (bounds.get(e).intersects(box))
+						list.add(e);
+			}
+			else
+			{
+				HashSet<Entity> found = new HashSet<Entity>(); // outliers can be in more than one cell
+				for (int row = range[1]; row <= range[3]; row++)
+				{
+					for (int column = range[0]; column <= range[2]; column++)
+					{
+						List<Entity> cell = cells.get(getKey(column, row));
+						if (cell != null)
+							for (Entity e : cell)
+								if (bounds.get(e).intersects(box) && found.add(e))
+									list.add(e);
+					}
+				}
+
+				for (Entity e : large)
+					if (bounds.get(e).intersects(box))
+						list.add(e);
+			}
+		}
+	}
+
+	/** Returns the number of outliers in this OutlierIndex.
+	 *
+	 * @return the number of outliers
+	 */
+	public int size()
+	{
+		return bounds.size();
+	}
+
+	/** Determines the range of cells touched by the specified Box.
+	 *
+	 * @param box		the specified Box
+	 * @return an array containing {firstColumn, firstRow, lastColumn, lastRow}
+	 */
+	private int[] getCells(Box box)
+	{
+		return new int[] {
+				(int)Math.floor(box.minX / cellSize),
+				(int)Math.floor(box.minY / cellSize),
+				(int)Math.floor(box.maxX / cellSize),
+				(int)Math.floor(box.maxY / cellSize)};
+	}
+
+	/** Combines the specified column and row into the key of a cell.
+	 *
+	 * @param column	the column of the cell
+	 * @param row		the row of the cell
+	 * @return the key of the cell
+	 */
+	private static Long getKey(int column, int row)
+	{
+		return ((long)column << 32) | (row & 0xFFFFFFFFL);
+	}
+}
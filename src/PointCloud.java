@@ -0,0 +1,175 @@
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/** A raster that Entities are drawn into as a few pixels each, for when they
+ * are too small on the screen to be worth drawing with their shapes.
+ * <p>
+ * Every Entity covers the pixels that its bounds fall on, or at least one.
+ * The colours of all of the Entities of a layer that fall on a pixel are
+ * averaged, weighted by their alpha, and the pixel is as opaque as the sum of
+ * their alphas, so that a pixel covered by a few faint Entities is faint, and
+ * one covered by a crowd takes on the colours of the crowd. Each layer is then
+ * laid over the ones before it. The colours are written straight into the data
+ * buffer of the image, which is drawn onto the screen once.
+ *
+ * @see Spacetime#setPointCloudZoom(double)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class PointCloud
+{
+	private BufferedImage image;
+	private int[] pixels;
+	private int width, height;
+
+	/** The sums of the colours of the current layer on every pixel, weighted
+	 * by their alpha, and the sums of their alphas.
+	 */
+	private int[] red, green, blue, weight;
+
+	/** The rows of the current layer that have been drawn on.
+	 */
+	private int top, bottom;
+
+	/** The transform from the coordinates of the Entities to the pixels of the
+	 * image, which only scales and translates.
+	 */
+	private double scaleX, scaleY, translateX, translateY;
+
+	/** Clears the image, and sets it up to draw a new frame.
+	 *
+	 * @param width		the width of the image
+	 * @param height	the height of the image
+	 * @param transform	the transform from the coordinates of the Entities to the
+	 * 					pixels of the image; any rotation or shear is ignored
+	 */
+	public void begin (int width, int height, AffineTransform transform)
+	{
+		width = Math.max(width, 1);
+		height = Math.max(height, 1);
+		if (image == null || width != this.width || height != this.height)
+		{
+			this.width = width;
+			this.height = height;
+			image = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			red = new int[width * height];
+			green = new int[width * height];
+			blue = new int[width * height];
+			weight = new int[width * height];
+		}
+		else
+			Arrays.fill(pixels, 0);
+
+		scaleX = transform.getScaleX();
+		scaleY = transform.getScaleY();
+		translateX = transform.getTranslateX();
+		translateY = transform.getTranslateY();
+		top = height;
+		bottom = -1;
+	}
+
+	/** Draws an Entity with the specified bounds and colour into the current layer.
+	 *
+	 * @param bounds	the bounds of the Entity
+	 * @param color		the colour of the Entity
+	 */
+	public void plot (Rectangle2D bounds, Color color)
+	{
+		plot(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(), color);
+	}
+
+	/** Draws an Entity with the specified bounds and colour into the current layer.
+	 *
+	 * @param minX		the smallest x-coordinate of the bounds of the Entity
+	 * @param minY		the smallest y-coordinate of the bounds of the Entity
+	 * @param maxX		the largest x-coordinate of the bounds of the Entity
+	 * @param maxY		the largest y-coordinate of the bounds of the Entity
+	 * @param color		the colour of the Entity
+	 */
+	public void plot (double minX, double minY, double maxX, double maxY, Color color)
+	{
+		int x0 = (int) Math.floor(minX * scaleX + translateX);
+		int y0 = (int) Math.floor(minY * scaleY + translateY);
+		int x1 = Math.max(x0, (int) Math.ceil(maxX * scaleX + translateX) - 1);
+		int y1 = Math.max(y0, (int) Math.ceil(maxY * scaleY + translateY) - 1);
+
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width - 1);
+		y1 = Math.min(y1, height - 1);
+		if (x0 > x1 || y0 > y1)
+			return;
+
+		int rgb = color.getRGB();
+		int alpha = rgb >>> 24;
+		int r = (rgb >> 16 & 0xff) * alpha;
+		int g = (rgb >> 8 & 0xff) * alpha;
+		int b = (rgb & 0xff) * alpha;
+
+		for (int y = y0; y <= y1; y++)
+		{
+			for (int i = y * width + x0, end = y * width + x1; i <= end; i++)
+			{
+				red[i] += r;
+				green[i] += g;
+				blue[i] += b;
+				weight[i] += alpha;
+			}
+		}
+		top = Math.min(top, y0);
+		bottom = Math.max(bottom, y1);
+	}
+
+	/** Lays the current layer over the layers before it, and starts a new layer.
+	 */
+	public void flushLayer ()
+	{
+		for (int i = top * width, end = (bottom + 1) * width; i < end; i++)
+		{
+			int w = weight[i];
+			if (w == 0)
+				continue;
+
+			int r = red[i] / w;
+			int g = green[i] / w;
+			int b = blue[i] / w;
+			int a = Math.min(w, 255);
+
+			int below = pixels[i];
+			int belowA = below >>> 24;
+			if (a < 255 && belowA != 0) // blend over what the earlier layers drew here
+			{
+				int under = belowA * (255 - a) / 255;
+				int outA = a + under;
+				r = (r * a + (below >> 16 & 0xff) * under) / outA;
+				g = (g * a + (below >> 8 & 0xff) * under) / outA;
+				b = (b * a + (below & 0xff) * under) / outA;
+				a = outA;
+			}
+			pixels[i] = a << 24 | r << 16 | g << 8 | b;
+
+			red[i] = 0;
+			green[i] = 0;
+			blue[i] = 0;
+			weight[i] = 0;
+		}
+		top = height;
+		bottom = -1;
+	}
+
+	/** Returns the image that the Entities have been drawn into.
+	 *
+	 * @return the image
+	 */
+	public BufferedImage getImage ()
+	{
+		return image;
+	}
+}
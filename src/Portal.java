@@ -31,6 +31,10 @@ public class Portal extends Entity
 
 	private Portal target;		
 
+	/** The WitchBarrier that this Portal leads into or out of, if any. 
+	 */
+	private WitchBarrier barrier;
+
 	/** Constructs a new portal at the specified coordinates,
 	 * of the specified length.
 	 * 
@@ -46,14 +50,24 @@ public class Portal extends Entity
 	@Override
 	public void draw (Graphics2D g) 
 	{	
-		g.setColor(Color.blue);		
+		g.setColor(getColor());		
 		super.draw(g);		
+	}
+
+	@Override
+	public Color getColor ()
+	{
+		return Color.blue;
 	}		
 
 	/** Teleports the instigator Entity over to the target portal,
 	 * if one is set. Invokes the {@code ensureNoCollision(Entity)} method
 	 * in Spacetime to ensure that the Entity does not materialize on
 	 * top of another Entity. Ah, the bane of teleportation.
+	 * <p>
+	 * If the target portal is in another Spacetime, the instigator is posted
+	 * to that Spacetime with {@code postArrival(Entity)}, and only arrives there
+	 * at the end of the tick.
 	 */
 	@Override
 	public void notifyCollision (Entity instigator)
@@ -87,17 +101,33 @@ public class Portal extends Entity
 
 			Vector2D away = Vector2D.getVectorFromDirection(1, target.theta);
 
-			// Remove instigator from this grid and add it to the target grid
-			instigator.grid.removeEntity(instigator);
-			target.grid.addEntity(instigator);	
+			// Let the WitchBarrier generate its labyrinth if it has not been yet
+
+			if (barrier != null)
+				barrier.notifyTransfer(this, instigator);
+
+			// Remove instigator from this grid
+
+			Spacetime source = instigator.grid;
+			Spacetime destination = target.grid;
+			source.removeEntity(instigator);
 
 			do
 			{							
 				instigator.setLocation (instigator.x + away.x, instigator.y + away.y);
 			}
-			while (instigator.grid.isColliding(instigator.getShape(), target.getShape()));
+			while (destination.isColliding(instigator.getShape(), target.getShape()));
+
+			// Add instigator to the target grid. If the target is in another world, that world may 
+			// be advancing on another thread, so the instigator is handed over at the end of the tick.
 
-			instigator.grid.ensureNoCollision(instigator);			
+			if (destination == source)
+			{
+				destination.addEntity(instigator);
+				destination.ensureNoCollision(instigator);
+			}
+			else
+				destination.postArrival(instigator);			
 		}
 	}
 
@@ -113,4 +143,14 @@ public class Portal extends Entity
 	{
 		target = portal;		
 	}
+
+	/** Sets the WitchBarrier that this Portal leads into or out of. The
+	 * WitchBarrier is notified of every Entity that goes through this Portal.
+	 * 
+	 * @param barrier	the WitchBarrier that this Portal belongs to
+	 */
+	public void setBarrier (WitchBarrier barrier)
+	{
+		this.barrier = barrier;
+	}
 }
@@ -15,6 +15,10 @@ public class Puella extends Entity
 {
 	private static final long serialVersionUID = 1L;
 
+	/** The colour of a Puella.
+	 */
+	private static final Color COLOR = new Color(255, 0, 128);
+
 	/** The maximum grief a Puella can sustain before turning into a Witch.
 	 */
 	public final int MAXGRIEF = 3000;
@@ -23,6 +27,15 @@ public class Puella extends Entity
 	 */
 	private int grief;
 
+	/** The Witch that the Puella is currently hunting. It is only chosen again
+	 * every few ticks, or when it is no longer in the Puella's Spacetime.
+	 */
+	private transient Entity target;
+
+	/** Where the target was at the start of the current tick.
+	 */
+	private double targetX, targetY;
+
 	static final Shape shape = new Rectangle2D.Double(0, 0, 6, 6);
 
 	/** Constructs a new Puella at a location.
@@ -48,6 +61,35 @@ public class Puella extends Entity
 	}
 
 
+	@Override
+	public int getCategories ()
+	{
+		return super.getCategories() | 1 << PUELLA;
+	}
+
+	/** A Puella Magi is always on the hunt for witches, and her soul gem 
+	 * keeps darkening, so she never falls asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
+	@Override
+	public void plan()
+	{
+		if (target == null || target.grid != grid || grid.isRetargetDue(this))
+			target = grid.findNearest(this, Witch.class, WITCH);
+		if (target != null)
+		{
+			targetX = target.x;
+			targetY = target.y;
+		}
+	}
+
 	@Override
 	public void advance()
 	{
@@ -56,7 +98,12 @@ public class Puella extends Entity
 		super.advance();
 
 
-		move(grid.getEntities(Witch.class));
+		if (grid.getTickStrategy() != Spacetime.CHECKERBOARD_TICK)
+			plan();
+		if (target != null)
+			moveTowards(targetX, targetY);
+		else
+			moveTowards(null);
 
 		if(grief == MAXGRIEF)
 			if (grid != null)
@@ -72,7 +119,7 @@ public class Puella extends Entity
 		{
 			if (e instanceof Witch)
 			{
-				double num = Math.random();
+				double num = getRandom().nextDouble();
 
 				if(num < 0.333)
 				{
@@ -108,86 +155,53 @@ public class Puella extends Entity
 	 */
 	public int[] move (ArrayList<Entity> witches)
 	{
-		int[] direct = new int[2];
-
-		if(witches.size() != 0)
-		{			
-			double[] distance = new double[witches.size()];
-			int closest = 0;
-			double a, b;
+		target = selectTarget(witches);
+		return moveTowards(target);
+	}
 
-			for(int i = 0; i < witches.size(); i ++)
-			{
-				distance[i] = Math.sqrt((x - witches.get(i).x) * (x - witches.get(i).x) + (y - witches.get(i).y) * (y - witches.get(i).y));
-			}
+	/** Chooses the witch that the Puella should hunt, which is the closest one.
+	 * @param witches			the witches around it
+	 * @return		the closest witch, or null if there are none
+	 */
+	public Entity selectTarget (List<Entity> witches)
+	{
+		if(witches.size() == 0)
+			return null;
 
-			for(int i = 1; i < distance.length; i++)
-			{
-				if(distance[i] < distance[closest])
-				{
-					closest = i;
-				}
-			}
+		DistanceKernels.Coordinates c = DistanceKernels.buffer().load(witches);
+		return witches.get(DistanceKernels.nearest(c, x, y));
+	}
 
-			a = witches.get(closest).x;
-			b = witches.get(closest).y;
+	/** Moves the Puella one step towards a witch, in one of 8 directions,
+	 * or one step in a random direction if there is no witch.
+	 * @param witch			the witch being hunted, or null
+	 * @return		the point in array form of the movement
+	 */
+	public int[] moveTowards (Entity witch)
+	{
+		if(witch != null)
+			return moveTowards(witch.x, witch.y);
 
-			if(x - a > 0 && y - b > 0)
-			{
-				direct[0] = -1;
-				direct[1] = -1;
-			}
-			else if(x - a == 0 && y - b > 0)
-			{
-				direct[0] = 0;
-				direct[1] = -1;
-			}
-			else if(x - a < 0 && y - b > 0)
-			{
-				direct[0] = 1;
-				direct[1] = -1;
-			}
-			else if(x - a > 0 && y - b == 0)
-			{
-				direct[0] = -1;
-				direct[1] = 0;
-			}
-			else if(x - a == 0 && y - b == 0)
-			{
-				direct[0] = 0;
-				direct[1] = 0;
-			}
-			else if(x - a < 0 && y - b == 0)
-			{
-				direct[0] = 1;
-				direct[1] = 0;
-			}
-			else if(x - a > 0 && y - b < 0)
-			{
-				direct[0] = -1;
-				direct[1] = 1;
-			}
-			else if(x - a == 0 && y - b < 0)
-			{
-				direct[0] = 0;
-				direct[1] = 1;
-			}
-			else if(x - a < 0 && y - b < 0)
-			{
-				direct[0] = 1;
-				direct[1] = 1;
-			}
+		int[] direct = new int[2];
+		direct[0] = random(-1, 1);
+		direct[1] = random(-1, 1);
 
-			translate(direct[0], direct[1]);
-		}
-		else
-		{						
-			direct[0] = random(-1, 1);
-			direct[1] = random(-1, 1);
+		translate(direct[0], direct[1]);
+		return direct;
+	}
 
-			translate(direct[0], direct[1]);			
-		}
+	/** Moves one step towards the specified point, in one of 8 directions.
+	 * @param goalX		the x-coordinate to head for
+	 * @param goalY		the y-coordinate to head for
+	 * @return		the point in array form of the movement
+	 */
+	public int[] moveTowards (double goalX, double goalY)
+	{
+		int[] direct = new int[2];
+		direct[0] = (int) Math.signum(goalX - x);
+		direct[1] = (int) Math.signum(goalY - y);
 
+		translate(direct[0], direct[1]);
 		return direct;
 	}
 
@@ -199,7 +213,7 @@ public class Puella extends Entity
 	public int random (int min, int max)
 	{
 		double step1 = (Math.max(min, max) - Math.min(min, max));
-		double step2 = (Math.random() * step1);
+		double step2 = (getRandom().nextDouble() * step1);
 		double step3 = Math.min(min, max) + step2;
 
 		return (int) Math.round(step3);
@@ -219,10 +233,16 @@ public class Puella extends Entity
 	 */
 	public void draw (Graphics2D g)
 	{
-		g.setColor(new Color(255, 0, 128)); // set color
+		g.setColor(getColor()); // set color
 		g.fill(getShape());
 	}
 
+	@Override
+	public Color getColor ()
+	{
+		return COLOR;
+	}
+
 	/** Getter method for grief.
 	 * @return		the current grief of the puella
 	 */
@@ -1,8 +1,12 @@
 import java.awt.Graphics2D;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /** A class that stores Entities. If the number of Entities in a branch
  * exceeds the value specified by {@code maxSize}, the branch will recursively
@@ -19,6 +23,13 @@ import java.util.List;
  * <p>
  * Note that unlike here, y-coordinates are inverted in Graphics.
  * <p>
+ * Every QuadBranch also keeps a count of the Entities in each category held by it 
+ * and by all of its children, not counting noncommittal copies, which is kept up to 
+ * date as Entities are added and removed. Questions about how many Entities of a 
+ * kind are in an area, or if there are any at all, are answered from the counts of 
+ * the QuadBranches that are entirely inside of the area, so only the QuadBranches 
+ * along its edges have to look at their Entities.
+ * <p>
  * Currently does not implement any mechanism for merging children QuadBranches.
  *  
  * @author Jiayin Huang
@@ -66,6 +77,11 @@ public class QuadBranch implements Serializable
 	 */	
 	private QuadBranch[] children;
 
+	/** The number of Entities above which {@code build} constructs the four
+	 * children of a QuadBranch in parallel, when it is running in a ForkJoinPool. 
+	 */
+	public static final int PARALLEL_THRESHOLD = 4096;
+
 	/** The maximum number of Entities that can be held by this QuadBranch
 	 * before it divides. This value includes both Entities that are entirely
 	 * enclosed by this QuadBranch as well as noncommittal Entities that are
@@ -102,6 +118,13 @@ public class QuadBranch implements Serializable
 	 */
 	private boolean hasChildren = false;
 
+	/** The number of Entities in each category held by this QuadBranch and by all of
+	 * its children. Noncommittal copies are not counted.
+	 * 
+	 * @see Entity#getCategories()
+	 */
+	private int[] counts = new int[Entity.CATEGORIES];
+
 	/** Creates a new QuadBranch with the specified parent and bounds. The
 	 * <code>quadrant</code> parameter specifies which quadrant this QuadBranch
 	 * occupies in its parent QuadBranch.
@@ -155,6 +178,7 @@ public class QuadBranch implements Serializable
 				leaves.add(e);
 				e.path = path;
 				size++;
+				countIn(e);
 
 				// Add noncommittal copies of the Entity to deeper Branches
 
@@ -171,6 +195,7 @@ public class QuadBranch implements Serializable
 			leaves.add(e);
 			e.path = path;			
 			size++;
+			countIn(e);
 			
 			if (size > maxSize)			
 				divide();			
@@ -228,6 +253,7 @@ public class QuadBranch implements Serializable
 			noncommittals = null;
 		}		
 		size = 0;
+		Arrays.fill(counts, 0);
 	}
 	
 	/** Determines if this QuadBranch encompasses the specified Box entirely.
@@ -291,6 +317,37 @@ public class QuadBranch implements Serializable
 	}	
 	
 
+	/** Determines the quadrants in which the specified Box lies, in the
+	 * same way as {@code determineBranch(Box)}, but without creating a List.
+	 * Bit <code>n</code> of the result is set if the Box falls under the 
+	 * quadrant with the ID number <code>n</code>.
+	 * 
+	 * @param box	the specified Box
+	 * @return a bit mask of the IDs of all of the quadrants that the Box falls under
+	 */
+	protected int determineQuadrants(Box box)
+	{
+		int results = 0;
+
+		if (box.minX < bounds.centreX) // box is left of center
+		{
+			if (box.minY < bounds.centreY) // box is below centre
+				results |= 1 << SW;
+			if (box.maxY >= bounds.centreY) // box is above centre, inclusive
+				results |= 1 << NW;
+		}
+
+		if (box.maxX >= bounds.centreX) // box is right of centre, inclusive
+		{
+			if (box.minY < bounds.centreY) // box is below centre
+				results |= 1 << SE;
+			if (box.maxY >= bounds.centreY) // box is above centre, inclusive
+				results |= 1 << NE;
+		}
+
+		return results;
+	}
+
 	/** Determines the quadrant in which the specified point
 	 * lies, assuming that this QuadBranch already has children.
 	 * 
@@ -321,6 +378,167 @@ public class QuadBranch implements Serializable
 	}
 
 	
+	/** Builds this QuadBranch and all of its children from a whole batch of 
+	 * Entities at once. The result is the same structure, with the same counts, that 
+	 * adding the Entities one at a time would give, but each Entity is only handed 
+	 * down the branches once, instead of being re-added every time a QuadBranch divides. Assumes that this 
+	 * QuadBranch is empty and has no children.
+	 * <p>
+	 * If this method is invoked inside of a ForkJoinPool, the children of a QuadBranch
+	 * holding more than {@code PARALLEL_THRESHOLD} Entities are built in parallel.
+	 * 
+	 * @param owned				the Entities that are entirely enclosed by this QuadBranch
+	 * @param ownedBounds		the Boxes representing the bounds of the owned Entities, in the same order
+	 * @param partial			the Entities that are only partially in this QuadBranch
+	 * @param partialBounds		the Boxes representing the bounds of the partial Entities, in the same order
+	 */
+	protected void build(List<Entity> owned, List<Box> ownedBounds, List<Entity> partial, List<Box> partialBounds)
+	{
+		int total = owned.size() + partial.size();
+
+		if (total <= maxSize) // everything fits, so this QuadBranch stays undivided
+		{
+			for (Entity e : owned)
+			{
+				e.path = path;
+				e.categories = e.getCategories();
+				tallyHere(e.categories, 1);
+			}
+			leaves.addAll(owned);
+			noncommittals.addAll(partial);
+			size = total;
+		}
+		else
+		{
+			createChildren();
+
+			// Work out which quadrants each Entity falls under, and how many Entities each child gets
+
+			int[] ownedMasks = new int[owned.size()];
+			int[] partialMasks = new int[partial.size()];
+			int[] ownedCounts = new int[children.length];
+			int[] partialCounts = new int[children.length];
+
+			for (int i = 0; i < ownedMasks.length; i++)
+			{
+				ownedMasks[i] = determineQuadrants(ownedBounds.get(i));
+				if (Integer.bitCount(ownedMasks[i]) > 1)
+					for (int id = 0; id < children.length; id++)
+						partialCounts[id] += (ownedMasks[i] >> id) & 1;
+				else
+					ownedCounts[Integer.numberOfTrailingZeros(ownedMasks[i])]++;
+			}
+			for (int i = 0; i < partialMasks.length; i++)
+			{
+				partialMasks[i] = determineQuadrants(partialBounds.get(i));
+				for (int id = 0; id < children.length; id++)
+					partialCounts[id] += (partialMasks[i] >> id) & 1;
+			}
+
+			List<List<Entity>> childOwned = new ArrayList<List<Entity>>(4);
+			List<List<Box>> childOwnedBounds = new ArrayList<List<Box>>(4);
+			List<List<Entity>> childPartial = new ArrayList<List<Entity>>(4);
+			List<List<Box>> childPartialBounds = new ArrayList<List<Box>>(4);
+			for (int id = 0; id < children.length; id++)
+			{
+				childOwned.add(new ArrayList<Entity>(ownedCounts[id]));
+				childOwnedBounds.add(new ArrayList<Box>(ownedCounts[id]));
+				childPartial.add(new ArrayList<Entity>(partialCounts[id]));
+				childPartialBounds.add(new ArrayList<Box>(partialCounts[id]));
+			}
+
+			// Keep the Entities that straddle the children here, and hand the rest down
+
+			for (int i = 0; i < ownedMasks.length; i++)
+			{
+				Entity e = owned.get(i);
+				Box entityBounds = ownedBounds.get(i);
+
+				if (Integer.bitCount(ownedMasks[i]) > 1)
+				{
+					leaves.add(e);
+					e.path = path;
+					size++;
+					e.categories = e.getCategories();
+					tallyHere(e.categories, 1);
+
+					for (int id = 0; id < children.length; id++)
+					{
+						if ((ownedMasks[i] & (1 << id)) != 0)
+						{
+							childPartial.get(id).add(e);
+							childPartialBounds.get(id).add(entityBounds);
+						}
+					}
+				}
+				else
+				{
+					int id = Integer.numberOfTrailingZeros(ownedMasks[i]);
+					childOwned.get(id).add(e);
+					childOwnedBounds.get(id).add(entityBounds);
+				}
+			}
+
+			for (int i = 0; i < partialMasks.length; i++)
+			{
+				for (int id = 0; id < children.length; id++)
+				{
+					if ((partialMasks[i] & (1 << id)) != 0)
+					{
+						childPartial.get(id).add(partial.get(i));
+						childPartialBounds.get(id).add(partialBounds.get(i));
+					}
+				}
+			}
+
+			// Build the children
+
+			if (total > PARALLEL_THRESHOLD && ForkJoinTask.inForkJoinPool())
+			{
+				List<BuildTask> tasks = new ArrayList<BuildTask>(4);
+				for (int i = 0; i < children.length; i++)
+					tasks.add(new BuildTask(children[i], childOwned.get(i), childOwnedBounds.get(i), 
+							childPartial.get(i), childPartialBounds.get(i)));
+				ForkJoinTask.invokeAll(tasks);
+			}
+			else
+			{
+				for (int i = 0; i < children.length; i++)
+					children[i].build(childOwned.get(i), childOwnedBounds.get(i), childPartial.get(i), childPartialBounds.get(i));
+			}
+
+			// The children were built on their own, so their counts are added up here
+
+			for (QuadBranch child : children)
+				for (int category = 0; category < counts.length; category++)
+					counts[category] += child.counts[category];
+		}
+	}
+
+	/** Creates the four empty child QuadBranches of this QuadBranch, 
+	 * one for each quadrant.
+	 */
+	private void createChildren()
+	{
+		// Initialize bounds of new QuadBranches
+
+		double x1 = bounds.minX;
+		double x2 = bounds.centreX;
+		double x3 = bounds.maxX;
+
+		double y1 = bounds.minY;
+		double y2 = bounds.centreY;
+		double y3 = bounds.maxY;
+
+		hasChildren = true;
+		children = new QuadBranch [4];
+		
+		children[NE] = new QuadBranch (this, NE, new Box (x2, y3, x3, y2)); // top right rectangle
+		children[NW] = new QuadBranch (this, NW, new Box (x1, y3, x2, y2)); // top left rectangle
+		children[SW] = new QuadBranch (this, SW, new Box (x1, y2, x2, y1)); // bottom left rectangle
+		children[SE] = new QuadBranch (this, SE, new Box (x2, y2, x3, y1)); // bottom right rectangle
+	}
+
 	/** Splits this QuadBranch into four child QuadBranches, one for
 	 * each quadrant. Removes all of the Entities from the <code>leaves</code>
 	 * and <code>noncommittals</code> Lists, then re-adds them using the 
@@ -331,29 +549,15 @@ public class QuadBranch implements Serializable
 	{
 		if (!hasChildren)
 		{
-			// Initialize bounds of new QuadBranches
-
-			double x1 = bounds.minX;
-			double x2 = bounds.centreX;
-			double x3 = bounds.maxX;
-
-			double y1 = bounds.minY;
-			double y2 = bounds.centreY;
-			double y3 = bounds.maxY;
-
-			hasChildren = true;
-			children = new QuadBranch [4];
-			
-			children[NE] = new QuadBranch (this, NE, new Box (x2, y3, x3, y2)); // top right rectangle
-			children[NW] = new QuadBranch (this, NW, new Box (x1, y3, x2, y2)); // top left rectangle
-			children[SW] = new QuadBranch (this, SW, new Box (x1, y2, x2, y1)); // bottom left rectangle
-			children[SE] = new QuadBranch (this, SE, new Box (x2, y2, x3, y1)); // bottom right rectangle
+			createChildren();
 
 			// Move leaf Entities into new branches
 			
 			size = 0;
 			Entity[] tempLeaves = leaves.toArray(new Entity[leaves.size()]);
 			Entity[] tempNoncommittals = noncommittals.toArray(new Entity[noncommittals.size()]);
+			for (Entity e : tempLeaves)
+				countOut(e); // they are counted again as they are re-added
 			
 			leaves.clear();
 			noncommittals.clear();
@@ -375,7 +579,7 @@ public class QuadBranch implements Serializable
 	 */
 	public HashSet<Entity> get()
 	{
-		HashSet<Entity> values = new HashSet<Entity> (leaves);		
+		HashSet<Entity> values = new LinkedHashSet<Entity> (leaves);		
 
 		if (hasChildren)		
 			for (int i = 0; i < children.length; i++)			
@@ -393,7 +597,7 @@ public class QuadBranch implements Serializable
 	 */
 	public HashSet<Entity> get(Box bounds)
 	{				
-		HashSet<Entity> list = new HashSet<Entity>();
+		HashSet<Entity> list = new LinkedHashSet<Entity>();
 
 		if (hasChildren)
 		{
@@ -421,7 +625,7 @@ public class QuadBranch implements Serializable
 	 */
 	public HashSet<Entity> get(double x, double y)
 	{
-		HashSet<Entity> list = new HashSet<Entity>();
+		HashSet<Entity> list = new LinkedHashSet<Entity>();
 		if (hasChildren)
 		{
 			QuadBranch subBranch = children[determineBranch(x, y)];
@@ -478,7 +682,7 @@ public class QuadBranch implements Serializable
 	 */
 	public HashSet<Entity> getLeaves()
 	{
-		return new HashSet<Entity>(leaves);
+		return new LinkedHashSet<Entity>(leaves);
 	}
 	
 	/** Returns a list of all of the noncommittal Entities
@@ -492,7 +696,7 @@ public class QuadBranch implements Serializable
 	 */
 	public HashSet<Entity> getNoncommittals()
 	{
-		HashSet<Entity> list = new HashSet<Entity>();
+		HashSet<Entity> list = new LinkedHashSet<Entity>();
 		if (hasChildren)
 			for (QuadBranch b : children)
 				list.addAll(b.getNoncommittals());
@@ -575,7 +779,10 @@ public class QuadBranch implements Serializable
 	{
 		boolean removed = leaves.remove(e);
 		if (removed)
+		{
 			size--;
+			countOut(e);
+		}
 
 		if (hasChildren)	
 		{
@@ -622,6 +829,9 @@ public class QuadBranch implements Serializable
 					remove(e);
 					children[branchIDs.get(0)].add(e, entityBounds);
 				}
+				else // a noncommittal copy, which may have moved into a different child
+					for (QuadBranch branch : children)
+						branch.revalidateNoncommittals(e, entityBounds);
 			}
 			else
 			{
@@ -645,6 +855,151 @@ public class QuadBranch implements Serializable
 		}							
 	}
 
+	/** Counts the specified Entity again, if its categories have changed since it
+	 * was counted. Assumes that the Entity is held by this QuadBranch itself.
+	 * 
+	 * @param e		the Entity whose categories may have changed
+	 */
+	public void recount(Entity e)
+	{
+		int categories = e.getCategories();
+		if (categories != e.categories)
+		{
+			countOut(e);
+			e.categories = categories;
+			tally(categories, 1);
+		}
+	}
+
+	/** Counts the Entities in the specified category that are held by this QuadBranch
+	 * or its children.
+	 * 
+	 * @param category		the category
+	 * @return the number of Entities in the category
+	 */
+	public int count(int category)
+	{
+		return counts[category];
+	}
+
+	/** Counts the Entities in the specified category that are held by this QuadBranch
+	 * or its children, and whose bounds intersect the specified Box. Noncommittal copies
+	 * are not counted, so every Entity is counted once.
+	 * 
+	 * @param category		the category
+	 * @param box			the area to count in
+	 * @return the number of Entities in the category in the area
+	 */
+	public int count(int category, Box box)
+	{
+		if (box.contains(bounds)) // every Entity below here is in the area
+			return counts[category];
+
+		int total = 0;
+		for (Entity e : leaves)
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				total++;
+
+		if (hasChildren)
+			for (QuadBranch child : children)
+				if (child.counts[category] > 0 && child.intersects(box))
+					total += child.count(category, box);
+
+		return total;
+	}
+
+	/** Adds the Entities in the specified category held by this QuadBranch or its
+	 * children, whose bounds intersect the specified Box, to the specified list. 
+	 * Children that hold none of the category are skipped. Noncommittal copies are 
+	 * left out, so every Entity is added once.
+	 * 
+	 * @param category		the category
+	 * @param box			the area to look in
+	 * @param list			the list to which the Entities are added
+	 */
+	public void get(int category, Box box, List<Entity> list)
+	{
+		for (Entity e : leaves)
+			if ((e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				list.add(e);
+
+		if (hasChildren)
+			for (QuadBranch child : children)
+				if (child.counts[category] > 0 && child.intersects(box))
+					child.get(category, box, list);
+	}
+
+	/** Determines if there are any Entities in the specified category held by this
+	 * QuadBranch or its children, whose bounds intersect the specified Box. This stops
+	 * as soon as one is found.
+	 * 
+	 * @param category		the category
+	 * @param box			the area to look in
+	 * @return true if there is an Entity in the category in the area; false otherwise
+	 */
+	public boolean hasAny(int category, Box box)
+	{
+		boolean found = box.contains(bounds) && counts[category] > 0;
+
+		for (int i = 0; i < leaves.size() && !found; i++)
+		{
+			Entity e = leaves.get(i);
+			found = (e.categories & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box);
+		}
+
+		if (hasChildren)
+			for (int i = 0; i < children.length && !found; i++)
+				if (children[i].counts[category] > 0 && children[i].intersects(box))
+					found = children[i].hasAny(category, box);
+
+		return found;
+	}
+
+	/** Counts the specified Entity, which has just been added to the leaves of
+	 * this QuadBranch.
+	 * 
+	 * @param e		the Entity
+	 */
+	private void countIn(Entity e)
+	{
+		e.categories = e.getCategories();
+		tally(e.categories, 1);
+	}
+
+	/** Takes the specified Entity, which has just been removed from the leaves of
+	 * this QuadBranch, off of the counts.
+	 * 
+	 * @param e		the Entity
+	 */
+	private void countOut(Entity e)
+	{
+		tally(e.categories, -1);
+	}
+
+	/** Adds the specified amount to the counts of every category in the specified bit
+	 * mask, in this QuadBranch and in its parents.
+	 * 
+	 * @param categories	the categories, as a bit mask
+	 * @param amount		the amount to add
+	 */
+	private void tally(int categories, int amount)
+	{
+		for (QuadBranch branch = this; branch != null; branch = branch.parent)
+			branch.tallyHere(categories, amount);
+	}
+
+	/** Adds the specified amount to the counts of every category in the specified bit
+	 * mask, in this QuadBranch only.
+	 * 
+	 * @param categories	the categories, as a bit mask
+	 * @param amount		the amount to add
+	 */
+	private void tallyHere(int categories, int amount)
+	{
+		for (int rest = categories; rest != 0; rest &= rest - 1)
+			counts[Integer.numberOfTrailingZeros(rest)] += amount;
+	}
+
 	/** Attempts to find the specified Entity in the QuadBranch structure from
 	 * here downwards, including this QuadBranch itself. Returns the QuadTreePath 
 	 * of the Entity if found, or null if not found.
@@ -703,4 +1058,43 @@ public class QuadBranch implements Serializable
 			for (QuadBranch branch : children)
 				branch.draw(g);
 	}
+
+	/** A task that builds one QuadBranch from a batch of Entities, so that
+	 * large QuadBranches can be built in parallel in a ForkJoinPool.
+	 * 
+	 * @see QuadBranch#build
+	 */
+	protected static class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final QuadBranch branch;
+		private final List<Entity> owned;
+		private final List<Box> ownedBounds;
+		private final List<Entity> partial;
+		private final List<Box> partialBounds;
+
+		/** Creates a new task that builds the specified QuadBranch.
+		 * 
+		 * @param branch			the empty QuadBranch to build
+		 * @param owned				the Entities that are entirely enclosed by the QuadBranch
+		 * @param ownedBounds		the bounds of the owned Entities
+		 * @param partial			the Entities that are only partially in the QuadBranch
+		 * @param partialBounds		the bounds of the partial Entities
+		 */
+		protected BuildTask(QuadBranch branch, List<Entity> owned, List<Box> ownedBounds, List<Entity> partial, List<Box> partialBounds)
+		{
+			this.branch = branch;
+			this.owned = owned;
+			this.ownedBounds = ownedBounds;
+			this.partial = partial;
+			this.partialBounds = partialBounds;
+		}
+
+		@Override
+		protected void compute()
+		{
+			branch.build(owned, ownedBounds, partial, partialBounds);
+		}
+	}
 }
@@ -5,22 +5,29 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /** A class that stores Entities in recursive quadrant branches.
  * This is to make retrieval and collision checking more efficient.
  * 
- * A QuadTree object contains one root QuadBranch and one list of outlier
- * Entities that are not within the bounds of the root QuadBranch. 
+ * A QuadTree object contains one root QuadBranch and one index of outlier
+ * Entities that are not within the bounds of the root QuadBranch. The outliers
+ * are kept in a coarse spatial hash of their own, so that queries only pay for 
+ * the outliers that overlap the area being queried.
  * 
  * @see QuadBranch
+ * @see SpatialIndex
  * 
  * @author Jiayin Huang
  * @author Sally Hui
  * @author Tony Cui 
  */
-public class QuadTree implements Externalizable
+public class QuadTree implements SpatialIndex, Externalizable
 {	
 	private static final long serialVersionUID = 1L;	
 
@@ -34,9 +41,13 @@ public class QuadTree implements Externalizable
 	 */
 	private QuadBranch root;
 
-	/** The list of all outlier Entities that do not belong to the root QuadBranch.  
+	/** The index of all outlier Entities that do not belong to the root QuadBranch.  
 	 */
-	private List<Entity> outliers;	
+	private OutlierIndex outliers;	
+
+	/** The number of cells across the root QuadBranch in the outlier index.
+	 */
+	public static final int OUTLIER_CELLS = 16;
 
 	/** The number of Entities in this QuadTree. 
 	 */
@@ -46,7 +57,7 @@ public class QuadTree implements Externalizable
 	 */
 	public QuadTree()
 	{
-		outliers = new ArrayList<Entity>();
+		outliers = new OutlierIndex(1);
 	}
 
 	/** Creates a new QuadTree with a root QuadBranch of the specified
@@ -59,14 +70,14 @@ public class QuadTree implements Externalizable
 	 */
 	public QuadTree(double minX, double minY, double maxX, double maxY) 
 	{
-		outliers = new ArrayList<Entity>();
 		root = new QuadBranch (null, QuadTreePath.ROOT, new Box(minX, minY, maxX, maxY));		
+		outliers = createOutlierIndex(root.getBounds());
 	}	
 
 	/** Adds the specified Entity to this QuadTree. If the bounding rectangle
 	 * of the Entity's shape is entirely contained by the root QuadBranch, 
 	 * the task of adding the Entity is passed down to that QuadBranch. Otherwise,
-	 * the Entity is added to the outliers list here in this QuadTree instance.
+	 * the Entity is added to the outlier index here in this QuadTree instance.
 	 * 
 	 * @param e		the Entity to be added
 	 */
@@ -81,15 +92,131 @@ public class QuadTree implements Externalizable
 		}
 		else
 		{			
-			outliers.add(e);
+			outliers.add(e, entityBounds);
 			e.path = this.path;
 		}
 		size++;
 	}
 
+	/** Adds all of the specified Entities to this QuadTree at once. Instead of 
+	 * adding the Entities one at a time, the whole QuadTree is rebuilt from the top 
+	 * down in a single pass, with the Entities sorted in Morton (Z-order) order of the 
+	 * centres of their bounds, so that Entities that are close to each other end up 
+	 * next to each other in the lists of the QuadBranches. Large batches are built in 
+	 * parallel, one task per quadrant.
+	 * <p>
+	 * The Entities already in this QuadTree are kept. This method is meant for 
+	 * loading large batches, such as when generating or deserializing a Spacetime; 
+	 * for a handful of Entities, {@code add(Entity)} is faster.
+	 * 
+	 * @param entities		the Entities to be added
+	 */
+	public void addAll(Collection<? extends Entity> entities)
+	{
+		List<Entity> all = new ArrayList<Entity>(size + entities.size());
+		if (size > 0)
+			all.addAll(get());
+		for (Entity e : entities)
+			if (e != null)
+				all.add(e);
+
+		Box rootBounds = root.getBounds();
+		reset(rootBounds.minX, rootBounds.minY, rootBounds.maxX, rootBounds.maxY);
+
+		// Separate the outliers, and calculate the Morton code of every other Entity
+
+		Entity[] inliers = new Entity[all.size()];
+		Box[] inlierBounds = new Box[all.size()];
+		long[] keys = new long[all.size()];
+		int count = 0;
+
+		for (Entity e : all)
+		{
+			Box entityBounds = new Box(e.getShape().getBounds());
+			if (root.contains(entityBounds))
+			{
+				inliers[count] = e;
+				inlierBounds[count] = entityBounds;
+				keys[count] = (mortonCode(entityBounds.centreX, entityBounds.centreY, rootBounds) << 31) | count;
+				count++;
+			}
+			else
+			{
+				outliers.add(e, entityBounds);
+				e.path = this.path;
+			}
+		}
+
+		// Sort the Entities by Morton code; the low 31 bits of each key hold the Entity's index,
+		// and the 32-bit code sits above them, clear of the sign bit, so that keys sort in Z-order
+
+		keys = Arrays.copyOf(keys, count);
+		if (count > QuadBranch.PARALLEL_THRESHOLD)
+			Arrays.parallelSort(keys);
+		else
+			Arrays.sort(keys);
+
+		List<Entity> sorted = new ArrayList<Entity>(count);
+		List<Box> sortedBounds = new ArrayList<Box>(count);
+		for (long key : keys)
+		{
+			int index = (int)(key & 0x7FFFFFFF);
+			sorted.add(inliers[index]);
+			sortedBounds.add(inlierBounds[index]);
+		}
+
+		// Build the QuadBranches
+
+		List<Entity> noPartials = new ArrayList<Entity>(0);
+		List<Box> noPartialBounds = new ArrayList<Box>(0);
+		if (count > QuadBranch.PARALLEL_THRESHOLD)
+			ForkJoinPool.commonPool().invoke(new QuadBranch.BuildTask(root, sorted, sortedBounds, noPartials, noPartialBounds));
+		else
+			root.build(sorted, sortedBounds, noPartials, noPartialBounds);
+
+		size = all.size();
+	}
+
+	/** Calculates the Morton code of the specified point, by interleaving the 
+	 * bits of its x-coordinate and y-coordinate after scaling them to 16 bits
+	 * each across the specified bounds.
+	 * 
+	 * @param x			the x-coordinate of the point
+	 * @param y			the y-coordinate of the point
+	 * @param bounds	the bounds across which the coordinates are scaled
+	 * @return the 32-bit Morton code of the point
+	 */
+	private static long mortonCode(double x, double y, Box bounds)
+	{
+		final int max = 0xFFFF;
+		double width = Math.max(bounds.maxX - bounds.minX, Double.MIN_VALUE);
+		double height = Math.max(bounds.maxY - bounds.minY, Double.MIN_VALUE);
+		int scaledX = (int)Math.min(max, Math.max(0, (x - bounds.minX) / width * max));
+		int scaledY = (int)Math.min(max, Math.max(0, (y - bounds.minY) / height * max));
+		return spreadBits(scaledX) | (spreadBits(scaledY) << 1);
+	}
+
+	/** Spreads out the lower 16 bits of the specified number so that
+	 * there is a zero bit between each of them.
+	 * 
+	 * @param n		the number to spread out
+	 * @return the spread out number
+	 */
+	private static long spreadBits(int n)
+	{
+		long bits = n & 0xFFFF;
+		bits = (bits | (bits << 8)) & 0x00FF00FFL;
+		bits = (bits | (bits << 4)) & 0x0F0F0F0FL;
+		bits = (bits | (bits << 2)) & 0x33333333L;
+		bits = (bits | (bits << 1)) & 0x55555555L;
+		return bits;
+	}
+
 	/** Attempts to remove the specified Entity from
 	 * the QuadTree. Returns false if the specified 
-	 * Entity could not be found.
+	 * Entity could not be found. The Entity is first looked for in
+	 * the QuadBranch that its path points to, so that the whole
+	 * QuadTree is only searched if the path is out of date.
 	 * 
 	 * @param e		the Entity to be removed
 	 * @return true if this QuadTree was changed as a result
@@ -97,9 +224,14 @@ public class QuadTree implements Externalizable
 	 */
 	public boolean remove(Entity e)
 	{
-		boolean removed = root.remove(e); // attempts to remove Entity from root
+		boolean removed = outliers.remove(e); // attempts to remove Entity from outliers
+		if (!removed)
+		{
+			QuadBranch branch = getBranch(e.path);
+			removed = branch != null && branch.remove(e); // attempts to remove Entity from where it was put
+		}
 		if (!removed)
-			removed = outliers.remove(e); // attempts to remove Entity from outliers
+			removed = root.remove(e); // attempts to remove Entity from root
 		if (removed)
 		{
 			e.path = null;
@@ -118,10 +250,11 @@ public class QuadTree implements Externalizable
 	 */
 	public void reset (double minX, double minY, double maxX, double maxY)
 	{
-		outliers.clear();
 		if (root != null)
 			root.clear();
 		root = new QuadBranch (null, QuadTreePath.ROOT, new Box(minX, minY, maxX, maxY));
+		outliers = createOutlierIndex(root.getBounds());
+		size = 0;
 	}
 
 	/** Returns an array containing all of the Entities in this QuadTree.
@@ -131,7 +264,7 @@ public class QuadTree implements Externalizable
 	public ArrayList<Entity> get()
 	{
 		HashSet<Entity> all = root.get();
-		all.addAll(outliers);
+		all.addAll(outliers.get());
 		return new ArrayList<Entity> (all);
 	}
 
@@ -151,7 +284,8 @@ public class QuadTree implements Externalizable
 		if (root.contains(x, y))
 			list = root.get(x, y);
 		else
-			list = new HashSet<Entity>(outliers);
+			list = new LinkedHashSet<Entity>();
+		outliers.get(new Box(x, y, x, y), list);
 		return new ArrayList<Entity> (list);		
 	}
 
@@ -172,15 +306,11 @@ public class QuadTree implements Externalizable
 		HashSet<Entity> list;	
 		Box entityBounds = new Box (e.getShape().getBounds());
 		QuadBranch branch = getBranch(e.path);		
-		if (branch == null)
-		{
-			list = new HashSet<Entity>(outliers);
-			list.addAll(root.get(entityBounds));			
-		}
-		else
-		{			
+		if (branch == null)		
+			list = root.get(entityBounds);					
+		else		
 			list = branch.get(entityBounds);	
-		}					
+		outliers.get(entityBounds, list);
 		return new ArrayList<Entity> (list);
 	}
 
@@ -198,11 +328,106 @@ public class QuadTree implements Externalizable
 	 */
 	public ArrayList<Entity> get(Rectangle2D bounds)
 	{
-		HashSet<Entity> list = new HashSet<Entity> (outliers);		
-		list.addAll(root.get(new Box(bounds)));
+		Box box = new Box(bounds);
+		HashSet<Entity> list = root.get(box);		
+		outliers.get(box, list);
 		return new ArrayList<Entity> (list);
 	}
 	
+	/** Returns the number of Entities in the specified category in this QuadTree,
+	 * including the outliers.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 * @see Entity#getCategories()
+	 */
+	public int count(int category)
+	{
+		int total = root.count(category);
+		for (Entity e : outliers.get())
+			if ((e.getCategories() & 1 << category) != 0)
+				total++;
+		return total;
+	}
+
+	/** Returns the number of Entities in the specified category whose bounds 
+	 * intersect the specified Rectangle. Every Entity is counted once, and 
+	 * only the QuadBranches along the edges of the Rectangle look at their Entities.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return the number of Entities in the category in the Rectangle
+	 */
+	public int count(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		int total = root.count(category, box);
+
+		List<Entity> list = new ArrayList<Entity>();
+		outliers.get(box, list);
+		for (Entity e : list)
+			if ((e.getCategories() & 1 << category) != 0)
+				total++;
+		return total;
+	}
+
+	/** Returns the Entities in the specified category whose bounds intersect the
+	 * specified Rectangle. The QuadBranches that hold none of the category are
+	 * skipped, along with everything below them.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities in the category in the Rectangle
+	 */
+	public ArrayList<Entity> get(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		ArrayList<Entity> found = new ArrayList<Entity>();
+		if (root.count(category) > 0)
+			root.get(category, box, found);
+
+		List<Entity> list = new ArrayList<Entity>();
+		outliers.get(box, list);
+		for (Entity e : list)
+			if ((e.getCategories() & 1 << category) != 0 && new Box(e.getShape().getBounds()).intersects(box))
+				found.add(e);
+		return found;
+	}
+
+	/** Determines if there are any Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return true if there is an Entity in the category in the Rectangle; false otherwise
+	 */
+	public boolean hasAny(int category, Rectangle2D bounds)
+	{
+		Box box = new Box(bounds);
+		if (root.hasAny(category, box))
+			return true;
+
+		List<Entity> list = new ArrayList<Entity>();
+		outliers.get(box, list);
+		for (Entity e : list)
+			if ((e.getCategories() & 1 << category) != 0)
+				return true;
+		return false;
+	}
+
+	/** Counts the specified Entity again in the QuadBranch holding it, after
+	 * its categories have changed. Outliers are not counted ahead of time, so 
+	 * nothing needs to be done for them.
+	 * 
+	 * @param e		the Entity whose categories have changed
+	 */
+	public void recount(Entity e)
+	{
+		QuadBranch branch = getBranch(e.path);
+		if (branch != null)
+			branch.recount(e);
+	}
+
 	/** Returns a Rectangle2D.Double representing the boundaries of this QuadTree.
 	 * 
 	 * @return the Rectangle2D.Double object representing this QuadTree's bounds
@@ -217,7 +442,7 @@ public class QuadTree implements Externalizable
 	 * ends before the QuadTreePath does.
 	 * <p>
 	 * As specified by the constant field variables in the QuadTreePath class:<br>
-	 * {-2} -> the outliers list in the master QuadTree<br>
+	 * {-2} -> the outlier index in the master QuadTree<br>
 	 * {-1} -> the root QuadBranch<br>
 	 * {...,0} -> north-east quadrant<br>
 	 * {...,1} -> north-west quadrant<br>
@@ -264,7 +489,7 @@ public class QuadTree implements Externalizable
 	 */
 	public ArrayList<Entity> getOutliers()
 	{		
-		return new ArrayList<Entity> (outliers);
+		return new ArrayList<Entity> (outliers.get());
 	}	
 
 	/** Returns the number of Entities in this QuadTree.
@@ -283,7 +508,7 @@ public class QuadTree implements Externalizable
 	 * 
 	 * @param e		the Entity to revalidate
 	 */
-	public void revalidate (Entity e) //TODO: outlier revalidate
+	public void revalidate (Entity e)
 	{		
 		Box entityBounds = new Box (e.getShape().getBounds());
 		QuadBranch branch = getBranch(e.path);
@@ -291,7 +516,11 @@ public class QuadTree implements Externalizable
 		boolean valid;
 
 		if (branch == null)
+		{
 			valid = !root.contains(entityBounds);
+			if (valid) // still an outlier, but it may have moved to different cells of the outlier index
+				outliers.update(e, entityBounds);
+		}
 		else
 		{			
 			valid = branch.contains(entityBounds);
@@ -314,7 +543,7 @@ public class QuadTree implements Externalizable
 	public QuadTreePath searchDownwards(Entity e)
 	{
 		QuadTreePath newPath;		
-		if (outliers.indexOf(e) != -1)			
+		if (outliers.contains(e))			
 			newPath = this.path;		
 		else		
 			newPath = root.searchDownwards(e);
@@ -370,9 +599,7 @@ public class QuadTree implements Externalizable
 
 		// Re-add all Entities
 
-		for (Entity e : all)		
-			if (e != null)		
-				add(e);						
+		addAll(Arrays.asList(all));
 	}
 
 	@Override
@@ -400,6 +627,18 @@ public class QuadTree implements Externalizable
 			out.writeObject(e);
 	}
 	
+	/** Creates an empty outlier index with cells sized in proportion 
+	 * to the specified root bounds.
+	 * 
+	 * @param rootBounds	the bounds of the root QuadBranch
+	 * @return the new outlier index
+	 */
+	private static OutlierIndex createOutlierIndex(Box rootBounds)
+	{
+		double extent = Math.max(rootBounds.maxX - rootBounds.minX, rootBounds.maxY - rootBounds.minY);
+		return new OutlierIndex(Math.max(1, extent / OUTLIER_CELLS));
+	}
+
 	/** Used for debugging
 	 * 
 	 * @param g
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/** A program that checks that a QuadTree keeps track of Entities that wander
+ * around inside it.
+ * <p>
+ * Humans are scattered over a QuadTree, a few of them just outside of it, and
+ * then moved around at random, each of them revalidated after every step, and
+ * every so often taken out and put back somewhere else. Small Entities often
+ * end up straddling the borders of QuadBranches, and have to be followed as they
+ * move from one side of a border to the other. Afterwards, every Entity must be
+ * in the QuadTree exactly once, be found where its path says it is, and be
+ * among the Entities that the QuadTree finds around it.
+ * <p>
+ * Prints the outcome, and exits with a status of 1 if the check fails.
+ *
+ * @see QuadBranch#revalidateNoncommittals(Entity, Box)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class QuadTreeCheck
+{
+	/** The width and height of the QuadTree.
+	 */
+	private static final double SIZE = 4096;
+
+	/** Runs the check. The optional arguments are the number of Entities, the
+	 * number of steps and the seed, which are 4000, 150 and 1 by default.
+	 *
+	 * @param args		the number of Entities, the number of steps and the seed
+	 */
+	public static void main (String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+		Random random = new Random (seed);
+		QuadTree tree = new QuadTree (0, 0, SIZE, SIZE);
+		List<Entity> entities = new ArrayList<Entity>(count);
+		for (int i = 0; i < count; i++)
+		{
+			Entity e = new Human (random.nextDouble() * (SIZE + 100) - 50, random.nextDouble() * (SIZE + 100) - 50, random);
+			tree.add(e);
+			entities.add(e);
+		}
+
+		for (int step = 0; step < steps; step++)
+		{
+			for (Entity e : entities)
+			{
+				if (random.nextInt(20) == 0)
+				{
+					tree.remove(e);
+					e.setLocation(random.nextDouble() * (SIZE + 100) - 50, random.nextDouble() * (SIZE + 100) - 50);
+					tree.add(e);
+				}
+				else
+				{
+					e.setLocation(e.x + random.nextInt(41) - 20, e.y + random.nextInt(41) - 20);
+					tree.revalidate(e);
+				}
+			}
+		}
+
+		// Every Entity must be in the tree once, where its path says, and be found around itself
+
+		IdentityHashMap<Entity, Integer> copies = new IdentityHashMap<Entity, Integer>();
+		for (Entity e : tree.get())
+			copies.put(e, copies.containsKey(e) ? copies.get(e) + 1 : 1);
+
+		int lost = 0;
+		for (Entity e : entities)
+		{
+			Integer n = copies.get(e);
+			if (n == null || n != 1 || tree.searchDownwards(e) == null || !tree.get(e).contains(e))
+				lost++;
+		}
+
+		boolean passed = lost == 0 && copies.size() == count && tree.getSize() == count;
+		System.out.println("entities=" + count + " steps=" + steps + " size=" + tree.getSize()
+				+ " distinct=" + copies.size() + " lost=" + lost);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
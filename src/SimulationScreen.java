@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import javax.imageio.ImageIO;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -59,6 +60,7 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	private static final int ZOOM_SELECTED = 3;
 	private static final int LEGEND_SELECTED = 4;
 	private static final int LEGACY_SELECTED = 5;
+	private static final int MINIMAP_SELECTED = 6;
 	private static final int HELP_SELECTED = 10;
 
 	private CustomButton[] addEntity = new CustomButton [5];
@@ -80,6 +82,7 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	private Stats statsPanel = new Stats ();
 	private Legacy legacyPanel;
 	private Zoom zoomPanel;		
+	private Minimap minimapPanel;
 
 	private int glassToolSelected = 0;	
 	private JPanel rightToolBar = new JPanel ();
@@ -89,6 +92,21 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	public Timer timer = new Timer (30, this);
 	private Spacetime spacetime;
 
+	/** The number of ticks advanced every time the timer fires. 
+	 */
+	private int ticksPerFrame = 1;
+
+	/** If the simulation should advance for as long as it can between 
+	 * two frames, instead of a fixed number of ticks. 
+	 */
+	private boolean fillFrame = false;
+
+	/** The ticks advanced since the ticks per second were last measured, 
+	 * and the time at which they started being counted. 
+	 */
+	private int ticksCounted = 0;
+	private long countStart = System.nanoTime();
+
 	/** Creates a new SimulationScreen of the specified dimensions, using 
 	 * a newly generated Viewport.
 	 * 
@@ -98,7 +116,20 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	 */
 	public SimulationScreen (String title, int width, int height, WorldGenerator wg)
 	{
-		this ("Untitled Simulation    ", title, width, height, new Viewport (new Spacetime (wg)));
+		this (title, width, height, new Spacetime (wg));
+	}
+
+	/** Creates a new SimulationScreen of the specified dimensions, showing
+	 * a Spacetime that has just been generated.
+	 * 
+	 * @param title		the title of the SimulationScreen JFrame
+	 * @param width		the width in pixels of the SimulationScreen JFrame
+	 * @param height	the height in pixels of the SimulationScreen JFrame
+	 * @param grid		the newly generated Spacetime
+	 */
+	public SimulationScreen (String title, int width, int height, Spacetime grid)
+	{
+		this ("Untitled Simulation    ", title, width, height, new Viewport (grid));
 	}
 
 	/** Creates a new SimulationScreen of the specified dimensions, using 
@@ -130,7 +161,8 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		setTitle(title);	
 		vp = port; // set viewport	
 		spacetime = port.grid;
-		zoomPanel = new Zoom(spacetime); //create new zoom panel here
+		zoomPanel = new Zoom(); //create new zoom panel here
+		minimapPanel = new Minimap();
 		legacyPanel = new Legacy(spacetime);
 		vp.addMouseMotionListener(new ZoomPanelMouseListener());
 		vp.addMouseListener(new StatsPanelMouseListener());
@@ -297,12 +329,23 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	{
 		private JSlider timerSpeedSlider = new JSlider (1, 10, 5);
 
+		/** Turbo mode: each step doubles the number of ticks per frame. 
+		 */
+		private JSlider turboSlider = new JSlider (0, 8, 0);
+		private JCheckBox fillFrameBox = new JCheckBox ("Fill Frame");
+
+		/** Draws the Entities moving smoothly between ticks, at the refresh rate of the Viewport.
+		 */
+		private JCheckBox smoothMotionBox = new JCheckBox ("Smooth Motion");
+		private JLabel turboLabel = new JLabel ("1 tick per frame");
+		private JLabel rateLabel = new JLabel ("0 ticks/sec");
+
 		/** Creates a new Settings JScrollpane.
 		 */
 		public Settings ()
 		{
 			// set size
-			setPreferredSize (new Dimension(220, 50));
+			setPreferredSize (new Dimension(220, 150));
 
 			// set transparent
 			setOpaque (false);
@@ -331,6 +374,34 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 			settingsPanel.add (timerSpeedLabelPanel);
 			settingsPanel.add (timerSpeedSlider);
 
+			// turbo mode
+			turboSlider.addChangeListener(this);
+			fillFrameBox.addActionListener(this);
+			fillFrameBox.setOpaque (false);
+
+			JPanel turboLabelPanel = new JPanel ();
+			turboLabelPanel.add (turboLabel);
+			turboLabelPanel.setOpaque (false);
+
+			JPanel turboOptionsPanel = new JPanel ();
+			turboOptionsPanel.add (fillFrameBox);
+			turboOptionsPanel.add (rateLabel);
+			turboOptionsPanel.setOpaque (false);
+
+			settingsPanel.add (turboLabelPanel);
+			settingsPanel.add (turboSlider);
+			settingsPanel.add (turboOptionsPanel);
+
+			// smooth motion
+			smoothMotionBox.addActionListener(this);
+			smoothMotionBox.setOpaque (false);
+
+			JPanel smoothMotionPanel = new JPanel ();
+			smoothMotionPanel.add (smoothMotionBox);
+			smoothMotionPanel.setOpaque (false);
+
+			settingsPanel.add (smoothMotionPanel);
+
 			getViewport().add (settingsPanel); // add JPanel of settings to scrollpane
 		}
 
@@ -349,8 +420,25 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 			g2d.fillRect(0, 0, getWidth(), getHeight());
 		}
 
+		/** Displays the measured simulation speed.
+		 * 
+		 * @param ticksPerSecond		the number of ticks advanced per second
+		 */
+		public void showRate (double ticksPerSecond)
+		{
+			rateLabel.setText (Math.round(ticksPerSecond) + " ticks/sec");
+		}
+
 		@Override
 		public void actionPerformed(ActionEvent arg0) {	
+			Object source = arg0.getSource();
+			if (source.equals (fillFrameBox))
+			{
+				fillFrame = fillFrameBox.isSelected();
+				turboSlider.setEnabled (!fillFrame);
+			}
+			else if (source.equals (smoothMotionBox))
+				vp.setInterpolating (smoothMotionBox.isSelected());
 		}
 
 		@Override
@@ -358,7 +446,11 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 			Object source = (Object) e.getSource();
 			if (source.equals (timerSpeedSlider))
 				timer.setDelay (110 - 10 * timerSpeedSlider.getValue());
-
+			else if (source.equals (turboSlider))
+			{
+				ticksPerFrame = 1 << turboSlider.getValue();
+				turboLabel.setText (ticksPerFrame + (ticksPerFrame == 1 ? " tick per frame" : " ticks per frame"));
+			}
 		}
 	}
 
@@ -447,21 +539,29 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 	}
 
 	/** A class of the zoom panel that pops up whenever "3" is pressed. It displays
-	 * a zoomed in view of the area the mouse is over.
+	 * a zoomed in view of the area the mouse is over, which is blown up from the 
+	 * last frame of the Viewport instead of drawing the Spacetime again.
 	 * 
 	 * @author Sally Hui
 	 * @author Jiayin Huang
 	 * @author Tony Cui
 	 */
-	private class Zoom extends Viewport
+	private class Zoom extends JPanel
 	{
-		/** Creates a new zoom Viewport.
+		/** How many times bigger the view of the zoom panel is than the Viewport.
 		 */
-		public Zoom (Spacetime spacetime)
+		private static final int MAGNIFICATION = 3;
+
+		/** The location of the mouse over the Viewport. 
+		 */
+		private Point mouse = new Point ();
+
+		/** Creates a new zoom panel.
+		 */
+		public Zoom ()
 		{
-			super(spacetime);
-			setOpaque (true); // set transparent
-			setBackground(new Color(0,0,0,0));
+			setOpaque (true);
+			setBackground(Color.black);
 			setPreferredSize (new Dimension(200, 200)); // set size
 			setMinimumSize (new Dimension(200, 200));
 			setMaximumSize (new Dimension(200, 200));			
@@ -471,10 +571,17 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		// draw zoom area
 		public void paintComponent (Graphics g)
 		{		
-			zoom = vp.zoom * 3;
-			centerAt(vp.convertPointMouseToGrid(mouse));
-			Graphics2D g2d = (Graphics2D)g;								
-			grid.draw(this, g2d);
+			super.paintComponent(g);
+			BufferedImage frame = vp.getFrame();
+			if (frame != null)
+			{
+				Graphics2D g2d = (Graphics2D)g.create();
+				g2d.translate(getWidth() / 2, getHeight() / 2);
+				g2d.scale(MAGNIFICATION, MAGNIFICATION);
+				g2d.translate(-mouse.x, -mouse.y);
+				g2d.drawImage(frame, 0, 0, null);
+				g2d.dispose();
+			}
 			g.setColor (Color.black);
 			g.drawRect(0, 0, getWidth(), getHeight());
 		}
@@ -487,6 +594,93 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		}				
 	}
 
+	/** A class of the minimap panel that pops up whenever "6" is pressed. It
+	 * displays how crowded the whole Spacetime is, from the density map that the
+	 * Spacetime keeps up to date as its Entities move, and the part of it that is
+	 * in view. Clicking or dragging on the map moves the view there.
+	 * 
+	 * @author Sally Hui
+	 * @author Jiayin Huang
+	 * @author Tony Cui
+	 */
+	private class Minimap extends JPanel
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** Creates a new minimap panel.
+		 */
+		public Minimap ()
+		{
+			setOpaque (true);
+			setBackground(Color.black);
+			setPreferredSize (new Dimension(200, 200)); // set size
+			setMinimumSize (new Dimension(200, 200));
+			setMaximumSize (new Dimension(200, 200));
+
+			MouseAdapter mover = new MouseAdapter()
+			{
+				public void mousePressed (MouseEvent e)
+				{
+					moveView (e.getPoint());
+				}
+
+				public void mouseDragged (MouseEvent e)
+				{
+					moveView (e.getPoint());
+				}
+			};
+			addMouseListener (mover);
+			addMouseMotionListener (mover);
+		}
+
+		/** Returns the number of pixels of the map per cell of the density map, 
+		 * so that the whole of the density map fits in the panel.
+		 * 
+		 * @param density	the density map
+		 * @return the number of pixels per cell
+		 */
+		private double getScale (DensityMap density)
+		{
+			return Math.min(getWidth() / (double) density.getColumns(), getHeight() / (double) density.getRows());
+		}
+
+		/** Centres the Viewport at the part of the Spacetime under the specified
+		 * point of the map.
+		 * 
+		 * @param p		the point on the map
+		 */
+		private void moveView (Point p)
+		{
+			DensityMap density = vp.grid.getDensityMap();
+			Rectangle2D bounds = density.getBounds();
+			double unit = density.getCellSize() / getScale(density);
+			vp.centerAt(new Point2D.Double (bounds.getMinX() + p.x * unit, bounds.getMinY() + p.y * unit));
+			vp.repaint();
+		}
+
+		// draw the map and the view
+		public void paintComponent (Graphics g)
+		{
+			super.paintComponent(g);
+			Graphics2D g2d = (Graphics2D)g;
+			DensityMap density = vp.grid.getDensityMap();
+			Rectangle2D bounds = density.getBounds();
+			double scale = getScale(density);
+			double unit = scale / density.getCellSize();
+
+			g2d.drawImage(density.getImage(), 0, 0, (int) (density.getColumns() * scale), 
+					(int) (density.getRows() * scale), null);
+
+			g2d.setColor (new Color (0, 192, 0));
+			g2d.draw (new Rectangle2D.Double ((-vp.offset.x / vp.zoom - bounds.getMinX()) * unit, 
+					(-vp.offset.y / vp.zoom - bounds.getMinY()) * unit, 
+					vp.getWidth() / vp.zoom * unit, vp.getHeight() / vp.zoom * unit));
+
+			g.setColor (Color.black);
+			g.drawRect(0, 0, getWidth(), getHeight());
+		}
+	}
+
 	/** Mouse listener to update to zoom panel whenever the mouse is moved.
 	 */
 	private class ZoomPanelMouseListener extends MouseAdapter
@@ -514,7 +708,7 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 			if (selection.size() == 0)
 			{
 				Point2D location = vp.convertPointMouseToGrid(e.getPoint());
-				choice = vp.grid.getEntity(location.getX(), location.getY());				
+				choice = vp.grid.getSnapshot().getEntity(location.getX(), location.getY());				
 			}
 			else
 			{
@@ -617,6 +811,7 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 					+ "3: Zoom\n"
 					+ "4: Legend\n"
 					+ "5: Legacy stats\n"
+					+ "6: Minimap\n"
 					+ "0: This help index\n"
 					+ "SHIFT: hold to select\n"
 					+ "CTRL: hold to lock location\n"
@@ -699,6 +894,12 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 				legacyPanel.revalidate();
 				middlePanel.add(legacyPanel);
 			}
+			else if (tool == MINIMAP_SELECTED) // pressed 6
+			{
+				// map of the whole Spacetime
+				minimapPanel.revalidate();
+				middlePanel.add(minimapPanel);
+			}
 			else if (tool == HELP_SELECTED) // pressed 0
 			{
 				// help and shortcut index
@@ -741,6 +942,8 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 				selectTool (LEGEND_SELECTED);
 			else if (ch == '5')
 				selectTool (LEGACY_SELECTED);
+			else if (ch == '6')
+				selectTool (MINIMAP_SELECTED);
 			else if (ch == '0')
 				selectTool (HELP_SELECTED);
 			else if (e.getKeyCode() == KeyEvent.VK_SHIFT)
@@ -798,9 +1001,19 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		}
 		else if (source.equals(timer))
 		{
-			vp.advanceVP();			
+			// In turbo mode, several ticks are advanced for every repaint. Filling the 
+			// frame leaves the simulation running for most of the time between two frames.
+
+			int ticks;
+			if (fillFrame)
+				ticks = vp.advanceVP (Integer.MAX_VALUE, timer.getDelay() * 800000L);
+			else
+				ticks = vp.advanceVP (ticksPerFrame);
 			statsPanel.refreshStats();
 			legacyPanel.refreshStats();
+			if (glassToolSelected == MINIMAP_SELECTED)
+				minimapPanel.repaint();
+			countTicks (ticks);
 		}	
 		else if (source.equals(tools [0]))
 		{
@@ -1080,6 +1293,23 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		tools[6].setBackground(selected);
 	}	
 
+	/** Counts ticks towards the ticks per second shown in the settings panel,
+	 * which is measured about once a second.
+	 * 
+	 * @param ticks		the number of ticks that were just advanced
+	 */
+	private void countTicks (int ticks)
+	{
+		ticksCounted += ticks;
+		long elapsed = System.nanoTime() - countStart;
+		if (elapsed >= 1000000000L)
+		{
+			settingsPanel.showRate (ticksCounted * 1e9 / elapsed);
+			ticksCounted = 0;
+			countStart = System.nanoTime();
+		}
+	}
+
 	/** Revalidates and repaints the simulation screen.
 	 */
 	public void updateRepaint ()
@@ -1138,6 +1368,7 @@ public class SimulationScreen extends JFrame implements WindowListener, ActionLi
 		MainMenu backToStart = new MainMenu ();
 		backToStart.setVisible(true);
 		stopTimer();
+		vp.setInterpolating(false); // stop repainting
 		this.dispose();
 	}
 
@@ -6,11 +6,30 @@ import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /** A class containing everything in the simulated world.
  * Essentially, the "grid". 
@@ -27,8 +46,28 @@ import java.util.List;
  * All of the Entities in each layer are stored in a separate QuadTree,
  * which recursively divides itself as more Entities are added to minimize
  * the number of collision checks necessary. 
+ * <p>
+ * Entities in the ENTITIES layer are either awake or sleeping. Only awake
+ * Entities are advanced every tick. An Entity falls asleep after a tick in which 
+ * its {@code canSleep()} method returns true, and it is woken up again when it is
+ * accelerated, when another Entity collides into it, or when a scheduled wake-up
+ * set by {@code wakeAt(Entity, long)} goes off.
+ * <p>
+ * By default, the awake Entities are advanced one at a time. With the 
+ * {@code CHECKERBOARD_TICK} strategy, the plane is divided into square tiles 
+ * coloured like a 2&#215;2 checkerboard instead, and all of the tiles of one colour
+ * are advanced at the same time, one colour after another. Tiles of the same colour
+ * are a whole tile apart, so as long as the tiles are bigger than anything an 
+ * Entity can reach in one tick, no two tiles advancing together touch the same 
+ * Entities, and the result does not depend on how many threads are used.
+ * <p>
+ * At the end of every tick, an IndexSnapshot of each layer is published, so that
+ * drawing and selecting Entities can be done from another thread while the next 
+ * tick is advancing. Each snapshot only copies the parts of the last one that 
+ * have changed.
  *  
  * @see QuadTree
+ * @see IndexSnapshot
  * @see Entity
  * 
  * @author Jiayin Huang
@@ -53,16 +92,129 @@ public class Spacetime implements Serializable
 
 	/** The color of the explosion used in the <code>markAddition</code> method. 
 	 */
-	public static Color addColor = new Color (177, 244, 252);
+	public static final Color addColor = new Color (177, 244, 252);
 
 	/** The color of the explosion used in the <code>markRemoval</code> method. 
 	 */
-	public static Color removeColor = new Color (255, 43, 43);
+	public static final Color removeColor = new Color (255, 43, 43);
+
+	/** The tick strategy that advances the awake Entities one at a time.
+	 */
+	public static final int SERIAL_TICK = 0;
+
+	/** The tick strategy that advances the tiles of a checkerboard in parallel.
+	 */
+	public static final int CHECKERBOARD_TICK = 1;
+
+	/** The index type that keeps the Entities of a layer in a QuadTree.
+	 */
+	public static final int QUADTREE_INDEX = 0;
+
+	/** The index type that keeps the Entities of a layer in a MortonIndex.
+	 */
+	public static final int MORTON_INDEX = 1;
+
+	/** The index type that keeps the Entities of a layer in an AABBTree.
+	 */
+	public static final int AABB_INDEX = 2;
+
+	/** The broad phase that searches the index of the ENTITIES layer for every
+	 * collision check.
+	 */
+	public static final int TREE_BROAD_PHASE = 0;
+
+	/** The broad phase that finds every pair of Entities that may collide once,
+	 * at the start of every tick, with a SweepAndPrune.
+	 */
+	public static final int SWEEP_BROAD_PHASE = 1;
+
+	/** The broad phase that keeps a list of the Entities around every Entity,
+	 * which is only gathered again once the Entity has moved far enough, with 
+	 * NeighbourLists.
+	 */
+	public static final int NEIGHBOUR_BROAD_PHASE = 2;
+
+	/** The default width of the tiles of a checkerboard tick.
+	 */
+	public static final double DEFAULT_TILE_SIZE = 128;
+
+	/** The number of ticks between target re-evaluations of agents, 
+	 * for the types of agents that have not been given their own interval.
+	 */
+	public static final int DEFAULT_RETARGET_INTERVAL = 8;
+
+	/** The default zoom below which the Entities are drawn as points. At the
+	 * smallest zoom of a Viewport, a Human is less than 3 pixels wide.
+	 */
+	public static final double DEFAULT_POINT_CLOUD_ZOOM = 0.75;
+
+	/** The largest number of Entities that {@code placeAll} searches for at once.
+	 */
+	public static final int MAX_PLACEMENT_BATCH = 1024;
 
 	/** The time stamp of this simulation
 	 */
 	private long tick = 0;
 
+	/** The last id given to an Entity added to the ENTITIES layer.
+	 */
+	private long lastId = 0;
+
+	/** The way in which the awake Entities are advanced every tick.
+	 */
+	private int tickStrategy = SERIAL_TICK;
+
+	/** The width of the tiles of a checkerboard tick.
+	 */
+	private double tileSize = DEFAULT_TILE_SIZE;
+
+	/** The way in which the Entities that may be colliding are found.
+	 */
+	private int broadPhase = TREE_BROAD_PHASE;
+
+	/** The zoom below which the Entities are drawn as points.
+	 */
+	private double pointCloudZoom = DEFAULT_POINT_CLOUD_ZOOM;
+
+	/** The number of strips that the screen is split into to be drawn in parallel,
+	 * or 1 to draw straight onto the screen.
+	 */
+	private int drawStrips = 1;
+
+	/** Draws the Entities into images, when they are drawn as points or in 
+	 * more than one strip. It is kept from one frame to the next.
+	 */
+	private transient StripRenderer stripRenderer;
+
+	/** If the tiles of a checkerboard tick are currently advancing. While they are, 
+	 * the QuadTrees and the other bookkeeping are guarded by the lock, and Entities 
+	 * added or queued by the tiles are held back until all of the tiles are done.
+	 */
+	private transient volatile boolean tiling;
+	private transient ReentrantReadWriteLock lock;
+
+	/** The tile being advanced by the current thread, during a checkerboard tick.
+	 */
+	private transient ThreadLocal<Tile> currentTile;
+
+	/** Keeps track of the changes to each layer since its last snapshot.
+	 */
+	private transient List<IndexSnapshot.Publisher> publishers;
+
+	/** The last snapshot of each layer that was published.
+	 */
+	private transient volatile IndexSnapshot[] snapshots;
+
+	/** The random number generator used by the Entities in this Spacetime. Each 
+	 * Spacetime has its own, so that simulations running on different threads 
+	 * do not affect each other.
+	 */
+	private Random random = new Random ();
+
+	/** The number of ticks between target re-evaluations for each type of agent.
+	 */
+	private HashMap<Class<?>, Integer> retargetIntervals = new HashMap<Class<?>, Integer>();
+
 	/** The size of this Spacetime grid, in units of TerrainTile widths. 
 	 */
 	private Dimension size = new Dimension ();	
@@ -82,9 +234,9 @@ public class Spacetime implements Serializable
 	 */
 	public int fadeTicks = 60;
 
-	/** The layers of this Spacetime. 
+	/** The layers of this Spacetime, each kept in its own index. 
 	 */
-	private List<QuadTree> layers;	
+	private List<SpatialIndex> layers;	
 
 	/** A list of Entities that are to be removed at the beginning of the next tick. 
 	 */
@@ -94,6 +246,88 @@ public class Spacetime implements Serializable
 	 */
 	protected Incubator incubator;
 
+	/** The Entities in the ENTITIES layer that are advanced every tick, in the 
+	 * order in which they were woken up. Entities in the ENTITIES layer that are
+	 * not in this set are sleeping. 
+	 */
+	private transient LinkedHashSet<Entity> awake;
+
+	/** All of the Entities in the ENTITIES layer, awake or sleeping. 
+	 */
+	private transient HashSet<Entity> population;
+
+	/** The Entity with the lowest id of each type that has been searched for by
+	 * {@code findNearest}, or null if there is none of the type. The Entity of a 
+	 * type is forgotten when it leaves, and found again the next time that it is needed.
+	 */
+	private transient HashMap<Class<?>, Entity> firstOfType;
+
+	/** Sleeping Entities that are scheduled to be woken up, keyed by the tick
+	 * at which they should wake up. 
+	 */
+	private transient TreeMap<Long, List<Entity>> alarms;
+
+	/** The free-space raster of the ENTITIES layer, used to place new Entities
+	 * where they do not collide with anything. 
+	 */
+	private transient OccupancyGrid occupancy;
+
+	/** The pairs of Entities that may collide during this tick, if the broad
+	 * phase is SWEEP_BROAD_PHASE. Created at the start of the first tick with it.
+	 */
+	private transient SweepAndPrune sweep;
+
+	/** The lists of the Entities around every Entity, if the broad phase is 
+	 * NEIGHBOUR_BROAD_PHASE.
+	 */
+	private transient NeighbourLists neighbours;
+
+	/** The counts of the Entities in the cells of a coarse raster of the ENTITIES
+	 * layer, for the minimap. Created the first time that it is asked for.
+	 */
+	private transient DensityMap density;
+
+	/** The Entities that are waiting to be placed in the ENTITIES layer at the 
+	 * start of the next tick, along with the size of the markers to show for them.
+	 */
+	private transient List<Entity> spawnQueue;
+	private transient List<Double> spawnMarkers;
+
+	/** The Entities that have been sent to this Spacetime from other Spacetimes 
+	 * during the current tick, waiting to be added at the end of the tick. Other 
+	 * Spacetimes may be advancing on other threads, so this queue is thread-safe.
+	 */
+	private transient ConcurrentLinkedQueue<Entity> arrivals;
+
+	/** The checkerboard tick in progress: the Entities that were awake when they
+	 * planned, and the tiles of each colour and the Entities too big for them.
+	 */
+	private transient Entity[] ticking;
+	private transient List<List<Tile>> colours;
+	private transient List<Entity> oversized;
+
+	/** The Domain that this Spacetime is one part of, or null if it is a whole world.
+	 */
+	private transient Domain domain;
+
+	/** The Entities in the ENTITIES layer by id, kept only while this Spacetime is part of a Domain.
+	 */
+	private transient HashMap<Long, Entity> ids;
+
+	/** The read-only copies of Entities that belong to other Spacetimes, which are
+	 * in the ENTITIES layer but not in its population. The ones that the tiles have
+	 * collided into, removed or queued for removal are remembered, in order, so that
+	 * what has been done to them can be passed on to the Spacetimes they belong to.
+	 */
+	private transient Set<Entity> ghosts;
+	private transient LinkedHashSet<Entity> touchedGhosts;
+	private transient List<Entity> killedGhosts;
+	private transient List<Entity> ghostRemovals;
+
+	/** The WitchBarriers that lead out of this Spacetime into labyrinths.
+	 */
+	private List<WitchBarrier> barriers = new ArrayList<WitchBarrier>();
+
 	/** Creates a new Spacetime plane of the specified
 	 * dimensions, which are in units of the specified
 	 * chunk size. 
@@ -109,7 +343,7 @@ public class Spacetime implements Serializable
 		double maxX = width * chunkSize;
 		double maxY = height * chunkSize;		
 
-		layers = new ArrayList<QuadTree> (3);
+		layers = new ArrayList<SpatialIndex> (3);
 		removalQueue = new ArrayList<ArrayList<Entity>>();
 		for (int i = 0; i < 3; i++)
 		{
@@ -117,6 +351,8 @@ public class Spacetime implements Serializable
 			removalQueue.add(new ArrayList<Entity>());
 		}
 
+		initTransients();
+
 		// Set size
 
 		size = new Dimension (width, height);	
@@ -133,10 +369,89 @@ public class Spacetime implements Serializable
 
 		// Generate World
 		if (wg != null)		
+		{
+			random = new Random (wg.randomNumberGenerator.nextLong());
 			wg.generate (this);		
+			publishSnapshots();
+		}
 	}	
 
 
+	/** Registers a WitchBarrier whose entrance is in this Spacetime, so that
+	 * its labyrinth is advanced along with this Spacetime by a Multiverse.
+	 * 
+	 * @see Multiverse
+	 * 
+	 * @param barrier	the WitchBarrier leading out of this Spacetime
+	 */
+	public void addBarrier (WitchBarrier barrier)
+	{
+		if (!barriers.contains(barrier))
+			barriers.add(barrier);
+	}
+
+	/** Unregisters a WitchBarrier whose entrance is in this Spacetime.
+	 * 
+	 * @param barrier	the WitchBarrier to be removed
+	 * @return true if the WitchBarrier was registered with this Spacetime
+	 */
+	public boolean removeBarrier (WitchBarrier barrier)
+	{
+		return barriers.remove(barrier);
+	}
+
+	/** Returns a list of the WitchBarriers whose entrances are in this Spacetime.
+	 * 
+	 * @return a list of the WitchBarriers leading out of this Spacetime
+	 */
+	public List<WitchBarrier> getBarriers ()
+	{
+		return new ArrayList<WitchBarrier>(barriers);
+	}
+
+	/** Sends the specified Entity to this Spacetime from another Spacetime. 
+	 * The Entity is not added right away, since this Spacetime may be advancing
+	 * on another thread; it arrives when {@code applyArrivals()} is invoked at 
+	 * the end of the tick. This method is thread-safe.
+	 * 
+	 * @param e		the arriving Entity, which must already have been removed from its old Spacetime
+	 */
+	public void postArrival (Entity e)
+	{
+		arrivals.add(e);
+	}
+
+	/** Adds all of the Entities that have arrived from other Spacetimes during
+	 * the last tick to the ENTITIES layer, in the order in which they were sent, 
+	 * and moves each of them out of the way of anything it collides with.
+	 * This should only be invoked while no Spacetime is advancing.
+	 */
+	public void applyArrivals ()
+	{
+		Entity e;
+		while ((e = arrivals.poll()) != null)
+		{
+			addEntity (e);
+			ensureNoCollision (e);
+		}
+	}
+
+	/** Determines if nothing is waiting for the start of the next tick: no 
+	 * Entities waiting to be spawned or removed, and none arriving from other
+	 * Spacetimes.
+	 * 
+	 * @return true if nothing is waiting; false otherwise
+	 */
+	public boolean isSettled ()
+	{
+		if (!spawnQueue.isEmpty() || !arrivals.isEmpty())
+			return false;
+		for (List<Entity> list : removalQueue)
+			if (!list.isEmpty())
+				return false;
+		return true;
+	}
+
 	/** Adds the specified Entity to the ENTITIES layer
 	 * of this space-time plane.
 	 * 
@@ -148,7 +463,7 @@ public class Spacetime implements Serializable
 	}
 
 	/** Adds the specified Entity to the specified layer of this
-	 * space-time plane.
+	 * space-time plane. Entities added to the ENTITIES layer start out awake.
 	 * 
 	 * @param e			the Entity to be added
 	 * @param layer		the layer to which to add the entity
@@ -157,106 +472,1209 @@ public class Spacetime implements Serializable
 	 */
 	public void addEntity (Entity e, int layer)
 	{	
-		QuadTree plane = layers.get(layer);
-		plane.add(e);
-		e.grid = this;
+		Tile tile = getCurrentTile();
+		if (tile != null) // held back until every tile of the current colour is done
+		{
+			tile.additions.add(e);
+			tile.additionLayers.add(layer);
+			return;
+		}
+
+		SpatialIndex plane = layers.get(layer);
+		boolean locked = lockWrite();
+		try
+		{
+			plane.add(e);
+			e.grid = this;
+			publishers.get(layer).changed(e);
+
+			if (layer == ENTITIES)
+				enter(e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
 	}		
 
-	/** Advances the simulation by one tick. Iterates through all of
-	 * the Entities in the ENTITIES layer and FOLIAGE layer and calls 
-	 * the advance() method of each.
+	/** Adds a read-only copy of an Entity that belongs to another Spacetime to 
+	 * the ENTITIES layer. Entities in this Spacetime can collide with the copy and
+	 * find it in queries, and it takes up space when new Entities are placed, but
+	 * the copy is never advanced or counted. While the tiles of a checkerboard tick
+	 * are advancing, the copies that are collided into, removed or queued for 
+	 * removal are remembered, and can be collected afterwards with 
+	 * {@code takeTouchedGhosts()}, {@code takeKilledGhosts()} and 
+	 * {@code takeGhostRemovals()}. Remove the copy with {@code removeEntity(Entity)}.
+	 * 
+	 * @see DomainWorker
+	 * 
+	 * @param e		the copy to be added
 	 */
-	public void advance ()
-	{	
-		// Handle incubator respawning, if necessary
+	public void addGhost (Entity e)
+	{
+		layers.get(ENTITIES).add(e);
+		e.grid = this;
+		ghosts.add(e);
+		occupancy.mark(e);
+		publishers.get(ENTITIES).changed(e);
+		if (sweep != null)
+			sweep.add(e);
+		if (neighbours != null)
+			neighbours.add(e);
+	}
 
-		if (incubator != null)	
-			if (incubator.grid == null)		
-				incubator.respawn(this);					
+	/** Determines if the specified Entity is a copy added with {@code addGhost(Entity)}.
+	 * 
+	 * @param e		the Entity
+	 * @return true if the Entity is a ghost in this Spacetime; false otherwise
+	 */
+	public boolean isGhost (Entity e)
+	{
+		return ghosts.contains(e);
+	}
 
-		// Remove any Entities currently in the removal queue
+	/** Returns the ghosts that the tiles have collided into since the last call, 
+	 * in the order in which the tiles were flushed, and forgets them.
+	 * 
+	 * @return the ghosts that were collided into
+	 */
+	List<Entity> takeTouchedGhosts ()
+	{
+		List<Entity> touched = new ArrayList<Entity>(touchedGhosts);
+		touchedGhosts.clear();
+		return touched;
+	}
 
-		for (int layer = 0; layer < removalQueue.size(); layer++)
-		{
-			List<Entity> list = removalQueue.get(layer);
+	/** Returns the ghosts that the tiles have removed since the last call, by id, 
+	 * and forgets them.
+	 * 
+	 * @return the ghosts that were removed
+	 */
+	List<Entity> takeKilledGhosts ()
+	{
+		List<Entity> killed = new ArrayList<Entity>(killedGhosts);
+		Collections.sort(killed, BY_ID);
+		killedGhosts.clear();
+		return killed;
+	}
 
-			for (int i = 0; i < list.size(); i++)
-				removeEntity (list.get(i), layer);
+	/** Returns the ghosts that have been queued for removal since the last call, 
+	 * in order, and forgets them. They are not put in the removal queue of this 
+	 * Spacetime, since they belong to another one.
+	 * 
+	 * @return the ghosts that were queued for removal
+	 */
+	List<Entity> takeGhostRemovals ()
+	{
+		List<Entity> removals = new ArrayList<Entity>(ghostRemovals);
+		ghostRemovals.clear();
+		return removals;
+	}
 
-			list.clear();
-		}
+	/** Reserves the space taken by the specified Entity, which is not in this 
+	 * Spacetime, so that new Entities are not placed there until it is released.
+	 * 
+	 * @param e		the Entity whose space is reserved
+	 */
+	void reserve (Entity e)
+	{
+		occupancy.mark(e);
+	}
 
-		// Advance all Entities in ENTITIES and FOLIAGE layers
+	/** Releases the space reserved by {@code reserve(Entity)}.
+	 * 
+	 * @param e		the Entity whose space was reserved
+	 */
+	void release (Entity e)
+	{
+		occupancy.unmark(e);
+	}
 
-		List<Entity> entities = layers.get(ENTITIES).get();
-		for (Entity e : entities)
-			e.advance();
+	/** Updates the index and the rest of the bookkeeping after the specified Entity
+	 * in the ENTITIES layer, or a ghost, has been moved from outside of this Spacetime.
+	 * 
+	 * @param e		the Entity that has moved
+	 */
+	void moved (Entity e)
+	{
+		revalidate (e);
+	}
 
-		List<Entity> effects = layers.get(FOLIAGE).get();
-		for (Entity e : effects)
-			e.advance();
+	/** Makes this Spacetime one part of the specified Domain, or a whole world again
+	 * if it is null. While it is part of a Domain, its Entities are kept track of by
+	 * id, and counts and searches for targets are passed on to the Domain, so that 
+	 * they cover the whole world.
+	 * 
+	 * @param domain		the Domain, or null
+	 */
+	void setDomain (Domain domain)
+	{
+		this.domain = domain;
+		ids = null;
+		if (domain != null)
+		{
+			ids = new HashMap<Long, Entity>();
+			for (Entity e : population)
+				ids.put(e.id, e);
+		}
+	}
 
-		tick++;			
-	}	
+	/** Returns the Entity with the specified id in the ENTITIES layer. Ghosts are 
+	 * not included. This only works while this Spacetime is part of a Domain.
+	 * 
+	 * @param id		the id
+	 * @return the Entity, or null if there is none
+	 */
+	Entity getEntity (long id)
+	{
+		return ids.get(id);
+	}
 
+	/** Returns the last id given to an Entity added to the ENTITIES layer.
+	 * 
+	 * @return the last id
+	 */
+	long getLastId ()
+	{
+		return lastId;
+	}
 
-	/** Draws everything on this space-time plane in order from the
-	 * lowest layer (TERRAIN) to the highest layer (FOLIAGE). Draws 
-	 * an Entity only if the bounding rectangle of its shape intersects 
-	 * the rectangle defined by the Viewport's current field of view.
-	 * <p>
-	 * This method uses the Viewport's offset, zoom, and screen dimensions
-	 * for calculations.
+	/** Sets the last id given to an Entity added to the ENTITIES layer, so that the
+	 * next Entity added gets the id after it.
 	 * 
-	 * @param viewport	the Viewport that is calling this method
-	 * @param g			the Graphics context in which to paint	
+	 * @param id		the last id
 	 */
-	public void draw (Viewport viewport, Graphics2D g)
+	void setLastId (long id)
 	{
-		Point offset = viewport.offset;
-		double zoom = viewport.zoom;		
+		lastId = id;
+	}
 
-		AffineTransform at = AffineTransform.getScaleInstance(zoom, zoom);		
-		AffineTransform at2 = AffineTransform.getTranslateInstance(offset.x, offset.y);
-		at.preConcatenate(at2);
-		g.transform(at);
+	/** Creates an empty Spacetime of the same size as this one, with the same 
+	 * settings and the same time, for one part of this world when it is split up.
+	 * It shares the random number generator of this Spacetime, so it should be 
+	 * saved before this one is advanced again.
+	 * 
+	 * @return the empty Spacetime
+	 */
+	Spacetime copyEmpty ()
+	{
+		Rectangle2D bounds = getBounds();
+		Spacetime part = new Spacetime (size.width, size.height, (int) Math.round(bounds.getWidth() / Math.max(size.width, 1)));
+		for (int layer = 0; layer < layers.size(); layer++)
+			part.setIndexType(layer, getIndexType(layer));
+		part.tick = tick;
+		part.lastId = lastId;
+		part.tickStrategy = tickStrategy;
+		part.tileSize = tileSize;
+		part.broadPhase = broadPhase;
+		part.pointCloudZoom = pointCloudZoom;
+		part.drawStrips = drawStrips;
+		part.random = random;
+		part.retargetIntervals = new HashMap<Class<?>, Integer>(retargetIntervals);
+		part.shake = shake;
+		part.shakeDecrement = shakeDecrement;
+		part.fadeTicks = fadeTicks;
+		return part;
+	}
 
-		Rectangle window = new Rectangle ((int)(viewport.getWidth() / zoom), (int)(viewport.getHeight() / zoom));
-		window.setLocation (viewport.offset);		
-		window.x /= -zoom;
-		window.y /= -zoom;	
+	/** What a Spacetime needs from the rest of the world when it is only one part
+	 * of it, the rest being simulated somewhere else.
+	 * 
+	 * @see Spacetime#setDomain(Domain)
+	 * @see DomainWorker
+	 */
+	interface Domain
+	{
+		/** Returns the number of Entities in the specified category in the whole world.
+		 * 
+		 * @param category		the category, as defined in Entity
+		 * @return the number of Entities in the category
+		 */
+		int count (int category);
+
+		/** Does {@code findNearest(Entity, Class, int)} over the whole world.
+		 * 
+		 * @param seeker		the Entity that is searching
+		 * @param type			the type of Entity to search for
+		 * @param category		the category that the Entity should be in
+		 * @return the Entity found, or null if there are none of the type
+		 */
+		Entity findNearest (Entity seeker, Class<?> type, int category);
+	}
 
-		if (shake != 0)
-			shake (g, window);		
+	/** Adds all of the specified Entities to the specified layer of this
+	 * space-time plane at once. This is much faster than adding the Entities
+	 * one at a time when there are a lot of them, since the QuadTree of the 
+	 * layer is rebuilt in a single pass. A batch that is small next to what is
+	 * already in the layer is added one Entity at a time instead.
+	 * 
+	 * @see QuadTree#addAll
+	 * 
+	 * @param entities		the Entities to be added
+	 * @param layer			the layer to which to add the Entities
+	 * @throws IndexOutOfBoundsException if the layer is out of bounds 
+	 * 		(layer < 0 || layer >= size())
+	 */
+	public void addEntities (Collection<? extends Entity> entities, int layer)
+	{
+		Tile tile = getCurrentTile();
+		if (tile != null) // held back until every tile of the current colour is done, like addEntity
+		{
+			for (Entity e : entities)
+			{
+				tile.additions.add(e);
+				tile.additionLayers.add(layer);
+			}
+			return;
+		}
 
-		for (QuadTree layer : layers)
+		SpatialIndex plane = layers.get(layer);
+		boolean locked = lockWrite();
+		try
 		{
-			List<Entity> list = layer.get(window);			
-			for (Entity e : list)
-				if (isCollidingCheap (e.getShape(), window))
-					e.draw(g);
-		}			
+			if (entities.size() * 8 < plane.getSize()) // rebuilding the QuadTree would cost more than the additions
+				for (Entity e : entities)
+					plane.add(e);
+			else
+				plane.addAll(entities);
+
+			for (Entity e : entities)
+			{
+				e.grid = this;
+				publishers.get(layer).changed(e);
+				if (layer == ENTITIES)
+					enter(e);
+			}
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
 	}
 
-	/** Offsets the given Graphics2D and Rectangle by a random amount,
-	 * the maximum of which being defined the the shake field variable.
+	/** Advances the simulation by one tick. Iterates through all of
+	 * the awake Entities in the ENTITIES layer and all of the Entities
+	 * in the FOLIAGE layer and calls the advance() method of each. 
+	 * Awake Entities that have nothing left to do after advancing 
+	 * are put to sleep. With the {@code CHECKERBOARD_TICK} strategy, the 
+	 * plan() method of every awake Entity is called, one at a time, before 
+	 * any Entity is advanced.
+	 * <p>
+	 * The tick is made up of the steps below, which a DomainWorker takes one 
+	 * at a time, so that it can trade Entities with its neighbours in between.
 	 * 
-	 * @param g			the Graphics2D object being used for drawing
-	 * @param window	the Rectangle representing the Viewport's current field of view
+	 * @see #setTickStrategy(int)
+	 * @see DomainWorker
 	 */
-	private void shake (Graphics2D g, Rectangle window)
+	public void advance ()
 	{	
-		double randomX = shake * Math.random();
-		double randomY = shake * Math.random();			
-		g.translate(randomX, randomY);
-		window.x -= (int)randomX;
-		window.y -= (int)randomY;
+		respawnIncubator();
+		applyRemovals();
+		applySpawns();
+		prepareTick();
 
-		shake -= shakeDecrement;
+		// Advance all awake Entities in the ENTITIES layer, and all Entities in the FOLIAGE layer
 
-		if (shake < 0)
-			shake = 0;
-	}
+		if (tickStrategy == CHECKERBOARD_TICK)
+		{
+			planAll();
+			startTiles();
+			for (int colour = 0; colour < 4; colour++)
+			{
+				advanceColour(colour);
+				flushColour(colour);
+			}
+			finishTiles();
+		}
+		else
+			for (Entity e : awake.toArray(new Entity[awake.size()]))
+				advanceEntity (e);
+
+		finishTick();
+	}	
+
+	/** Respawns the incubator of this Spacetime, if it has been removed.
+	 * This is the first step of {@code advance()}.
+	 */
+	void respawnIncubator ()
+	{
+		if (incubator != null)	
+			if (incubator.grid == null)		
+				incubator.respawn(this);					
+	}
+
+	/** Removes all of the Entities in the removal queue.
+	 * This is the second step of {@code advance()}.
+	 */
+	void applyRemovals ()
+	{
+		for (int layer = 0; layer < removalQueue.size(); layer++)
+		{
+			List<Entity> list = removalQueue.get(layer);
+
+			for (int i = 0; i < list.size(); i++)
+				removeEntity (list.get(i), layer);
+
+			list.clear();
+		}
+	}
+
+	/** Places all of the Entities that were spawned during the last tick.
+	 * This is the third step of {@code advance()}.
+	 */
+	void applySpawns ()
+	{
+		if (!spawnQueue.isEmpty())
+		{
+			List<Entity> spawns = new ArrayList<Entity>();
+			List<Double> markers = new ArrayList<Double>();
+			takeSpawns (spawns, markers);
+
+			spawnAll(spawns);
+			for (int i = 0; i < spawns.size(); i++)
+				if (markers.get(i) > 0)
+					markAddition(spawns.get(i), markers.get(i));
+		}
+	}
+
+	/** Empties the spawn queue into the specified lists, in order, instead of
+	 * placing the Entities in it.
+	 * 
+	 * @param spawns		the list to which the Entities waiting to be spawned are added
+	 * @param markers		the list to which the sizes of their markers are added
+	 */
+	void takeSpawns (List<Entity> spawns, List<Double> markers)
+	{
+		spawns.addAll(spawnQueue);
+		markers.addAll(spawnMarkers);
+		spawnQueue.clear();
+		spawnMarkers.clear();
+	}
+
+	/** Returns the number of Entities waiting to be spawned at the start of the next tick.
+	 * 
+	 * @return the length of the spawn queue
+	 */
+	int countSpawns ()
+	{
+		return spawnQueue.size();
+	}
+
+	/** Wakes up the Entities whose scheduled wake-up has come, and finds the pairs
+	 * of Entities that may collide during this tick. This is the fourth step of 
+	 * {@code advance()}.
+	 */
+	void prepareTick ()
+	{
+		while (!alarms.isEmpty() && alarms.firstKey() <= tick)
+			for (Entity e : alarms.pollFirstEntry().getValue())
+				wake(e);
+
+		if (broadPhase == SWEEP_BROAD_PHASE)
+		{
+			if (sweep == null)
+				sweep = new SweepAndPrune (layers.get(ENTITIES).get());
+			sweep.update();
+		}
+		else if (broadPhase == NEIGHBOUR_BROAD_PHASE && neighbours == null)
+			neighbours = new NeighbourLists (layers.get(ENTITIES));
+	}
+
+	/** Lets every awake Entity look around before anything moves, one at a time.
+	 * The Entities that are awake now are the ones that {@code startTiles()} 
+	 * advances. This is the first step of a checkerboard tick.
+	 */
+	void planAll ()
+	{
+		ticking = awake.toArray(new Entity[awake.size()]);
+		for (Entity e : ticking)
+			if (e.grid == this)
+				e.plan();
+	}
+
+	/** Advances the FOLIAGE layer, merges the changes that any MortonIndex has
+	 * buffered, and ends the tick. This is the last step of {@code advance()}.
+	 */
+	void finishTick ()
+	{
+		List<Entity> effects = layers.get(FOLIAGE).get();
+		for (Entity e : effects)
+			e.advance();
+
+		for (SpatialIndex index : layers)
+			if (index instanceof MortonIndex)
+				((MortonIndex) index).merge();
+
+		tick++;			
+		publishSnapshots();
+	}
+
+	/** Publishes a new IndexSnapshot of every layer, with all of the changes since
+	 * the last ones. This is done at the end of every tick; it only needs to be 
+	 * invoked directly after Entities have been added, moved or removed between
+	 * ticks. It should only be invoked while this Spacetime is not advancing.
+	 */
+	public void publishSnapshots ()
+	{
+		IndexSnapshot[] published = new IndexSnapshot[layers.size()];
+		for (int layer = 0; layer < published.length; layer++)
+			published[layer] = publishers.get(layer).publish(tick);
+		snapshots = published;
+	}
+
+	/** Returns the last snapshot of the ENTITIES layer that was published.
+	 * 
+	 * @return the last snapshot of the ENTITIES layer
+	 */
+	public IndexSnapshot getSnapshot ()
+	{
+		return getSnapshot (ENTITIES);
+	}
+
+	/** Returns the last snapshot of the specified layer that was published. The 
+	 * snapshot can be queried from any thread, and never changes.
+	 * 
+	 * @param layer		the layer
+	 * @return the last snapshot of the layer
+	 * @throws IndexOutOfBoundsException if the layer is out of bounds 
+	 * 		(layer < 0 || layer >= size())
+	 */
+	public IndexSnapshot getSnapshot (int layer)
+	{
+		IndexSnapshot[] published = snapshots;
+		if (published == null) // nothing has been published yet, so there is nothing to see
+			return publishers.get(layer).getLast();
+		return published[layer];
+	}
+
+	/** Returns the last snapshot of every layer that was published, from the 
+	 * lowest layer to the highest. The snapshots are replaced whenever anything
+	 * is published, so a Viewport can tell whether anything has changed since it
+	 * last drew them by comparing them.
+	 * 
+	 * @return the last snapshot of every layer
+	 */
+	public IndexSnapshot[] getSnapshots ()
+	{
+		IndexSnapshot[] published = new IndexSnapshot[layers.size()];
+		for (int layer = 0; layer < published.length; layer++)
+			published[layer] = getSnapshot(layer);
+		return published;
+	}
+
+	/** Advances the specified awake Entity, unless it has been removed earlier in
+	 * this tick, and puts it to sleep if it has nothing left to do.
+	 * 
+	 * @param e		the Entity to advance
+	 */
+	private void advanceEntity (Entity e)
+	{
+		if (e.grid == this) // Skip Entities that were removed earlier in this tick
+		{
+			e.advance();
+			if (e.grid == this && e.canSleep())
+			{
+				boolean locked = lockWrite();
+				try
+				{
+					awake.remove(e);
+				}
+				finally
+				{
+					unlockWrite(locked);
+				}
+			}
+		}
+	}
+
+	/** Sorts the Entities that were awake when {@code planAll()} was invoked into 
+	 * the tiles of a checkerboard tick. The tiles of each colour are advanced in 
+	 * parallel by {@code advanceColour(int)}, each by a single thread, with the 
+	 * Entities in each tile in the order in which they were added to this Spacetime.
+	 * Whatever the tiles add or queue is only applied by {@code flushColour(int)}, 
+	 * once every tile of the colour is done, in the order of the tiles. Entities 
+	 * that can reach further than half of a tile in one tick are advanced by
+	 * {@code finishTiles()}, one at a time.
+	 * <p>
+	 * The Entities are sorted into tiles again every tick, so an Entity that has 
+	 * moved across a border is simply advanced with its new tile in the next tick.
+	 */
+	void startTiles ()
+	{
+		long tickSeed = random.nextLong();
+		colours = new ArrayList<List<Tile>>();
+		for (int i = 0; i < 4; i++)
+			colours.add(new ArrayList<Tile>());
+		TreeMap<Long, Tile> tiles = new TreeMap<Long, Tile>();
+		oversized = new ArrayList<Entity>();
+
+		for (Entity e : ticking)
+		{
+			if (e.grid != this)
+				continue;
+			if (getReach(e) * 2 >= tileSize)
+			{
+				oversized.add(e);
+				continue;
+			}
+
+			int column = getTileColumn(e.x);
+			int row = (int) Math.floor(e.y / tileSize);
+			long key = ((long) column << 32) | (row & 0xFFFFFFFFL);
+			Tile tile = tiles.get(key);
+			if (tile == null)
+			{
+				tile = new Tile (new Random (tickSeed ^ key * 0x9E3779B97F4A7C15L));
+				tiles.put(key, tile);
+			}
+			tile.entities.add(e);
+		}
+		ticking = null;
+
+		// Sort the tiles by colour, keeping them in order within each colour
+
+		for (Long key : tiles.keySet())
+		{
+			Tile tile = tiles.get(key);
+			Collections.sort(tile.entities, BY_ID);
+			int column = (int) (key >> 32);
+			int row = (int) (long) key;
+			colours.get((column & 1) + 2 * (row & 1)).add(tile);
+		}
+	}
+
+	/** Advances the tiles of one colour of the checkerboard in parallel.
+	 * 
+	 * @param colour		the colour, from 0 to 3
+	 */
+	void advanceColour (int colour)
+	{
+		List<Tile> list = colours.get(colour);
+		if (list.isEmpty())
+			return;
+
+		tiling = true;
+		try
+		{
+			TileTask task = new TileTask (list, 0, list.size());
+			if (ForkJoinTask.inForkJoinPool()) // stay in the pool of whoever is advancing this Spacetime
+				task.invoke();
+			else
+				ForkJoinPool.commonPool().invoke(task);
+		}
+		finally
+		{
+			tiling = false;
+		}
+	}
+
+	/** Returns the number of new Entities that the tiles of one colour have added
+	 * to the ENTITIES layer, which are given their ids by {@code flushColour(int)}.
+	 * 
+	 * @param colour		the colour, from 0 to 3
+	 * @return the number of Entities that have no id yet
+	 */
+	int countAdditions (int colour)
+	{
+		int count = 0;
+		for (Tile tile : colours.get(colour))
+			for (int i = 0; i < tile.additions.size(); i++)
+				if (tile.additionLayers.get(i) == ENTITIES && tile.additions.get(i).id == 0)
+					count++;
+		return count;
+	}
+
+	/** Applies what the tiles of one colour have added or queued, in the order of the tiles.
+	 * 
+	 * @param colour		the colour, from 0 to 3
+	 */
+	void flushColour (int colour)
+	{
+		for (Tile tile : colours.get(colour))
+			tile.flush();
+	}
+
+	/** Advances the Entities that are too big for the tiles, one at a time, which
+	 * is the last step of a checkerboard tick.
+	 */
+	void finishTiles ()
+	{
+		Collections.sort(oversized, BY_ID);
+		for (Entity e : oversized)
+			advanceEntity (e);
+		colours = null;
+		oversized = null;
+	}
+
+	/** Returns the column of the checkerboard tiles that the specified x-coordinate is in.
+	 * 
+	 * @param x		the x-coordinate
+	 * @return the column of the tile
+	 */
+	int getTileColumn (double x)
+	{
+		return (int) Math.floor(x / tileSize);
+	}
+
+	/** Returns how far the specified Entity can reach from its location in one
+	 * tick: the size of its shape, plus how far it moves.
+	 * 
+	 * @param e		the Entity
+	 * @return the distance that the Entity can reach
+	 */
+	private double getReach (Entity e)
+	{
+		Rectangle2D bounds = e.getShape().getBounds2D();
+		return Math.max(bounds.getWidth(), bounds.getHeight()) + e.velocity.getMagnitude() + 1;
+	}
+
+	/** Sets the way in which the awake Entities are advanced every tick, either 
+	 * one at a time, or one colour of a checkerboard of tiles at a time, with the
+	 * tiles of each colour advanced in parallel. The checkerboard does not advance 
+	 * the Entities in the same order as {@code SERIAL_TICK}, but it gives the same
+	 * results no matter how many threads there are. The tiles are advanced in the
+	 * ForkJoinPool that advance() is called from, or in the common pool otherwise.
+	 * 
+	 * @param strategy		SERIAL_TICK or CHECKERBOARD_TICK
+	 * @throws IllegalArgumentException if the strategy is neither
+	 */
+	public void setTickStrategy (int strategy)
+	{
+		if (strategy != SERIAL_TICK && strategy != CHECKERBOARD_TICK)
+			throw new IllegalArgumentException ("Unknown tick strategy: " + strategy);
+		tickStrategy = strategy;
+	}
+
+	/** Returns the way in which the awake Entities are advanced every tick.
+	 * 
+	 * @return SERIAL_TICK or CHECKERBOARD_TICK
+	 */
+	public int getTickStrategy ()
+	{
+		return tickStrategy;
+	}
+
+	/** Sets the kind of index that the Entities of the specified layer are kept in.
+	 * The Entities already in the layer are moved into a new index of that kind, 
+	 * which covers the same area.
+	 * 
+	 * @param layer		TERRAIN, ENTITIES or FOLIAGE
+	 * @param type		QUADTREE_INDEX, MORTON_INDEX or AABB_INDEX
+	 * @throws IllegalArgumentException if the type is none of them
+	 */
+	public void setIndexType (int layer, int type)
+	{
+		if (type != QUADTREE_INDEX && type != MORTON_INDEX && type != AABB_INDEX)
+			throw new IllegalArgumentException ("Unknown index type: " + type);
+
+		boolean locked = lockWrite();
+		try
+		{
+			SpatialIndex plane = layers.get(layer);
+			if (type != getIndexType(layer))
+			{
+				Rectangle2D bounds = plane.getBounds();
+				SpatialIndex index;
+				if (type == MORTON_INDEX)
+					index = new MortonIndex (bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+				else if (type == AABB_INDEX)
+					index = new AABBTree (bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+				else
+					index = new QuadTree (bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+				index.addAll(plane.get());
+				layers.set(layer, index);
+				if (layer == ENTITIES && neighbours != null)
+					neighbours.setIndex(index);
+			}
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Returns the kind of index that the Entities of the specified layer are kept in.
+	 * 
+	 * @param layer		TERRAIN, ENTITIES or FOLIAGE
+	 * @return QUADTREE_INDEX, MORTON_INDEX or AABB_INDEX
+	 */
+	public int getIndexType (int layer)
+	{
+		if (layers.get(layer) instanceof MortonIndex)
+			return MORTON_INDEX;
+		if (layers.get(layer) instanceof AABBTree)
+			return AABB_INDEX;
+		return QUADTREE_INDEX;
+	}
+
+	/** Sets the way in which the Entities that a moving Entity may be colliding 
+	 * with are found. SWEEP_BROAD_PHASE finds all of the pairs at once at the start 
+	 * of every tick, which saves every move from searching the index, but costs a 
+	 * sweep over every Entity, even the ones that are asleep. NEIGHBOUR_BROAD_PHASE
+	 * lets every Entity reuse the Entities it found around itself until it has 
+	 * moved far enough. Either way, the same collisions are found.
+	 * 
+	 * @param phase		TREE_BROAD_PHASE, SWEEP_BROAD_PHASE or NEIGHBOUR_BROAD_PHASE
+	 * @throws IllegalArgumentException if the broad phase is none of these
+	 */
+	public void setBroadPhase (int phase)
+	{
+		if (phase != TREE_BROAD_PHASE && phase != SWEEP_BROAD_PHASE && phase != NEIGHBOUR_BROAD_PHASE)
+			throw new IllegalArgumentException ("Unknown broad phase: " + phase);
+		broadPhase = phase;
+		sweep = null;
+		neighbours = null;
+		if (phase == NEIGHBOUR_BROAD_PHASE)
+			neighbours = new NeighbourLists (layers.get(ENTITIES));
+	}
+
+	/** Returns the way in which the Entities that a moving Entity may be 
+	 * colliding with are found.
+	 * 
+	 * @return TREE_BROAD_PHASE, SWEEP_BROAD_PHASE or NEIGHBOUR_BROAD_PHASE
+	 */
+	public int getBroadPhase ()
+	{
+		return broadPhase;
+	}
+
+	/** Returns the neighbour lists of the Entities, through which the skin of 
+	 * every type of Entity can be tuned and its counters read.
+	 * 
+	 * @return the neighbour lists, or null if the broad phase is not NEIGHBOUR_BROAD_PHASE
+	 */
+	public NeighbourLists getNeighbourLists ()
+	{
+		return neighbours;
+	}
+
+	/** Returns the counts of the Entities in the cells of a coarse raster of the
+	 * ENTITIES layer, which are kept up to date from then on as the Entities are
+	 * added, moved and removed. It should only be invoked while this Spacetime is 
+	 * not advancing.
+	 * 
+	 * @return the density map of the ENTITIES layer
+	 */
+	public DensityMap getDensityMap ()
+	{
+		if (density == null)
+			density = new DensityMap (layers.get(ENTITIES).getBounds(), DensityMap.DEFAULT_RESOLUTION, population);
+		return density;
+	}
+
+	/** Returns the number of pairs of Entities that were found by the sweep at
+	 * the start of this tick.
+	 * 
+	 * @return the number of pairs, or 0 if the broad phase is not SWEEP_BROAD_PHASE
+	 */
+	public int getPairCount ()
+	{
+		if (sweep == null)
+			return 0;
+		return sweep.getPairCount();
+	}
+
+	/** Sets the width of the tiles of a checkerboard tick. Entities that can reach 
+	 * more than half of this width in one tick are advanced on their own, after the tiles.
+	 * 
+	 * @param size		the width of a tile, in pixels
+	 * @throws IllegalArgumentException if the size is not positive
+	 */
+	public void setTileSize (double size)
+	{
+		if (!(size > 0))
+			throw new IllegalArgumentException ("Tile size must be positive: " + size);
+		tileSize = size;
+	}
+
+	/** Returns the width of the tiles of a checkerboard tick.
+	 * 
+	 * @return the width of a tile, in pixels
+	 */
+	public double getTileSize ()
+	{
+		return tileSize;
+	}
+
+	/** Sets the zoom below which the Entities are drawn as a few pixels each, 
+	 * in their colours, instead of with their shapes. 0 always draws the shapes.
+	 * 
+	 * @param zoom		the zoom below which the Entities are drawn as points
+	 * @see Entity#getColor()
+	 */
+	public void setPointCloudZoom (double zoom)
+	{
+		pointCloudZoom = zoom;
+	}
+
+	/** Returns the zoom below which the Entities are drawn as points.
+	 * 
+	 * @return the zoom below which the Entities are drawn as points
+	 */
+	public double getPointCloudZoom ()
+	{
+		return pointCloudZoom;
+	}
+
+	/** Sets the number of horizontal strips that the screen is split into when
+	 * this Spacetime is drawn. Each strip is drawn into an image of its own by the
+	 * threads of the common pool, and the images are then drawn onto the screen, 
+	 * which pays off for crowded scenes when there are several cores. 1 draws 
+	 * everything straight onto the screen on the calling thread.
+	 * 
+	 * @param strips	the number of strips
+	 * @throws IllegalArgumentException if the number of strips is less than 1
+	 */
+	public void setDrawStrips (int strips)
+	{
+		if (strips < 1)
+			throw new IllegalArgumentException ("Strips must be positive: " + strips);
+		drawStrips = strips;
+	}
+
+	/** Returns the number of strips that the screen is split into when this 
+	 * Spacetime is drawn.
+	 * 
+	 * @return the number of strips
+	 */
+	public int getDrawStrips ()
+	{
+		return drawStrips;
+	}
+
+	/** Returns the tile that the current thread is advancing.
+	 * 
+	 * @return the tile, or null if the tiles are not advancing, or this thread is not advancing one
+	 */
+	private Tile getCurrentTile ()
+	{
+		if (tiling)
+			return currentTile.get();
+		return null;
+	}
+
+	/** Locks the QuadTrees and the bookkeeping for reading, if the tiles are advancing.
+	 * Whether the lock was taken is returned, rather than checked again when it is
+	 * released, since the tiles may have started or stopped in between.
+	 * 
+	 * @return true if the lock was taken; false otherwise
+	 */
+	private boolean lockRead ()
+	{
+		if (!tiling)
+			return false;
+		lock.readLock().lock();
+		return true;
+	}
+
+	/** Releases the lock taken by {@code lockRead()}.
+	 * 
+	 * @param locked		what {@code lockRead()} returned
+	 */
+	private void unlockRead (boolean locked)
+	{
+		if (locked)
+			lock.readLock().unlock();
+	}
+
+	/** Locks the QuadTrees and the bookkeeping for writing, if the tiles are advancing.
+	 * 
+	 * @return true if the lock was taken; false otherwise
+	 */
+	private boolean lockWrite ()
+	{
+		if (!tiling)
+			return false;
+		lock.writeLock().lock();
+		return true;
+	}
+
+	/** Releases the lock taken by {@code lockWrite()}.
+	 * 
+	 * @param locked		what {@code lockWrite()} returned
+	 */
+	private void unlockWrite (boolean locked)
+	{
+		if (locked)
+			lock.writeLock().unlock();
+	}
+
+	/** Orders Entities by their ids, which is the order in which they were added.
+	 */
+	private static final Comparator<Entity> BY_ID = new Comparator<Entity>()
+	{
+		public int compare (Entity a, Entity b)
+		{
+			return Long.compare(a.id, b.id);
+		}
+	};
+
+	/** One tile of a checkerboard tick: the Entities whose locations are in it,
+	 * the random number generator that they use, and what they have added or 
+	 * queued while it was advancing.
+	 */
+	private class Tile
+	{
+		List<Entity> entities = new ArrayList<Entity>();
+		Random random;
+
+		List<Entity> additions = new ArrayList<Entity>();
+		List<Integer> additionLayers = new ArrayList<Integer>();
+		List<Entity> removals = new ArrayList<Entity>();
+		List<Integer> removalLayers = new ArrayList<Integer>();
+		List<Entity> spawns = new ArrayList<Entity>();
+		List<Double> markers = new ArrayList<Double>();
+		List<Entity> touched = new ArrayList<Entity>();
+
+		Tile (Random random)
+		{
+			this.random = random;
+		}
+
+		/** Advances the Entities in this tile on the current thread.
+		 */
+		void advance ()
+		{
+			currentTile.set(this);
+			try
+			{
+				for (Entity e : entities)
+					advanceEntity (e);
+			}
+			finally
+			{
+				currentTile.remove();
+			}
+		}
+
+		/** Applies what this tile has added or queued. This must only be invoked
+		 * once the tiles have stopped advancing.
+		 */
+		void flush ()
+		{
+			for (int i = 0; i < additions.size(); i++)
+				addEntity (additions.get(i), additionLayers.get(i));
+			for (int i = 0; i < removals.size(); i++)
+				requestRemoval (removals.get(i), removalLayers.get(i));
+			for (int i = 0; i < spawns.size(); i++)
+				requestSpawn (spawns.get(i), markers.get(i));
+			touchedGhosts.addAll(touched);
+		}
+	}
+
+	/** Advances a range of the tiles of one colour, splitting it up so that the
+	 * tiles are shared out between the threads of the pool.
+	 */
+	private class TileTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<Tile> tiles;
+		private final int from, to;
+
+		TileTask (List<Tile> tiles, int from, int to)
+		{
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute ()
+		{
+			if (to - from == 1)
+				tiles.get(from).advance();
+			else
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new TileTask (tiles, from, middle), new TileTask (tiles, middle, to));
+			}
+		}
+	}
+
+
+	/** Draws everything on this space-time plane in order from the
+	 * lowest layer (TERRAIN) to the highest layer (FOLIAGE). Draws 
+	 * an Entity only if the bounding rectangle of its shape intersects 
+	 * the rectangle defined by the Viewport's current field of view.
+	 * The Entities of each layer are drawn in the same order whichever part
+	 * of the plane is being drawn, so Entities that overlap always look the same.
+	 * The Entities to draw are found in the last published snapshots, so
+	 * this can be done while the next tick is advancing.
+	 * Only the part of the Viewport inside the clip of the Graphics2D is drawn,
+	 * if it has one.
+	 * <p>
+	 * This method uses the Viewport's offset, zoom, and screen dimensions
+	 * for calculations.
+	 * 
+	 * @param viewport	the Viewport that is calling this method
+	 * @param g			the Graphics context in which to paint	
+	 */
+	public void draw (Viewport viewport, Graphics2D g)
+	{
+		draw (viewport, g, getSnapshots(), null, 1);
+	}
+
+	/** Draws the specified snapshots of the layers of this space-time plane, 
+	 * like {@code draw(Viewport, Graphics2D)}. Entities that have moved since 
+	 * the specified earlier snapshots are drawn part of the way between where 
+	 * they were then and where they are now, so that a Viewport can draw 
+	 * smooth motion between two ticks. Entities that are drawn as points are
+	 * always drawn where they are now.
+	 * 
+	 * @param viewport	the Viewport that is calling this method
+	 * @param g			the Graphics context in which to paint	
+	 * @param snapshots	the snapshot of every layer to draw
+	 * @param previous	the earlier snapshot of every layer, or null
+	 * @param blend		how far along to draw the Entities, from 0 at the earlier 
+	 * 					snapshots to 1 at the snapshots to draw
+	 * @see IndexSnapshot.Entry#draw(Graphics2D, IndexSnapshot.Entry, double)
+	 */
+	public void draw (Viewport viewport, Graphics2D g, IndexSnapshot[] snapshots, IndexSnapshot[] previous, double blend)
+	{
+		Point offset = viewport.offset;
+		double zoom = viewport.zoom;		
+		AffineTransform base = g.getTransform();
+
+		AffineTransform at = AffineTransform.getScaleInstance(zoom, zoom);		
+		AffineTransform at2 = AffineTransform.getTranslateInstance(offset.x, offset.y);
+		at.preConcatenate(at2);
+		g.transform(at);
+
+		// The part of the plane in view, with room for the outlines of the shapes, 
+		// which are drawn half a pixel outside of their bounds
+
+		Rectangle window = new Rectangle2D.Double (-offset.x / zoom, -offset.y / zoom, 
+				viewport.getWidth() / zoom, viewport.getHeight() / zoom).getBounds();
+		window.grow(1, 1);
+
+		if (shake != 0)
+			shake (g, window);		
+
+		Rectangle clip = g.getClipBounds();
+		if (clip != null)
+		{
+			clip.grow(1, 1);
+			window = window.intersection(clip);
+		}
+
+		if ((zoom < pointCloudZoom || drawStrips > 1) 
+				&& drawOffscreen (viewport, g, base, snapshots, previous, blend))
+			return;
+
+		for (int layer = 0; layer < snapshots.length; layer++)
+		{
+			List<IndexSnapshot.Entry> entries = snapshots[layer].getEntries(window);
+			Collections.sort(entries, IndexSnapshot.DRAWING_ORDER);
+
+			Map<Entity, IndexSnapshot.Entry> before = null;
+			if (previous != null && blend < 1) // where the Entities that are in view now used to be
+				before = previous[layer].getEntryMap(window, IndexSnapshot.MAX_INTERPOLATED_DISTANCE);
+
+			for (IndexSnapshot.Entry entry : entries)
+				entry.draw(g, before == null ? null : before.get(entry.entity), blend);
+		}			
+	}
+
+	/** Draws the Entities in view into images through a StripRenderer, which 
+	 * are then drawn onto the Graphics2D: as points, in their colours, if the zoom
+	 * is below the point cloud zoom, and in parallel if there is more than one strip.
+	 * The images only cover the part of the Viewport inside the clip.
+	 * 
+	 * @param viewport	the Viewport being drawn
+	 * @param g			the Graphics2D object, transformed to the coordinates of the Entities
+	 * @param base		the transform of the Graphics2D before it was transformed
+	 * @param snapshots	the snapshot of every layer to draw
+	 * @param previous	the earlier snapshot of every layer, or null
+	 * @param blend		how far along to draw the Entities between the two
+	 * @return true if the Entities were drawn; false if the transform of the 
+	 * 		Graphics2D could not be undone, and they still have to be drawn
+	 */
+	private boolean drawOffscreen (Viewport viewport, Graphics2D g, AffineTransform base, 
+			IndexSnapshot[] snapshots, IndexSnapshot[] previous, double blend)
+	{
+		AffineTransform toViewport;
+		try
+		{
+			toViewport = base.createInverse();
+		}
+		catch (NoninvertibleTransformException e)
+		{
+			return false;
+		}
+		AffineTransform world = g.getTransform();
+		toViewport.concatenate(world);
+
+		if (stripRenderer == null)
+			stripRenderer = new StripRenderer();
+		g.setTransform(base);
+		try
+		{
+			// Only draw the part of the Viewport that is not clipped away
+
+			Rectangle area = new Rectangle (viewport.getWidth(), viewport.getHeight());
+			Rectangle clip = g.getClipBounds();
+			if (clip != null)
+				area = area.intersection(clip);
+			if (area.isEmpty())
+				return true;
+
+			toViewport.preConcatenate(AffineTransform.getTranslateInstance(-area.x, -area.y));
+			g.translate(area.x, area.y);
+			stripRenderer.draw(g, area.width, area.height, snapshots, previous, blend, toViewport, 
+					viewport.zoom < pointCloudZoom, drawStrips);
+		}
+		catch (NoninvertibleTransformException e)
+		{
+			return false;
+		}
+		finally
+		{
+			g.setTransform(world); // the Viewport draws its selection over the Entities
+		}
+		return true;
+	}
+
+	/** Draws the outlines of the cells of the index of the specified layer, for
+	 * debugging, if the layer is kept in a QuadTree.
+	 * 
+	 * @param g			the Graphics2D object, transformed to the coordinates of the Entities
+	 * @param layer		TERRAIN, ENTITIES or FOLIAGE
+	 */
+	public void drawIndex (Graphics2D g, int layer)
+	{
+		boolean locked = lockRead();
+		try
+		{
+			SpatialIndex index = layers.get(layer);
+			if (index instanceof QuadTree)
+				((QuadTree) index).draw(g);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+	}
+
+	/** Offsets the given Graphics2D and Rectangle by a random amount,
+	 * the maximum of which being defined the the shake field variable.
+	 * 
+	 * @param g			the Graphics2D object being used for drawing
+	 * @param window	the Rectangle representing the Viewport's current field of view
+	 */
+	private void shake (Graphics2D g, Rectangle window)
+	{	
+		double randomX = shake * Math.random();
+		double randomY = shake * Math.random();			
+		g.translate(randomX, randomY);
+		window.x -= (int)randomX;
+		window.y -= (int)randomY;
+
+		shake -= shakeDecrement;
+
+		if (shake < 0)
+			shake = 0;
+	}
 
 	/** Starts a shaking special effect. The shaking will fade
 	 * away after <code>fadeTicks</code> ticks have elapsed.
@@ -265,29 +1683,82 @@ public class Spacetime implements Serializable
 	 */
 	public void startShake (double shakeMagnitude)
 	{
-		shake = Math.max(shake, shakeMagnitude);
-		shakeDecrement = shake / fadeTicks;
+		boolean locked = lockWrite();
+		try
+		{
+			shake = Math.max(shake, shakeMagnitude);
+			shakeDecrement = shake / fadeTicks;
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Ensures that the specified Entity is not colliding with anything, and is
+	 * in the bounds of this Spacetime. If it is, the Entity is moved to the closest
+	 * free space that can be found in the occupancy raster of the ENTITIES layer.
+	 * If the raster has no room for the Entity, the Entity is moved along a spiral
+	 * pattern until a spot where there is no collision is found instead.
+	 * 
+	 * @param e		the Entity to be checked
+	 */
+	public void ensureNoCollision (Entity e)
+	{	
+		boolean locked = lockWrite();
+		try
+		{
+			placeOutOfCollision (e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Does the work of {@code ensureNoCollision(Entity)}.
+	 * 
+	 * @param e		the Entity to be checked
+	 */
+	private void placeOutOfCollision (Entity e)
+	{
+		Rectangle2D bounds = layers.get(ENTITIES).getBounds();
+
+		if (isColliding (e) || !isInBounds (e, bounds))
+		{
+			double[] offset = occupancy.findFree(e, Integer.MAX_VALUE);
+			if (offset != null)
+				e.setLocation(e.x + offset[0], e.y + offset[1]);
+
+			if (offset == null || isColliding (e) || !isInBounds (e, bounds))
+				spiralOutOfCollision (e, bounds);
+		}
+
+		if (population.contains(e)) // the Entity may have been moved without telling anyone
+		{
+			layers.get(ENTITIES).revalidate(e);
+			occupancy.update(e);
+			publishers.get(ENTITIES).changed(e);
+			if (sweep != null)
+				sweep.moved(e);
+			if (neighbours != null)
+				neighbours.moved(e);
+			if (density != null)
+				density.moved(e);
+		}
 	}
 
-	/** Nudges the specified Entity so that is not colliding with anything 
-	 * at its current location in the ENTITIES layer. If the Entity is 
-	 * colliding with something, its coordinates are iteratively moved 
-	 * outwards in a spiral pattern until it is not colliding with anything anymore.
-	 * <p>
-	 * In the current implementation, in each successive iteration:
-	 * <ul>
-	 * <li> the angle to the initial point increases by <code>2&#960/30</code> radians
-	 * <li> the radial distance from the initial point increases by <code>10</code> units
-	 * </ul>
+	/** Moves the specified Entity along a spiral pattern until a spot is found
+	 * where there is no collision, and the Entity is in the specified bounds.
 	 * 
-	 * @param e		the specified Entity
+	 * @param e			the Entity to be moved
+	 * @param bounds	the bounds in which the Entity must end up
 	 */
-	public void ensureNoCollision (Entity e)
-	{	
+	private void spiralOutOfCollision (Entity e, Rectangle2D bounds)
+	{
 		final int angleStep = 30;
 		final int radiusStep = 4;
 
-		Rectangle2D bounds = layers.get(ENTITIES).getBounds();
 		Shape shape = e.getShape();		
 
 		double x0 = e.x;
@@ -313,6 +1784,156 @@ public class Spacetime implements Serializable
 		}			
 	}
 
+	/** Places all of the specified Entities in free space and adds them to the
+	 * ENTITIES layer at once. Each Entity is moved to the free space closest to where
+	 * it currently is, without colliding with anything already in the layer or with any 
+	 * of the Entities placed before it. The Entities are then bulk-loaded into the 
+	 * QuadTree. Any Entities that do not fit in the occupancy raster are added one at a 
+	 * time afterwards with {@code ensureNoCollision}.
+	 * 
+	 * @param entities		the Entities to be placed
+	 */
+	public void spawnAll (Collection<? extends Entity> entities)
+	{
+		List<Entity> placed = new ArrayList<Entity>(entities.size());
+		List<Entity> unplaced = new ArrayList<Entity>();
+		placeAll (entities, placed, unplaced);
+		addPlaced (placed, unplaced);
+	}
+
+	/** Does the placing of {@code spawnAll(Collection)}, without adding anything
+	 * to the ENTITIES layer, so that a very large batch can be placed a part at a time 
+	 * and then loaded into the QuadTree once. The searches for free space are done in
+	 * parallel, a batch of Entities at a time, and the Entities end up exactly where 
+	 * they would if they were placed one at a time. Where the Entities of a batch keep 
+	 * taking each other's spots, so that most of them have to be searched for again, 
+	 * the batches shrink, down to one Entity at a time, and they grow again where the 
+	 * Entities stay out of each other's way. The space taken by every placed Entity
+	 * is reserved, so the Entities placed by later invocations stay out of its way.
+	 * Every Entity placed or left unplaced by this method must then be added with 
+	 * {@code addPlaced} before this Spacetime is used.
+	 * 
+	 * @param entities		the Entities to be placed
+	 * @param placed		the list to which the Entities that were placed are added
+	 * @param unplaced		the list to which the Entities that did not fit are added
+	 */
+	public void placeAll (Collection<? extends Entity> entities, List<Entity> placed, List<Entity> unplaced)
+	{
+		Rectangle2D bounds = layers.get(ENTITIES).getBounds();
+
+		// Search for a batch of Entities in parallel, then place them one at a time in order,
+		// searching again only for those whose spot has been taken by an Entity before them
+
+		List<Entity> all = new ArrayList<Entity>(entities);
+		int batchSize = MAX_PLACEMENT_BATCH;
+
+		for (int start = 0; start < all.size(); )
+		{
+			List<Entity> current = all.subList(start, Math.min(all.size(), start + batchSize));
+			List<Entity> batch = new ArrayList<Entity>(current.size());
+			for (Entity e : current)
+				if (!occupancy.isMarked(e))
+					batch.add(e);
+			boolean ahead = batch.size() > 1; // a single Entity is just searched for when it is placed
+			double[][] offsets = ahead ? occupancy.findFreeAll(batch, Integer.MAX_VALUE) : null;
+			int next = 0;
+			int conflicts = 0;
+
+			for (Entity e : current)
+			{
+				double[] offset;
+				if (ahead && next < batch.size() && batch.get(next) == e)
+				{
+					offset = offsets[next++];
+					if (offset != null && !occupancy.isFree(e, offset))
+					{
+						offset = occupancy.findFree(e, Integer.MAX_VALUE);
+						conflicts++;
+					}
+				}
+				else
+					offset = occupancy.findFree(e, Integer.MAX_VALUE);
+
+				if (offset != null)
+				{
+					e.setLocation(e.x + offset[0], e.y + offset[1]);
+					if (isInBounds (e, bounds))
+					{
+						occupancy.mark(e); // so that the next Entity stays out of the way
+						placed.add(e);
+					}
+					else
+						unplaced.add(e);
+				}
+				else
+					unplaced.add(e);
+			}
+
+			start += current.size();
+			if (conflicts * 2 > batch.size())
+				batchSize = Math.max(1, batchSize / 2);
+			else if (conflicts * 8 < batch.size())
+				batchSize = Math.min(MAX_PLACEMENT_BATCH, batchSize * 2);
+		}
+	}
+
+	/** Adds the Entities from one or more invocations of {@code placeAll} to the 
+	 * ENTITIES layer. The placed Entities are bulk-loaded into the QuadTree, and 
+	 * the ones that did not fit are then added one at a time with 
+	 * {@code ensureNoCollision}.
+	 * 
+	 * @param placed		the Entities that were placed
+	 * @param unplaced		the Entities that did not fit
+	 */
+	public void addPlaced (List<Entity> placed, List<Entity> unplaced)
+	{
+		// The Entities are already marked, so adding them to the layer won't mark them twice
+
+		addEntities (placed, ENTITIES);
+
+		for (Entity e : unplaced)
+		{
+			addEntity (e);
+			ensureNoCollision (e);
+		}
+	}
+
+	/** Sets the specified Entity to be added to the ENTITIES layer at the start
+	 * of the next tick. All of the Entities spawned during one tick are placed in 
+	 * free space together, with {@code spawnAll}. This method should be used instead 
+	 * of {@code addEntity} when an Entity is adding another Entity while the 
+	 * simulation is advancing.
+	 * 
+	 * @param e		the Entity to be spawned
+	 */
+	public void requestSpawn (Entity e)
+	{
+		requestSpawn (e, 0);
+	}
+
+	/** Sets the specified Entity to be added to the ENTITIES layer at the start
+	 * of the next tick, and marks its addition with an explosion once it has been
+	 * placed.
+	 * 
+	 * @see #markAddition(Entity, double)
+	 * 
+	 * @param e				the Entity to be spawned
+	 * @param scalar		the size of the explosion, relative to the Entity; 0 for none
+	 */
+	public void requestSpawn (Entity e, double scalar)
+	{
+		Tile tile = getCurrentTile();
+		if (tile != null)
+		{
+			tile.spawns.add(e);
+			tile.markers.add(scalar);
+			return;
+		}
+
+		spawnQueue.add(e);
+		spawnMarkers.add(scalar);
+	}
+
 	/** Retrieves a list of all of the Entities with which the specified Entity 
 	 * is currently colliding. This is for the ENTITIES layer. 
 	 * Returns an empty list if the Entity is not intersecting with anything.
@@ -322,18 +1943,39 @@ public class Spacetime implements Serializable
 	 */
 	public ArrayList<Entity> getCollidingEntities (Entity e)
 	{
-		ArrayList<Entity> plane = layers.get(ENTITIES).get(e);		
-		ArrayList<Entity> colliding = new ArrayList<Entity>();
 		Shape thisShape = e.getShape();		
+		boolean locked = lockRead();
+		ArrayList<Entity> plane = null;
+		try
+		{
+			if (sweep != null) // the pairs found at the start of the tick, if they still hold
+				plane = sweep.getCandidates(e, thisShape.getBounds2D());
+			else if (neighbours != null) // the list of the Entity, if it has not moved too far
+				plane = neighbours.get(e, thisShape.getBounds2D());
+			if (plane == null)
+				plane = layers.get(ENTITIES).get(e);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+		ArrayList<Entity> colliding = new ArrayList<Entity>();
+		Tile tile = getCurrentTile();
 
 		for (int i = 0; i < plane.size(); i++)
 		{
 			Entity other = plane.get(i);
 			if (!other.equals(e))
 				if (isColliding (thisShape, other.getShape()))
+				{
 					colliding.add(other);				
+					if (tile != null && !ghosts.isEmpty() && ghosts.contains(other))
+						tile.touched.add(other);
+				}
 		}
 
+		if (tiling) // the order of the QuadTree depends on which tile got there first
+			Collections.sort(colliding, BY_ID);
 		return colliding;
 	}
 
@@ -346,7 +1988,7 @@ public class Spacetime implements Serializable
 	 */
 	public ArrayList<Entity> getEntities (Shape selection)
 	{
-		ArrayList<Entity> entities = layers.get(ENTITIES).get(selection.getBounds());
+		ArrayList<Entity> entities = query (selection.getBounds());
 		ArrayList<Entity> results = new ArrayList<Entity>();
 		for (Entity e : entities)
 			if (isColliding (e.getShape(), selection))
@@ -364,16 +2006,227 @@ public class Spacetime implements Serializable
 	 */
 	public ArrayList<Entity> getEntities (Class<?> entityType)
 	{
-		ArrayList<Entity> all = layers.get(ENTITIES).get();
+		boolean locked = lockRead();
+		ArrayList<Entity> all;
+		try
+		{
+			all = layers.get(ENTITIES).get();
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
 		ArrayList<Entity> list = new ArrayList<Entity>();
 
 		for (Entity e : all)		
 			if (entityType.isInstance(e))
 				list.add(e);		
 
+		if (tiling)
+			Collections.sort(list, BY_ID);
 		return list;
 	}
 
+	/** Returns all of the Entities in the specified layer, ghosts included.
+	 * 
+	 * @param layer		TERRAIN, ENTITIES or FOLIAGE
+	 * @return the Entities in the layer
+	 */
+	List<Entity> getLayer (int layer)
+	{
+		return layers.get(layer).get();
+	}
+
+	/** Returns the number of Entities in the specified category on the ENTITIES 
+	 * layer. This is read off of the counts kept by the QuadTree, so it does not 
+	 * look at the Entities. If this Spacetime is part of a Domain, the Entities in
+	 * the whole world are counted.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 * @see Entity#getCategories()
+	 */
+	public int count (int category)
+	{
+		if (domain != null)
+			return domain.count(category);
+		return countOwned (category);
+	}
+
+	/** Returns the number of Entities in the specified category on the ENTITIES
+	 * layer of this Spacetime itself, leaving out the ghosts.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 */
+	int countOwned (int category)
+	{
+		boolean locked = lockRead();
+		try
+		{
+			int count = layers.get(ENTITIES).count(category);
+			for (Entity e : ghosts)
+				if ((e.getCategories() & 1 << category) != 0)
+					count--;
+			return count;
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+	}
+
+	/** Returns the Entity of the specified type that is closest to the specified
+	 * Entity, out of those in the specified category. If none of them is closer, 
+	 * the Entity of the type that was added first is returned instead, whether it
+	 * is in the category or not. Ties go to the Entity that was added first, so the
+	 * answer does not depend on the order in which the Entities are stored. If this
+	 * Spacetime is part of a Domain, the whole world is searched.
+	 * <p>
+	 * The Entities in the category are searched for in a square around the seeker,
+	 * which starts out about as big as the area that each of them has to itself, 
+	 * and doubles until the closest one found is inside of it. Only the parts of the 
+	 * ENTITIES layer whose counts say that they hold some of the category are looked
+	 * at. Since the index holds Entities by their bounds, this relies on the location 
+	 * of every Entity being inside of its bounds, as it is with the default offset.
+	 * 
+	 * @param seeker		the Entity that is searching
+	 * @param type			the type of Entity to search for
+	 * @param category		the category that the Entity should be in, as defined in Entity
+	 * @return the Entity found, or null if there are none of the type
+	 * @see SpatialIndex#get(int, Rectangle2D)
+	 */
+	public Entity findNearest (Entity seeker, Class<?> type, int category)
+	{
+		if (domain != null)
+			return domain.findNearest(seeker, type, category);
+
+		boolean locked = lockWrite(); // the first Entity of the type may have to be found again
+		try
+		{
+			if (!firstOfType.containsKey(type))
+			{
+				Entity first = null;
+				for (Entity e : population)
+					if (type.isInstance(e) && (first == null || e.id < first.id))
+						first = e;
+				firstOfType.put(type, first);
+			}
+
+			Entity nearest = firstOfType.get(type);
+			if (nearest == null)
+				return null;
+			double shortest = getDistanceSquared(nearest, seeker.x, seeker.y);
+
+			SpatialIndex plane = layers.get(ENTITIES);
+			int total = plane.count(category);
+			if (total == 0)
+				return nearest;
+
+			Rectangle2D bounds = plane.getBounds();
+			double radius = Math.max(1, Math.sqrt(bounds.getWidth() * bounds.getHeight() / total));
+			while (true)
+			{
+				Rectangle2D area = new Rectangle2D.Double(seeker.x - radius, seeker.y - radius, 2 * radius, 2 * radius);
+				for (Entity e : plane.get(category, area))
+				{
+					if (type.isInstance(e) && (e.getCategories() & 1 << category) != 0)
+					{
+						double distance = getDistanceSquared(e, seeker.x, seeker.y);
+						if (distance < shortest || distance == shortest && e.id < nearest.id)
+						{
+							nearest = e;
+							shortest = distance;
+						}
+					}
+				}
+
+				if (shortest < radius * radius) // anything closer would have been inside of the square
+					return nearest;
+				radius *= 2;
+			}
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Returns the square of the distance from the location of the specified Entity
+	 * to the specified point, computed in the same way as by DistanceKernels.
+	 * 
+	 * @param e		the Entity
+	 * @param x		the x-coordinate of the point
+	 * @param y		the y-coordinate of the point
+	 * @return the squared distance
+	 */
+	private static double getDistanceSquared (Entity e, double x, double y)
+	{
+		double dx = e.x - x;
+		double dy = e.y - y;
+		return dx * dx + dy * dy;
+	}
+
+	/** Returns the number of Entities in the specified category on the ENTITIES 
+	 * layer whose bounds intersect the specified region.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @param region	the region to count in
+	 * @return the number of Entities in the category in the region
+	 */
+	public int count (int category, Rectangle2D region)
+	{
+		boolean locked = lockRead();
+		try
+		{
+			return layers.get(ENTITIES).count(category, region);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+	}
+
+	/** Determines if there are any Entities in the specified category on the 
+	 * ENTITIES layer whose bounds intersect the specified region.
+	 * 
+	 * @param category	the category, as defined in Entity
+	 * @param region	the region to look in
+	 * @return true if there is an Entity in the category in the region; false otherwise
+	 */
+	public boolean hasAny (int category, Rectangle2D region)
+	{
+		boolean locked = lockRead();
+		try
+		{
+			return layers.get(ENTITIES).hasAny(category, region);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+	}
+
+	/** Updates the counts kept for the specified Entity after something about
+	 * it changed which categories it is in. Entities must call this whenever the
+	 * result of their {@code getCategories()} changes.
+	 * 
+	 * @param e		the Entity whose categories have changed
+	 */
+	public void recategorize (Entity e)
+	{
+		boolean locked = lockWrite();
+		try
+		{
+			if (population.contains(e) || ghosts.contains(e))
+				layers.get(ENTITIES).recount(e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
 	/** Returns a list of all of the Entities that fall within 
 	 * given radius of the specified Entity.
 	 * <p>
@@ -386,14 +2239,14 @@ public class Spacetime implements Serializable
 	public ArrayList<Entity> getEntities (Entity e, double radius)
 	{
 		Rectangle2D bounds = new Rectangle2D.Double (e.x - radius, e.y - radius, 2 * radius, 2 * radius);
-		ArrayList<Entity> entities = layers.get(ENTITIES).get(bounds);
+		ArrayList<Entity> entities = query (bounds);
 		ArrayList<Entity> result = new ArrayList<Entity> (entities.size());
 
-		double radiusSquared = radius * radius;
+		DistanceKernels.Coordinates c = DistanceKernels.buffer().load(entities);
+		int count = DistanceKernels.withinRadius(c, e.x, e.y, radius);
 
-		for (Entity temp : entities) // Use distance formula to check Entity distance 					
-			if (((e.x - temp.x)*(e.x - temp.x)) + ((e.y - temp.y)*(e.y - temp.y)) <= radiusSquared)
-				result.add(temp);		
+		for (int i = 0; i < count; i++)
+			result.add(entities.get(c.found[i]));		
 
 		result.remove(e); // Do not include the Entity itself
 
@@ -411,7 +2264,18 @@ public class Spacetime implements Serializable
 	 */
 	public Entity getEntity (double x, double y)
 	{
-		List<Entity> entities = layers.get(ENTITIES).get(x, y);
+		boolean locked = lockRead();
+		List<Entity> entities;
+		try
+		{
+			entities = layers.get(ENTITIES).get(x, y);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+		if (tiling)
+			Collections.sort(entities, BY_ID);
 		Point2D.Double snooper = new Point2D.Double (x, y);
 		Entity entity = null;		
 
@@ -437,6 +2301,37 @@ public class Spacetime implements Serializable
 		return new Dimension (size);
 	}		
 
+	/** Returns the bounds of this space-time plane, in pixels.
+	 * 
+	 * @return the rectangle covered by this Spacetime
+	 */
+	public Rectangle2D getBounds ()
+	{
+		return layers.get(ENTITIES).getBounds();
+	}
+
+	/** Returns the random number generator used by the Entities in this Spacetime.
+	 * A Spacetime generated by a WorldGenerator is seeded from the generator's seed.
+	 * 
+	 * @return the random number generator of this Spacetime
+	 */
+	public Random getRandom ()
+	{
+		Tile tile = getCurrentTile();
+		if (tile != null)
+			return tile.random;
+		return random;
+	}
+
+	/** Replaces the random number generator used by the Entities in this Spacetime.
+	 * 
+	 * @param random		the new random number generator
+	 */
+	public void setRandom (Random random)
+	{
+		this.random = random;
+	}
+
 	/** Returns the time stamp of this space-time plane.
 	 * 
 	 * @return the number of ticks that have elapsed since this Spacetime first started
@@ -446,6 +2341,69 @@ public class Spacetime implements Serializable
 		return tick;
 	}
 
+	/** Sets the number of ticks between target re-evaluations for the specified
+	 * type of agent. Agents of that type step towards the target they last chose
+	 * in between re-evaluations. An interval of 1 re-evaluates every tick.
+	 * 
+	 * @param type			the type of agent, which also applies to its subclasses
+	 * @param interval		the number of ticks between re-evaluations
+	 * @throws IllegalArgumentException if the interval is less than 1
+	 */
+	public void setRetargetInterval (Class<? extends Entity> type, int interval)
+	{
+		if (interval < 1)
+			throw new IllegalArgumentException("Retarget interval must be at least 1: " + interval);
+		retargetIntervals.put(type, interval);
+	}
+
+	/** Returns the number of ticks between target re-evaluations for the specified 
+	 * type of agent, which is the interval of the nearest superclass that has one set.
+	 * 
+	 * @param type		the type of agent
+	 * @return the number of ticks between re-evaluations
+	 */
+	public int getRetargetInterval (Class<?> type)
+	{
+		for (Class<?> c = type; c != null; c = c.getSuperclass())
+		{
+			Integer interval = retargetIntervals.get(c);
+			if (interval != null)
+				return interval;
+		}
+		return DEFAULT_RETARGET_INTERVAL;
+	}
+
+	/** Determines if the specified agent should re-evaluate its target this tick.
+	 * Agents are staggered by id, so that only a fraction of the agents of each 
+	 * type re-evaluate their targets on any given tick.
+	 * 
+	 * @param e		the agent
+	 * @return true if the agent should choose a new target; false otherwise
+	 */
+	public boolean isRetargetDue (Entity e)
+	{
+		return (tick + e.id) % getRetargetInterval(e.getClass()) == 0;
+	}
+
+	/** Determines if the specified Entity is awake, that is, if it is 
+	 * in the ENTITIES layer of this Spacetime and is advanced every tick.
+	 * 
+	 * @param e		the Entity to check
+	 * @return true if the Entity is awake; false if it is sleeping or not in this Spacetime 
+	 */
+	public boolean isAwake (Entity e)
+	{
+		boolean locked = lockRead();
+		try
+		{
+			return awake.contains(e);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+	}
+
 	/** Checks if the specified Entity is colliding with anything
 	 * at its current location.
 	 * 
@@ -491,7 +2449,7 @@ public class Spacetime implements Serializable
 
 		e.setLocation (x, y); // Temporally shifting entity to location for check		
 		Shape shape = e.getShape();		
-		List<Entity> list = layers.get(layer).get(shape.getBounds());	
+		List<Entity> list = query (layer, shape.getBounds());	
 		e.setLocation (tempX, tempY); // Reverting temporary location shift
 
 		int index = 0;
@@ -517,7 +2475,19 @@ public class Spacetime implements Serializable
 	public boolean isColliding (Entity e, int layer)
 	{
 		Shape shape = e.getShape();
-		List<Entity> list = layers.get(layer).get(e);			
+		boolean locked = lockRead();
+		List<Entity> list = null;
+		try
+		{
+			if (layer == ENTITIES && neighbours != null)
+				list = neighbours.get(e, shape.getBounds2D());
+			if (list == null)
+				list = layers.get(layer).get(e);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
 		boolean willCollide = false;
 		int index = 0;
 
@@ -608,6 +2578,20 @@ public class Spacetime implements Serializable
 		return isColliding(bounds, shape);
 	}
 
+	/** Determines if any part of the specified Entity is within the specified
+	 * bounds. An Entity whose bounding rectangle is entirely inside is not
+	 * tested any further, which is the case for nearly every Entity that is placed.
+	 * 
+	 * @param e			the Entity to check
+	 * @param bounds	the bounds
+	 * @return true if the Entity is touching the bounds; false otherwise
+	 */
+	private boolean isInBounds (Entity e, Rectangle2D bounds)
+	{
+		Shape shape = e.getShape();
+		return bounds.contains(shape.getBounds2D()) || isColliding(bounds, shape);
+	}
+
 	/** Creates a visible blue explosion effect at the Entity's current location
 	 * to mark its addition. This will automatically fade with time and then remove
 	 * itself.
@@ -678,14 +2662,30 @@ public class Spacetime implements Serializable
 	 */
 	public boolean removeEntity (Entity e, int layer)
 	{		
-		QuadTree plane = layers.get(layer);
+		SpatialIndex plane = layers.get(layer);
+
+		boolean locked = lockWrite();
+		try
+		{
+			boolean removed = plane.remove(e);
+			if (removed)
+			{
+				if (e.grid.equals (this))				
+					e.grid = null;			
+				publishers.get(layer).removed(e);
+				if (layer == ENTITIES && ghosts.remove(e) && tiling)
+					killedGhosts.add(e);
+			}
 
-		boolean removed = plane.remove(e);
-		if (removed)
-			if (e.grid.equals (this))				
-				e.grid = null;			
+			if (layer == ENTITIES)
+				leave(e);
 
-		return removed;		
+			return removed;
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
 	}	
 
 	/** Sets the specified Entity to be removed from the ENTITIES
@@ -698,7 +2698,7 @@ public class Spacetime implements Serializable
 	 */
 	public void requestRemoval (Entity e)
 	{
-		removalQueue.get(ENTITIES).add(e);
+		requestRemoval (e, ENTITIES);
 	}
 
 	/** Sets the specified Entity to be removed from the ENTITIES
@@ -714,7 +2714,239 @@ public class Spacetime implements Serializable
 	 */
 	public void requestRemoval (Entity e, int layer)
 	{
-		removalQueue.get(layer).add(e);		
+		Tile tile = getCurrentTile();
+		if (tile != null)
+		{
+			tile.removals.add(e);
+			tile.removalLayers.add(layer);
+			return;
+		}
+
+		if (layer == ENTITIES && ghosts.contains(e))
+			ghostRemovals.add(e);
+		else
+			removalQueue.get(layer).add(e);		
+	}
+
+	/** Wakes up the specified Entity so that it is advanced every tick 
+	 * again. Does nothing if the Entity is not in the ENTITIES layer of 
+	 * this Spacetime, or if it is already awake.
+	 * 
+	 * @param e		the Entity to wake up
+	 */
+	public void wake (Entity e)
+	{
+		boolean locked = lockWrite();
+		try
+		{
+			if (population.contains(e))
+				awake.add(e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Schedules the specified Entity to be woken up at the specified tick. 
+	 * If that tick has already passed, the Entity is woken up at the start 
+	 * of the next tick.
+	 * 
+	 * @param e			the Entity to wake up
+	 * @param time		the tick at which to wake up the Entity
+	 */
+	public void wakeAt (Entity e, long time)
+	{
+		boolean locked = lockWrite();
+		try
+		{
+			List<Entity> list = alarms.get(time);
+			if (list == null)
+			{
+				list = new ArrayList<Entity>();
+				alarms.put(time, list);
+			}
+			list.add(e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Wakes up all of the Entities that the specified Entity has just 
+	 * collided into.
+	 * 
+	 * @param colliding		the List of Entities that were collided into
+	 */
+	private void wakeAll (List<Entity> colliding)
+	{
+		for (Entity other : colliding)
+			wake(other);
+	}
+
+	/** Restores the transient fields of this Spacetime after it has been
+	 * deserialized. Every Entity in the ENTITIES layer starts out awake; 
+	 * the ones that have nothing to do fall asleep again after one tick.
+	 * 
+	 * @param in	the stream from which this Spacetime is being read
+	 * @throws IOException if an I/O error occurs
+	 * @throws ClassNotFoundException if the class of a serialized object cannot be found
+	 */
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		initTransients();
+		for (int layer = 0; layer < layers.size(); layer++)
+		{
+			for (Entity e : layers.get(layer).get())
+			{
+				e.grid = this;
+				publishers.get(layer).changed(e);
+			}
+		}
+		for (Entity e : layers.get(ENTITIES).get())
+			enter(e);
+		publishSnapshots();
+	}
+
+	/** Initializes the transient fields of this Spacetime, which keep track of
+	 * the Entities in the ENTITIES layer. The ENTITIES layer must already exist.
+	 */
+	private void initTransients ()
+	{
+		awake = new LinkedHashSet<Entity>();
+		population = new HashSet<Entity>();
+		firstOfType = new HashMap<Class<?>, Entity>();
+		alarms = new TreeMap<Long, List<Entity>>();
+		occupancy = new OccupancyGrid(new Box(layers.get(ENTITIES).getBounds()));
+		spawnQueue = new ArrayList<Entity>();
+		spawnMarkers = new ArrayList<Double>();
+		arrivals = new ConcurrentLinkedQueue<Entity>();
+		ghosts = ConcurrentHashMap.newKeySet();
+		touchedGhosts = new LinkedHashSet<Entity>();
+		killedGhosts = new ArrayList<Entity>();
+		ghostRemovals = new ArrayList<Entity>();
+		if (barriers == null) // saved before Spacetimes kept track of their barriers
+			barriers = new ArrayList<WitchBarrier>();
+		if (retargetIntervals == null)
+			retargetIntervals = new HashMap<Class<?>, Integer>();
+		if (random == null)
+			random = new Random ();
+		if (!(tileSize > 0)) // saved before the checkerboard tick
+			tileSize = DEFAULT_TILE_SIZE;
+		lock = new ReentrantReadWriteLock();
+		currentTile = new ThreadLocal<Tile>();
+		publishers = new ArrayList<IndexSnapshot.Publisher>();
+		for (SpatialIndex plane : layers)
+			publishers.add(new IndexSnapshot.Publisher (plane.getBounds(), IndexSnapshot.DEFAULT_CELL_SIZE));
+		snapshots = null;
+	}
+
+	/** Returns the Entities in the QuadTree of the ENTITIES layer that may 
+	 * intersect the specified rectangle.
+	 * 
+	 * @param bounds	the rectangle to search
+	 * @return the Entities in the QuadBranches that the rectangle intersects
+	 */
+	ArrayList<Entity> query (Rectangle2D bounds)
+	{
+		return query (ENTITIES, bounds);
+	}
+
+	/** Returns the Entities in the QuadTree of the specified layer that may 
+	 * intersect the specified rectangle. While the tiles of a checkerboard tick 
+	 * are advancing, they are sorted by id, so that the order does not depend on 
+	 * the order in which the tiles got to the QuadTree.
+	 * 
+	 * @param layer		the layer to search
+	 * @param bounds	the rectangle to search
+	 * @return the Entities in the QuadBranches that the rectangle intersects
+	 */
+	private ArrayList<Entity> query (int layer, Rectangle2D bounds)
+	{
+		boolean locked = lockRead();
+		ArrayList<Entity> entities;
+		try
+		{
+			entities = layers.get(layer).get(bounds);
+		}
+		finally
+		{
+			unlockRead(locked);
+		}
+		if (tiling)
+			Collections.sort(entities, BY_ID);
+		return entities;
+	}
+
+	/** Updates the QuadTree of the ENTITIES layer and the occupancy raster 
+	 * after the specified Entity has moved.
+	 * 
+	 * @param e		the Entity that has moved
+	 */
+	private void revalidate (Entity e)
+	{
+		boolean locked = lockWrite();
+		try
+		{
+			layers.get(ENTITIES).revalidate(e);
+			occupancy.update(e);
+			publishers.get(ENTITIES).changed(e);
+			if (sweep != null)
+				sweep.moved(e);
+			if (neighbours != null)
+				neighbours.moved(e);
+			if (density != null)
+				density.moved(e);
+		}
+		finally
+		{
+			unlockWrite(locked);
+		}
+	}
+
+	/** Starts keeping track of an Entity that was just added to the ENTITIES layer.
+	 * 
+	 * @param e		the Entity that was added
+	 */
+	private void enter (Entity e)
+	{
+		if (e.id == 0) // first time in a Spacetime
+			e.id = ++lastId;
+		population.add(e);
+		if (ids != null)
+			ids.put(e.id, e);
+		for (Map.Entry<Class<?>, Entity> entry : firstOfType.entrySet())
+			if (entry.getKey().isInstance(e) && (entry.getValue() == null || e.id < entry.getValue().id))
+				entry.setValue(e);
+		awake.add(e);
+		occupancy.mark(e);
+		if (sweep != null)
+			sweep.add(e);
+		if (neighbours != null)
+			neighbours.add(e);
+		if (density != null)
+			density.add(e);
+	}
+
+	/** Stops keeping track of an Entity that was just removed from the ENTITIES layer.
+	 * 
+	 * @param e		the Entity that was removed
+	 */
+	private void leave (Entity e)
+	{
+		if (population.remove(e) && ids != null)
+			ids.remove(e.id);
+		firstOfType.values().removeAll(Collections.singleton(e));
+		awake.remove(e);
+		occupancy.unmark(e);
+		if (sweep != null)
+			sweep.remove(e);
+		if (neighbours != null)
+			neighbours.remove(e);
+		if (density != null)
+			density.remove(e);
 	}
 
 	/** Advances the location and angle of the specified Entity based on
@@ -741,11 +2973,13 @@ public class Spacetime implements Serializable
 		List<Entity> colliding = getCollidingEntities (e);
 		if (colliding.size() != 0)
 		{			
+			wakeAll(colliding);
 			e.resolveCollision(colliding, e.velocity.x, e.velocity.y, e.angularVelocity);					
 			moved = false;
 		}
 
-		layers.get(ENTITIES).revalidate(e);
+		if (e.grid == this) // the Entity may have been sent elsewhere while resolving the collision
+			revalidate (e);
 
 		return moved;
 	}	
@@ -773,11 +3007,13 @@ public class Spacetime implements Serializable
 		List<Entity> colliding = getCollidingEntities (e);		
 		if (colliding.size() != 0)
 		{		
+			wakeAll(colliding);
 			e.resolveCollision(colliding, 0, 0, deltaTheta);
 			rotated = false;
 		}
 
-		layers.get(ENTITIES).revalidate(e);		
+		if (e.grid == this) // the Entity may have been sent elsewhere while resolving the collision
+			revalidate (e);
 
 		return rotated;
 	}
@@ -808,11 +3044,13 @@ public class Spacetime implements Serializable
 		List<Entity> colliding = getCollidingEntities (e);
 		if (colliding.size() != 0)
 		{		
+			wakeAll(colliding);
 			e.resolveCollision(colliding, dx, dy, 0);
 			moved = false;					
 		}
 
-		layers.get(ENTITIES).revalidate(e);
+		if (e.grid == this) // the Entity may have been sent elsewhere while resolving the collision
+			revalidate (e);
 
 		return moved;		
 	}
@@ -0,0 +1,135 @@
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/** The operations that a Spacetime needs from the index of one of its layers.
+ * QuadTree is the default index; the other implementations store the same
+ * Entities in different structures, and can be chosen for a layer with
+ * {@code Spacetime.setIndexType}.
+ * <p>
+ * The queries of an index may return more Entities than the ones that
+ * are actually in the area being queried, but never fewer. Callers check
+ * the shapes of the Entities themselves.
+ *
+ * @see QuadTree
+ * @see MortonIndex
+ * @see AABBTree
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public interface SpatialIndex
+{
+	/** Adds the specified Entity to this index.
+	 *
+	 * @param e		the Entity to be added
+	 */
+	public void add (Entity e);
+
+	/** Adds all of the specified Entities to this index at once, which is
+	 * meant to be faster than adding them one at a time when there are a lot of them.
+	 *
+	 * @param entities		the Entities to be added
+	 */
+	public void addAll (Collection<? extends Entity> entities);
+
+	/** Removes the specified Entity from this index.
+	 *
+	 * @param e		the Entity to be removed
+	 * @return true if the Entity was in this index; false otherwise
+	 */
+	public boolean remove (Entity e);
+
+	/** Rechecks the specified Entity's placement in this index after it has moved,
+	 * and repositions it if necessary.
+	 *
+	 * @param e		the Entity to revalidate
+	 */
+	public void revalidate (Entity e);
+
+	/** Returns all of the Entities in this index.
+	 *
+	 * @return a list of all of the Entities
+	 */
+	public ArrayList<Entity> get ();
+
+	/** Returns the Entities that may contain the specified point.
+	 *
+	 * @param x		the x-coordinate of the point
+	 * @param y		the y-coordinate of the point
+	 * @return a list of the Entities that may contain the point
+	 */
+	public ArrayList<Entity> get (double x, double y);
+
+	/** Returns the Entities that may intersect the bounds of the specified
+	 * Entity, including itself.
+	 *
+	 * @param e		the specified Entity
+	 * @return a list of the Entities that may intersect the Entity
+	 */
+	public ArrayList<Entity> get (Entity e);
+
+	/** Returns the Entities that may intersect the specified Rectangle.
+	 *
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities that may intersect the Rectangle
+	 */
+	public ArrayList<Entity> get (Rectangle2D bounds);
+
+	/** Returns the number of Entities in the specified category in this index.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @return the number of Entities in the category
+	 * @see Entity#getCategories()
+	 */
+	public int count (int category);
+
+	/** Returns the number of Entities in the specified category whose bounds
+	 * intersect the specified Rectangle. Every Entity is counted once.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return the number of Entities in the category in the Rectangle
+	 */
+	public int count (int category, Rectangle2D bounds);
+
+	/** Returns the Entities in the specified category whose bounds intersect the
+	 * specified Rectangle. Unlike the other queries, this returns no Entities that
+	 * are not in the area, and parts of the index that hold no Entities in the
+	 * category may be skipped without looking at their Entities.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return a list of the Entities in the category in the Rectangle
+	 */
+	public ArrayList<Entity> get (int category, Rectangle2D bounds);
+
+	/** Determines if there are any Entities in the specified category whose bounds
+	 * intersect the specified Rectangle.
+	 *
+	 * @param category	the category, as defined in Entity
+	 * @param bounds	the specified Rectangle
+	 * @return true if there is an Entity in the category in the Rectangle; false otherwise
+	 */
+	public boolean hasAny (int category, Rectangle2D bounds);
+
+	/** Counts the specified Entity again after its categories have changed.
+	 *
+	 * @param e		the Entity whose categories have changed
+	 */
+	public void recount (Entity e);
+
+	/** Returns the area covered by this index. Entities outside of it can
+	 * still be added, but are kept apart as outliers.
+	 *
+	 * @return the bounds of this index
+	 */
+	public Rectangle2D getBounds ();
+
+	/** Returns the number of Entities in this index.
+	 *
+	 * @return the number of Entities
+	 */
+	public int getSize ();
+}
@@ -34,10 +34,32 @@ public class Statistics implements Serializable
 		this.grid = grid;
 	}
 	
+	/** Returns the Spacetime object being analysed.
+	 * @return the Spacetime object being analysed
+	 */
+	public Spacetime getGrid ()
+	{
+		return grid;
+	}
+	
 	/** Update the statistics object with new data from the 
 	 * Spacetime object.
 	 */
 	public void update()
+	{
+		humanNum = grid.count(Entity.HUMAN); // read off of the counts kept by the grid
+		femNum = grid.count(Entity.FEMALE);
+		maleNum = humanNum - femNum;
+		puellaNum = grid.count(Entity.PUELLA);
+		witchNum = grid.count(Entity.WITCH);
+		livingNum = humanNum + puellaNum + witchNum;
+	}
+	
+	/** Update the statistics object by counting the specified 
+	 * Entities instead of all of the Entities in the Spacetime object.
+	 * @param all			the Entities to count
+	 */
+	public void update(List<Entity> all)
 	{			
 		// initialize to 0
 		humanNum = 0;
@@ -46,8 +68,6 @@ public class Statistics implements Serializable
 		maleNum = 0;
 		femNum = 0;
 		
-		List<Entity> all = grid.getEntities(Entity.class);
-		
 		for (Entity e : all) // goes through the Spacetime object's entities
 		{
 			if (e instanceof Human) // human information
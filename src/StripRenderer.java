@@ -0,0 +1,213 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Draws the layers of a Spacetime in horizontal strips, each into an image of
+ * its own, with the strips shared out between the threads of the common pool.
+ * A single strip is drawn on the calling thread.
+ * <p>
+ * Every strip looks up the Entities under its own part of the screen in the last
+ * snapshots of the layers, and draws the layers from the lowest to the highest,
+ * so an Entity that is cut by the edge of a strip is drawn in both strips, each
+ * drawing its own part of it, in the same order as every other strip. The strips
+ * are then drawn onto the screen from the top down. The images are kept from one
+ * frame to the next.
+ *
+ * @see Spacetime#setDrawStrips(int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class StripRenderer
+{
+	/** The images of the strips, and the rasters that the strips draw their
+	 * points into, if the Entities are drawn as points.
+	 */
+	private BufferedImage[] images = new BufferedImage[0];
+	private PointCloud[] clouds = new PointCloud[0];
+
+	/** The last snapshot of every layer, the transform from the coordinates of
+	 * the Entities to the screen, and the hints of the Graphics2D being drawn on,
+	 * for the frame being drawn.
+	 */
+	private IndexSnapshot[] snapshots;
+	private AffineTransform toScreen;
+
+	/** The earlier snapshot of every layer, or null, and how far along to draw
+	 * the Entities that have moved since then.
+	 */
+	private IndexSnapshot[] previous;
+	private double blend;
+	private RenderingHints hints;
+	private boolean points;
+	private int width, stripHeight;
+
+	/** Draws the specified layers onto the specified Graphics2D.
+	 *
+	 * @param g				the Graphics2D, in screen coordinates
+	 * @param width			the width of the screen
+	 * @param height		the height of the screen
+	 * @param snapshots		the last snapshot of every layer, from the lowest to the highest
+	 * @param previous		the earlier snapshot of every layer, or null
+	 * @param blend			how far along to draw the Entities, from 0 at the earlier snapshots
+	 * 						to 1 at the last ones; Entities drawn as points are drawn at 1
+	 * @param toScreen		the transform from the coordinates of the Entities to the screen
+	 * @param points		true if the Entities are drawn as points, through PointClouds
+	 * @param strips		the number of strips to split the screen into
+	 * @throws NoninvertibleTransformException if the transform cannot be undone
+	 */
+	public void draw (Graphics2D g, int width, int height, IndexSnapshot[] snapshots, IndexSnapshot[] previous, 
+			double blend, AffineTransform toScreen, boolean points, int strips) throws NoninvertibleTransformException
+	{
+		toScreen.createInverse(); // check before anything is started
+
+		height = Math.max(height, 1);
+		strips = Math.max(1, Math.min(strips, height));
+		this.width = Math.max(width, 1);
+		this.stripHeight = (height + strips - 1) / strips;
+		this.snapshots = snapshots;
+		this.previous = previous;
+		this.blend = blend;
+		this.toScreen = toScreen;
+		this.hints = (RenderingHints) g.getRenderingHints().clone();
+		this.points = points;
+
+		if (images.length != strips)
+		{
+			images = new BufferedImage[strips];
+			clouds = new PointCloud[strips];
+			for (int i = 0; i < strips; i++)
+				clouds[i] = new PointCloud();
+		}
+
+		if (strips == 1)
+			drawStrip(0);
+		else
+			ForkJoinPool.commonPool().invoke(new StripTask (0, strips));
+
+		for (int i = 0; i < strips; i++)
+			g.drawImage(points ? clouds[i].getImage() : images[i], 0, i * stripHeight, null);
+	}
+
+	/** Draws one strip.
+	 *
+	 * @param index		the index of the strip, from the top
+	 */
+	private void drawStrip (int index)
+	{
+		int top = index * stripHeight;
+
+		// The transform from the coordinates of the Entities to the strip, and the part of the plane under it
+
+		AffineTransform toStrip = AffineTransform.getTranslateInstance(0, -top);
+		toStrip.concatenate(toScreen);
+		Rectangle2D window;
+		try
+		{
+			window = toStrip.createInverse().createTransformedShape(
+					new Rectangle2D.Double (0, 0, width, stripHeight)).getBounds2D();
+		}
+		catch (NoninvertibleTransformException e)
+		{
+			throw new IllegalStateException (e); // checked by draw
+		}
+
+		if (points)
+		{
+			final PointCloud cloud = clouds[index];
+			cloud.begin(width, stripHeight, toStrip);
+
+			IndexSnapshot.Visitor plotter = new IndexSnapshot.Visitor()
+			{
+				@Override
+				public void visit (IndexSnapshot.Entry entry)
+				{
+					cloud.plot(entry.minX, entry.minY, entry.maxX, entry.maxY, entry.entity.getColor());
+				}
+			};
+
+			for (IndexSnapshot snapshot : snapshots)
+			{
+				snapshot.visit(window, plotter);
+				cloud.flushLayer();
+			}
+			return;
+		}
+
+		// The outlines of the shapes are drawn half a pixel outside of their bounds
+
+		window.setRect(window.getX() - 1, window.getY() - 1, window.getWidth() + 2, window.getHeight() + 2);
+
+		BufferedImage image = images[index];
+		if (image == null || image.getWidth() != width || image.getHeight() != stripHeight)
+		{
+			image = new BufferedImage (width, stripHeight, BufferedImage.TYPE_INT_ARGB);
+			images[index] = image;
+		}
+
+		Graphics2D g = image.createGraphics();
+		try
+		{
+			g.setComposite(AlphaComposite.Clear);
+			g.fillRect(0, 0, width, stripHeight);
+			g.setComposite(AlphaComposite.SrcOver);
+			g.setRenderingHints(hints);
+			g.transform(toStrip);
+
+			for (int layer = 0; layer < snapshots.length; layer++)
+			{
+				List<IndexSnapshot.Entry> entries = snapshots[layer].getEntries(window);
+				Collections.sort(entries, IndexSnapshot.DRAWING_ORDER);
+
+				Map<Entity, IndexSnapshot.Entry> before = null;
+				if (previous != null && blend < 1)
+					before = previous[layer].getEntryMap(window, IndexSnapshot.MAX_INTERPOLATED_DISTANCE);
+
+				for (IndexSnapshot.Entry entry : entries)
+					entry.draw(g, before == null ? null : before.get(entry.entity), blend);
+			}
+		}
+		finally
+		{
+			g.dispose();
+		}
+	}
+
+	/** Draws a range of the strips, splitting it up so that the strips are
+	 * shared out between the threads of the pool.
+	 */
+	private class StripTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		StripTask (int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute ()
+		{
+			if (to - from == 1)
+				drawStrip(from);
+			else
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new StripTask (from, middle), new StripTask (middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,349 @@
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/** A sweep-and-prune broad phase for the ENTITIES layer of a Spacetime, which
+ * finds every pair of Entities that may collide during a tick in one pass at the
+ * start of the tick, instead of every moving Entity searching the index on its own.
+ * <p>
+ * Every Entity has a box around it, fattened by {@code MARGIN} on every side. The
+ * boxes are kept sorted by their smallest coordinate along one axis, and since the
+ * Entities barely move from one tick to the next, an insertion sort puts them back
+ * in order in close to linear time. A sweep along the axis then only compares boxes
+ * that overlap along it, and every pair whose boxes also overlap along the other
+ * axis is added to the candidates of both Entities. The sweep goes along whichever
+ * axis the Entities are spread out along the most, so that clusters of Entities
+ * that are lined up along one axis do not all overlap along the sweep.
+ * <p>
+ * As long as two Entities stay in their boxes, they can only collide if they are
+ * candidates of each other. An Entity that moves out of its box, or that is added
+ * during the tick, has escaped, and is checked against everything until the next
+ * update; an Entity that has escaped itself is left to the index of the layer.
+ *
+ * @see Spacetime#setBroadPhase(int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class SweepAndPrune
+{
+	/** The distance by which the box of an Entity sticks out from its bounds on
+	 * every side.
+	 */
+	public static final double MARGIN = 4;
+
+	/** The largest number of escaped Entities for which the candidates are still
+	 * used. Beyond this, checking every escaped Entity costs more than searching
+	 * the index of the layer.
+	 */
+	public static final int MAX_ESCAPED = 64;
+
+	/** The box of one Entity, and its candidates from the last sweep.
+	 */
+	private static final class Proxy
+	{
+		Entity entity;
+		double minX, minY, maxX, maxY;
+		ArrayList<Proxy> candidates = new ArrayList<Proxy>(4);
+
+		/** The bounds of the Entity when it was last added or moved.
+		 */
+		Rectangle2D bounds;
+
+		/** True once the Entity has left its box or been added since the last update.
+		 */
+		boolean escaped;
+
+		/** True once the Entity has been removed; the Proxy is dropped at the next update.
+		 */
+		boolean removed;
+	}
+
+	/** Orders Proxies by the smallest x-coordinate of their boxes.
+	 */
+	private static final Comparator<Proxy> BY_MIN_X = new Comparator<Proxy>()
+	{
+		@Override
+		public int compare (Proxy a, Proxy b)
+		{
+			return Double.compare(a.minX, b.minX);
+		}
+	};
+
+	/** Orders Proxies by the smallest y-coordinate of their boxes.
+	 */
+	private static final Comparator<Proxy> BY_MIN_Y = new Comparator<Proxy>()
+	{
+		@Override
+		public int compare (Proxy a, Proxy b)
+		{
+			return Double.compare(a.minY, b.minY);
+		}
+	};
+
+	/** The Proxy of every Entity.
+	 */
+	private HashMap<Entity, Proxy> proxies = new HashMap<Entity, Proxy>();
+
+	/** The Proxies, sorted along the axis of the sweep as of the last update.
+	 * Proxies added since then are at the end.
+	 */
+	private Proxy[] order = new Proxy[16];
+	private int size = 0;
+
+	/** True if the sweep goes along the x-axis; false if it goes along the y-axis.
+	 */
+	private boolean alongX = true;
+
+	/** The Proxies of the Entities that have left their boxes or been added 
+	 * since the last update.
+	 */
+	private ArrayList<Proxy> escaped = new ArrayList<Proxy>();
+
+	/** The number of pairs found by the last sweep.
+	 */
+	private int pairs = 0;
+
+	/** Creates a new SweepAndPrune holding the specified Entities. Their
+	 * candidates are found by the first {@code update()}.
+	 *
+	 * @param entities		the Entities of the layer
+	 */
+	public SweepAndPrune (Collection<Entity> entities)
+	{
+		for (Entity e : entities)
+			add(e);
+	}
+
+	/** Adds the specified Entity, which is escaped until the next update.
+	 *
+	 * @param e		the Entity that was added to the layer
+	 */
+	public void add (Entity e)
+	{
+		Proxy proxy = new Proxy();
+		proxy.entity = e;
+		proxy.bounds = e.getShape().getBounds2D();
+		fatten(proxy);
+
+		Proxy old = proxies.put(e, proxy);
+		if (old != null)
+			discard(old);
+
+		if (size == order.length)
+			order = Arrays.copyOf(order, size * 2);
+		order[size++] = proxy;
+		proxy.escaped = true;
+		escaped.add(proxy);
+	}
+
+	/** Removes the specified Entity.
+	 *
+	 * @param e		the Entity that was removed from the layer
+	 */
+	public void remove (Entity e)
+	{
+		Proxy proxy = proxies.remove(e);
+		if (proxy != null)
+			discard(proxy);
+	}
+
+	/** Marks the specified Entity as escaped if it has moved out of its box.
+	 * Entities that move without this being called keep being found by their
+	 * old bounds until they are moved again.
+	 *
+	 * @param e		the Entity that has moved
+	 */
+	public void moved (Entity e)
+	{
+		Proxy proxy = proxies.get(e);
+		if (proxy == null)
+			return;
+
+		proxy.bounds = e.getShape().getBounds2D();
+		if (!proxy.escaped && !isInside(proxy, proxy.bounds))
+		{
+			proxy.escaped = true;
+			escaped.add(proxy);
+		}
+	}
+
+	/** Fits the boxes of the Entities that have left them, sorts the boxes again,
+	 * and sweeps them to find the candidates of every Entity. This is done once at
+	 * the start of every tick.
+	 */
+	public void update ()
+	{
+		// Give the Entities that left their boxes new boxes, and drop the removed ones
+
+		for (Proxy proxy : escaped)
+		{
+			fatten(proxy);
+			proxy.escaped = false;
+		}
+		escaped.clear();
+
+		int kept = 0;
+		double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0;
+
+		for (int i = 0; i < size; i++)
+		{
+			Proxy proxy = order[i];
+			if (proxy.removed)
+				continue;
+
+			proxy.candidates.clear();
+			order[kept++] = proxy;
+
+			double centreX = (proxy.minX + proxy.maxX) / 2;
+			double centreY = (proxy.minY + proxy.maxY) / 2;
+			sumX += centreX;
+			sumY += centreY;
+			sumXX += centreX * centreX;
+			sumYY += centreY * centreY;
+		}
+		Arrays.fill(order, kept, size, null);
+		size = kept;
+
+		// Sweep along the axis along which the Entities are spread out the most
+
+		boolean wider = sumXX - sumX * sumX / Math.max(size, 1) >= sumYY - sumY * sumY / Math.max(size, 1);
+		if (wider != alongX)
+		{
+			alongX = wider;
+			Arrays.sort(order, 0, size, alongX ? BY_MIN_X : BY_MIN_Y);
+		}
+		else
+			insertionSort();
+
+		pairs = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Proxy a = order[i];
+			double max = alongX ? a.maxX : a.maxY;
+
+			for (int j = i + 1; j < size && (alongX ? order[j].minX : order[j].minY) <= max; j++)
+			{
+				Proxy b = order[j];
+				boolean overlapping = alongX ? a.minY <= b.maxY && b.minY <= a.maxY : a.minX <= b.maxX && b.minX <= a.maxX;
+				if (overlapping)
+				{
+					a.candidates.add(b);
+					b.candidates.add(a);
+					pairs++;
+				}
+			}
+		}
+	}
+
+	/** Returns the Entities that the specified Entity may be colliding with,
+	 * if its candidates from the last sweep can still be trusted. These are
+	 * its candidates, and the escaped Entities that overlap its box.
+	 *
+	 * @param e			the Entity
+	 * @param bounds	the current bounds of the Entity
+	 * @return the Entities that the Entity may be colliding with, or null if
+	 * 		the index of the layer has to be searched instead
+	 */
+	public ArrayList<Entity> getCandidates (Entity e, Rectangle2D bounds)
+	{
+		Proxy proxy = proxies.get(e);
+		if (proxy == null || proxy.escaped || escaped.size() > MAX_ESCAPED || !isInside(proxy, bounds))
+			return null;
+
+		ArrayList<Entity> candidates = new ArrayList<Entity>(proxy.candidates.size() + escaped.size());
+		for (Proxy other : proxy.candidates)
+			if (!other.removed && !other.escaped) // the escaped ones are checked below
+				candidates.add(other.entity);
+
+		for (Proxy other : escaped)
+		{
+			Rectangle2D otherBounds = other.bounds;
+			if (otherBounds.getMinX() <= proxy.maxX && otherBounds.getMaxX() >= proxy.minX
+					&& otherBounds.getMinY() <= proxy.maxY && otherBounds.getMaxY() >= proxy.minY)
+				candidates.add(other.entity);
+		}
+		return candidates;
+	}
+
+	/** Returns the number of pairs of Entities found by the last sweep.
+	 *
+	 * @return the number of pairs
+	 */
+	public int getPairCount ()
+	{
+		return pairs;
+	}
+
+	/** Returns the number of Entities that have escaped since the last sweep.
+	 *
+	 * @return the number of escaped Entities
+	 */
+	public int getEscapedCount ()
+	{
+		return escaped.size();
+	}
+
+	/** Sorts the Proxies along the axis of the sweep by insertion, which is fast
+	 * when they are already almost in order.
+	 */
+	private void insertionSort ()
+	{
+		for (int i = 1; i < size; i++)
+		{
+			Proxy proxy = order[i];
+			double min = alongX ? proxy.minX : proxy.minY;
+			int j = i - 1;
+			while (j >= 0 && (alongX ? order[j].minX : order[j].minY) > min)
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = proxy;
+		}
+	}
+
+	/** Marks the specified Proxy as removed, so that it is dropped at the next update.
+	 *
+	 * @param proxy		the Proxy of the Entity that was removed
+	 */
+	private void discard (Proxy proxy)
+	{
+		proxy.removed = true;
+		if (proxy.escaped)
+		{
+			proxy.escaped = false;
+			escaped.remove(proxy);
+		}
+	}
+
+	/** Determines if the specified bounds are inside of the box of the specified Proxy.
+	 *
+	 * @param proxy		the Proxy
+	 * @param bounds	the bounds of its Entity
+	 * @return true if the bounds are inside of the box; false otherwise
+	 */
+	private static boolean isInside (Proxy proxy, Rectangle2D bounds)
+	{
+		return bounds.getMinX() >= proxy.minX && bounds.getMinY() >= proxy.minY
+				&& bounds.getMaxX() <= proxy.maxX && bounds.getMaxY() <= proxy.maxY;
+	}
+
+	/** Sets the box of the specified Proxy to the last known bounds of its
+	 * Entity, fattened by MARGIN on every side.
+	 *
+	 * @param proxy		the Proxy
+	 */
+	private static void fatten (Proxy proxy)
+	{
+		Rectangle2D bounds = proxy.bounds;
+		proxy.minX = bounds.getMinX() - MARGIN;
+		proxy.minY = bounds.getMinY() - MARGIN;
+		proxy.maxX = bounds.getMaxX() + MARGIN;
+		proxy.maxY = bounds.getMaxY() + MARGIN;
+	}
+}
@@ -39,9 +39,15 @@ public class TerrainTile extends Entity
 	public void draw(Graphics2D g) 
 	{
 		Shape tile = getShape ();
-		g.setColor(color);
+		g.setColor(getColor());
 		g.fill (tile);		
 	}
+
+	@Override
+	public Color getColor ()
+	{
+		return color;
+	}
 	
 	/** Gets the shape of this Tile, which is a simple Rectangle. 
 	 */
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** A program that checks that the tick strategies of a Spacetime are deterministic,
+ * and that the checkerboard tick ends up with about as many Entities as the serial one.
+ * <p>
+ * The same world is generated from the same seed and advanced several times:
+ * twice with {@code SERIAL_TICK}, which must end up exactly the same both times,
+ * and with {@code CHECKERBOARD_TICK} in ForkJoinPools of 1, 4 and 8 threads,
+ * which must all end up exactly the same as each other. A run is summed up by
+ * its totals and by a hash of the class, location and rotation of every Entity
+ * left in it.
+ * <p>
+ * The checkerboard cannot end up exactly the same as the serial tick: its
+ * Entities look around before anything moves, are advanced in a different order,
+ * and draw from the random number generators of their tiles. So the two are
+ * compared by their totals instead, over {@code SEEDS} worlds generated from
+ * consecutive seeds. On average, the checkerboard must end up with a number of
+ * Entities and of Humans within {@code TOLERANCE} of that of the serial tick, and
+ * with a number of Puellas and of Witches within {@code MARGIN} of it. Worlds from
+ * different seeds already differ from each other by a few percent under the serial
+ * tick alone, so the bounds only catch a checkerboard that changes how the
+ * population grows, such as one that loses or doubles births or kisses.
+ * <p>
+ * Prints every run, and exits with a status of 1 if any check fails.
+ *
+ * @see Spacetime#setTickStrategy(int)
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class TickStrategyCheck
+{
+	/** The numbers of threads that the checkerboard is run with.
+	 */
+	private static final int[] PARALLELISMS = {1, 4, 8};
+
+	/** The number of seeds that the totals of the two strategies are averaged over.
+	 */
+	private static final int SEEDS = 3;
+
+	/** How far apart the average numbers of Entities and of Humans of the two 
+	 * strategies may be, as a fraction of those of the serial tick.
+	 */
+	private static final double TOLERANCE = 0.05;
+
+	/** How far apart the average numbers of Puellas and of Witches of the two 
+	 * strategies may be.
+	 */
+	private static final double MARGIN = 2;
+
+	/** The names of the totals returned by {@code count(Spacetime)}.
+	 */
+	private static final String[] TOTALS = {"entities", "humans", "puellas", "witches"};
+
+	/** Generates a world and advances it in a ForkJoinPool of the specified
+	 * number of threads.
+	 *
+	 * @param seed			the seed of the world
+	 * @param humans		the number of Humans in the world
+	 * @param ticks			the number of ticks to advance it by
+	 * @param strategy		the tick strategy to advance it with
+	 * @param parallelism	the number of threads of the pool
+	 * @return the world, after it has been advanced
+	 * @throws InterruptedException if interrupted while waiting for the run
+	 * @throws ExecutionException if the run throws an exception
+	 */
+	private static Spacetime run (long seed, int humans, final int ticks, int strategy, int parallelism)
+			throws InterruptedException, ExecutionException
+	{
+		WorldGenerator wg = new WorldGenerator (seed);
+		wg.setHumanPopulation(humans);
+		wg.setHasWalpurgisnacht(true);
+		final Spacetime grid = wg.generate();
+		grid.setTickStrategy(strategy);
+
+		ForkJoinPool pool = new ForkJoinPool (parallelism);
+		try
+		{
+			pool.submit(new Callable<Void>()
+			{
+				public Void call ()
+				{
+					for (int i = 0; i < ticks; i++)
+						grid.advance();
+					return null;
+				}
+			}).get();
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return grid;
+	}
+
+	/** Counts the Entities, Humans, Puellas and Witches in the specified Spacetime.
+	 *
+	 * @param grid		the Spacetime
+	 * @return the totals, in the order of {@code TOTALS}
+	 */
+	private static int[] count (Spacetime grid)
+	{
+		return new int[] {grid.getEntities(Entity.class).size(), grid.getEntities(Human.class).size(),
+				grid.getEntities(Puella.class).size(), grid.getEntities(Witch.class).size()};
+	}
+
+	/** Sums up the Entities in the specified Spacetime: how many of each kind
+	 * there are, and a hash of the class, location and rotation of all of them,
+	 * which does not depend on the order in which they are stored.
+	 *
+	 * @param grid		the Spacetime
+	 * @return the summary
+	 */
+	private static String summarize (Spacetime grid)
+	{
+		List<Entity> entities = grid.getEntities(Entity.class);
+		long[] hashes = new long[entities.size()];
+		for (int i = 0; i < hashes.length; i++)
+		{
+			Entity e = entities.get(i);
+			long hash = e.getClass().getName().hashCode();
+			hash = hash * 31 + Double.doubleToLongBits(e.x);
+			hash = hash * 31 + Double.doubleToLongBits(e.y);
+			hash = hash * 31 + Double.doubleToLongBits(e.theta);
+			hashes[i] = hash;
+		}
+		Arrays.sort(hashes);
+		long hash = 1;
+		for (long h : hashes)
+			hash = hash * 1000003 + h;
+
+		return "entities=" + entities.size()
+				+ " humans=" + grid.getEntities(Human.class).size()
+				+ " puellas=" + grid.getEntities(Puella.class).size()
+				+ " witches=" + grid.getEntities(Witch.class).size()
+				+ " hash=" + Long.toHexString(hash);
+	}
+
+	/** Runs the checks. The optional arguments are the number of Humans, the
+	 * number of ticks and the seed, which are 2000, 100 and 42 by default.
+	 *
+	 * @param args		the number of Humans, the number of ticks and the seed
+	 * @throws Exception if a run throws an exception
+	 */
+	public static void main (String[] args) throws Exception
+	{
+		int humans = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		boolean passed = true;
+
+		Spacetime first = run (seed, humans, ticks, Spacetime.SERIAL_TICK, 1);
+		String serial = summarize(first);
+		String again = summarize(run (seed, humans, ticks, Spacetime.SERIAL_TICK, 4));
+		System.out.println("serial:             " + serial);
+		System.out.println("serial again:       " + again);
+		if (!serial.equals(again))
+		{
+			System.out.println("FAILED: the serial tick is not deterministic");
+			passed = false;
+		}
+
+		List<String> checkerboards = new ArrayList<String>();
+		Spacetime tiled = null;
+		for (int parallelism : PARALLELISMS)
+		{
+			Spacetime grid = run (seed, humans, ticks, Spacetime.CHECKERBOARD_TICK, parallelism);
+			String checkerboard = summarize(grid);
+			System.out.println("checkerboard x" + parallelism + ":    " + checkerboard);
+			if (!checkerboards.isEmpty() && !checkerboard.equals(checkerboards.get(0)))
+			{
+				System.out.println("FAILED: the checkerboard depends on the number of threads");
+				passed = false;
+			}
+			checkerboards.add(checkerboard);
+			tiled = grid;
+		}
+
+		// Compare the average totals of the two strategies over several seeds
+
+		double[] serialTotals = new double[TOTALS.length];
+		double[] tiledTotals = new double[TOTALS.length];
+		for (int i = 0; i < SEEDS; i++)
+		{
+			int[] a = count(i == 0 ? first : run (seed + i, humans, ticks, Spacetime.SERIAL_TICK, 4));
+			int[] b = count(i == 0 ? tiled : run (seed + i, humans, ticks, Spacetime.CHECKERBOARD_TICK, 4));
+			System.out.println("seed " + (seed + i) + ":            serial " + Arrays.toString(a) + ", checkerboard " + Arrays.toString(b));
+			for (int j = 0; j < TOTALS.length; j++)
+			{
+				serialTotals[j] += a[j] / (double) SEEDS;
+				tiledTotals[j] += b[j] / (double) SEEDS;
+			}
+		}
+
+		for (int j = 0; j < TOTALS.length; j++)
+		{
+			double bound = j < 2 ? serialTotals[j] * TOLERANCE : MARGIN;
+			boolean close = Math.abs(tiledTotals[j] - serialTotals[j]) <= bound;
+			System.out.println(String.format("%s%s on average: serial %.1f, checkerboard %.1f (at most %.1f apart)", 
+					close ? "ok:     " : "FAILED: ", TOTALS[j], serialTotals[j], tiledTotals[j], bound));
+			passed &= close;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
@@ -1,8 +1,11 @@
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -10,10 +13,13 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 /** A JPanel that manages the navigation and drawing of a Spacetime object.
  * 
@@ -49,6 +55,23 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 	 */
 	public static final double maxZoom = Math.pow(2, 4);
 
+	/** The most times a second that a Viewport repaints itself while it is
+	 * drawing the Entities between ticks.
+	 */
+	public static final int REFRESH_RATE = 60;
+
+	/** The most of the time of the event dispatch thread that a Viewport spends 
+	 * repainting itself while it is drawing the Entities between ticks, so that
+	 * the timers that advance the Spacetime are not starved by slow frames.
+	 */
+	public static final double MAX_REFRESH_LOAD = 0.5;
+
+	/** The longest time that the Entities take to move from one tick to the next
+	 * when they are drawn between ticks, in nanoseconds. After a pause, the 
+	 * Entities catch up within this time.
+	 */
+	public static final long MAX_TICK_LENGTH = 1000000000L;
+
 	/** The Viewport will follow this specified Entity around, if it is not null. 
 	 */
 	private Entity focus;	
@@ -74,6 +97,55 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 	 */
 	public Spacetime grid;
 
+	/** Advances the grid along with the labyrinths of all of its WitchBarriers. 
+	 */
+	private transient Multiverse multiverse;
+
+	/** The last frame of the Spacetime that was drawn, without the selection or
+	 * anything else drawn over it, and a spare image for shifting it along when
+	 * this Viewport pans.
+	 */
+	private transient BufferedImage frame, spare;
+
+	/** What the frame was drawn from: the snapshots of the layers of the Spacetime,
+	 * how far between the last two ticks it was drawn, the zoom and offset of this 
+	 * Viewport, and the zoom below which the Entities were drawn as points.
+	 */
+	private transient IndexSnapshot[] frameSnapshots;
+	private transient double frameBlend, frameZoom, framePointCloudZoom;
+	private transient Point frameOffset;
+
+	/** If the Entities are drawn moving smoothly between the last two ticks, and
+	 * the timer that repaints this Viewport while they are.
+	 */
+	private transient boolean interpolating = false;
+	private transient Timer refreshTimer;
+
+	/** The average time taken to paint this Viewport, in nanoseconds.
+	 */
+	private transient double paintTime;
+
+	/** The last two sets of snapshots of the layers of the Spacetime that this
+	 * Viewport has seen, the time at which the last set was first seen, and the
+	 * time between the two, in nanoseconds.
+	 */
+	private transient IndexSnapshot[] previousSnapshots, currentSnapshots;
+	private transient long arrival, tickLength;
+
+	/** How far between the previous snapshots and the current ones the Entities
+	 * are drawn, from 0 to 1.
+	 */
+	private transient double blend = 1;
+
+	/** The centres of the followed Entity when the previous snapshots and the 
+	 * current ones were first seen.
+	 */
+	private transient Point2D.Double focusFrom, focusTo;
+
+	/** The layer whose index is drawn over the Spacetime, for debugging, or -1 for none.
+	 */
+	private int indexOverlay = -1;
+
 
 	/** Creates a new Viewport looking into the specified Spacetime object.
 	 * Automatically adds the MouseListeners necessary for navigation.
@@ -98,10 +170,51 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 		addMouseWheelListener (this);
 	}
 
-	/** Manually advances the simulation. 
+	/** Manually advances the simulation. The grid and the labyrinths of all of
+	 * its WitchBarriers are advanced together by a Multiverse.
 	 */
 	public void advanceVP ()
 	{
+		advanceVP (1);
+	}
+
+	/** Advances the simulation by the specified number of ticks, and only
+	 * repaints once at the end.
+	 * 
+	 * @param ticks		the number of ticks to advance
+	 * @return the number of ticks that were advanced
+	 */
+	public int advanceVP (int ticks)
+	{
+		return advanceVP (ticks, Long.MAX_VALUE);
+	}
+
+	/** Advances the simulation by up to the specified number of ticks, stopping 
+	 * early once the specified amount of time has passed, and only repaints once 
+	 * at the end. At least one tick is always advanced.
+	 * 
+	 * @param maxTicks		the largest number of ticks to advance
+	 * @param budget		the time in nanoseconds after which no more ticks are started
+	 * @return the number of ticks that were advanced
+	 */
+	public int advanceVP (int maxTicks, long budget)
+	{
+		if (multiverse == null || multiverse.getRoot() != grid)
+		{
+			if (multiverse != null)
+				multiverse.shutdown();
+			multiverse = new Multiverse (grid);
+		}
+
+		long start = System.nanoTime();
+		int ticks = 0;
+		do
+		{
+			multiverse.advance();
+			ticks++;
+		}
+		while (ticks < maxTicks && System.nanoTime() - start < budget);
+
 		if (focus != null)
 		{
 			if (grid.equals(focus.grid))
@@ -109,8 +222,9 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 			else
 				focus = null;
 		}
-		grid.advance();
-		repaint();
+		if (!interpolating) // the refresh timer repaints in its own time
+			repaint();
+		return ticks;
 	}
 
 	/**	Starts or stops the mode to move entities.
@@ -215,7 +329,7 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 	{
 		Rectangle cursorBox = new Rectangle (5,5);
 		cursorBox.setLocation (convertPointMouseToGrid(click));
-		cursorEntity = grid.getEntities(cursorBox);
+		cursorEntity = grid.getSnapshot().getEntities(cursorBox);
 	}
 
 	public void dumpSelection ()
@@ -228,6 +342,7 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 			grid.addEntity (cursorEntity.get(i));
 			grid.ensureNoCollision (cursorEntity.get(i));
 		}			
+		grid.publishSnapshots();
 		repaint();
 	}
 	
@@ -237,24 +352,279 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 			grid.requestRemoval(e);
 	}
 
-	/** Draws the current view of the Spacetime grid. 
+	/** Draws the current view of the Spacetime grid. The Spacetime is drawn from
+	 * the last frame, which is only drawn again when something has changed, and 
+	 * the selection and the other overlays are drawn over it.
 	 */
 	@Override
 	public void paintComponent (Graphics g)
 	{		
 		super.paintComponent(g);
 		Graphics2D g2 = (Graphics2D)g;		
-		grid.draw(this, g2);	
+		long start = System.nanoTime();
+		updateBlend();
 
-		if (isSelecting)
+		if (grid.shake != 0) // every frame is shaken differently, so there is no point keeping it
 		{
-			g2.setColor (new Color (0, 255, 0, 100));
-			g2.fill (selection);
-			g2.setColor (new Color (0, 192, 0));
-			g2.draw (selection);
+			frameSnapshots = null;
+			grid.draw(this, g2, currentSnapshots, previousSnapshots, blend);
 		}
+		else
+		{
+			updateFrame();
+			g2.drawImage(frame, 0, 0, null);
+			g2.translate(offset.x, offset.y);
+			g2.scale(zoom, zoom);
+		}
+
+		drawOverlays(g2);
+		updateRefreshRate(System.nanoTime() - start);
 	}	
 
+	/** Takes note of how long the last paint took, and slows the refresh timer
+	 * down so that repainting takes no more than {@code MAX_REFRESH_LOAD} of 
+	 * the time, or speeds it back up to {@code REFRESH_RATE} when painting is quick.
+	 * 
+	 * @param time		the time that the last paint took, in nanoseconds
+	 */
+	private void updateRefreshRate (long time)
+	{
+		paintTime = paintTime == 0 ? time : 0.8 * paintTime + 0.2 * time;
+		if (refreshTimer != null)
+		{
+			int delay = getRefreshDelay();
+			if (delay != refreshTimer.getDelay())
+				refreshTimer.setDelay(delay);
+		}
+	}
+
+	/** Returns the time between repaints while the Entities are drawn between 
+	 * ticks: the time of a frame at {@code REFRESH_RATE}, or longer if painting
+	 * would take more than {@code MAX_REFRESH_LOAD} of it.
+	 * 
+	 * @return the delay of the refresh timer, in milliseconds
+	 */
+	private int getRefreshDelay ()
+	{
+		return (int) Math.max(1000 / REFRESH_RATE, Math.ceil(paintTime / 1e6 / MAX_REFRESH_LOAD));
+	}
+
+	/** Returns the last frame of the Spacetime that this Viewport drew, without
+	 * the selection or anything else drawn over it, for other views to draw from
+	 * instead of drawing the Spacetime again. Pixel (x, y) of the frame is pixel 
+	 * (x, y) of this Viewport. The frame is not kept up to date while the screen 
+	 * is shaking. The image is reused for later frames.
+	 * 
+	 * @return the last frame, or null if nothing has been drawn yet
+	 */
+	public BufferedImage getFrame ()
+	{
+		return frame;
+	}
+
+	/** Draws everything that is drawn over the Spacetime: the index of the 
+	 * debugged layer, the Entities being moved, and the selection.
+	 * 
+	 * @param g		the Graphics2D object, transformed to the coordinates of the Entities
+	 */
+	protected void drawOverlays (Graphics2D g)
+	{
+		if (indexOverlay >= 0)
+		{
+			g.setColor (Color.gray);
+			grid.drawIndex(g, indexOverlay);
+		}
+
+		if (!dumped) // the Entities that were picked up follow the mouse until they are put down
+		{
+			Point target = convertPointMouseToGrid(mouse);
+			for (Entity e : cursorEntity)
+			{
+				Graphics2D moved = (Graphics2D) g.create();
+				moved.translate(target.x - e.x, target.y - e.y);
+				e.draw(moved);
+				moved.dispose();
+			}
+		}
+
+		if (isSelecting)
+		{
+			g.setColor (new Color (0, 255, 0, 100));
+			g.fill (selection);
+			g.setColor (new Color (0, 192, 0));
+			g.draw (selection);
+		}
+	}
+
+	/** Takes note of new snapshots of the Spacetime, and works out how far 
+	 * between the last two to draw the Entities. An Entity that is being followed
+	 * is followed the same part of the way.
+	 */
+	private void updateBlend ()
+	{
+		IndexSnapshot[] snapshots = grid.getSnapshots();
+		long now = System.nanoTime();
+		if (!Arrays.equals(snapshots, currentSnapshots))
+		{
+			previousSnapshots = currentSnapshots;
+			currentSnapshots = snapshots;
+			tickLength = Math.min(now - arrival, MAX_TICK_LENGTH);
+			arrival = now;
+			focusFrom = focusTo;
+			focusTo = focus == null ? null : focus.getCenter();
+		}
+
+		if (!interpolating || previousSnapshots == null || previousSnapshots.length != currentSnapshots.length 
+				|| tickLength <= 0)
+			blend = 1;
+		else
+			blend = Math.min(1, (now - arrival) / (double) tickLength);
+
+		if (interpolating && focus != null && focusFrom != null && focusTo != null 
+				&& focusFrom.distance(focusTo) <= IndexSnapshot.MAX_INTERPOLATED_DISTANCE)
+			centerAt(new Point2D.Double (focusFrom.x + (focusTo.x - focusFrom.x) * blend, 
+					focusFrom.y + (focusTo.y - focusFrom.y) * blend));
+	}
+
+	/** Brings the frame up to date. The Spacetime is only drawn again if it has 
+	 * published anything since the frame was drawn, the Entities are drawn at 
+	 * another point between two ticks, or the zoom or the size of this Viewport
+	 * has changed. If only the offset has changed, the frame is 
+	 * shifted along, and only the strips along its edges that have come into 
+	 * view are drawn.
+	 */
+	private void updateFrame ()
+	{
+		int width = Math.max(getWidth(), 1);
+		int height = Math.max(getHeight(), 1);
+
+		if (frame == null || frame.getWidth() != width || frame.getHeight() != height 
+				|| zoom != frameZoom || grid.getPointCloudZoom() != framePointCloudZoom
+				|| !Arrays.equals(currentSnapshots, frameSnapshots) || blend != frameBlend)
+		{
+			if (frame == null || frame.getWidth() != width || frame.getHeight() != height)
+			{
+				frame = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+				spare = null;
+			}
+			drawFrame (frame, new Rectangle (width, height));
+		}
+		else if (!offset.equals(frameOffset))
+		{
+			int dx = offset.x - frameOffset.x;
+			int dy = offset.y - frameOffset.y;
+
+			if (Math.abs(dx) >= width || Math.abs(dy) >= height)
+				drawFrame (frame, new Rectangle (width, height));
+			else
+			{
+				if (spare == null)
+					spare = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = spare.createGraphics();
+				g.setComposite(AlphaComposite.Src);
+				g.drawImage(frame, dx, dy, null);
+				g.dispose();
+
+				// The columns that have come into view, and then the rows, without the columns
+
+				if (dx != 0)
+					drawFrame (spare, new Rectangle (dx > 0 ? 0 : width + dx, 0, Math.abs(dx), height));
+				if (dy != 0)
+					drawFrame (spare, new Rectangle (Math.max(dx, 0), dy > 0 ? 0 : height + dy, 
+							width - Math.abs(dx), Math.abs(dy)));
+
+				BufferedImage shifted = spare;
+				spare = frame;
+				frame = shifted;
+			}
+		}
+
+		frameSnapshots = currentSnapshots;
+		frameBlend = blend;
+		frameZoom = zoom;
+		framePointCloudZoom = grid.getPointCloudZoom();
+		frameOffset = new Point (offset);
+	}
+
+	/** Clears the specified part of the specified image, and draws the Spacetime
+	 * into it.
+	 * 
+	 * @param image		the image to draw into
+	 * @param area		the part of the image to draw, in pixels
+	 */
+	private void drawFrame (BufferedImage image, Rectangle area)
+	{
+		Graphics2D g = image.createGraphics();
+		try
+		{
+			g.clip(area);
+			g.setComposite(AlphaComposite.Clear);
+			g.fill(area);
+			g.setComposite(AlphaComposite.SrcOver);
+			grid.draw(this, g, currentSnapshots, previousSnapshots, blend);
+		}
+		finally
+		{
+			g.dispose();
+		}
+	}
+
+	/** Sets whether the Entities are drawn moving smoothly between the last two
+	 * ticks, instead of jumping from one tick to the next. While they are, this
+	 * Viewport repaints itself up to {@code REFRESH_RATE} times a second, whatever
+	 * the rate at which the Spacetime advances, but less often when painting is
+	 * slow, and stays one tick behind it, so that it can slow down without the 
+	 * motion getting choppy. Advancing it through this Viewport no longer 
+	 * repaints it.
+	 * 
+	 * @param interpolating		true to draw the Entities between ticks
+	 */
+	public void setInterpolating (boolean interpolating)
+	{
+		this.interpolating = interpolating;
+		if (interpolating && refreshTimer == null)
+		{
+			refreshTimer = new Timer (getRefreshDelay(), new ActionListener()
+			{
+				@Override
+				public void actionPerformed (ActionEvent e)
+				{
+					if (blend < 1 || !Arrays.equals(grid.getSnapshots(), currentSnapshots))
+						repaint();
+				}
+			});
+			refreshTimer.start();
+		}
+		else if (!interpolating && refreshTimer != null)
+		{
+			refreshTimer.stop();
+			refreshTimer = null;
+		}
+		repaint();
+	}
+
+	/** Returns whether the Entities are drawn moving smoothly between the last 
+	 * two ticks.
+	 * 
+	 * @return true if the Entities are drawn between ticks
+	 */
+	public boolean isInterpolating ()
+	{
+		return interpolating;
+	}
+
+	/** Sets the layer whose index is drawn over the Spacetime, for debugging.
+	 * Only layers that are kept in a QuadTree are drawn.
+	 * 
+	 * @param layer		TERRAIN, ENTITIES or FOLIAGE, or -1 to draw none
+	 * @see Spacetime#drawIndex(Graphics2D, int)
+	 */
+	public void setIndexOverlay (int layer)
+	{
+		indexOverlay = layer;
+		repaint();
+	}
+
 	public void removeMouseListeners()
 	{
 		removeMouseListener (this);
@@ -379,6 +749,8 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 	public void mouseMoved(MouseEvent e) 
 	{
 		mouse = e.getPoint();
+		if (!dumped) // only the overlays change, so the last frame is reused
+			repaint();
 	}
 
 
@@ -421,7 +793,7 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 			point2 = convertPointMouseToGrid (click);
 			selection.setFrameFromDiagonal(point1, point2);
 			cursorEntity.clear();
-			cursorEntity = grid.getEntities(selection);			
+			cursorEntity = grid.getSnapshot().getEntities(selection);			
 			selection.setRect(0, 0, 0, 0);
 			if (!cursorEntity.isEmpty())
 			{
@@ -464,6 +836,7 @@ public class Viewport extends JPanel implements Serializable, MouseListener, Mou
 
 		grid.addEntity (add);
 		grid.ensureNoCollision(add);
+		grid.publishSnapshots();
 	}
 
 	public void setAddEntityType (int entityType)
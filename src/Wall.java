@@ -26,10 +26,22 @@ public class Wall extends Entity
 		super.theta = theta;
 	}		
 
+	@Override
+	public int getCategories ()
+	{
+		return super.getCategories() | 1 << WALL;
+	}
+
 	@Override
 	public void draw(Graphics2D g) 
 	{
-		g.setColor(Color.black);
+		g.setColor(getColor());
 		super.draw (g);	
+	}
+
+	@Override
+	public Color getColor ()
+	{
+		return Color.black;
 	}	
 }
@@ -1,5 +1,6 @@
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,6 +52,16 @@ public class Walpurgisnacht extends Gear
 		super.draw(g);
 	}
 
+	/** Walpurgisnacht never rests, so it never falls asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
 	@Override
 	public void advance ()
 	{					
@@ -145,6 +156,15 @@ public class Walpurgisnacht extends Gear
 	 */
 	private boolean determineNewTarget()
 	{
+		// Give up straight away if there is nothing but walls and itself nearby, going by the 
+		// counts kept by the grid. The area is twice as wide as the search, so that Entities 
+		// whose shapes are drawn away from their locations are not missed.
+
+		Rectangle2D.Double area = new Rectangle2D.Double(x - 2 * searchRadius, y - 2 * searchRadius, 
+				4 * searchRadius, 4 * searchRadius);
+		if (grid.count(ENTITY, area) - grid.count(WALL, area) <= 1)
+			return false;
+
 		// Initialization of Variables
 
 		List<Entity> temp = grid.getEntities(this, searchRadius);
@@ -163,42 +183,11 @@ public class Walpurgisnacht extends Gear
 		{
 			targetAcquired = true;
 
-			Entity punyTarget = targets.get(0);
-
 			Point2D.Double myCenter = getCenter();
-			Point2D.Double itsCenter = punyTarget.getCenter();
-
-			double shortestDistance = getDistanceSquared(myCenter, itsCenter);
-
-			for (int i = 1; i < targets.size(); i++)
-			{
-				Entity e = targets.get(i);
-				itsCenter = e.getCenter();
-				double thisDistance = getDistanceSquared(myCenter, itsCenter);
-
-				if (thisDistance < shortestDistance)
-				{
-					punyTarget = e;
-					shortestDistance = thisDistance;
-				}
-			}
-			currentTarget = punyTarget;			
+			DistanceKernels.Coordinates c = DistanceKernels.buffer().loadCentres(targets);
+			currentTarget = targets.get(DistanceKernels.nearest(c, myCenter.x, myCenter.y));
 		}
 
 		return targetAcquired;
 	}
-
-	/** Calculates the square of the distance between two points. This
-	 * is used for a comparison of two distances, so comparing the squares
-	 * of the two distances are just as valid as the two distances. Computing
-	 * two unnecessary square roots would just be a waste of time. 
-	 * 
-	 * @param a 	the first point
-	 * @param b		the second point
-	 * @return the square of the distance between the two points
-	 */
-	private double getDistanceSquared (Point2D.Double a, Point2D.Double b)
-	{
-		return ((b.x - a.x) * (b.x - a.x)) + ((b.y - a.y) * (b.y - a.y));
-	}
 }
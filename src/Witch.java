@@ -15,6 +15,10 @@ public class Witch extends Entity
 {
 	private static final long serialVersionUID = 1L;
 
+	/** The colour of a witch.
+	 */
+	private static final Color COLOR = new Color(0, 0, 64);
+
 	/** Boolean representation of whether the witch is born.
 	 */
 	private boolean birth;
@@ -23,6 +27,15 @@ public class Witch extends Entity
 	 */
 	private int counter;
 
+	/** The Human that the witch is currently hunting. It is only chosen again
+	 * every few ticks, or when it is no longer in the witch's Spacetime.
+	 */
+	private transient Entity target;
+
+	/** Where the target was at the start of the current tick.
+	 */
+	private double targetX, targetY;
+
 	/** Constructor for a new Witch.
 	 * 
 	 * @param x		the x-coordinate of the witch
@@ -47,6 +60,39 @@ public class Witch extends Entity
 		counter = 100;
 	}
 
+	@Override
+	public int getCategories ()
+	{
+		return super.getCategories() | 1 << WITCH;
+	}
+
+	/** Witches are always on the hunt for Humans, so they never fall asleep.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canSleep ()
+	{
+		return false;
+	}
+
+	/** Chooses the Human to hunt this tick, once the witch has been born.
+	 */
+	@Override
+	public void plan ()
+	{
+		if (counter == 0)
+		{
+			if (target == null || target.grid != grid || grid.isRetargetDue(this))
+				target = grid.findNearest(this, Human.class, UNKISSED);
+			if (target != null)
+			{
+				targetX = target.x;
+				targetY = target.y;
+			}
+		}
+	}
+
 	/** Advances the witch in the simulation by one tick.
 	 * Overrides the advance() method in its parent class.
 	 */
@@ -55,8 +101,15 @@ public class Witch extends Entity
 		super.advance(); // translates, rotates, and applies friction
 		if(counter > 0)
 			counter--;
-		else			
-			move(grid.getEntities(Human.class));
+		else
+		{
+			if (grid.getTickStrategy() != Spacetime.CHECKERBOARD_TICK)
+				plan();
+			if (target != null)
+				moveTowards(targetX, targetY);
+			else
+				moveTowards(null);
+		}
 	}
 
 	/** Deals with collisions.
@@ -83,96 +136,63 @@ public class Witch extends Entity
 	 */
 	public int[] move (ArrayList<Entity> prey)
 	{
-		int[] direct = new int[2];
-		
-		if(prey.size() != 0)
-		{			
-			double[] distance = new double[prey.size()];
-			int closest = 0;
-			double a, b;
+		target = selectTarget(prey);
+		return moveTowards(target);
+	}
 
-			for(int i = 0; i < prey.size(); i ++)
-			{
-				distance[i] = Math.sqrt((x - prey.get(i).x) * (x - prey.get(i).x) + (y - prey.get(i).y) * (y - prey.get(i).y));
-			}
+	/** Chooses the prey that the witch should hunt, which is the closest
+	 * Human that has not been kissed yet.
+	 * 
+	 * @param prey		the entities that the witch can hunt
+	 * @return			the chosen prey, or null if there is none
+	 */
+	public Entity selectTarget (List<Entity> prey)
+	{
+		if(prey.size() == 0)
+			return null;
 
-			for(int i = 1; i < distance.length; i++)
-			{
-				Entity temp = prey.get(i);
-				if(distance[i] < distance[closest])
-				{
-					if (temp instanceof Human)
-					{
-						Human human = (Human) temp;
-
-						if (human.kissed != true)
-						{
-							closest = i;
-						}
-					}
-				}
-			}
+		DistanceKernels.Coordinates c = DistanceKernels.buffer().load(prey);
+		for(int i = 0; i < prey.size(); i++)
+		{
+			Entity temp = prey.get(i);
+			c.eligible[i] = temp instanceof Human && ((Human) temp).kissed != true;
+		}
 
-			a = prey.get(closest).x;
-			b = prey.get(closest).y;
-			
-			if(x - a > 0 && y - b > 0)
-			{
-				direct[0] = -1;
-				direct[1] = -1;
-			}
-			else if(x - a == 0 && y - b > 0)
-			{
-				direct[0] = 0;
-				direct[1] = -1;
-			}
-			else if(x - a < 0 && y - b > 0)
-			{
-				direct[0] = 1;
-				direct[1] = -1;
-			}
-			else if(x - a > 0 && y - b == 0)
-			{
-				direct[0] = -1;
-				direct[1] = 0;
-			}
-			else if(x - a == 0 && y - b == 0)
-			{
-				direct[0] = 0;
-				direct[1] = 0;
-			}
-			else if(x - a < 0 && y - b == 0)
-			{
-				direct[0] = 1;
-				direct[1] = 0;
-			}
-			else if(x - a > 0 && y - b < 0)
-			{
-				direct[0] = -1;
-				direct[1] = 1;
-			}
-			else if(x - a == 0 && y - b < 0)
-			{
-				direct[0] = 0;
-				direct[1] = 1;
-			}
-			else if(x - a < 0 && y - b < 0)
-			{
-				direct[0] = 1;
-				direct[1] = 1;
-			}
+		// The first one is the fallback, even if it has been kissed
+		return prey.get(DistanceKernels.nearest(c, x, y, true));
+	}
 
-			translate(direct[0], direct[1]);
+	/** Moves the witch one step towards its prey, in one of 8 directions,
+	 * or one step in a random direction if it has no prey.
+	 * 
+	 * @param prey		the entity that the witch is focussing on, or null
+	 * @return			the point in array form of the move
+	 */
+	public int[] moveTowards (Entity prey)
+	{
+		if(prey != null)
+			return moveTowards(prey.x, prey.y);
 
-			return direct;
-		}
-		else
-		{		
-			direct[0] = random(-1, 1);
-			direct[1] = random(-1, 1);
+		int[] direct = new int[2];
+		direct[0] = random(-1, 1);
+		direct[1] = random(-1, 1);
 
-			translate(direct[0], direct[1]);	
-		}
+		translate(direct[0], direct[1]);
+		return direct;
+	}
+
+	/** Moves one step towards the specified point, in one of 8 directions.
+	 * @param goalX		the x-coordinate to head for
+	 * @param goalY		the y-coordinate to head for
+	 * @return		the point in array form of the movement
+	 */
+	public int[] moveTowards (double goalX, double goalY)
+	{
+		int[] direct = new int[2];
+		direct[0] = (int) Math.signum(goalX - x);
+		direct[1] = (int) Math.signum(goalY - y);
+
+		translate(direct[0], direct[1]);
 		return direct;
 	}
 
@@ -185,7 +205,7 @@ public class Witch extends Entity
 	public int random (int min, int max)
 	{
 		double step1 = (Math.max(min, max) - Math.min(min, max));
-		double step2 = (Math.random() * step1);
+		double step2 = (getRandom().nextDouble() * step1);
 		double step3 = Math.min(min, max) + step2;
 
 		return (int) Math.round(step3);
@@ -196,9 +216,15 @@ public class Witch extends Entity
 	 */
 	public void draw (Graphics2D g)
 	{
-		g.setColor(new Color(0, 0, 64));
+		g.setColor(getColor());
 		g.fill(getShape());
 	}
+
+	@Override
+	public Color getColor ()
+	{
+		return COLOR;
+	}
 	
 	/** Represents a witch's death by turning it into a 
 	 * Grief Seed.
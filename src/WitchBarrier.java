@@ -1,7 +1,28 @@
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
 
-/** A currently unimplemented class that makes use of a Spacetime object
- * and two Portals to represent a witch labyrinth.
+/** A class that makes use of a Spacetime object and two Portals to represent
+ * a witch labyrinth, which is only kept in memory while it is in use.
+ * <p>
+ * Each WitchBarrier registers itself with its outside world, so that a Multiverse
+ * advancing the outside world advances the labyrinth as well, on its own thread.
+ * Since the labyrinth may be advancing at the same time as the outside world, the
+ * portals should only be set while no Spacetime is advancing.
+ * <p>
+ * A new WitchBarrier only keeps the seed and dimensions of its labyrinth. The
+ * labyrinth is materialized, or generated from them, when something first goes
+ * through the entrance, or when {@link #materialize()} is invoked. The barrier
+ * keeps track of the visitors that have gone in, and once every one of them has
+ * left or died, and the labyrinth has been quiet for {@code quietPeriod} ticks of
+ * the outside world, {@link #evictIfIdle()} throws the labyrinth away again, all
+ * but the Entities living in it and its incubator. When it is next materialized,
+ * its walls and terrain are regenerated from the same seed, and those Entities
+ * are put back into it just as they were left.
+ * 
+ * @see Multiverse
  * 
  * @author Jiayin Huang
  * @author Tony Cui
@@ -11,12 +32,17 @@ public class WitchBarrier implements Serializable
 {	
 	private static final long serialVersionUID = 1L;
 	
+	/** The default number of ticks that a labyrinth with no visitors is kept for.
+	 */
+	public static final int DEFAULT_QUIET_PERIOD = 600;
+
 	/** The Spacetime object representing the normal outside world. 
 	 */
 	protected Spacetime outside;
 	
 	/** The Spacetime object representing the witch's labyrinth. This should
-	 * be separate from the normal outside world. 
+	 * be separate from the normal outside world. This is null while the
+	 * labyrinth has not been generated.
 	 */
 	protected Spacetime labyrinth;
 	
@@ -28,6 +54,41 @@ public class WitchBarrier implements Serializable
 	 */
 	protected Portal exit;
 
+	/** The seed and dimensions that the labyrinth is generated from,
+	 * with the dimensions in units of TerrainTiles.
+	 */
+	private long seed;
+	private int width;
+	private int height;
+
+	/** The location and angle of the exit portal, kept so that the exit can
+	 * be put back every time the labyrinth is generated.
+	 */
+	private boolean hasExit = false;
+	private double exitX;
+	private double exitY;
+	private double exitTheta;
+
+	/** The Entities that have come in through the entrance and may still be
+	 * in the labyrinth.
+	 */
+	private HashSet<Entity> visitors = new HashSet<Entity>();
+
+	/** The number of ticks of the outside world that the labyrinth is kept
+	 * for after its last visitor has left. A negative value keeps it forever.
+	 */
+	private int quietPeriod = DEFAULT_QUIET_PERIOD;
+
+	/** The time of the outside world when the labyrinth last had a visitor.
+	 */
+	private long lastVisit;
+
+	/** The Entities that were living in the labyrinth, and its Incubator, when
+	 * it was last thrown away. The residents are null if it has never been.
+	 */
+	private ArrayList<Entity> residents;
+	private Incubator incubator;
+
 	/** Dimensions are in units of TerrainTiles.
 	 * 
 	 * @param outside				the Spacetime object representing the outside world	 *
@@ -35,21 +96,167 @@ public class WitchBarrier implements Serializable
 	 * @param height				the height of the witch's labyrinth
 	 */
 	public WitchBarrier(Spacetime outside, int width, int height) 
+	{
+		this (outside, width, height, new Random().nextLong());
+	}
+
+	/** Dimensions are in units of TerrainTiles. The labyrinth is always
+	 * generated from the specified seed.
+	 *
+	 * @param outside				the Spacetime object representing the outside world	 *
+	 * @param width					the width of the witch's labyrinth
+	 * @param height				the height of the witch's labyrinth
+	 * @param seed					the seed used to generate the witch's labyrinth
+	 */
+	public WitchBarrier(Spacetime outside, int width, int height, long seed)
 	{
 		this.outside = outside;		
-		
-		WorldGenerator labyrinthGenerator = new WorldGenerator ();		
-		labyrinthGenerator.setChunk(16);
-		//labyrinthGenerator.isWitchBarrier = true;
-		labyrinthGenerator.setWidth(width);
-		labyrinthGenerator.setHeight(height);
-		
-		labyrinth = labyrinthGenerator.generate();
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
 		
 		entrance = new Portal (0, 0, 50);
 		exit = new Portal (0, 0, 50);		
 		entrance.setTarget(exit);
 		exit.setTarget(entrance);
+		entrance.setBarrier(this);
+		exit.setBarrier(this);
+
+		outside.addBarrier(this);
+	}
+
+	/** Generates the witch's labyrinth from its seed, if it has not been generated
+	 * already, and puts the exit portal in it. If the labyrinth has been thrown
+	 * away before, only its walls and terrain are generated, and the Entities 
+	 * that were living in it are put back.
+	 *
+	 * @return the labyrinth of this WitchBarrier
+	 */
+	public synchronized Spacetime materialize ()
+	{
+		if (labyrinth == null)
+		{
+			WorldGenerator labyrinthGenerator = new WorldGenerator (seed);
+			labyrinthGenerator.setChunk(16);
+			//labyrinthGenerator.isWitchBarrier = true;
+			labyrinthGenerator.setWidth(width);
+			labyrinthGenerator.setHeight(height);
+			if (residents != null)
+			{
+				labyrinthGenerator.setHumanPopulation(0);
+				labyrinthGenerator.setPuellaPopulation(0);
+				labyrinthGenerator.setWitchPopulation(0);
+				labyrinthGenerator.setHasWalpurgisnacht(false);
+				labyrinthGenerator.setHasIncubator(false);
+			}
+
+			labyrinth = labyrinthGenerator.generate();
+			lastVisit = outside.getTime();
+
+			if (residents != null)
+			{
+				labyrinth.addEntities(residents, Spacetime.ENTITIES);
+				labyrinth.incubator = incubator;
+				residents = null;
+				incubator = null;
+			}
+
+			if (hasExit)
+				placeExit();
+		}
+		return labyrinth;
+	}
+
+	/** Throws away the witch's labyrinth, leaving only its seed and the Entities
+	 * living in it, if it has no visitors left in it, has been quiet for long 
+	 * enough, and has nothing waiting for its next tick. This should only be 
+	 * invoked while no Spacetime is advancing.
+	 *
+	 * @return true if the labyrinth was thrown away; false otherwise
+	 */
+	public synchronized boolean evictIfIdle ()
+	{
+		if (labyrinth == null || quietPeriod < 0)
+			return false;
+
+		// Forget the visitors that have left or died
+
+		Iterator<Entity> it = visitors.iterator();
+		while (it.hasNext())
+			if (it.next().grid != labyrinth)
+				it.remove();
+
+		if (!visitors.isEmpty())
+		{
+			lastVisit = outside.getTime();
+			return false;
+		}
+
+		if (outside.getTime() - lastVisit < quietPeriod || !labyrinth.isSettled())
+			return false;
+
+		// Keep everything that lives in the labyrinth; the walls and the exit are put back anyway
+
+		labyrinth.removeEntity(exit);
+		residents = new ArrayList<Entity>();
+		for (Entity e : labyrinth.getEntities(Entity.class))
+		{
+			if (!(e instanceof Wall))
+			{
+				e.grid = null; // so that the old labyrinth can be let go of
+				residents.add(e);
+			}
+		}
+		incubator = labyrinth.incubator;
+		labyrinth = null;
+		return true;
+	}
+
+	/** Invoked by the entrance and exit portals whenever an Entity goes through
+	 * one of them. Generates the labyrinth if something is about to enter it.
+	 *
+	 * @param portal		the Portal that the Entity went through
+	 * @param e				the Entity going through the Portal
+	 */
+	public synchronized void notifyTransfer (Portal portal, Entity e)
+	{
+		if (portal == entrance)
+		{
+			materialize();
+			visitors.add(e);
+		}
+		else
+			visitors.remove(e);
+
+		lastVisit = outside.getTime();
+	}
+
+	/** Returns the Spacetime object representing the witch's labyrinth.
+	 *
+	 * @return the labyrinth of this WitchBarrier, or null if it has not been generated
+	 */
+	public synchronized Spacetime getLabyrinth ()
+	{
+		return labyrinth;
+	}
+
+	/** Returns the Spacetime object representing the normal outside world.
+	 *
+	 * @return the outside world of this WitchBarrier
+	 */
+	public Spacetime getOutside ()
+	{
+		return outside;
+	}
+
+	/** Sets the number of ticks of the outside world that the labyrinth is kept
+	 * for after its last visitor has left.
+	 *
+	 * @param ticks		the quiet period, or a negative value to never throw the labyrinth away
+	 */
+	public void setQuietPeriod (int ticks)
+	{
+		quietPeriod = ticks;
 	}
 	
 	/** Sets the location of the entrance portal that leads into this WitchBarrier. 
@@ -67,16 +274,32 @@ public class WitchBarrier implements Serializable
 	}
 	
 	/** Sets the location of the exit portal that leads out to the outside world.
-	 * This portal is set inside of the witch labyrinth.
+	 * This portal is set inside of the witch labyrinth, once it is generated.
 	 * 
 	 * @param x			the desired x-coordinate of the exit portal
 	 * @param y			the desired y-coordinate of the exit portal
 	 * @param theta		the desired angle of the exit portal
 	 */
-	public void setExit (double x, double y, double theta)
+	public synchronized void setExit (double x, double y, double theta)
+	{
+		hasExit = true;
+		exitX = x;
+		exitY = y;
+		exitTheta = theta;
+
+		if (labyrinth != null)
+		{
+			labyrinth.removeEntity(exit);
+			placeExit();
+		}
+	}
+
+	/** Puts the exit portal into the labyrinth at its set location.
+	 */
+	private void placeExit ()
 	{
 		labyrinth.addEntity(exit);
-		exit.setAngle (theta);
-		exit.setLocation(x, y);		
+		exit.setAngle (exitTheta);
+		exit.setLocation(exitX, exitY);
 	}
 }
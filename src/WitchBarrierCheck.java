@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A program that checks that a WitchBarrier keeps the Entities living in its
+ * labyrinth when the labyrinth is thrown away.
+ * <p>
+ * A Human is sent through the entrance of a WitchBarrier in an empty outside
+ * world, which generates the labyrinth, and back out through the exit. The
+ * outside world is then advanced through a Multiverse until the labyrinth has
+ * been quiet for long enough to be thrown away. A second Human is sent through
+ * the entrance, and the regenerated labyrinth must hold the same Entities, in
+ * the same places, as the labyrinth did when it was thrown away, with the same
+ * Incubator.
+ * <p>
+ * Prints every step, and exits with a status of 1 if any check fails.
+ *
+ * @see WitchBarrier#evictIfIdle()
+ *
+ * @author Jiayin Huang
+ * @author Sally Hui
+ * @author Tony Cui
+ */
+public class WitchBarrierCheck
+{
+	/** The number of ticks that the labyrinth is kept for after its visitor leaves.
+	 */
+	private static final int QUIET_PERIOD = 10;
+
+	/** Whether every check so far has passed.
+	 */
+	private static boolean passed = true;
+
+	/** Prints the outcome of a check.
+	 *
+	 * @param description		what was checked
+	 * @param ok				true if the check passed
+	 */
+	private static void check (String description, boolean ok)
+	{
+		System.out.println((ok ? "ok:     " : "FAILED: ") + description);
+		passed &= ok;
+	}
+
+	/** Describes the Entities living in the specified labyrinth: the class and
+	 * location of every Entity in it other than its Walls and the exit portal,
+	 * sorted so that the order in which they are stored does not matter.
+	 *
+	 * @param labyrinth		the labyrinth
+	 * @param exit			the exit portal of the labyrinth
+	 * @return the descriptions of the Entities
+	 */
+	private static List<String> describe (Spacetime labyrinth, Portal exit)
+	{
+		List<String> residents = new ArrayList<String>();
+		for (Entity e : labyrinth.getEntities(Entity.class))
+			if (!(e instanceof Wall) && e != exit)
+				residents.add(e.getClass().getName() + "@" + e.x + "," + e.y);
+		Collections.sort(residents);
+		return residents;
+	}
+
+	/** Runs the checks.
+	 *
+	 * @param args		not used
+	 */
+	public static void main (String[] args)
+	{
+		WorldGenerator wg = new WorldGenerator (42);
+		wg.setWidth(8);
+		wg.setHeight(8);
+		wg.setHumanPopulation(0);
+		wg.setPuellaPopulation(0);
+		wg.setWitchPopulation(0);
+		wg.setHasIncubator(false);
+		Spacetime outside = wg.generate();
+		Multiverse multiverse = new Multiverse (outside, 1);
+
+		WitchBarrier barrier = new WitchBarrier (outside, 20, 20, 7);
+		barrier.setQuietPeriod(QUIET_PERIOD);
+		barrier.setEntrance(200, 200, 0);
+		barrier.setExit(100, 100, 0);
+		Portal entrance = barrier.entrance;
+		Portal exit = barrier.exit;
+		check ("the labyrinth is not generated before anything enters", barrier.getLabyrinth() == null);
+
+		// In through the entrance, and out through the exit
+
+		Human visitor = new Human (400, 400);
+		outside.addEntity(visitor);
+		entrance.notifyCollision(visitor);
+		multiverse.advance();
+		Spacetime labyrinth = barrier.getLabyrinth();
+		check ("the labyrinth is generated when something enters", labyrinth != null);
+		check ("the visitor arrives in the labyrinth", labyrinth != null && visitor.grid == labyrinth);
+
+		exit.notifyCollision(visitor);
+		multiverse.advance();
+		check ("the visitor leaves through the exit", visitor.grid == outside);
+
+		// Wait for the labyrinth to be thrown away
+
+		int ticks = 0;
+		while (barrier.getLabyrinth() != null && ticks < 10 * QUIET_PERIOD)
+		{
+			multiverse.advance();
+			ticks++;
+		}
+		check ("the labyrinth is thrown away once it has been quiet (after " + ticks + " ticks)",
+				barrier.getLabyrinth() == null);
+		List<String> before = describe (labyrinth, exit);
+		Incubator incubator = labyrinth.incubator;
+
+		// Go back in, and find everything where it was left
+
+		Human second = new Human (400, 400);
+		outside.addEntity(second);
+		entrance.notifyCollision(second);
+		Spacetime regenerated = barrier.getLabyrinth();
+		check ("the labyrinth is generated again when something enters", regenerated != null && regenerated != labyrinth);
+		if (regenerated != null)
+		{
+			List<String> after = describe (regenerated, exit);
+			check ("the " + before.size() + " Entities living in the labyrinth are kept", !before.isEmpty() && before.equals(after));
+			check ("the Incubator of the labyrinth is kept", regenerated.incubator == incubator);
+			check ("the exit is put back", exit.grid == regenerated);
+		}
+		multiverse.advance();
+		check ("the second visitor arrives in the labyrinth", second.grid != null && second.grid == regenerated);
+
+		multiverse.shutdown();
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+}
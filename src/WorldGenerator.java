@@ -1,8 +1,24 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /** A class used to generate a new Spacetime object.
  * Prior to generation, field variables can be altered
  * to customize the initial conditions.
+ * <p>
+ * Each population is created in chunks of {@code GENERATION_CHUNK} Entities, 
+ * in parallel. Every chunk has its own random number generator, seeded from 
+ * the seed of its population and its position, so the same seed always 
+ * generates the same world no matter how many threads there are. The chunks 
+ * are placed into the Spacetime in order while the chunks after them are still
+ * being created, and each population is then loaded into the QuadTree at once. 
+ * A ProgressListener can follow the placement and stop the generation part way 
+ * through.
  * 
  * @author Jiayin Huang
  * @author Tony Cui
@@ -10,6 +26,37 @@ import java.util.Random;
  */
 public class WorldGenerator 
 {
+	/** The number of Entities of a population that are created together,
+	 * with one random number generator.
+	 */
+	public static final int GENERATION_CHUNK = 4096;
+
+	/** Receives the progress of a WorldGenerator while it is generating.
+	 */
+	public interface ProgressListener
+	{
+		/** Invoked after each chunk of Entities has been placed, on the 
+		 * thread that is generating.
+		 *
+		 * @param done		the number of Entities placed so far
+		 * @param total		the number of Entities to be placed
+		 * @return true to go on generating; false to stop
+		 */
+		public boolean progress (int done, int total);
+	}
+
+	/** Creates one Entity of a population.
+	 */
+	private interface Spawner
+	{
+		/** Creates one Entity, using only the specified random number generator.
+		 * 
+		 * @param random		the random number generator of the chunk
+		 * @return the new Entity
+		 */
+		public Entity create (Random random);
+	}
+
 	/** The size of the TERRAIN tiles. 
 	 */
 	private int chunk = 128;
@@ -64,6 +111,15 @@ public class WorldGenerator
 	 */
 	public Random randomNumberGenerator; 
 
+	/** The listener that is told of the progress of the generation, if any.
+	 */
+	private ProgressListener progressListener;
+
+	/** The number of Entities placed so far and in total, during a generation.
+	 */
+	private int placed;
+	private int total;
+
 	/** Constructs a new WorldGenerator object using
 	 * a random number.
 	 */
@@ -92,9 +148,14 @@ public class WorldGenerator
 	/** Populates the specified Spacetime object.
 	 * 
 	 * @param grid		the specified Spacetime
+	 * @throws CancellationException if the ProgressListener stops the generation,
+	 * 		or the thread is interrupted
 	 */
 	public void generate (Spacetime grid)
 	{				
+		placed = 0;
+		total = humanPopulation + puellaPopulation + witchPopulation;
+
 		// generate entities and terrain
 		generateWalls (grid);
 		generateTiles (grid);
@@ -122,14 +183,16 @@ public class WorldGenerator
 	 */
 	private void generateTiles (Spacetime grid)
 	{
+		List<Entity> tiles = new ArrayList<Entity>(width * height);
 		for (int x = 0; x < width; x++) 
 		{
 			for (int y = 0; y < height; y++)
 			{
 				TerrainTile tile = new GrassTile (x * chunk, y * chunk, chunk, chunk);				
-				grid.addEntity (tile, Spacetime.TERRAIN);
+				tiles.add(tile);
 			}				
 		}
+		grid.addEntities (tiles, Spacetime.TERRAIN);
 	}
 	
 	/** Generates humans within the specified area
@@ -139,24 +202,26 @@ public class WorldGenerator
 	private void generateHumans (Spacetime grid)	
 	{
 		// calculate area
-		double xRange = width * chunk * Math.abs(humanSpawnMaxX - humanSpawnMinX);
-		double yRange = height * chunk * Math.abs(humanSpawnMaxY - humanSpawnMinY);
-		double xOffset = humanSpawnMinX * width * chunk;
-		double yOffset = humanSpawnMinY * width * chunk;
+		final double xRange = width * chunk * Math.abs(humanSpawnMaxX - humanSpawnMinX);
+		final double yRange = height * chunk * Math.abs(humanSpawnMaxY - humanSpawnMinY);
+		final double xOffset = humanSpawnMinX * width * chunk;
+		final double yOffset = humanSpawnMinY * width * chunk;
 		
 		// calculate age allowance for humans
-		int ageRange = humanMaxAge - humanMinAge;
+		final int ageRange = humanMaxAge - humanMinAge;
 		
-		for (int i = 0; i < humanPopulation; i++)
+		spawnPopulation (grid, humanPopulation, new Spawner()
 		{
-			double x = xRange * Math.random() + xOffset;
-			double y = yRange * Math.random() + yOffset;
-			int age = (int)(ageRange * Math.random() + humanMinAge);
-			Human human = new Human (x, y);
-			human.age = age;
-			grid.addEntity(human);
-			grid.ensureNoCollision(human);
-		}	
+			public Entity create (Random random)
+			{
+				double x = xRange * random.nextDouble() + xOffset;
+				double y = yRange * random.nextDouble() + yOffset;
+				int age = (int)(ageRange * random.nextDouble() + humanMinAge);
+				Human human = new Human (x, y, random);
+				human.age = age;
+				return human;
+			}
+		});
 	}
 	
 	/** Generates magical girls within the specified area.
@@ -166,19 +231,20 @@ public class WorldGenerator
 	private void generatePuella (Spacetime grid)
 	{
 		// calculate the area to be populated
-		double xRange = width * chunk * Math.abs(puellaSpawnMaxX - puellaSpawnMinX);
-		double yRange = height * chunk * Math.abs(puellaSpawnMaxY - puellaSpawnMinY);
-		double xOffset = puellaSpawnMinX * width * chunk;
-		double yOffset = puellaSpawnMinY * width * chunk;		
+		final double xRange = width * chunk * Math.abs(puellaSpawnMaxX - puellaSpawnMinX);
+		final double yRange = height * chunk * Math.abs(puellaSpawnMaxY - puellaSpawnMinY);
+		final double xOffset = puellaSpawnMinX * width * chunk;
+		final double yOffset = puellaSpawnMinY * width * chunk;		
 		
-		for(int i = 0; i < puellaPopulation; i++)
+		spawnPopulation (grid, puellaPopulation, new Spawner()
 		{
-			double x = xRange * Math.random() + xOffset;
-			double y = yRange * Math.random() + yOffset;
-			Puella hero = new Puella (x, y);
-			grid.addEntity(hero);
-			grid.ensureNoCollision(hero);
-		}
+			public Entity create (Random random)
+			{
+				double x = xRange * random.nextDouble() + xOffset;
+				double y = yRange * random.nextDouble() + yOffset;
+				return new Puella (x, y);
+			}
+		});
 	}
 	
 	/** Generates witches within the specified area.
@@ -188,18 +254,91 @@ public class WorldGenerator
 	private void generateWitches (Spacetime grid)
 	{
 		// calculate the area to be populated
-		double xRange = width * chunk * Math.abs(witchSpawnMaxX - witchSpawnMinX);
-		double yRange = height * chunk * Math.abs(witchSpawnMaxY - witchSpawnMinY);
-		double xOffset = witchSpawnMinX * width * chunk;
-		double yOffset = witchSpawnMinY * width * chunk;		
+		final double xRange = width * chunk * Math.abs(witchSpawnMaxX - witchSpawnMinX);
+		final double yRange = height * chunk * Math.abs(witchSpawnMaxY - witchSpawnMinY);
+		final double xOffset = witchSpawnMinX * width * chunk;
+		final double yOffset = witchSpawnMinY * width * chunk;		
 		
-		for(int i = 0; i < witchPopulation; i++)
+		spawnPopulation (grid, witchPopulation, new Spawner()
+		{
+			public Entity create (Random random)
+			{
+				double x = xRange * random.nextDouble() + xOffset;
+				double y = yRange * random.nextDouble() + yOffset;
+				return new Witch (x, y);
+			}
+		});
+	}
+
+	/** Creates the specified number of Entities in parallel chunks, places the
+	 * chunks into the specified Spacetime one at a time, in order, and then adds
+	 * them all at once.
+	 * 
+	 * @param grid			the Spacetime object to be populated
+	 * @param population	the number of Entities to create
+	 * @param spawner		creates each Entity
+	 * @throws CancellationException if the ProgressListener stops the generation,
+	 * 		or the thread is interrupted
+	 */
+	private void spawnPopulation (Spacetime grid, final int population, final Spawner spawner)
+	{
+		// Every chunk gets its own seed, so that it does not matter which thread creates it
+
+		long seed = randomNumberGenerator.nextLong();
+		List<Future<List<Entity>>> chunks = new ArrayList<Future<List<Entity>>>();
+		for (int first = 0; first < population; first += GENERATION_CHUNK)
 		{
-			double x = xRange * Math.random() + xOffset;
-			double y = yRange * Math.random() + yOffset;
-			Witch witch = new Witch (x, y);
-			grid.addEntity(witch);
-			grid.ensureNoCollision(witch);
+			final int start = first;
+			final int end = Math.min(population, first + GENERATION_CHUNK);
+			final long chunkSeed = seed ^ (first / GENERATION_CHUNK) * 0x9E3779B97F4A7C15L;
+			chunks.add(ForkJoinPool.commonPool().submit(new Callable<List<Entity>>()
+			{
+				public List<Entity> call ()
+				{
+					Random random = new Random (chunkSeed);
+					List<Entity> entities = new ArrayList<Entity>(end - start);
+					for (int i = start; i < end; i++)
+						entities.add(spawner.create(random));
+					return entities;
+				}
+			}));
+		}
+
+		// Place the chunks one at a time, but load them into the QuadTree all at once
+
+		List<Entity> spawned = new ArrayList<Entity>(population);
+		List<Entity> unplaced = new ArrayList<Entity>();
+		try
+		{
+			for (Future<List<Entity>> chunk : chunks)
+			{
+				List<Entity> entities = chunk.get();
+				grid.placeAll(entities, spawned, unplaced);
+
+				placed += entities.size();
+				if (progressListener != null && !progressListener.progress(placed, total))
+					throw new CancellationException ("World generation was stopped");
+			}
+			grid.addPlaced(spawned, unplaced);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException ("World generation was interrupted");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			for (Future<List<Entity>> chunk : chunks)
+				chunk.cancel(false);
 		}
 	}
 
@@ -222,6 +361,16 @@ public class WorldGenerator
 		grid.addEntity(right);			
 	}	
 	
+	/** Sets the listener that is told of the progress of every generation,
+	 * and that can stop it.
+	 * 
+	 * @param listener		the new listener, or null for none
+	 */
+	public void setProgressListener (ProgressListener listener)
+	{
+		progressListener = listener;
+	}
+
 	/** Setter method for chunk
 	 * @param newChunk			the new chunk value
 	 */
@@ -373,6 +522,15 @@ public class WorldGenerator
 		hasWalpurgisnacht = hasWP;
 	}
 	
+	/**	Setter method for existence of the Incubator
+	 * 
+	 * @param hasKyu		if there is an Incubator
+	 */
+	public void setHasIncubator (boolean hasKyu)
+	{
+		hasIncubator = hasKyu;
+	}
+	
 	/** Setter method for witch population
 	 * 
 	 * @param newPop		new witch population value